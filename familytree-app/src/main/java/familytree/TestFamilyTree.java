@@ -31,6 +31,10 @@ import java.io.*;
 public class TestFamilyTree {
 
     FamilyTree fTree1;
+    //the one Scanner on the console. Every prompt reads from it, since a
+    //Scanner reads ahead, and a new one for each prompt would lose whatever
+    //the last one had buffered (and makes garbage on every prompt).
+    private final Scanner scan;
 
     /**
      * Instantiates a FamilyTree
@@ -39,6 +43,7 @@ public class TestFamilyTree {
      */
     TestFamilyTree() {
         fTree1 = new FamilyTree();
+        scan = new Scanner(System.in);
     }
 
     /**
@@ -47,7 +52,6 @@ public class TestFamilyTree {
      * @return    the string that has been input.
      */
     public String getPersonName() {
-        Scanner scan = new Scanner(System.in);
         String personName;
         System.out.print("Enter - name: ");
         personName = scan.nextLine();
@@ -55,7 +59,6 @@ public class TestFamilyTree {
     }
 
     public String getDateOfBirth() {
-        Scanner scan = new Scanner(System.in);
         String dateOfBirth;
         System.out.print("Enter - date of birth: ");
         dateOfBirth = scan.nextLine();
@@ -63,7 +66,6 @@ public class TestFamilyTree {
     }
 
     public int getNumberOfGens() {
-        Scanner scan = new Scanner(System.in);
         int numOfGens;
         System.out.print("Now enter - number of Generations required : ");
         numOfGens = scan.nextInt();
@@ -79,9 +81,8 @@ public class TestFamilyTree {
      * @see       FamilyTree
      */
     private void processInput() {
-        Scanner scan = new Scanner(System.in);
-        String selection, personName, place, dOB, fDOB, mDOB, gDOB,
-                mothersName, fathersName, bridesName, groomsName;
+        String selection, personName, place, dOB, fDOB, mDOB, gDOB, pDOB,
+                mothersName, fathersName, bridesName, groomsName, parentsName;
         char iChoice;
 
         do {
@@ -186,6 +187,35 @@ public class TestFamilyTree {
                     fTree1.recordAdoption(personName, dOB);
                     System.out.println(personName + " " + dOB + " listed as adopted.");
                     break;
+                case 'G':
+                    System.out.println("Enter - name and DOB of person to remove: ");
+                    System.out.print("Person name: ");
+                    personName = scan.nextLine();
+                    System.out.print("Person date of birth: ");
+                    dOB = scan.nextLine();
+                    if(fTree1.removePerson(personName, dOB) != false) {
+                        System.out.println(personName + " " + dOB + " removed from the tree.");
+                    } else {
+                        System.out.println(personName + " " + dOB + " isn't in the tree.");
+                    }
+                    break;
+                case 'H':
+                    System.out.println("Enter - name, DOB, parent's name and DOB: ");
+                    System.out.print("Person name: ");
+                    personName = scan.nextLine();
+                    System.out.print("Person date of birth: ");
+                    dOB = scan.nextLine();
+                    System.out.print("Parent's name: ");
+                    parentsName = scan.nextLine();
+                    System.out.print("Parent's date of birth: ");
+                    pDOB = scan.nextLine();
+                    if(fTree1.removeLinkToParent(personName, dOB, parentsName, pDOB) != false) {
+                        System.out.println("Parent link removed.");
+                    } else {
+                        System.out.println("Removing the link failed. Do both people "
+                                + "exist, and is the second a parent of the first?");
+                    }
+                    break;
                 default:
                     System.out.println("\nInvalid input choice. Try again\n"); //do nothing
             }
@@ -204,7 +234,6 @@ public class TestFamilyTree {
      * @see       FamilyTree
      */
     private void processQuery() {
-        Scanner scan = new Scanner(System.in);
         String selection;
         char qChoice;
 
@@ -247,6 +276,14 @@ public class TestFamilyTree {
                 case 'U':
                     System.out.println(fTree1.listGreatNGrandChildren(this.getPersonName(), this.getDateOfBirth(), this.getNumberOfGens()));
                     break;
+                case 'V':
+                    System.out.println("Enter - the first person, then the second:");
+                    System.out.println(fTree1.listRelationshipPath(this.getPersonName(), this.getDateOfBirth(),
+                            this.getPersonName(), this.getDateOfBirth(), FamilyTree.DEFAULT_PATH_LINKS));
+                    break;
+                case 'W':
+                    System.out.println(fTree1.listKinCounts(this.getPersonName(), this.getDateOfBirth()));
+                    break;
             }
             queryMenu();
             do {
@@ -282,11 +319,13 @@ public class TestFamilyTree {
         System.out.println("C\tMake link to father");
         System.out.println("D\tRecord wedding");
         System.out.println("E\tRecord divorce");
-        System.out.println("F\tRecord adoption\n");
+        System.out.println("F\tRecord adoption");
+        System.out.println("G\tRemove a person from the family tree");
+        System.out.println("H\tRemove link to parent\n");
 
         System.out.println("X\tEXIT INPUT\n");
 
-        System.out.print("Enter menu choice A-F, X: ");
+        System.out.print("Enter menu choice A-H, X: ");
     }
 
     /**
@@ -304,11 +343,13 @@ public class TestFamilyTree {
         System.out.println("R\tList all grandchildren");
         System.out.println("S\tList all cousins");
         System.out.println("T\tList all great great… (repeated N times) grandparents");
-        System.out.println("U\tList all great great… (repeated N times) grandchildren\n");
+        System.out.println("U\tList all great great… (repeated N times) grandchildren");
+        System.out.println("V\tShow the links between two people");
+        System.out.println("W\tCount ancestors and descendants\n");
 
         System.out.println("X\tEXIT QUERY\n");
 
-        System.out.print("Enter menu choice K-U, X: ");
+        System.out.print("Enter menu choice K-W, X: ");
     }
 
     /**
@@ -322,15 +363,11 @@ public class TestFamilyTree {
      */
     private void loadData() throws IOException {
 
-        Scanner pFile, fFile, mFile, lineScan;
-        String entry, name, dOB, place, fName, fDOB, mName, mDOB;
+        Scanner pFile, lineScan;
+        String entry, name, dOB, place;
         name = null;
         dOB = null;
         place = null;
-        fName = null;
-        fDOB = null;
-        mName = null;
-        mDOB = null;
 
         // read file person.txt and create new instance of person for each one 
         pFile = new Scanner(new File("person.txt"));
@@ -351,44 +388,15 @@ public class TestFamilyTree {
                 }
             }
         }
-        // read file fathers.txt Foreach create father link
-        fFile = new Scanner(new File("fathers.txt"));
-        while (fFile.hasNext()) {
-            entry = fFile.nextLine();
-            lineScan = new Scanner(entry);
-            while (lineScan.hasNext()) {
-                name = lineScan.next();
-                dOB = lineScan.next();
-                fName = lineScan.next();
-                fDOB = lineScan.next();
-            }
-            if ((name != null) && (dOB != null) && (fName != null) && (fDOB != null)) {
-                if (fTree1.makeLinkToFather(name, dOB, fName, fDOB) != false) {
-                    System.out.println(name + " " + dOB + " " + fName + " " + fDOB + " Father Added");
-                } else {
-                    System.out.println("Father link failed. Either the link already exists, or " + name + " already has a father.");
-                }
-            }
-        }
-
-        // read file mothers.txt Foreach create mother link        
-        mFile = new Scanner(new File("mothers.txt"));
-        while (mFile.hasNext()) {
-            entry = mFile.nextLine();
-            lineScan = new Scanner(entry);
-            while (lineScan.hasNext()) {
-                name = lineScan.next();
-                dOB = lineScan.next();
-                mName = lineScan.next();
-                mDOB = lineScan.next();
-            }
-            if ((name != null) && (dOB != null) && (mName != null) && (mDOB != null)) {
-                if (fTree1.makeLinkToMother(name, dOB, mName, mDOB) != false) {
-                    System.out.println(name + " " + dOB + " " + mName + " " + mDOB + " Mother Added");
-                } else {
-                    System.out.println("Mother link failed. Either the link already exists, or " + name + " already has a father.");
-                }
-            }
+        // read fathers.txt and mothers.txt in one bulk load, which parses the
+        // files in parallel and builds each node's links in one go.
+        FamilyTreeLoader.Report report = new FamilyTreeLoader(fTree1).loadLinks(
+                new File("fathers.txt"), new File("mothers.txt"));
+        System.out.println(report.fathersAdded + " father links added.");
+        System.out.println(report.mothersAdded + " mother links added.");
+        for (String rejected : report.rejected) {
+            System.out.println("Link failed: " + rejected.trim() + ". Either one of the people "
+                    + "isn't in the tree, the link already exists, or the person already has that parent.");
         }
     }
 
@@ -399,7 +407,7 @@ public class TestFamilyTree {
      */
     public static void main(String[] args) throws IOException {
         TestFamilyTree tFT = new TestFamilyTree();
-        Scanner scan = new Scanner(System.in);
+        Scanner scan = tFT.scan;
         char mChoice;
         String selection;
 
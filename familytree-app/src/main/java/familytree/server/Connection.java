@@ -0,0 +1,150 @@
+package familytree.server;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.LinkedList;
+
+/**
+ * One client connection: the bytes read from it that haven't been made into
+ * requests yet, and the responses it's waiting for, in request order. Only
+ * the server's event loop touches it.
+ *
+ * @author Andrew Brown
+ */
+final class Connection {
+
+    //a request's line and headers can't be bigger than this.
+    static final int MAX_HEAD = 16 * 1024;
+    //a request's body can't be bigger than this.
+    static final int MAX_BODY = 64 * 1024;
+
+    final SocketChannel channel;
+    final SelectionKey key;
+    //responses not sent yet, oldest first.
+    final LinkedList<Response> pending = new LinkedList<Response>();
+    //bytes read but not parsed yet, in write mode.
+    ByteBuffer in = ByteBuffer.allocate(4096);
+    //the client has closed its side.
+    boolean endOfInput;
+    //stop reading requests from this connection; it's closed once the last
+    //response has gone.
+    boolean closing;
+
+    Connection(SocketChannel channel, SelectionKey key) {
+        this.channel = channel;
+        this.key = key;
+    }
+
+    /**
+     * Makes room for at least one more byte in the input buffer, growing it
+     * up to the biggest request allowed.
+     */
+    void makeRoom() {
+        if (!in.hasRemaining() && in.capacity() < MAX_HEAD + MAX_BODY) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.min(in.capacity() * 2, MAX_HEAD + MAX_BODY));
+            in.flip();
+            grown.put(in);
+            in = grown;
+        }
+    }
+
+    /**
+     * Takes the next complete request out of the input buffer. Returns null
+     * if there isn't a complete one yet.
+     *
+     * @return
+     * @throws BadRequest if the request can't be read.
+     */
+    Request nextRequest() throws BadRequest {
+        int length = in.position();
+        int headEnd = -1;
+        for (int i = 3; i < length; i++) {
+            if (in.get(i) == '\n' && in.get(i - 1) == '\r' && in.get(i - 2) == '\n' && in.get(i - 3) == '\r') {
+                headEnd = i + 1;
+                break;
+            }
+        }
+        if (headEnd == -1) {
+            if (length >= MAX_HEAD) {
+                throw new BadRequest(431, "The request headers are too large.");
+            }
+            return null;
+        }
+        String[] lines = text(0, headEnd - 4).split("\r\n");
+        String[] requestLine = lines[0].split(" ");
+        if (requestLine.length != 3 || !requestLine[2].startsWith("HTTP/1.")) {
+            throw new BadRequest(400, "Malformed request line.");
+        }
+        boolean http11 = !requestLine[2].equals("HTTP/1.0");
+        boolean keepAlive = http11;
+        int contentLength = 0;
+        for (int i = 1; i < lines.length; i++) {
+            int colon = lines[i].indexOf(':');
+            if (colon <= 0) {
+                throw new BadRequest(400, "Malformed header.");
+            }
+            String header = lines[i].substring(0, colon).trim().toLowerCase();
+            String value = lines[i].substring(colon + 1).trim();
+            if (header.equals("content-length")) {
+                try {
+                    contentLength = Integer.parseInt(value);
+                } catch (NumberFormatException e) {
+                    throw new BadRequest(400, "Malformed Content-Length.");
+                }
+                if (contentLength < 0) {
+                    throw new BadRequest(400, "Malformed Content-Length.");
+                }
+            } else if (header.equals("transfer-encoding")) {
+                throw new BadRequest(400, "Chunked request bodies aren't supported.");
+            } else if (header.equals("connection")) {
+                if (value.equalsIgnoreCase("close")) {
+                    keepAlive = false;
+                } else if (value.equalsIgnoreCase("keep-alive")) {
+                    keepAlive = true;
+                }
+            }
+        }
+        if (contentLength > MAX_BODY) {
+            throw new BadRequest(413, "The request body is too large.");
+        }
+        if (length < headEnd + contentLength) {
+            return null;
+        }
+        Request request = new Request(requestLine[0], requestLine[1], keepAlive, http11);
+        if (contentLength > 0) {
+            request.addParams(text(headEnd, headEnd + contentLength));
+        }
+        //drop the request from the buffer.
+        in.flip();
+        in.position(headEnd + contentLength);
+        in.compact();
+        return request;
+    }
+
+    private String text(int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for (int i = from; i < to; i++) {
+            bytes[i - from] = in.get(i);
+        }
+        try {
+            return new String(bytes, "ISO-8859-1");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * A request that can't be answered, with the status to answer it with.
+     */
+    static final class BadRequest extends Exception {
+
+        final int status;
+
+        BadRequest(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+}
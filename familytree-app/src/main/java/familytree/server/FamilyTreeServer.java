@@ -0,0 +1,362 @@
+package familytree.server;
+
+import familytree.FamilyTree;
+import familytree.FamilyTreeLoader;
+import familytree.Person;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.Scanner;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * An HTTP/JSON front end for a FamilyTree, so it can be run as a service
+ * rather than from TestFamilyTree's console menus. See QueryRouter for the
+ * paths it answers.
+ *
+ * One thread runs an NIO event loop, which does all the reading and writing
+ * for every connection without ever blocking on one. Requests are handed to
+ * a pool of workers, which run the FamilyTree methods and fill in the
+ * responses; the event loop writes each one as soon as it, and every
+ * response before it on the same connection, is ready. So:
+ * <ul>
+ * <li>connections are kept alive between requests (HTTP/1.1, or HTTP/1.0
+ * with "Connection: keep-alive"),</li>
+ * <li>a client can pipeline requests, sending more before the answers come
+ * back, and the answers come back in order; the server stops reading from a
+ * connection that has MAX_PIPELINED requests waiting, until it catches up,</li>
+ * <li>a response is only written as fast as the client reads it, and /people
+ * is streamed, made a piece at a time as the client takes it.</li>
+ * </ul>
+ *
+ * Run with
+ * mvn -pl familytree-app exec:java@server -Dexec.args="[port] [data directory]"
+ * where the data directory holds person.txt, fathers.txt and mothers.txt, as
+ * TestFamilyTree loads them. Then try e.g.
+ * curl 'http://localhost:8080/siblings?name=Edward&amp;dob=1891'
+ *
+ * @author Andrew Brown
+ */
+public class FamilyTreeServer {
+
+    //requests one connection can have waiting before the server stops
+    //reading from it.
+    static final int MAX_PIPELINED = 64;
+
+    private final QueryRouter router;
+    private final ExecutorService workers;
+    private final Selector selector;
+    private final ServerSocketChannel server;
+    //connections that a worker has finished a response for.
+    private final Queue<Connection> completed = new ConcurrentLinkedQueue<Connection>();
+    private volatile boolean running;
+    private Thread loop;
+
+    /**
+     * Creates a server for the tree, listening on the port (0 for any free
+     * port) on every interface. Call start() to start serving.
+     *
+     * @param tree
+     * @param port
+     * @param workerThreads
+     * @throws IOException
+     */
+    public FamilyTreeServer(FamilyTree tree, int port, int workerThreads) throws IOException {
+        this(tree, new InetSocketAddress(port), workerThreads);
+    }
+
+    /**
+     * Creates a server for the tree, listening on the given address. Call
+     * start() to start serving.
+     *
+     * @param tree
+     * @param address
+     * @param workerThreads
+     * @throws IOException
+     */
+    public FamilyTreeServer(FamilyTree tree, InetSocketAddress address, int workerThreads) throws IOException {
+        router = new QueryRouter(tree);
+        workers = Executors.newFixedThreadPool(Math.max(1, workerThreads));
+        selector = Selector.open();
+        server = ServerSocketChannel.open();
+        server.socket().setReuseAddress(true);
+        server.socket().bind(address, 1024);
+        server.configureBlocking(false);
+        server.register(selector, SelectionKey.OP_ACCEPT);
+    }
+
+    /**
+     * Returns the port the server is listening on.
+     *
+     * @return
+     */
+    public int getPort() {
+        return server.socket().getLocalPort();
+    }
+
+    /**
+     * Starts the event loop on its own thread.
+     */
+    public synchronized void start() {
+        if (loop != null) {
+            return;
+        }
+        running = true;
+        loop = new Thread(new Runnable() {
+
+            public void run() {
+                runLoop();
+            }
+        }, "FamilyTreeServer-" + getPort());
+        loop.start();
+    }
+
+    /**
+     * Stops serving, closes every connection, and waits for the event loop to
+     * finish.
+     *
+     * @throws InterruptedException
+     */
+    public synchronized void stop() throws InterruptedException {
+        running = false;
+        selector.wakeup();
+        if (loop != null) {
+            loop.join();
+        }
+        workers.shutdown();
+    }
+
+    private void runLoop() {
+        try {
+            while (running) {
+                selector.select();
+                Connection ready;
+                while ((ready = completed.poll()) != null) {
+                    if (ready.key.isValid()) {
+                        write(ready);
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    if (key.isReadable()) {
+                        read(connection);
+                    }
+                    if (key.isValid() && key.isWritable()) {
+                        write(connection);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("FamilyTreeServer stopped: " + e);
+        } finally {
+            for (SelectionKey key : selector.keys()) {
+                closeQuietly(key);
+            }
+            try {
+                selector.close();
+            } catch (IOException e) {
+                //nothing more to do.
+            }
+        }
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = server.accept()) != null) {
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            key.attach(new Connection(channel, key));
+        }
+    }
+
+    private void read(Connection connection) {
+        try {
+            connection.makeRoom();
+            int read = connection.channel.read(connection.in);
+            if (read == -1) {
+                connection.endOfInput = true;
+            }
+        } catch (IOException e) {
+            closeQuietly(connection.key);
+            return;
+        }
+        takeRequests(connection);
+        if (connection.endOfInput && connection.pending.isEmpty()) {
+            closeQuietly(connection.key);
+        } else {
+            updateInterest(connection);
+        }
+    }
+
+    /**
+     * Starts on every complete request in the connection's input, up to the
+     * pipelining limit. Responses that are ready straight away are written
+     * once the caller updates the connection's interest.
+     */
+    private void takeRequests(final Connection connection) {
+        while (!connection.closing && connection.pending.size() < MAX_PIPELINED) {
+            final Request request;
+            try {
+                request = connection.nextRequest();
+            } catch (Connection.BadRequest e) {
+                connection.pending.add(new Response(e.status, QueryRouter.error(e.getMessage())));
+                connection.closing = true;
+                return;
+            }
+            if (request == null) {
+                return;
+            }
+            if (!request.keepAlive) {
+                connection.closing = true;
+            }
+            final Response response = new Response(request);
+            connection.pending.add(response);
+            if (router.isStream(request)) {
+                response.stream(router.people());
+                continue;
+            }
+            try {
+                workers.execute(new Runnable() {
+
+                    public void run() {
+                        router.handle(request, response);
+                        completed.add(connection);
+                        selector.wakeup();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                response.complete(503, QueryRouter.error("The server is shutting down."));
+            }
+        }
+    }
+
+    /**
+     * Writes every ready response at the front of the connection's queue, as
+     * far as the socket will take them.
+     */
+    private void write(Connection connection) {
+        if (!connection.key.isValid()) {
+            return;
+        }
+        try {
+            while (!connection.pending.isEmpty() && connection.pending.getFirst().isReady()) {
+                Response response = connection.pending.getFirst();
+                if (!response.writeTo(connection.channel)) {
+                    //the socket is full; carry on when it's writable.
+                    updateInterest(connection);
+                    return;
+                }
+                connection.pending.removeFirst();
+                if (!response.keepAlive()) {
+                    closeQuietly(connection.key);
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            closeQuietly(connection.key);
+            return;
+        }
+        if (connection.pending.isEmpty() && (connection.closing || connection.endOfInput)) {
+            closeQuietly(connection.key);
+            return;
+        }
+        //there may be pipelined requests that were held back.
+        takeRequests(connection);
+        updateInterest(connection);
+    }
+
+    private void updateInterest(Connection connection) {
+        if (!connection.key.isValid()) {
+            return;
+        }
+        int ops = 0;
+        if (!connection.endOfInput && !connection.closing && connection.pending.size() < MAX_PIPELINED) {
+            ops |= SelectionKey.OP_READ;
+        }
+        if (!connection.pending.isEmpty() && connection.pending.getFirst().isReady()) {
+            ops |= SelectionKey.OP_WRITE;
+        }
+        connection.key.interestOps(ops);
+    }
+
+    private static void closeQuietly(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            //it's gone either way.
+        }
+    }
+
+    /**
+     * Loads a tree from a data directory holding person.txt, fathers.txt and
+     * mothers.txt, as TestFamilyTree does.
+     *
+     * @param data
+     * @return
+     * @throws IOException
+     */
+    public static FamilyTree load(File data) throws IOException {
+        FamilyTree tree = new FamilyTree();
+        Scanner pFile = new Scanner(new File(data, "person.txt"));
+        while (pFile.hasNextLine()) {
+            Scanner lineScan = new Scanner(pFile.nextLine());
+            if (lineScan.hasNext()) {
+                String name = lineScan.next();
+                String dOB = lineScan.hasNext() ? lineScan.next() : null;
+                String place = lineScan.hasNext() ? lineScan.next() : null;
+                if (dOB != null && place != null) {
+                    tree.addPerson(new Person(name, dOB, place));
+                }
+            }
+        }
+        pFile.close();
+        FamilyTreeLoader.Report report = new FamilyTreeLoader(tree).loadLinks(
+                new File(data, "fathers.txt"), new File(data, "mothers.txt"));
+        System.out.println("Loaded " + tree.size() + " people, " + report.fathersAdded + " father links and "
+                + report.mothersAdded + " mother links.");
+        return tree;
+    }
+
+    /**
+     * Loads the tree from the data directory and serves it.
+     *
+     * @param args [port] [data directory]
+     * @throws IOException
+     */
+    public static void main(String[] args) throws IOException {
+        int port = 8080;
+        File data = new File(".");
+        if (args.length > 0) {
+            port = Integer.parseInt(args[0]);
+        }
+        if (args.length > 1) {
+            data = new File(args[1]);
+        }
+        FamilyTree tree = load(data);
+
+        FamilyTreeServer server = new FamilyTreeServer(tree, port, Runtime.getRuntime().availableProcessors());
+        server.start();
+        System.out.println("Listening on port " + server.getPort() + ".");
+    }
+}
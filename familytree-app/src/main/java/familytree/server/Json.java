@@ -0,0 +1,95 @@
+package familytree.server;
+
+/**
+ * The little bit of JSON writing the server needs.
+ *
+ * @author Andrew Brown
+ */
+final class Json {
+
+    private Json() {
+    }
+
+    /**
+     * Appends the text as a quoted JSON string, or null. Returns 'json'.
+     *
+     * @param json
+     * @param text
+     * @return
+     */
+    static StringBuilder appendString(StringBuilder json, String text) {
+        if (text == null) {
+            return json.append("null");
+        }
+        json.append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c == '\n') {
+                json.append("\\n");
+            } else if (c == '\r') {
+                json.append("\\r");
+            } else if (c == '\t') {
+                json.append("\\t");
+            } else if (c < 0x20) {
+                String hex = Integer.toHexString(c);
+                json.append("\\u");
+                for (int pad = hex.length(); pad < 4; pad++) {
+                    json.append('0');
+                }
+                json.append(hex);
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"');
+    }
+
+    /**
+     * Appends a JSON array of the lines in the text, leaving out empty ones.
+     * Returns 'json'.
+     *
+     * @param json
+     * @param text
+     * @return
+     */
+    static StringBuilder appendLines(StringBuilder json, String text) {
+        json.append('[');
+        int start = 0;
+        boolean first = true;
+        while (start < text.length()) {
+            int end = text.indexOf('\n', start);
+            if (end == -1) {
+                end = text.length();
+            }
+            if (end > start) {
+                if (!first) {
+                    json.append(',');
+                }
+                appendString(json, text.substring(start, end));
+                first = false;
+            }
+            start = end + 1;
+        }
+        return json.append(']');
+    }
+
+    /**
+     * Appends a JSON array of the ids. Returns 'json'.
+     *
+     * @param json
+     * @param ids
+     * @return
+     */
+    static StringBuilder appendIds(StringBuilder json, int[] ids) {
+        json.append('[');
+        for (int i = 0; i < ids.length; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(ids[i]);
+        }
+        return json.append(']');
+    }
+}
@@ -0,0 +1,351 @@
+package familytree.server;
+
+import familytree.FamilyTree;
+import familytree.FamilyTreeSnapshot;
+import familytree.Person;
+import familytree.ReportCache;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Turns requests into calls on a FamilyTree, and the results into JSON. Each
+ * path is one of the options on TestFamilyTree's menus, and is given the
+ * same letter here:
+ * <pre>
+ * GET  /person            K  name, dob
+ * GET  /parents           L  name, dob
+ * GET  /children          M  name, dob
+ * GET  /siblings          N  name, dob
+ * GET  /paternal-lineage  O  name, dob
+ * GET  /maternal-lineage  P  name, dob
+ * GET  /grandparents      Q  name, dob
+ * GET  /grandchildren     R  name, dob
+ * GET  /cousins           S  name, dob
+ * GET  /ancestors         T  name, dob, generations
+ * GET  /descendants       U  name, dob, generations
+ * GET  /path              V  name, dob, otherName, otherDob, links (optional)
+ * GET  /counts            W  name, dob
+ * POST /person            A  name, dob, place
+ * POST /mother            B  name, dob, motherName, motherDob
+ * POST /father            C  name, dob, fatherName, fatherDob
+ * POST /wedding           D  name1, dob1, name2, dob2
+ * POST /divorce           E  name1, dob1, name2, dob2
+ * POST /adoption          F  name, dob
+ * DELETE /person          G  name, dob
+ * DELETE /parent          H  name, dob, parentName, parentDob
+ * GET  /people               everyone in the tree, streamed
+ * GET  /cache                the report cache's hit rate and size
+ * </pre>
+ * A query answers {"query": path, "name": ..., "dob": ..., "lines": [...]},
+ * with a line for each line of the text the FamilyTree method returns. A
+ * change answers {"done": true or false}, as the method did.
+ *
+ * The list* queries read the live tree, so they mustn't run while it's being
+ * changed. Queries share a read lock and changes take the write lock, so any
+ * number of queries can run at once, between changes. /people streams from a
+ * snapshot, so it needs neither.
+ *
+ * K, L, O, P and T are answered through a ReportCache, as the same few
+ * popular people tend to be asked about over and over.
+ *
+ * @author Andrew Brown
+ */
+final class QueryRouter {
+
+    private static final Map<String, Character> QUERIES = new HashMap<String, Character>();
+    private static final Map<String, Character> INPUTS = new HashMap<String, Character>();
+    private static final Map<String, Character> DELETIONS = new HashMap<String, Character>();
+
+    static {
+        QUERIES.put("/person", 'K');
+        QUERIES.put("/parents", 'L');
+        QUERIES.put("/children", 'M');
+        QUERIES.put("/siblings", 'N');
+        QUERIES.put("/paternal-lineage", 'O');
+        QUERIES.put("/maternal-lineage", 'P');
+        QUERIES.put("/grandparents", 'Q');
+        QUERIES.put("/grandchildren", 'R');
+        QUERIES.put("/cousins", 'S');
+        QUERIES.put("/ancestors", 'T');
+        QUERIES.put("/descendants", 'U');
+        QUERIES.put("/path", 'V');
+        QUERIES.put("/counts", 'W');
+        INPUTS.put("/person", 'A');
+        INPUTS.put("/mother", 'B');
+        INPUTS.put("/father", 'C');
+        INPUTS.put("/wedding", 'D');
+        INPUTS.put("/divorce", 'E');
+        INPUTS.put("/adoption", 'F');
+        DELETIONS.put("/person", 'G');
+        DELETIONS.put("/parent", 'H');
+    }
+
+    //characters of report text to cache.
+    private static final long REPORT_CACHE_CHARS = 16 * 1024 * 1024;
+
+    private final FamilyTree tree;
+    private final ReportCache reports;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    QueryRouter(FamilyTree tree) {
+        this.tree = tree;
+        this.reports = new ReportCache(tree, REPORT_CACHE_CHARS);
+    }
+
+    /**
+     * Returns true if the request is for a streamed response (see people()).
+     *
+     * @param request
+     * @return
+     */
+    boolean isStream(Request request) {
+        return request.method.equals("GET") && request.path.equals("/people");
+    }
+
+    /**
+     * Handles the request and completes the response, even if handling it
+     * throws. Called on a worker thread.
+     *
+     * @param request
+     * @param response
+     */
+    void handle(Request request, Response response) {
+        try {
+            if (request.method.equals("GET") && QUERIES.containsKey(request.path)) {
+                query(QUERIES.get(request.path), request, response);
+            } else if (request.method.equals("POST") && INPUTS.containsKey(request.path)) {
+                input(INPUTS.get(request.path), request, response);
+            } else if (request.method.equals("DELETE") && DELETIONS.containsKey(request.path)) {
+                input(DELETIONS.get(request.path), request, response);
+            } else if (request.method.equals("GET") && request.path.equals("/cache")) {
+                response.complete(200, cacheStats());
+            } else if (QUERIES.containsKey(request.path) || INPUTS.containsKey(request.path)
+                    || DELETIONS.containsKey(request.path)) {
+                response.complete(405, error("Method not allowed: " + request.method + " " + request.path));
+            } else {
+                response.complete(404, error("No such query: " + request.path));
+            }
+        } catch (Throwable e) {
+            //whatever went wrong, the response has to be completed, or the
+            //connection's later responses wait behind it for ever. What went
+            //wrong is for the server's log, not the client.
+            System.err.println("Request failed: " + request.method + " " + request.path);
+            e.printStackTrace();
+            response.complete(500, error("The server couldn't handle the request."));
+        }
+    }
+
+    private void query(char qChoice, Request request, Response response) {
+        String name = request.param("name");
+        String dob = request.param("dob");
+        String otherName = request.param("otherName");
+        String otherDob = request.param("otherDob");
+        int generations = 0;
+        int links = FamilyTree.DEFAULT_PATH_LINKS;
+
+        if (name == null || dob == null) {
+            response.complete(400, error("name and dob are required."));
+            return;
+        }
+        if (qChoice == 'T' || qChoice == 'U') {
+            try {
+                generations = Integer.parseInt(request.param("generations"));
+            } catch (NumberFormatException e) {
+                response.complete(400, error("generations must be a whole number."));
+                return;
+            }
+        }
+        if (qChoice == 'V') {
+            if (otherName == null || otherDob == null) {
+                response.complete(400, error("otherName and otherDob are required."));
+                return;
+            }
+            if (request.param("links") != null) {
+                try {
+                    links = Integer.parseInt(request.param("links"));
+                } catch (NumberFormatException e) {
+                    response.complete(400, error("links must be a whole number."));
+                    return;
+                }
+            }
+        }
+        String result;
+        lock.readLock().lock();
+        try {
+            switch (qChoice) {
+                case 'K':
+                    result = reports.listPersonDetails(name, dob);
+                    break;
+                case 'L':
+                    result = reports.listParentDetails(name, dob);
+                    break;
+                case 'M':
+                    result = tree.listChildren(name, dob);
+                    break;
+                case 'N':
+                    result = tree.listSiblings(name, dob);
+                    break;
+                case 'O':
+                    result = reports.listPaternalLineage(name, dob);
+                    break;
+                case 'P':
+                    result = reports.listMaternalLineage(name, dob);
+                    break;
+                case 'Q':
+                    result = tree.listGrandParents(name, dob);
+                    break;
+                case 'R':
+                    result = tree.listGrandChildren(name, dob);
+                    break;
+                case 'S':
+                    result = tree.listCousins(name, dob);
+                    break;
+                case 'T':
+                    result = reports.listGreatNGrandParents(name, dob, generations);
+                    break;
+                case 'V':
+                    result = tree.listRelationshipPath(name, dob, otherName, otherDob, links);
+                    break;
+                case 'W':
+                    result = tree.listKinCounts(name, dob);
+                    break;
+                default:
+                    result = tree.listGreatNGrandChildren(name, dob, generations);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        StringBuilder json = new StringBuilder(result.length() + 64);
+        json.append("{\"query\":");
+        Json.appendString(json, request.path.substring(1)).append(",\"name\":");
+        Json.appendString(json, name).append(",\"dob\":");
+        Json.appendString(json, dob).append(",\"lines\":");
+        Json.appendLines(json, result).append('}');
+        response.complete(200, json.toString());
+    }
+
+    private void input(char iChoice, Request request, Response response) {
+        String[] names;
+        switch (iChoice) {
+            case 'A':
+                names = new String[]{"name", "dob", "place"};
+                break;
+            case 'B':
+                names = new String[]{"name", "dob", "motherName", "motherDob"};
+                break;
+            case 'C':
+                names = new String[]{"name", "dob", "fatherName", "fatherDob"};
+                break;
+            case 'D':
+            case 'E':
+                names = new String[]{"name1", "dob1", "name2", "dob2"};
+                break;
+            case 'H':
+                names = new String[]{"name", "dob", "parentName", "parentDob"};
+                break;
+            default:
+                names = new String[]{"name", "dob"};
+        }
+        String[] values = new String[names.length];
+        for (int i = 0; i < names.length; i++) {
+            values[i] = request.param(names[i]);
+            if (values[i] == null) {
+                response.complete(400, error(names[i] + " is required."));
+                return;
+            }
+        }
+        boolean done;
+        lock.writeLock().lock();
+        try {
+            switch (iChoice) {
+                case 'A':
+                    done = tree.addPerson(new Person(values[0], values[1], values[2]));
+                    break;
+                case 'B':
+                    done = tree.makeLinkToMother(values[0], values[1], values[2], values[3]);
+                    break;
+                case 'C':
+                    done = tree.makeLinkToFather(values[0], values[1], values[2], values[3]);
+                    break;
+                case 'D':
+                    done = tree.recordWedding(values[0], values[1], values[2], values[3]);
+                    break;
+                case 'E':
+                    done = tree.recordDivorce(values[0], values[1], values[2], values[3]);
+                    break;
+                case 'G':
+                    done = tree.removePerson(values[0], values[1]);
+                    break;
+                case 'H':
+                    done = tree.removeLinkToParent(values[0], values[1], values[2], values[3]);
+                    break;
+                default:
+                    done = tree.recordAdoption(values[0], values[1]);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+        response.complete(200, "{\"done\":" + done + "}");
+    }
+
+    /**
+     * Returns the body of a /people response: a JSON array with an object for
+     * everyone in a snapshot of the tree, made a few hundred people at a time
+     * as the client reads it.
+     *
+     * @return
+     */
+    Response.Body people() {
+        final FamilyTreeSnapshot snapshot = tree.snapshot();
+
+        return new Response.Body() {
+
+            private int next = 0;
+            private boolean written;
+            private boolean finished;
+
+            public boolean next(StringBuilder text) {
+                if (finished) {
+                    return false;
+                }
+                if (next == 0) {
+                    text.append('[');
+                }
+                for (; next < snapshot.size() && text.length() < 8192; next++) {
+                    if (!snapshot.contains(next)) {
+                        continue;
+                    }
+                    Person person = snapshot.getPerson(next);
+                    if (written) {
+                        text.append(',');
+                    }
+                    written = true;
+                    text.append("{\"id\":").append(next).append(",\"name\":");
+                    Json.appendString(text, person.getName()).append(",\"dob\":");
+                    Json.appendString(text, person.getDateOfBirth()).append(",\"place\":");
+                    Json.appendString(text, person.getBirthPlace()).append(",\"parents\":");
+                    Json.appendIds(text, snapshot.getParents(next)).append(",\"partners\":");
+                    Json.appendIds(text, snapshot.getPartners(next)).append('}');
+                }
+                if (next == snapshot.size()) {
+                    text.append(']');
+                    finished = true;
+                }
+                return true;
+            }
+        };
+    }
+
+    private String cacheStats() {
+        return "{\"hits\":" + reports.hits() + ",\"misses\":" + reports.misses()
+                + ",\"hitRate\":" + reports.hitRate() + ",\"evictions\":" + reports.evictions()
+                + ",\"invalidations\":" + reports.invalidations() + ",\"reports\":" + reports.size()
+                + ",\"chars\":" + reports.chars() + "}";
+    }
+
+    static String error(String message) {
+        return Json.appendString(new StringBuilder("{\"error\":"), message).append('}').toString();
+    }
+}
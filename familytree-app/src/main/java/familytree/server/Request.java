@@ -0,0 +1,69 @@
+package familytree.server;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * One parsed HTTP request: the method, the path, and the parameters from the
+ * query string and (for a form POST) the body.
+ *
+ * @author Andrew Brown
+ */
+final class Request {
+
+    final String method;
+    final String path;
+    final Map<String, String> params = new HashMap<String, String>();
+    //false if the connection should be closed after the response.
+    final boolean keepAlive;
+    //HTTP/1.1 or later, so the response can be chunked.
+    final boolean http11;
+
+    Request(String method, String target, boolean keepAlive, boolean http11) {
+        this.method = method;
+        this.keepAlive = keepAlive;
+        this.http11 = http11;
+        int query = target.indexOf('?');
+        if (query == -1) {
+            path = target;
+        } else {
+            path = target.substring(0, query);
+            addParams(target.substring(query + 1));
+        }
+    }
+
+    /**
+     * Adds the parameters in a URL encoded string, such as a query string or
+     * a form body. Malformed ones are skipped.
+     *
+     * @param encoded
+     */
+    void addParams(String encoded) {
+        for (String pair : encoded.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals <= 0) {
+                continue;
+            }
+            try {
+                params.put(URLDecoder.decode(pair.substring(0, equals), "UTF-8"),
+                        URLDecoder.decode(pair.substring(equals + 1), "UTF-8"));
+            } catch (IllegalArgumentException e) {
+                //a bad % escape.
+            } catch (UnsupportedEncodingException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    /**
+     * Returns the parameter, or null if it wasn't given.
+     *
+     * @param name
+     * @return
+     */
+    String param(String name) {
+        return params.get(name);
+    }
+}
@@ -0,0 +1,212 @@
+package familytree.server;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A response waiting to be sent on a connection. It's created, empty, as soon
+ * as its request has been read, so responses to pipelined requests go out in
+ * the order the requests came in, even if a worker finishes a later one
+ * first. It's ready to send once a worker calls complete(), or straight away
+ * if it's streamed.
+ *
+ * A streamed response doesn't exist all at once: its body is asked for a
+ * piece at a time, as the client takes what's already been sent, and goes out
+ * with chunked transfer encoding (or, to an HTTP/1.0 client, until the
+ * connection closes).
+ *
+ * @author Andrew Brown
+ */
+final class Response {
+
+    /**
+     * Makes the body of a streamed response.
+     */
+    interface Body {
+
+        /**
+         * Appends the next piece of the body to 'text', or returns false if
+         * there's no more.
+         */
+        boolean next(StringBuilder text);
+    }
+
+    private final boolean keepAlive;
+    //HTTP/1.1, so a streamed body can be chunked.
+    private final boolean http11;
+    private volatile boolean ready;
+    private ByteBuffer out;
+    private Body body;
+    private StringBuilder piece;
+
+    /**
+     * Creates an empty response to the request.
+     *
+     * @param request
+     */
+    Response(Request request) {
+        this.keepAlive = request.keepAlive;
+        this.http11 = request.http11;
+    }
+
+    /**
+     * Creates a response that isn't for any request, such as a 400 for one
+     * that couldn't be read. The connection is closed after it.
+     *
+     * @param status
+     * @param json
+     */
+    Response(int status, String json) {
+        this.keepAlive = false;
+        this.http11 = true;
+        complete(status, json);
+    }
+
+    /**
+     * Fills in the response. Called by the worker that handled the request.
+     *
+     * @param status
+     * @param json
+     */
+    void complete(int status, String json) {
+        byte[] bytes = utf8(json);
+        byte[] head = ascii(statusLine(status) + "Content-Type: application/json; charset=utf-8\r\n"
+                + "Content-Length: " + bytes.length + "\r\n" + connectionHeader() + "\r\n");
+        out = ByteBuffer.allocate(head.length + bytes.length);
+        out.put(head).put(bytes);
+        out.flip();
+        ready = true;
+    }
+
+    /**
+     * Makes this a streamed response, with the given body.
+     *
+     * @param body
+     */
+    void stream(Body body) {
+        String head = statusLine(200) + "Content-Type: application/json; charset=utf-8\r\n";
+        if (http11) {
+            head += "Transfer-Encoding: chunked\r\n" + connectionHeader();
+        } else {
+            head += "Connection: close\r\n";
+        }
+        this.body = body;
+        this.piece = new StringBuilder(8192);
+        out = ByteBuffer.wrap(ascii(head + "\r\n"));
+        ready = true;
+    }
+
+    boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Returns true if the connection can be used again after this response.
+     *
+     * @return
+     */
+    boolean keepAlive() {
+        return keepAlive && (body == null || http11);
+    }
+
+    /**
+     * Writes as much of the response as the channel will take. Returns true
+     * once all of it has been written.
+     *
+     * @param channel
+     * @return
+     * @throws IOException
+     */
+    boolean writeTo(SocketChannel channel) throws IOException {
+        while (true) {
+            if (out.hasRemaining()) {
+                channel.write(out);
+                if (out.hasRemaining()) {
+                    return false;
+                }
+            }
+            if (body == null) {
+                return true;
+            }
+            out = nextPiece();
+            if (out == null) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Returns the next piece of a streamed body, ready to write, or null if
+     * it has all been sent.
+     */
+    private ByteBuffer nextPiece() {
+        if (piece == null) {
+            return null;
+        }
+        piece.setLength(0);
+        if (!body.next(piece)) {
+            piece = null;
+            if (http11) {
+                return ByteBuffer.wrap(ascii("0\r\n\r\n"));
+            }
+            return null;
+        }
+        byte[] bytes = utf8(piece.toString());
+        if (!http11) {
+            return ByteBuffer.wrap(bytes);
+        }
+        byte[] size = ascii(Integer.toHexString(bytes.length) + "\r\n");
+        ByteBuffer chunk = ByteBuffer.allocate(size.length + bytes.length + 2);
+        chunk.put(size).put(bytes).put((byte) '\r').put((byte) '\n');
+        chunk.flip();
+        return chunk;
+    }
+
+    private String connectionHeader() {
+        if (!keepAlive) {
+            return "Connection: close\r\n";
+        }
+        //HTTP/1.0 connections close unless the response says otherwise.
+        return http11 ? "" : "Connection: keep-alive\r\n";
+    }
+
+    private static String statusLine(int status) {
+        String reason;
+        if (status == 200) {
+            reason = "OK";
+        } else if (status == 400) {
+            reason = "Bad Request";
+        } else if (status == 404) {
+            reason = "Not Found";
+        } else if (status == 405) {
+            reason = "Method Not Allowed";
+        } else if (status == 413) {
+            reason = "Payload Too Large";
+        } else if (status == 431) {
+            reason = "Request Header Fields Too Large";
+        } else if (status == 503) {
+            reason = "Service Unavailable";
+        } else {
+            reason = "Internal Server Error";
+        }
+        return "HTTP/1.1 " + status + " " + reason + "\r\n";
+    }
+
+    private static byte[] utf8(String text) {
+        try {
+            return text.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] ascii(String text) {
+        try {
+            return text.getBytes("ISO-8859-1");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
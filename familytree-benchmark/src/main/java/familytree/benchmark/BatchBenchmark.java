@@ -0,0 +1,104 @@
+package familytree.benchmark;
+
+import familytree.FamilyTree;
+import familytree.MutationBatch;
+import familytree.Person;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of the same changes made with the single-change methods and
+ * with one MutationBatch. Each call adds 'changes' new people to a synthetic
+ * family of 'people' people, links each of them to a mother and a father from
+ * the family's youngest generations, and marries every other one of them to
+ * the one before: for every two new people there are four links and a
+ * wedding, much as when another family's records are merged in.
+ *
+ * The family is built again for each iteration, so that the tree doesn't grow
+ * without end while the benchmark runs.
+ *
+ * Run with e.g.
+ * mvn -pl familytree-benchmark exec:exec@jmh -Dbench.args="BatchBenchmark -p changes=10000"
+ *
+ * @author Andrew Brown
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BatchBenchmark {
+
+    //how many of the youngest people the new people's parents are picked from.
+    private static final int PARENTS = 4096;
+
+    @Param({"100000"})
+    public int people;
+
+    @Param({"1000"})
+    public int changes;
+
+    private FamilyTree tree;
+    private SyntheticFamily family;
+    //numbers the new people, so that every call adds different ones.
+    private int next;
+
+    @Setup(Level.Iteration)
+    public void build() {
+        tree = new FamilyTree();
+        family = new SyntheticFamily(tree, people, Math.max(50, people / 2000), 0.1, 42);
+    }
+
+    @Benchmark
+    public int singleCalls() {
+        int first = next;
+        for (int i = 0; i < changes; i++) {
+            String name = "N" + next++;
+            int mother = parent(i, 0);
+            int father = parent(i, 1);
+            tree.addPerson(new Person(name, "2000", "Bristol"));
+            tree.makeLinkToMother(name, "2000", family.name(mother), family.dateOfBirth(mother));
+            tree.makeLinkToFather(name, "2000", family.name(father), family.dateOfBirth(father));
+            if (i % 2 == 1) {
+                tree.recordWedding("N" + (next - 2), "2000", name, "2000");
+            }
+        }
+        return next - first;
+    }
+
+    @Benchmark
+    public boolean batch() {
+        MutationBatch batch = tree.newBatch();
+        for (int i = 0; i < changes; i++) {
+            String name = "N" + next++;
+            int mother = parent(i, 0);
+            int father = parent(i, 1);
+            batch.addPerson(new Person(name, "2000", "Bristol"));
+            batch.makeLinkToMother(name, "2000", family.name(mother), family.dateOfBirth(mother));
+            batch.makeLinkToFather(name, "2000", family.name(father), family.dateOfBirth(father));
+            if (i % 2 == 1) {
+                batch.recordWedding("N" + (next - 2), "2000", name, "2000");
+            }
+        }
+        return batch.apply();
+    }
+
+    //one of the youngest PARENTS people, different for each new person and
+    //for the mother (side 0) and father (side 1).
+    private int parent(int i, int side) {
+        long k = ((long) next * 2 + side) * 7919 + i;
+        return family.size() - 1 - (int) (k % Math.min(PARENTS, family.size()));
+    }
+}
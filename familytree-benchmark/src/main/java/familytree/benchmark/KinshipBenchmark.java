@@ -0,0 +1,88 @@
+package familytree.benchmark;
+
+import familytree.FamilyTree;
+import familytree.FamilyTreeSnapshot;
+import familytree.KinshipEngine;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Times KinshipEngine on a deep family with a lot of pedigree collapse: few
+ * founders and mostly cousin marriages, so everyone in the later generations
+ * is related to everyone else down many lines.
+ *
+ * First it works out the inbreeding coefficients of some of the youngest
+ * people, each on their own and then all in one session, then the kinship
+ * matrices of the youngest people in groups of FAMILY_SIZE, on one thread and
+ * then on all the processors. Run with e.g.
+ * mvn -pl familytree-benchmark exec:exec@kinship -Dbench.args=20000
+ *
+ * @author Andrew Brown
+ */
+public class KinshipBenchmark {
+
+    private static final int FAMILY_SIZE = 16;
+    private static final int FAMILIES = 64;
+    private static final int ONE_AT_A_TIME = 32;
+
+    public static void main(String[] args) {
+        int people = 20000;
+        if (args.length > 0) {
+            people = Integer.parseInt(args[0]);
+        }
+        FamilyTree tree = new FamilyTree();
+        SyntheticFamily family = new SyntheticFamily(tree, people, 64, 0.9, 42);
+        System.out.println("people: " + family.size() + ", generations: " + family.generations());
+
+        FamilyTreeSnapshot snapshot = tree.snapshot();
+        KinshipEngine engine = new KinshipEngine(snapshot);
+        int count = Math.min(family.size(), FAMILY_SIZE * FAMILIES);
+        int[] youngest = new int[count];
+        for (int i = 0; i < count; i++) {
+            int person = family.size() - count + i;
+            youngest[i] = snapshot.find(family.name(person), family.dateOfBirth(person));
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < ONE_AT_A_TIME && i < count; i++) {
+            engine.inbreeding(youngest[i]);
+        }
+        long took = System.nanoTime() - start;
+        System.out.println("inbreeding, one at a time: " + (took / 1000 / Math.min(ONE_AT_A_TIME, count))
+                + " us/person");
+
+        start = System.nanoTime();
+        KinshipEngine.Session session = engine.new Session();
+        double total = 0;
+        for (int person : youngest) {
+            total += session.inbreeding(person);
+        }
+        took = System.nanoTime() - start;
+        System.out.println("inbreeding, one session: " + (took / 1000 / count) + " us/person, mean "
+                + (total / count));
+
+        List<int[]> families = new ArrayList<int[]>();
+        for (int i = 0; i + FAMILY_SIZE <= count; i += FAMILY_SIZE) {
+            int[] members = new int[FAMILY_SIZE];
+            System.arraycopy(youngest, i, members, 0, FAMILY_SIZE);
+            families.add(members);
+        }
+        int processors = Runtime.getRuntime().availableProcessors();
+        //warm up.
+        engine.kinshipMatrices(families, processors);
+        time(engine, families, 1);
+        time(engine, families, processors);
+    }
+
+    private static void time(KinshipEngine engine, List<int[]> families, int threads) {
+        long start = System.nanoTime();
+        List<double[][]> matrices = engine.kinshipMatrices(families, threads);
+        long took = System.nanoTime() - start;
+        double total = 0;
+        for (double[][] matrix : matrices) {
+            total += matrix[0][FAMILY_SIZE - 1];
+        }
+        System.out.println(families.size() + " matrices of " + FAMILY_SIZE + " on " + threads
+                + " thread(s): " + (took / 1000000) + " ms, mean kinship " + (total / matrices.size()));
+    }
+}
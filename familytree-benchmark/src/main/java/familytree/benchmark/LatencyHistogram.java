@@ -0,0 +1,112 @@
+package familytree.benchmark;
+
+/**
+ * Counts latencies, in nanoseconds, to within about 1.5%, in a fixed amount of
+ * space however many are recorded. Values below 128ns get a bucket each; above
+ * that, each power of two is split into 64 buckets. So recording is just an
+ * increment, and histograms kept by different threads can be added together
+ * afterwards.
+ *
+ * Not thread safe: give each thread its own, and add() them up at the end.
+ *
+ * @author Andrew Brown
+ */
+public class LatencyHistogram {
+
+    private static final int SUB_BITS = 7;
+    private static final int HALF = 1 << (SUB_BITS - 1);
+    private static final int BUCKETS = (64 - SUB_BITS + 1) * HALF + HALF;
+
+    private final long[] counts = new long[BUCKETS];
+    private long total;
+    private long max;
+
+    /**
+     * Records one latency.
+     *
+     * @param nanos
+     */
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+        counts[bucket(nanos)]++;
+        total++;
+        if (nanos > max) {
+            max = nanos;
+        }
+    }
+
+    /**
+     * Adds the counts from another histogram to this one.
+     *
+     * @param other
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        total += other.total;
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * Returns how many latencies have been recorded.
+     *
+     * @return
+     */
+    public long count() {
+        return total;
+    }
+
+    /**
+     * Returns the biggest latency recorded, exactly.
+     *
+     * @return
+     */
+    public long max() {
+        return max;
+    }
+
+    /**
+     * Returns the latency that 'fraction' (e.g. 0.99) of those recorded were
+     * no bigger than, rounded up to the top of its bucket. Returns 0 if
+     * nothing has been recorded.
+     *
+     * @param fraction
+     * @return
+     */
+    public long percentile(double fraction) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(fraction * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(max, highest(i));
+            }
+        }
+        return max;
+    }
+
+    private static int bucket(long nanos) {
+        if (nanos < 2 * HALF) {
+            return (int) nanos;
+        }
+        //shift the value down until it's between HALF and 2 * HALF.
+        int shift = 63 - Long.numberOfLeadingZeros(nanos) - SUB_BITS + 1;
+        return shift * HALF + (int) (nanos >>> shift);
+    }
+
+    //the biggest value that falls in the bucket.
+    private static long highest(int bucket) {
+        if (bucket < 2 * HALF) {
+            return bucket;
+        }
+        int shift = bucket / HALF - 1;
+        long mantissa = bucket - shift * HALF;
+        return ((mantissa + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,150 @@
+package familytree.benchmark;
+
+import familytree.FamilyTreeNode;
+import familytree.Person;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures how much heap the node link storage takes. It builds the same
+ * synthetic family twice: once with FamilyTreeNode, and once with a copy of the
+ * old node layout (three default sized ArrayLists per node), and prints the
+ * bytes per node for each.
+ *
+ * The family is shaped like real data: everyone has two parents except the
+ * founders, about half the people are married, and the number of children
+ * per couple is small (0 to 4), so lots of people have none.
+ *
+ * Run with a fixed heap so the numbers are stable, e.g.
+ * mvn -pl familytree-benchmark exec:exec@link-storage -Dbench.jvm="-Xms1g -Xmx1g" -Dbench.args=500000
+ *
+ * @author Andrew Brown
+ */
+public class LinkStorageBenchmark {
+
+    public static void main(String[] args) {
+        int people = 500000;
+        if (args.length > 0) {
+            people = Integer.parseInt(args[0]);
+        }
+        //the Person objects are the same in both runs, so build them once and
+        //keep them out of the measurement.
+        Person[] items = new Person[people];
+        for (int i = 0; i < people; i++) {
+            items[i] = new Person("P" + i, Integer.toString(1800 + i % 200), "Bristol");
+        }
+
+        //warm up, so the first run doesn't pay for class loading and JIT.
+        buildNew(items, 10000);
+        buildLegacy(items, 10000);
+
+        long before = usedHeap();
+        long start = System.nanoTime();
+        Object newNodes = buildNew(items, people);
+        long newTime = System.nanoTime() - start;
+        long newBytes = usedHeap() - before;
+        keep(newNodes);
+        newNodes = null;
+
+        before = usedHeap();
+        start = System.nanoTime();
+        Object legacyNodes = buildLegacy(items, people);
+        long legacyTime = System.nanoTime() - start;
+        long legacyBytes = usedHeap() - before;
+        keep(legacyNodes);
+        legacyNodes = null;
+
+        System.out.println("people: " + people);
+        System.out.println("FamilyTreeNode: " + (newBytes / people) + " bytes/node, built in "
+                + (newTime / 1000000) + "ms");
+        System.out.println("ArrayList node: " + (legacyBytes / people) + " bytes/node, built in "
+                + (legacyTime / 1000000) + "ms");
+        System.out.println("saved: " + ((legacyBytes - newBytes) / people) + " bytes/node ("
+                + (100 - (newBytes * 100 / Math.max(1, legacyBytes))) + "%)");
+    }
+
+    /**
+     * Builds the family out of FamilyTreeNodes.
+     */
+    private static Object buildNew(Person[] items, int people) {
+        List<FamilyTreeNode<Person>> nodes = new ArrayList<FamilyTreeNode<Person>>(people);
+        Random random = new Random(42);
+
+        for (int i = 0; i < people; i++) {
+            nodes.add(new FamilyTreeNode<Person>(items[i]));
+        }
+        //pair people up into couples, and give each couple some children from
+        //further down the list.
+        int next = people / 10;
+        for (int i = 0; i + 1 < people / 2 && next < people; i += 2) {
+            FamilyTreeNode<Person> mother = nodes.get(i);
+            FamilyTreeNode<Person> father = nodes.get(i + 1);
+            mother.addSideLink(father);
+            int kids = random.nextInt(5);
+            for (int k = 0; k < kids && next < people; k++, next++) {
+                nodes.get(next).addParentLink(mother);
+                nodes.get(next).addParentLink(father);
+            }
+        }
+        return nodes;
+    }
+
+    /**
+     * Builds the same family out of LegacyNodes.
+     */
+    private static Object buildLegacy(Person[] items, int people) {
+        List<LegacyNode> nodes = new ArrayList<LegacyNode>(people);
+        Random random = new Random(42);
+
+        for (int i = 0; i < people; i++) {
+            nodes.add(new LegacyNode(items[i]));
+        }
+        int next = people / 10;
+        for (int i = 0; i + 1 < people / 2 && next < people; i += 2) {
+            LegacyNode mother = nodes.get(i);
+            LegacyNode father = nodes.get(i + 1);
+            mother.sideLinks.add(father);
+            father.sideLinks.add(mother);
+            int kids = random.nextInt(5);
+            for (int k = 0; k < kids && next < people; k++, next++) {
+                LegacyNode child = nodes.get(next);
+                child.parentLinks.add(mother);
+                mother.childLinks.add(child);
+                child.parentLinks.add(father);
+                father.childLinks.add(child);
+            }
+        }
+        return nodes;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    //stops the JIT from deciding that the nodes are never used.
+    private static int sink;
+
+    private static void keep(Object nodes) {
+        sink += ((List<?>) nodes).size();
+    }
+
+    /**
+     * The node layout FamilyTreeNode used to have.
+     */
+    private static class LegacyNode {
+
+        Person item;
+        List<LegacyNode> parentLinks = new ArrayList<LegacyNode>();
+        List<LegacyNode> childLinks = new ArrayList<LegacyNode>();
+        List<LegacyNode> sideLinks = new ArrayList<LegacyNode>();
+
+        LegacyNode(Person item) {
+            this.item = item;
+        }
+    }
+}
@@ -0,0 +1,498 @@
+package familytree.benchmark;
+
+import familytree.FamilyTree;
+import familytree.FamilyTreeSnapshot;
+import familytree.Person;
+import familytree.server.FamilyTreeServer;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Replays a mix of TestFamilyTree's queries (K to U) and inputs (A to F)
+ * against a tree, as a lot of users at once would, and reports the throughput
+ * and the p50/p99/p999 latency of each option. Run it before and after a
+ * change to see whether the change made things slower.
+ *
+ * Arrivals are open loop: each thread has a schedule of when its requests are
+ * due, drawn at random to add up to the target rate, and a request's latency
+ * is measured from when it was due, not from when the thread got round to it.
+ * So if the tree stalls, the requests behind the stall wait and the
+ * percentiles show it, as they would for real users, rather than the test
+ * quietly slowing down to match.
+ *
+ * Options are given as name=value:
+ * <pre>
+ * people=200000      size of the synthetic family to build, or
+ * data=directory     load person.txt, fathers.txt and mothers.txt instead
+ * rate=5000          requests per second, over all the threads
+ * threads=32
+ * warmup=5           seconds to run before measuring
+ * seconds=20         seconds to measure
+ * mix=K15,N15,...    the options to run, and how often, relative to each other
+ * target=tree        call the FamilyTree directly, or
+ * target=server      go through a FamilyTreeServer on loopback
+ * max-p99=10         exit with status 1 if the overall p99 is over 10ms
+ * </pre>
+ * e.g.
+ * mvn -pl familytree-benchmark exec:exec@load-test -Dbench.args="rate=20000 target=server"
+ *
+ * A request that throws counts as an error, as one that fails over HTTP does.
+ *
+ * @author Andrew Brown
+ */
+public class LoadTest {
+
+    private static final String DEFAULT_MIX = "K15,L10,M10,N15,O5,P5,Q10,R5,S10,T5,U5,A2,B1,C1,D1,E1,F1";
+    //how far T and U look.
+    private static final int GENERATIONS = 3;
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals <= 0) {
+                System.err.println("Options are name=value, not " + arg);
+                System.exit(2);
+            }
+            options.put(arg.substring(0, equals), arg.substring(equals + 1));
+        }
+        int rate = Integer.parseInt(option(options, "rate", "5000"));
+        int threads = Integer.parseInt(option(options, "threads", "32"));
+        int warmup = Integer.parseInt(option(options, "warmup", "5"));
+        int seconds = Integer.parseInt(option(options, "seconds", "20"));
+        String target = option(options, "target", "tree");
+        Mix mix = new Mix(option(options, "mix", DEFAULT_MIX));
+
+        FamilyTree tree;
+        if (options.containsKey("data")) {
+            tree = FamilyTreeServer.load(new File(options.get("data")));
+        } else {
+            tree = new FamilyTree();
+            int people = Integer.parseInt(option(options, "people", "200000"));
+            SyntheticFamily family = new SyntheticFamily(tree, people, Math.max(2, people / 100), 0.3, 42);
+            System.out.println("people: " + family.size() + ", generations: " + family.generations());
+        }
+        //the people the requests are about; people added during the test are
+        //only used by the thread that added them.
+        FamilyTreeSnapshot population = tree.snapshot();
+
+        FamilyTreeServer server = null;
+        Target calls;
+        if (target.equals("server")) {
+            server = new FamilyTreeServer(tree, 0, Runtime.getRuntime().availableProcessors());
+            server.start();
+            calls = new ServerTarget(server.getPort());
+        } else if (target.equals("tree")) {
+            calls = new TreeTarget(tree);
+        } else {
+            System.err.println("target must be tree or server, not " + target);
+            System.exit(2);
+            return;
+        }
+        System.out.println("target: " + target + ", rate: " + rate + "/s, threads: " + threads + ", mix: " + mix);
+
+        long start = System.nanoTime() + 100000000L;
+        long measureFrom = start + warmup * 1000000000L;
+        long end = measureFrom + seconds * 1000000000L;
+        double perThreadRate = rate / (double) threads;
+        AtomicLong errors = new AtomicLong();
+        List<Worker> workers = new ArrayList<Worker>();
+        List<Thread> running = new ArrayList<Thread>();
+
+        try {
+            for (int i = 0; i < threads; i++) {
+                Worker worker = new Worker(i, calls, mix, population, perThreadRate, start, measureFrom, end, errors);
+                workers.add(worker);
+                Thread thread = new Thread(worker, "LoadTest-" + i);
+                running.add(thread);
+                thread.start();
+            }
+            for (Thread thread : running) {
+                thread.join();
+            }
+        } finally {
+            if (server != null) {
+                server.stop();
+            }
+        }
+
+        LatencyHistogram all = new LatencyHistogram();
+        System.out.println("option      count      p50 ms      p99 ms     p999 ms      max ms");
+        for (char option : mix.options()) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            for (Worker worker : workers) {
+                histogram.add(worker.latencies[option - 'A']);
+            }
+            all.add(histogram);
+            print(String.valueOf(option), histogram);
+        }
+        print("all", all);
+        double throughput = all.count() / (double) seconds;
+        System.out.println(String.format("throughput: %.0f requests/s (asked for %d), errors: %d",
+                throughput, rate, errors.get()));
+        if (throughput < rate * 0.95) {
+            System.out.println("The tree didn't keep up with the requested rate; the latencies include "
+                    + "the time spent waiting.");
+        }
+        if (options.containsKey("max-p99")) {
+            double limit = Double.parseDouble(options.get("max-p99"));
+            double p99 = all.percentile(0.99) / 1e6;
+            if (p99 > limit || errors.get() > 0) {
+                System.out.println(String.format("FAILED: p99 %.3fms against a limit of %.3fms, %d errors",
+                        p99, limit, errors.get()));
+                System.exit(1);
+            }
+        }
+    }
+
+    private static String option(Map<String, String> options, String name, String otherwise) {
+        String value = options.get(name);
+        return value == null ? otherwise : value;
+    }
+
+    private static void print(String label, LatencyHistogram histogram) {
+        System.out.println(String.format("%-6s %10d %11.3f %11.3f %11.3f %11.3f", label, histogram.count(),
+                histogram.percentile(0.5) / 1e6, histogram.percentile(0.99) / 1e6,
+                histogram.percentile(0.999) / 1e6, histogram.max() / 1e6));
+    }
+
+    /**
+     * The menu options to run, each with a weight: K15 means K is picked 15
+     * times as often as an option with weight 1.
+     */
+    private static final class Mix {
+
+        private final char[] options;
+        private final int[] upTo;
+        private final String text;
+
+        Mix(String text) {
+            String[] parts = text.split(",");
+            options = new char[parts.length];
+            upTo = new int[parts.length];
+            int total = 0;
+            for (int i = 0; i < parts.length; i++) {
+                String part = parts[i].trim().toUpperCase();
+                char option = part.charAt(0);
+                if (option < 'A' || option > 'U' || (option > 'F' && option < 'K')) {
+                    throw new IllegalArgumentException("No menu option " + option + "; use A-F and K-U.");
+                }
+                int weight = part.length() > 1 ? Integer.parseInt(part.substring(1)) : 1;
+                total += weight;
+                options[i] = option;
+                upTo[i] = total;
+            }
+            if (total <= 0) {
+                throw new IllegalArgumentException("The mix is empty.");
+            }
+            this.text = text;
+        }
+
+        char[] options() {
+            return options;
+        }
+
+        char pick(Random random) {
+            int r = random.nextInt(upTo[upTo.length - 1]);
+            int i = 0;
+            while (upTo[i] <= r) {
+                i++;
+            }
+            return options[i];
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    /**
+     * One simulated stream of users, running on its own thread to its own
+     * schedule.
+     */
+    private static final class Worker implements Runnable {
+
+        final LatencyHistogram[] latencies = new LatencyHistogram['U' - 'A' + 1];
+        private final int number;
+        private final Target calls;
+        private final Mix mix;
+        private final FamilyTreeSnapshot population;
+        private final double meanGap;
+        private final long start;
+        private final long measureFrom;
+        private final long end;
+        private final AtomicLong errors;
+        private final Random random;
+        //people this worker has added (option A), for B and C to link up.
+        private final List<Person> added = new ArrayList<Person>();
+
+        Worker(int number, Target calls, Mix mix, FamilyTreeSnapshot population, double rate, long start,
+                long measureFrom, long end, AtomicLong errors) {
+            this.number = number;
+            this.calls = calls;
+            this.mix = mix;
+            this.population = population;
+            this.meanGap = 1e9 / rate;
+            this.start = start;
+            this.measureFrom = measureFrom;
+            this.end = end;
+            this.errors = errors;
+            this.random = new Random(1000 + number);
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = new LatencyHistogram();
+            }
+        }
+
+        public void run() {
+            long due = start + gap();
+            while (due < end) {
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                    continue;
+                }
+                char option = mix.pick(random);
+                try {
+                    perform(option);
+                } catch (IOException e) {
+                    errors.incrementAndGet();
+                } catch (RuntimeException e) {
+                    errors.incrementAndGet();
+                }
+                long done = System.nanoTime();
+                if (due >= measureFrom) {
+                    latencies[option - 'A'].record(done - due);
+                }
+                due += gap();
+            }
+        }
+
+        //time to the next arrival, in a Poisson process at the worker's rate.
+        private long gap() {
+            return (long) (-Math.log(1 - random.nextDouble()) * meanGap);
+        }
+
+        private void perform(char option) throws IOException {
+            Person person;
+            Person other = someone();
+            switch (option) {
+                case 'A':
+                    person = new Person("L" + number + "_" + added.size(), "2000", "Bristol");
+                    added.add(person);
+                    break;
+                case 'B':
+                case 'C':
+                    //someone new gets a parent, if this worker has added anyone.
+                    person = added.isEmpty() ? someone() : added.get(random.nextInt(added.size()));
+                    break;
+                default:
+                    person = someone();
+            }
+            calls.run(option, person, other);
+        }
+
+        private Person someone() {
+            return population.getPerson(random.nextInt(population.size()));
+        }
+    }
+
+    /**
+     * Carries out a menu option. 'person' is the one the option is about (or
+     * the one to add, for A); 'other' is the mother for B, the father for C,
+     * and the partner for D and E.
+     */
+    private interface Target {
+
+        void run(char option, Person person, Person other) throws IOException;
+    }
+
+    /**
+     * Calls the FamilyTree directly. The list* queries read the live tree, so,
+     * as FamilyTreeServer does, queries share a read lock and inputs take the
+     * write lock.
+     */
+    private static final class TreeTarget implements Target {
+
+        private final FamilyTree tree;
+        private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+        TreeTarget(FamilyTree tree) {
+            this.tree = tree;
+        }
+
+        public void run(char option, Person person, Person other) {
+            Lock held = option < 'K' ? lock.writeLock() : lock.readLock();
+            held.lock();
+            try {
+                call(option, person, other);
+            } finally {
+                held.unlock();
+            }
+        }
+
+        private void call(char option, Person person, Person other) {
+            String name = person.getName();
+            String dob = person.getDateOfBirth();
+            switch (option) {
+                case 'A':
+                    tree.addPerson(person);
+                    break;
+                case 'B':
+                    tree.makeLinkToMother(name, dob, other.getName(), other.getDateOfBirth());
+                    break;
+                case 'C':
+                    tree.makeLinkToFather(name, dob, other.getName(), other.getDateOfBirth());
+                    break;
+                case 'D':
+                    tree.recordWedding(name, dob, other.getName(), other.getDateOfBirth());
+                    break;
+                case 'E':
+                    tree.recordDivorce(name, dob, other.getName(), other.getDateOfBirth());
+                    break;
+                case 'F':
+                    tree.recordAdoption(name, dob);
+                    break;
+                case 'K':
+                    tree.listPersonDetails(name, dob);
+                    break;
+                case 'L':
+                    tree.listParentDetails(name, dob);
+                    break;
+                case 'M':
+                    tree.listChildren(name, dob);
+                    break;
+                case 'N':
+                    tree.listSiblings(name, dob);
+                    break;
+                case 'O':
+                    tree.listPaternalLineage(name, dob);
+                    break;
+                case 'P':
+                    tree.listMaternalLineage(name, dob);
+                    break;
+                case 'Q':
+                    tree.listGrandParents(name, dob);
+                    break;
+                case 'R':
+                    tree.listGrandChildren(name, dob);
+                    break;
+                case 'S':
+                    tree.listCousins(name, dob);
+                    break;
+                case 'T':
+                    tree.listGreatNGrandParents(name, dob, GENERATIONS);
+                    break;
+                default:
+                    tree.listGreatNGrandChildren(name, dob, GENERATIONS);
+            }
+        }
+    }
+
+    /**
+     * Makes the same calls through FamilyTreeServer's HTTP interface, so the
+     * connection handling and JSON are measured too. HttpURLConnection keeps
+     * the connections alive between requests.
+     */
+    private static final class ServerTarget implements Target {
+
+        private static final Map<Character, String> PATHS = new HashMap<Character, String>();
+
+        static {
+            String[] paths = {"/person", "/mother", "/father", "/wedding", "/divorce", "/adoption"};
+            for (int i = 0; i < paths.length; i++) {
+                PATHS.put((char) ('A' + i), paths[i]);
+            }
+            paths = new String[]{"/person", "/parents", "/children", "/siblings", "/paternal-lineage",
+                "/maternal-lineage", "/grandparents", "/grandchildren", "/cousins", "/ancestors", "/descendants"};
+            for (int i = 0; i < paths.length; i++) {
+                PATHS.put((char) ('K' + i), paths[i]);
+            }
+        }
+
+        private final String base;
+
+        ServerTarget(int port) {
+            base = "http://127.0.0.1:" + port;
+        }
+
+        public void run(char option, Person person, Person other) throws IOException {
+            StringBuilder params = new StringBuilder();
+            switch (option) {
+                case 'A':
+                    param(params, "name", person.getName());
+                    param(params, "dob", person.getDateOfBirth());
+                    param(params, "place", person.getBirthPlace());
+                    break;
+                case 'B':
+                case 'C':
+                    param(params, "name", person.getName());
+                    param(params, "dob", person.getDateOfBirth());
+                    param(params, option == 'B' ? "motherName" : "fatherName", other.getName());
+                    param(params, option == 'B' ? "motherDob" : "fatherDob", other.getDateOfBirth());
+                    break;
+                case 'D':
+                case 'E':
+                    param(params, "name1", person.getName());
+                    param(params, "dob1", person.getDateOfBirth());
+                    param(params, "name2", other.getName());
+                    param(params, "dob2", other.getDateOfBirth());
+                    break;
+                default:
+                    param(params, "name", person.getName());
+                    param(params, "dob", person.getDateOfBirth());
+                    if (option == 'T' || option == 'U') {
+                        param(params, "generations", Integer.toString(GENERATIONS));
+                    }
+            }
+            HttpURLConnection connection;
+            if (option <= 'F') {
+                connection = (HttpURLConnection) new URL(base + PATHS.get(option)).openConnection();
+                connection.setRequestMethod("POST");
+                connection.setDoOutput(true);
+                byte[] body = params.toString().getBytes("UTF-8");
+                connection.setFixedLengthStreamingMode(body.length);
+                connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+                OutputStream out = connection.getOutputStream();
+                out.write(body);
+                out.close();
+            } else {
+                connection = (HttpURLConnection) new URL(base + PATHS.get(option) + "?" + params).openConnection();
+            }
+            int status = connection.getResponseCode();
+            InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+            //read the whole response, so the connection can be used again.
+            byte[] buffer = new byte[4096];
+            if (in != null) {
+                while (in.read(buffer) != -1) {
+                }
+                in.close();
+            }
+            if (status != 200) {
+                throw new IOException(PATHS.get(option) + " answered " + status);
+            }
+        }
+
+        private static void param(StringBuilder params, String name, String value) throws IOException {
+            if (params.length() > 0) {
+                params.append('&');
+            }
+            params.append(name).append('=').append(URLEncoder.encode(value, "UTF-8"));
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package familytree.benchmark;
+
+import familytree.FamilyTree;
+import familytree.OffHeapFamilyTree;
+import familytree.Person;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+
+/**
+ * Builds the same family in a FamilyTree and in an OffHeapFamilyTree, a
+ * step at a time, and prints how much heap each is using after a full
+ * collection (and how much memory the off-heap tree has outside the heap),
+ * along with how long a full collection takes. The FamilyTree's heap grows
+ * with the family; the OffHeapFamilyTree's shouldn't.
+ *
+ * Give the JVM plenty of heap for the FamilyTree, and direct memory for the
+ * other, e.g.
+ * mvn -pl familytree-benchmark exec:exec@off-heap -Dbench.jvm="-Xmx8g -XX:MaxDirectMemorySize=8g" -Dbench.args=4000000
+ *
+ * @author Andrew Brown
+ */
+public class OffHeapBenchmark {
+
+    private static final int STEPS = 4;
+
+    public static void main(String[] args) {
+        int people = 1000000;
+        if (args.length > 0) {
+            people = Integer.parseInt(args[0]);
+        }
+        System.out.println("off heap:");
+        OffHeapFamilyTree offHeap = new OffHeapFamilyTree();
+        long base = heapAfterGc();
+        for (int step = 1; step <= STEPS; step++) {
+            for (int i = people * (step - 1) / STEPS; i < people * step / STEPS; i++) {
+                offHeap.addPerson(new Person(name(i), dateOfBirth(i), "Bristol"));
+                if (i >= 1000) {
+                    offHeap.makeLinkToMother(name(i), dateOfBirth(i), name(mother(i)), dateOfBirth(mother(i)));
+                    offHeap.makeLinkToFather(name(i), dateOfBirth(i), name(father(i)), dateOfBirth(father(i)));
+                }
+            }
+            report(offHeap.size(), heapAfterGc() - base, offHeap.offHeapBytes());
+        }
+        System.out.print(offHeap.listSiblings(name(people / 2), dateOfBirth(people / 2)));
+        offHeap = null;
+
+        System.out.println("on heap:");
+        FamilyTree tree = new FamilyTree();
+        base = heapAfterGc();
+        for (int step = 1; step <= STEPS; step++) {
+            for (int i = people * (step - 1) / STEPS; i < people * step / STEPS; i++) {
+                tree.addPerson(new Person(name(i), dateOfBirth(i), "Bristol"));
+                if (i >= 1000) {
+                    tree.makeLinkToMother(name(i), dateOfBirth(i), name(mother(i)), dateOfBirth(mother(i)));
+                    tree.makeLinkToFather(name(i), dateOfBirth(i), name(father(i)), dateOfBirth(father(i)));
+                }
+            }
+            report(tree.size(), heapAfterGc() - base, 0);
+        }
+    }
+
+    //everyone's parents are two of the 1000 people born just before them:
+    //mothers have odd numbers and fathers even ones.
+    private static int mother(int i) {
+        return ((i - 1000) + ((i * 7) % 500) * 2) | 1;
+    }
+
+    private static int father(int i) {
+        return ((i - 1000) + ((i * 13) % 500) * 2) & ~1;
+    }
+
+    private static String name(int i) {
+        return "P" + i;
+    }
+
+    private static String dateOfBirth(int i) {
+        return Integer.toString(1500 + i / 1000);
+    }
+
+    private static void report(int size, long heap, long offHeap) {
+        long start = System.nanoTime();
+        System.gc();
+        long gc = (System.nanoTime() - start) / 1000000;
+        System.out.println(size + " people: " + heap / 1024 / 1024 + "MB heap, "
+                + offHeap / 1024 / 1024 + "MB off heap, full GC " + gc + "ms");
+    }
+
+    private static long heapAfterGc() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+}
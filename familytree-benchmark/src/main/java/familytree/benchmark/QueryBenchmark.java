@@ -0,0 +1,87 @@
+package familytree.benchmark;
+
+import familytree.FamilyTree;
+import familytree.RelationshipPath;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * JMH benchmarks of the queries a server spends its time on: the person
+ * details report, counting ancestors by walking them and from the kept
+ * counts, and the shortest relationship path between two people, on a
+ * synthetic family of 'people' people. Each call asks about a different
+ * person, going round the youngest generations, so the caches see a spread
+ * of people rather than the same one over and over.
+ *
+ * Run with e.g.
+ * mvn -pl familytree-benchmark exec:exec@jmh -Dbench.args="QueryBenchmark -p people=1000000"
+ *
+ * @author Andrew Brown
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+
+    //how many of the youngest people the queries go round.
+    private static final int ASKED = 4096;
+
+    @Param({"100000"})
+    public int people;
+
+    private FamilyTree tree;
+    private SyntheticFamily family;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void build() {
+        tree = new FamilyTree();
+        family = new SyntheticFamily(tree, people, Math.max(50, people / 2000), 0.1, 42);
+    }
+
+    @Benchmark
+    public String personDetails() {
+        int i = person();
+        return tree.listPersonDetails(family.name(i), family.dateOfBirth(i));
+    }
+
+    @Benchmark
+    public int countAncestors() {
+        int i = person();
+        return tree.countAncestors(family.name(i), family.dateOfBirth(i));
+    }
+
+    @Benchmark
+    public long ancestorCount() {
+        int i = person();
+        return tree.ancestorCount(family.name(i), family.dateOfBirth(i));
+    }
+
+    @Benchmark
+    public RelationshipPath relationshipPath() {
+        int i = person();
+        int j = people - 1 - (i * 7919) % ASKED;
+        return tree.findRelationshipPath(family.name(i), family.dateOfBirth(i),
+                family.name(j), family.dateOfBirth(j), FamilyTree.DEFAULT_PATH_LINKS);
+    }
+
+    //the next of the youngest ASKED people.
+    private int person() {
+        next = (next + 1) % ASKED;
+        return people - 1 - next;
+    }
+}
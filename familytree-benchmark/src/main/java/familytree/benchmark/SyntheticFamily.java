@@ -0,0 +1,110 @@
+package familytree.benchmark;
+
+import familytree.FamilyTree;
+import familytree.Person;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Builds made-up families for the benchmarks. The family grows a generation
+ * at a time: people in the newest generation are paired up into couples, and
+ * each couple has a few children, who make up the next generation. Everyone is
+ * called "P" + their number, and is born 25 years after their parents'
+ * generation, so the name and date of birth of person i are name(i) and
+ * dateOfBirth(i).
+ *
+ * 'collapse' is the chance that a couple is picked from within one small
+ * neighbourhood of the generation rather than from anywhere in it. Higher
+ * values mean more cousin marriages, and so more pedigree collapse, like a
+ * small village or a royal line.
+ *
+ * @author Andrew Brown
+ */
+public class SyntheticFamily {
+
+    private List<String> names = new ArrayList<String>();
+    private List<String> dates = new ArrayList<String>();
+    private int generations;
+
+    /**
+     * Fills 'tree' with about 'people' people.
+     *
+     * @param tree
+     * @param people
+     * @param founders how many people are in the first generation.
+     * @param collapse 0 to 1, see above.
+     * @param seed
+     */
+    public SyntheticFamily(FamilyTree tree, int people, int founders, double collapse, long seed) {
+        Random random = new Random(seed);
+        List<Integer> generation = new ArrayList<Integer>();
+
+        for (int i = 0; i < founders && names.size() < people; i++) {
+            generation.add(add(tree, 0));
+        }
+        while (names.size() < people && generation.size() > 1) {
+            generations++;
+            List<Integer> next = new ArrayList<Integer>();
+            List<Integer> single = new ArrayList<Integer>(generation);
+            while (single.size() > 1 && names.size() < people) {
+                int first = random.nextInt(single.size());
+                int mother = single.remove(first);
+                int second;
+                if (random.nextDouble() < collapse) {
+                    //pick someone close by: likely a relative.
+                    second = Math.min(single.size() - 1, Math.max(0, first - 2 + random.nextInt(4)));
+                } else {
+                    second = random.nextInt(single.size());
+                }
+                int father = single.remove(second);
+                tree.recordWedding(names.get(mother), dates.get(mother), names.get(father), dates.get(father));
+                //enough children, on average, for the family to keep growing.
+                int children = 1 + random.nextInt(4);
+                for (int c = 0; c < children && names.size() < people; c++) {
+                    int child = add(tree, generations);
+                    tree.makeLinkToMother(names.get(child), dates.get(child), names.get(mother), dates.get(mother));
+                    tree.makeLinkToFather(names.get(child), dates.get(child), names.get(father), dates.get(father));
+                    next.add(child);
+                }
+            }
+            generation = next;
+        }
+    }
+
+    private int add(FamilyTree tree, int generation) {
+        int id = names.size();
+        String name = "P" + id;
+        String date = Integer.toString(1500 + generation * 25);
+        names.add(name);
+        dates.add(date);
+        tree.addPerson(new Person(name, date, "Bristol"));
+        return id;
+    }
+
+    /**
+     * Returns the number of people made.
+     *
+     * @return
+     */
+    public int size() {
+        return names.size();
+    }
+
+    /**
+     * Returns the number of generations after the founders.
+     *
+     * @return
+     */
+    public int generations() {
+        return generations;
+    }
+
+    public String name(int i) {
+        return names.get(i);
+    }
+
+    public String dateOfBirth(int i) {
+        return dates.get(i);
+    }
+}
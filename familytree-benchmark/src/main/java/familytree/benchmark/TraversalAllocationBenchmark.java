@@ -0,0 +1,76 @@
+package familytree.benchmark;
+
+import familytree.FamilyTree;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Measures how many bytes the traversal queries allocate per call, once they've
+ * warmed up. The queries reuse per-thread scratch space, and look people up
+ * with a reusable key, so what's left should be close to the size of the
+ * String they return; that is printed alongside for comparison.
+ *
+ * Uses the HotSpot per-thread allocation counter, so it needs a HotSpot based
+ * JVM. Run with e.g.
+ * mvn -pl familytree-benchmark exec:exec@traversal-allocation -Dbench.args=200000
+ *
+ * @author Andrew Brown
+ */
+public class TraversalAllocationBenchmark {
+
+    private static final int CALLS = 200000;
+
+    public static void main(String[] args) {
+        int people = 200000;
+        if (args.length > 0) {
+            people = Integer.parseInt(args[0]);
+        }
+        FamilyTree tree = new FamilyTree();
+        SyntheticFamily family = new SyntheticFamily(tree, people, 2000, 0.3, 42);
+        System.out.println("people: " + family.size() + ", generations: " + family.generations());
+
+        //someone from the middle of the family, so they have relatives all
+        //round.
+        int middle = family.size() / 2;
+        String name = family.name(middle);
+        String date = family.dateOfBirth(middle);
+
+        for (int query = 0; query < 4; query++) {
+            //warm up.
+            run(tree, query, name, date, CALLS / 10);
+            long before = allocated();
+            long chars = run(tree, query, name, date, CALLS);
+            long bytes = allocated() - before;
+            System.out.println(label(query) + ": " + (bytes / CALLS) + " bytes/call, result "
+                    + (chars / CALLS) + " chars");
+        }
+    }
+
+    private static long run(FamilyTree tree, int query, String name, String date, int calls) {
+        long chars = 0;
+        for (int i = 0; i < calls; i++) {
+            String result;
+            if (query == 0) {
+                result = tree.listSiblings(name, date);
+            } else if (query == 1) {
+                result = tree.listCousins(name, date);
+            } else if (query == 2) {
+                result = tree.listGrandChildren(name, date);
+            } else {
+                result = tree.listGreatNGrandParents(name, date, 4);
+            }
+            chars += result.length();
+        }
+        return chars;
+    }
+
+    private static String label(int query) {
+        String[] labels = {"listSiblings", "listCousins", "listGrandChildren", "listGreatNGrandParents(4)"};
+        return labels[query];
+    }
+
+    private static long allocated() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
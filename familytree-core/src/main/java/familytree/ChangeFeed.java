@@ -0,0 +1,195 @@
+package familytree;
+
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A feed of the changes made to a FamilyTree, so that caches and search
+ * indexes can keep up with the tree without polling it and diffing the whole
+ * thing.
+ *
+ * Every change gets the next sequence number, and goes into a fixed size ring
+ * buffer. Subscribers each have their own cursor into the ring, and read
+ * events in batches with poll(), at their own pace. Nothing is allocated per
+ * event: the ring is a set of parallel arrays, and events are handed to a
+ * Handler as plain values.
+ *
+ * The ring doesn't wait for slow subscribers. If a subscriber falls more than
+ * a ring's worth of events behind, the oldest events it hadn't read are gone;
+ * its cursor skips forward to the oldest event still in the ring, and missed()
+ * says how many it lost. A subscriber that has missed events should rebuild
+ * from a FamilyTree.snapshot() rather than trust its incremental state.
+ *
+ * Each slot works like a tiny sequence lock: the writer marks the slot as
+ * being written, fills it in, and then stamps it with its sequence number. A
+ * reader only trusts a slot if it has the sequence number it expected both
+ * before and after reading it.
+ *
+ * @author Andrew Brown
+ */
+public class ChangeFeed {
+
+    //stamped on a slot while it's being written.
+    private static final long WRITING = -1;
+
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final AtomicIntegerArray types;
+    private final AtomicIntegerArray personIds;
+    private final AtomicIntegerArray otherIds;
+    //the sequence number of the newest event, or 0 if there hasn't been one.
+    //Sequence numbers start at 1.
+    private volatile long published;
+
+    /**
+     * Create a feed that remembers at least 'capacity' events. The capacity is
+     * rounded up to a power of two.
+     *
+     * @param capacity
+     */
+    public ChangeFeed(int capacity) {
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        mask = size - 1;
+        sequences = new AtomicLongArray(size);
+        types = new AtomicIntegerArray(size);
+        personIds = new AtomicIntegerArray(size);
+        otherIds = new AtomicIntegerArray(size);
+    }
+
+    /**
+     * Returns how many events the ring holds.
+     *
+     * @return
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * Returns the sequence number of the newest event, or 0 if nothing has
+     * happened yet.
+     *
+     * @return
+     */
+    public long lastSequence() {
+        return published;
+    }
+
+    /**
+     * Adds an event to the feed and returns its sequence number. The tree calls
+     * this after each change, while it still holds its lock.
+     *
+     * @param type
+     * @param personId
+     * @param otherId
+     * @return
+     */
+    synchronized long publish(ChangeType type, int personId, int otherId) {
+        long sequence = published + 1;
+        int slot = (int) sequence & mask;
+
+        sequences.set(slot, WRITING);
+        types.set(slot, type.ordinal());
+        personIds.set(slot, personId);
+        otherIds.set(slot, otherId);
+        sequences.set(slot, sequence);
+        published = sequence;
+        return sequence;
+    }
+
+    /**
+     * Returns a new subscription that will see every event published from now
+     * on.
+     *
+     * @return
+     */
+    public Subscription subscribe() {
+        return new Subscription(published);
+    }
+
+    /**
+     * Receives events from Subscription.poll().
+     */
+    public interface Handler {
+
+        void onChange(long sequence, ChangeType type, int personId, int otherId);
+    }
+
+    /**
+     * One subscriber's cursor into the feed. A subscription is meant to be used
+     * by one thread at a time; different subscriptions don't affect each other.
+     */
+    public class Subscription {
+
+        //the sequence number of the last event this subscriber has seen.
+        private long cursor;
+        private long missed;
+
+        private Subscription(long cursor) {
+            this.cursor = cursor;
+        }
+
+        /**
+         * Hands up to 'maxEvents' of the events this subscriber hasn't seen to
+         * the handler, oldest first, and returns how many it handed over. 0
+         * means the subscriber is up to date.
+         *
+         * @param handler
+         * @param maxEvents
+         * @return
+         */
+        public int poll(Handler handler, int maxEvents) {
+            ChangeType[] allTypes = ChangeType.values();
+            int delivered = 0;
+
+            while (delivered < maxEvents && cursor < published) {
+                long wanted = cursor + 1;
+                int slot = (int) wanted & mask;
+
+                if (sequences.get(slot) == wanted) {
+                    int type = types.get(slot);
+                    int personId = personIds.get(slot);
+                    int otherId = otherIds.get(slot);
+                    if (sequences.get(slot) == wanted) {
+                        handler.onChange(wanted, allTypes[type], personId, otherId);
+                        cursor = wanted;
+                        delivered++;
+                        continue;
+                    }
+                }
+                //the writer has lapped us, and this event is gone. Skip to the
+                //oldest event that's still in the ring.
+                long oldest = published - mask;
+                if (oldest <= wanted) {
+                    oldest = wanted + 1;
+                }
+                missed += oldest - wanted;
+                cursor = oldest - 1;
+            }
+            return delivered;
+        }
+
+        /**
+         * Returns the sequence number of the last event this subscriber has
+         * seen.
+         *
+         * @return
+         */
+        public long position() {
+            return cursor;
+        }
+
+        /**
+         * Returns how many events this subscriber has lost by falling too far
+         * behind.
+         *
+         * @return
+         */
+        public long missed() {
+            return missed;
+        }
+    }
+}
@@ -0,0 +1,37 @@
+package familytree;
+
+/**
+ * The kinds of change a FamilyTree reports through its ChangeFeed. Each event
+ * carries the id of the person it's about, and for links, the id of the
+ * person on the other end (-1 if there isn't one).
+ *
+ * @author Andrew Brown
+ */
+public enum ChangeType {
+
+    //personId is the new person.
+    PERSON_ADDED,
+    //personId is the child, otherId is the mother.
+    MOTHER_LINKED,
+    //personId is the child, otherId is the father.
+    FATHER_LINKED,
+    //personId and otherId are the couple.
+    WEDDING,
+    //personId and otherId are the couple.
+    DIVORCE,
+    //personId is the adopted person.
+    ADOPTION,
+    //personId is the person whose details changed.
+    PERSON_CHANGED,
+    //personId is the child, otherId is the mother they no longer have.
+    MOTHER_UNLINKED,
+    //personId is the child, otherId is the father they no longer have.
+    FATHER_UNLINKED,
+    //personId is the person kept, otherId is the person merged into them,
+    //who is no longer in the tree. Followed by a PERSON_CHANGED for each of
+    //the people whose links were moved from one to the other.
+    PEOPLE_MERGED,
+    //personId is the person taken out of the tree. Followed by a
+    //PERSON_CHANGED for each of the people who were linked to them.
+    PERSON_REMOVED
+}
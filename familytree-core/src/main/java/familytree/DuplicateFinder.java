@@ -0,0 +1,524 @@
+package familytree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Finds people in a FamilyTreeSnapshot who are probably the same person
+ * entered twice, such as "Edward 1891" and "Edward c.1891". The tree treats
+ * any difference in name or date of birth as a different person, so imports
+ * end up full of near duplicates.
+ *
+ * Comparing everyone with everyone else is out of the question for a big
+ * tree, so people are first put into blocks that share a key, and only
+ * people in the same block are compared. There are two kinds of key:
+ * <ul>
+ * <li>the Soundex code of the name and the decade of birth, and</li>
+ * <li>the Soundex code of the name and the birth place,</li>
+ * </ul>
+ * so a duplicate is still found if either its date or its place was entered
+ * differently. Each key is packed into an int, and the (key, id) pairs are
+ * sorted as longs, which turns the blocks into runs of the sorted array with
+ * no per person objects. Blocks bigger than 'maxBlockSize' are skipped: a
+ * key that common doesn't say much, and the block would cost the square of
+ * its size.
+ *
+ * The pairs in each block are scored on a pool of threads. The score, from 0
+ * to 1, adds up how alike the names are (Jaro-Winkler), how close the dates of
+ * birth are, whether the birth places match, and whether the two people's
+ * parents and partners agree, as the same people or as people with the same
+ * names. Pairs who are each other's parent or child are never duplicates.
+ * Pairs that share both keys are only scored once, in the first of their
+ * blocks that isn't skipped.
+ *
+ * @author Andrew Brown
+ */
+public class DuplicateFinder {
+
+    public static final double DEFAULT_THRESHOLD = 0.8;
+    public static final int DEFAULT_MAX_BLOCK_SIZE = 1000;
+    //how much each part of the score counts for.
+    private static final double NAME_WEIGHT = 0.35;
+    private static final double DATE_WEIGHT = 0.25;
+    private static final double PLACE_WEIGHT = 0.1;
+    private static final double PARENT_WEIGHT = 0.2;
+    private static final double PARTNER_WEIGHT = 0.1;
+    //what a part is worth when one of the pair has nothing to compare.
+    private static final double UNKNOWN = 0.5;
+    //the entries of the sorted key array each scoring task gets, roughly.
+    private static final int TASK_SIZE = 1 << 16;
+    private static final int KEY_KINDS = 2;
+
+    private FamilyTreeSnapshot snapshot;
+
+    public DuplicateFinder(FamilyTreeSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * find() with the default threshold and block size, using one thread per
+     * core.
+     *
+     * @return
+     */
+    public Report find() {
+        return find(DEFAULT_THRESHOLD, DEFAULT_MAX_BLOCK_SIZE, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Returns every pair of people that scores at least 'threshold', best
+     * first.
+     *
+     * @param threshold
+     * @param maxBlockSize
+     * @param threads
+     * @return
+     */
+    public Report find(double threshold, final int maxBlockSize, int threads) {
+        final int size = snapshot.size();
+        final int[][] keys = new int[KEY_KINDS][size];
+        final int[] years = new int[size];
+        final long[][] sorted = new long[KEY_KINDS][];
+        //for each kind of key, the people whose block is too big to score.
+        final boolean[][] skipped = new boolean[KEY_KINDS][size];
+        final Report report = new Report();
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+
+        try {
+            //the keys, in parallel.
+            List<Future<Object>> done = new ArrayList<Future<Object>>();
+            for (int start = 0; start < size; start += TASK_SIZE) {
+                final int from = start;
+                final int to = Math.min(size, start + TASK_SIZE);
+                done.add(pool.submit(new Callable<Object>() {
+
+                    public Object call() {
+                        for (int id = from; id < to; id++) {
+                            if (!snapshot.contains(id)) {
+                                continue;
+                            }
+                            Person person = snapshot.getPerson(id);
+                            int name = soundex(person.getName()) << 18;
+                            years[id] = year(person.getDateOfBirth());
+                            keys[0][id] = name | (years[id] < 0 ? 0 : years[id] / 10 + 1);
+                            keys[1][id] = name | (hash(person.getBirthPlace()) & 0x3ffff);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> future : done) {
+                future.get();
+            }
+            //sort each kind of key, leaving out the gaps left by people taken
+            //out of the tree; each sort is one thread's work.
+            done.clear();
+            for (int kind = 0; kind < KEY_KINDS; kind++) {
+                final int k = kind;
+                done.add(pool.submit(new Callable<Object>() {
+
+                    public Object call() {
+                        long[] entries = new long[size];
+                        int count = 0;
+                        for (int id = 0; id < size; id++) {
+                            if (snapshot.contains(id)) {
+                                entries[count++] = ((long) keys[k][id] << 32) | id;
+                            }
+                        }
+                        if (count < size) {
+                            long[] live = new long[count];
+                            System.arraycopy(entries, 0, live, 0, count);
+                            entries = live;
+                        }
+                        Arrays.sort(entries);
+                        sorted[k] = entries;
+                        for (int start = 0, end; start < count; start = end) {
+                            end = start + 1;
+                            while (end < count && key(entries[end]) == key(entries[start])) {
+                                end++;
+                            }
+                            for (int i = start; end - start > maxBlockSize && i < end; i++) {
+                                skipped[k][(int) entries[i]] = true;
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Object> future : done) {
+                future.get();
+            }
+
+            //score the blocks, a slice of each sorted array at a time. Slices
+            //are cut between blocks.
+            List<Future<Report>> slices = new ArrayList<Future<Report>>();
+            final double minimum = threshold;
+            for (int kind = 0; kind < KEY_KINDS; kind++) {
+                final long[] entries = sorted[kind];
+                final int k = kind;
+                int start = 0;
+                while (start < entries.length) {
+                    int end = Math.min(entries.length, start + TASK_SIZE);
+                    while (end < entries.length && key(entries[end]) == key(entries[end - 1])) {
+                        end++;
+                    }
+                    final int from = start;
+                    final int to = end;
+                    slices.add(pool.submit(new Callable<Report>() {
+
+                        public Report call() {
+                            return scoreBlocks(entries, from, to, k, keys, skipped, years, minimum, maxBlockSize);
+                        }
+                    }));
+                    start = end;
+                }
+            }
+            for (Future<Report> slice : slices) {
+                Report part = slice.get();
+                report.candidates.addAll(part.candidates);
+                report.pairsScored += part.pairsScored;
+                report.blocksSkipped += part.blocksSkipped;
+                report.peopleSkipped += part.peopleSkipped;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Finding duplicates was interrupted.", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("A scoring task failed.", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        Collections.sort(report.candidates, new Comparator<Candidate>() {
+
+            public int compare(Candidate a, Candidate b) {
+                if (a.score != b.score) {
+                    return a.score > b.score ? -1 : 1;
+                }
+                if (a.id1 != b.id1) {
+                    return a.id1 < b.id1 ? -1 : 1;
+                }
+                return a.id2 < b.id2 ? -1 : (a.id2 == b.id2 ? 0 : 1);
+            }
+        });
+        return report;
+    }
+
+    /**
+     * Scores every pair in the blocks in entries[from, to).
+     */
+    private Report scoreBlocks(long[] entries, int from, int to, int kind, int[][] keys, boolean[][] skipped,
+            int[] years, double threshold, int maxBlockSize) {
+        //the best a pair can score if their names match exactly, along with
+        //everything else but their dates.
+        double best = NAME_WEIGHT + PLACE_WEIGHT + PARENT_WEIGHT + PARTNER_WEIGHT;
+        Report report = new Report();
+        int start = from;
+
+        while (start < to) {
+            int end = start + 1;
+            while (end < to && key(entries[end]) == key(entries[start])) {
+                end++;
+            }
+            if (end - start > maxBlockSize) {
+                report.blocksSkipped++;
+                report.peopleSkipped += end - start;
+            } else {
+                for (int i = start; i < end; i++) {
+                    for (int j = i + 1; j < end; j++) {
+                        int a = (int) entries[i];
+                        int b = (int) entries[j];
+                        if (sharesEarlierKey(keys, skipped, kind, a, b)
+                                || best + DATE_WEIGHT * yearAgreement(years[a], years[b]) < threshold) {
+                            continue;
+                        }
+                        report.pairsScored++;
+                        double score = score(a, b);
+                        if (score >= threshold) {
+                            report.candidates.add(new Candidate(Math.min(a, b), Math.max(a, b), score));
+                        }
+                    }
+                }
+            }
+            start = end;
+        }
+        return report;
+    }
+
+    //pairs that share more than one key are only scored in the block of the
+    //first one that wasn't skipped.
+    private static boolean sharesEarlierKey(int[][] keys, boolean[][] skipped, int kind, int a, int b) {
+        for (int k = 0; k < kind; k++) {
+            if (keys[k][a] == keys[k][b] && !skipped[k][a]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int key(long entry) {
+        return (int) (entry >>> 32);
+    }
+
+    /**
+     * Returns how likely it is, from 0 to 1, that the two people are the same.
+     *
+     * @param a
+     * @param b
+     * @return
+     */
+    public double score(int a, int b) {
+        if (contains(snapshot.parentIds(a), b) || contains(snapshot.parentIds(b), a)) {
+            return 0;
+        }
+        Person p = snapshot.getPerson(a);
+        Person q = snapshot.getPerson(b);
+        double score = NAME_WEIGHT * jaroWinkler(p.getName(), q.getName())
+                + DATE_WEIGHT * dateAgreement(p.getDateOfBirth(), q.getDateOfBirth());
+        if (p.getBirthPlace() != null && p.getBirthPlace().equalsIgnoreCase(q.getBirthPlace())) {
+            score += PLACE_WEIGHT;
+        }
+        score += PARENT_WEIGHT * agreement(snapshot.parentIds(a), snapshot.parentIds(b));
+        score += PARTNER_WEIGHT * agreement(snapshot.partnerIds(a), snapshot.partnerIds(b));
+        return score;
+    }
+
+    /**
+     * 1 if any of the two people's relatives are the same, or look like the
+     * same person, 0 if they both have some and none match, and UNKNOWN if
+     * either has none.
+     */
+    private double agreement(int[] relatives1, int[] relatives2) {
+        if (relatives1.length == 0 || relatives2.length == 0) {
+            return UNKNOWN;
+        }
+        for (int r1 : relatives1) {
+            for (int r2 : relatives2) {
+                if (r1 == r2) {
+                    return 1;
+                }
+                Person p = snapshot.getPerson(r1);
+                Person q = snapshot.getPerson(r2);
+                if (jaroWinkler(p.getName(), q.getName()) >= 0.9
+                        && dateAgreement(p.getDateOfBirth(), q.getDateOfBirth()) >= 0.6) {
+                    return 1;
+                }
+            }
+        }
+        return 0;
+    }
+
+    private static boolean contains(int[] ids, int id) {
+        for (int i : ids) {
+            if (i == id) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * How well two dates of birth agree: 1 if they're the same, less the
+     * further apart their years are, and UNKNOWN if either has no year.
+     */
+    static double dateAgreement(String dob1, String dob2) {
+        if (dob1 != null && dob1.equals(dob2)) {
+            return 1;
+        }
+        int year1 = year(dob1);
+        int year2 = year(dob2);
+        if (year1 >= 0 && year1 == year2) {
+            //the same year, written differently.
+            return 0.9;
+        }
+        return yearAgreement(year1, year2);
+    }
+
+    /**
+     * The most dateAgreement() can be for two dates with the given years; -1
+     * means the year isn't known.
+     */
+    private static double yearAgreement(int year1, int year2) {
+        if (year1 < 0 || year2 < 0) {
+            return UNKNOWN;
+        }
+        int apart = Math.abs(year1 - year2);
+        if (apart == 0) {
+            return 1;
+        } else if (apart <= 2) {
+            return 0.6;
+        } else if (apart <= 5) {
+            return 0.2;
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the first run of four digits in a date, such as 1891 in
+     * "c.1891" or "12/03/1891", or -1 if there isn't one.
+     *
+     * @param dob
+     * @return
+     */
+    static int year(String dob) {
+        if (dob == null) {
+            return -1;
+        }
+        int run = 0;
+        for (int i = 0; i < dob.length(); i++) {
+            if (Character.isDigit(dob.charAt(i))) {
+                run++;
+                if (run == 4 && (i + 1 == dob.length() || !Character.isDigit(dob.charAt(i + 1)))) {
+                    return Integer.parseInt(dob.substring(i - 3, i + 1));
+                }
+            } else {
+                run = 0;
+            }
+        }
+        return -1;
+    }
+
+    private static int hash(String text) {
+        if (text == null) {
+            return 0;
+        }
+        int h = text.toLowerCase().hashCode();
+        return h ^ (h >>> 18);
+    }
+
+    /**
+     * Returns the American Soundex code of a name, packed into 14 bits: the
+     * first letter, and three digits from 0 to 6.
+     *
+     * @param name
+     * @return
+     */
+    static int soundex(String name) {
+        //the digit for each letter of the alphabet; 0 for vowels, h, w and y.
+        String digits = "01230120022455012623010202";
+        int code = 0;
+        int count = 0;
+        int last = -1;
+
+        if (name == null) {
+            return 0;
+        }
+        for (int i = 0; i < name.length() && count < 4; i++) {
+            char c = Character.toLowerCase(name.charAt(i));
+            if (c < 'a' || c > 'z') {
+                continue;
+            }
+            int digit = digits.charAt(c - 'a') - '0';
+            if (count == 0) {
+                code = c - 'a' + 1;
+                count = 1;
+            } else if (digit != 0 && digit != last) {
+                code = (code << 3) | digit;
+                count++;
+            }
+            //h and w don't separate letters with the same code; vowels do.
+            if (c != 'h' && c != 'w') {
+                last = digit;
+            }
+        }
+        while (count > 0 && count < 4) {
+            code <<= 3;
+            count++;
+        }
+        return code;
+    }
+
+    /**
+     * Returns the Jaro-Winkler similarity of two names, ignoring case: 1 for
+     * the same name, 0 for nothing in common.
+     *
+     * @param s1
+     * @param s2
+     * @return
+     */
+    static double jaroWinkler(String s1, String s2) {
+        if (s1 == null || s2 == null) {
+            return 0;
+        }
+        s1 = s1.toLowerCase();
+        s2 = s2.toLowerCase();
+        if (s1.equals(s2)) {
+            return 1;
+        }
+        int window = Math.max(0, Math.max(s1.length(), s2.length()) / 2 - 1);
+        boolean[] matched1 = new boolean[s1.length()];
+        boolean[] matched2 = new boolean[s2.length()];
+        int matches = 0;
+        for (int i = 0; i < s1.length(); i++) {
+            int from = Math.max(0, i - window);
+            int to = Math.min(s2.length(), i + window + 1);
+            for (int j = from; j < to; j++) {
+                if (!matched2[j] && s1.charAt(i) == s2.charAt(j)) {
+                    matched1[i] = true;
+                    matched2[j] = true;
+                    matches++;
+                    break;
+                }
+            }
+        }
+        if (matches == 0) {
+            return 0;
+        }
+        int transpositions = 0;
+        for (int i = 0, j = 0; i < s1.length(); i++) {
+            if (matched1[i]) {
+                while (!matched2[j]) {
+                    j++;
+                }
+                if (s1.charAt(i) != s2.charAt(j)) {
+                    transpositions++;
+                }
+                j++;
+            }
+        }
+        double m = matches;
+        double jaro = (m / s1.length() + m / s2.length() + (m - transpositions / 2.0) / m) / 3;
+        int prefix = 0;
+        while (prefix < 4 && prefix < s1.length() && prefix < s2.length()
+                && s1.charAt(prefix) == s2.charAt(prefix)) {
+            prefix++;
+        }
+        return jaro + prefix * 0.1 * (1 - jaro);
+    }
+
+    /**
+     * Two people who are probably the same, with id1 < id2.
+     */
+    public static class Candidate {
+
+        public final int id1;
+        public final int id2;
+        public final double score;
+
+        Candidate(int id1, int id2, double score) {
+            this.id1 = id1;
+            this.id2 = id2;
+            this.score = score;
+        }
+    }
+
+    /**
+     * What find() found.
+     */
+    public static class Report {
+
+        //best first.
+        public List<Candidate> candidates = new ArrayList<Candidate>();
+        public long pairsScored;
+        //blocks too big to compare, and how many people were in them.
+        public int blocksSkipped;
+        public long peopleSkipped;
+    }
+}
@@ -0,0 +1,2372 @@
+package familytree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Trees in the Java collection API allow multiple children, but not multiple parents.
+ * This custom built data-structure allows for that possibility, as well as
+ * 'side links', in this case for partners. It also waits for the user to make
+ * explicit links; the trees in the Java collection API make links when you
+ * add them onto the tree, which isn't helpful when you have specific links
+ * in mind.
+ * 
+ * It's important to note that while the actual node is generic, the FamilyTree
+ * structure is geared towards, well, family trees. It should be fairly trivial
+ * to implement a generic tree if the need calls for it, though.
+ * 
+ * The methods that change the tree are synchronized, so writers take turns.
+ * The list* queries read the live nodes, so they shouldn't run while the tree
+ * is being changed; anything that needs to read while writers carry on should
+ * take a snapshot() and read that instead.
+ * 
+ * @author Andrew Brown.
+ */
+public class FamilyTree {
+
+    //contains the nodes of the people in the tree. A node's position in this
+    //list is its id. null where someone has been taken out (see dropPerson()).
+    List<FamilyTreeNode<Person>> people;
+    //maps a person's key (see personKey()) to their node, so that lookups
+    //don't have to scan the whole of 'people'. Concurrent, because the bulk
+    //loader reads it from other threads.
+    Map<PersonKey, FamilyTreeNode<Person>> index;
+    //an immutable copy of every node, indexed by id, kept up to date by each
+    //change to the tree. Snapshots share it. See FamilyTreeSnapshot.
+    private volatile PersistentVector<FamilyTreeSnapshot.Record> version;
+    //who has which name in 'version', versioned along with it. It's always
+    //changed before 'version' is, and snapshot() reads it after, so it's
+    //never behind the records a snapshot holds.
+    private volatile FamilyTreeSnapshot.Names names;
+    //tells subscribers about every change. See ChangeFeed.
+    private ChangeFeed changes;
+    //every partnership each person has had, oldest first, indexed by id. null
+    //for people who have never married. The side links only hold the current
+    //partner; this keeps the whole history.
+    List<List<Partnership>> partnerships;
+    //everyone's generation number, and who is in each generation. See
+    //GenerationIndex.
+    GenerationIndex generations;
+    //skip pointers up everyone's paternal and maternal lines. See
+    //LineageIndex.
+    LineageIndex paternalLines;
+    LineageIndex maternalLines;
+    //how many ancestors and descendants everyone has. See KinCountIndex.
+    KinCountIndex ancestorCounts;
+    KinCountIndex descendantCounts;
+    //true while a MutationBatch is being applied. See startBatch().
+    private boolean batching;
+    //each thread's scratch space for traversals. See TraversalScratch.
+    private final ThreadLocal<TraversalScratch> scratch = new ThreadLocal<TraversalScratch>() {
+
+        @Override
+        protected TraversalScratch initialValue() {
+            return new TraversalScratch();
+        }
+    };
+
+    public FamilyTree() {
+        this(65536);
+    }
+
+    /**
+     * Create a tree whose change feed remembers the given number of events.
+     * 
+     * @param changeFeedCapacity 
+     */
+    public FamilyTree(int changeFeedCapacity) {
+        people = new ArrayList<FamilyTreeNode<Person>>();
+        index = new ConcurrentHashMap<PersonKey, FamilyTreeNode<Person>>();
+        version = PersistentVector.empty();
+        names = FamilyTreeSnapshot.Names.empty();
+        changes = new ChangeFeed(changeFeedCapacity);
+        partnerships = new ArrayList<List<Partnership>>();
+        generations = new GenerationIndex();
+        paternalLines = new LineageIndex(true);
+        maternalLines = new LineageIndex(false);
+        ancestorCounts = new KinCountIndex(true);
+        descendantCounts = new KinCountIndex(false);
+    }
+
+    /**
+     * Adds a new person to the family tree. Returns true if the operation was 
+     * successful, or false if the person already exists.
+     * 
+     * @param aPerson Person to be added
+     * @return
+     */
+    public synchronized boolean addPerson(Person aPerson) {
+
+        boolean success = false;
+        FamilyTreeNode<Person> newPerson;
+
+        if ((newPerson = insertPerson(aPerson)) != null) {
+            names = names.addAll(people, newPerson.getId());
+            version = version.append(FamilyTreeSnapshot.record(newPerson));
+            changes.publish(ChangeType.PERSON_ADDED, newPerson.getId(), -1);
+            success = true;
+        }
+
+        return success;
+    }
+
+    /**
+     * Links an individual to their mother. Both the individual and the
+     * mother need already to appear as a Person in the family tree. Returns true
+     * if successful, false if not.
+     * 
+     * @param aPerson String holding individual's name.
+     * @param aDOB String holding individual's date of birth.
+     * @param mName String holding mother's name.
+     * @param mDOB String holding mother's date of birth.
+     */
+    public synchronized boolean makeLinkToMother(String aPerson, String aDOB,
+            String mName, String mDOB) {
+        FamilyTreeNode<Person> child = getPerson(aPerson, aDOB);
+        FamilyTreeNode<Person> mother = getPerson(mName, mDOB);
+
+        if (child != null && mother != null && linkToMother(child, mother)) {
+            publish(child, mother);
+            changes.publish(ChangeType.MOTHER_LINKED, child.getId(), mother.getId());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Links an individual to their father. Both the individual and the
+     * father need already to appear as a Person in the family tree.
+     * @param aPerson String holding individual's name.
+     * @param aDOB String holding individual's date of birth.
+     * @param fName String holding father's name.
+     * @param fDOB String holding father's date of birth.
+     */
+    public synchronized boolean makeLinkToFather(String aPerson, String aDOB,
+            String fName, String fDOB) {
+        FamilyTreeNode<Person> child = getPerson(aPerson, aDOB);
+        FamilyTreeNode<Person> father = getPerson(fName, fDOB);
+
+        if (child != null && father != null && linkToFather(child, father)) {
+            publish(child, father);
+            changes.publish(ChangeType.FATHER_LINKED, child.getId(), father.getId());
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Links a newly married couple. Each member of the couple
+     * needs already to appear as a Person in the family tree.
+     * @param partner1Name String holding first partner's name.
+     * @param aDOB1 String holding first partner's date of birth.
+     * @param partner2Name String holding second partner's name.
+     * @param aDOB2 String holding second partner's date of birth.
+     */
+    public boolean recordWedding(String partner1Name, String aDOB1,
+            String partner2Name, String aDOB2) {
+        return recordWedding(partner1Name, aDOB1, partner2Name, aDOB2, null);
+    }
+
+    /**
+     * Links a newly married couple, and records the date of the wedding in
+     * their partnership history (see listPartnerships()).
+     * @param partner1Name String holding first partner's name.
+     * @param aDOB1 String holding first partner's date of birth.
+     * @param partner2Name String holding second partner's name.
+     * @param aDOB2 String holding second partner's date of birth.
+     * @param date String holding the date of the wedding, or null if unknown.
+     */
+    public synchronized boolean recordWedding(String partner1Name, String aDOB1,
+            String partner2Name, String aDOB2, String date) {
+        boolean success = false;
+        FamilyTreeNode<Person> partner1 = getPerson(partner1Name, aDOB1);
+        FamilyTreeNode<Person> partner2 = getPerson(partner2Name, aDOB2);
+
+        if ((partner1 != null) && (partner2 != null) && wed(partner1, partner2, date)) {
+            publish(partner1, partner2);
+            changes.publish(ChangeType.WEDDING, partner1.getId(), partner2.getId());
+            success = true;
+        }
+        return success;
+    }
+
+    /**
+     * Records a divorce. Each member of the couple
+     * needs already to appear as a Person in the family tree.
+     * @param partner1Name String first partner's name.
+     * @param aDOB1 String holding first partner's date of birth.
+     * @param partner2Name String holding second partner's name.
+     * @param aDOB2 String holding second partner's date of birth.
+     */
+    public boolean recordDivorce(String partner1Name, String aDOB1,
+            String partner2Name, String aDOB2) {
+        return recordDivorce(partner1Name, aDOB1, partner2Name, aDOB2, null);
+    }
+
+    /**
+     * Records a divorce, and the date it happened, which ends the couple's
+     * partnership (see listPartnerships()).
+     * @param partner1Name String first partner's name.
+     * @param aDOB1 String holding first partner's date of birth.
+     * @param partner2Name String holding second partner's name.
+     * @param aDOB2 String holding second partner's date of birth.
+     * @param date String holding the date of the divorce, or null if unknown.
+     */
+    public synchronized boolean recordDivorce(String partner1Name, String aDOB1,
+            String partner2Name, String aDOB2, String date) {
+        boolean success = false;
+        FamilyTreeNode<Person> partner1 = getPerson(partner1Name, aDOB1);
+        FamilyTreeNode<Person> partner2 = getPerson(partner2Name, aDOB2);
+
+        if ((partner1 != null) && (partner2 != null) && divorce(partner1, partner2, date)) {
+            publish(partner1, partner2);
+            changes.publish(ChangeType.DIVORCE, partner1.getId(), partner2.getId());
+            success = true;
+        }
+        return success;
+    }
+
+    /**
+     * Merges two records of the same person, such as a pair DuplicateFinder
+     * turned up. Everyone linked to the second person (parents, children and
+     * partner) is linked to the first instead, their partnership history is
+     * added to the first person's, and the second person is taken out of the
+     * tree. Links they both had are only kept once. The first person keeps
+     * their own details, and gains the second's flags.
+     *
+     * Returns false, and changes nothing, if either person isn't in the tree,
+     * they're the same person, they have different fathers or different
+     * mothers (one record must be wrong, and the merged person would be left
+     * with a parent who is neither), they're both married, they were ever
+     * married to each other, or one is descended from the other.
+     *
+     * Only the people linked to the two of them are looked at, so a merge
+     * costs about as much as linking each of those links on its own.
+     *
+     * @param keepName name of the person to keep.
+     * @param keepDOB their date of birth.
+     * @param goneName name of the person to merge into them.
+     * @param goneDOB their date of birth.
+     * @return
+     */
+    public synchronized boolean mergePeople(String keepName, String keepDOB, String goneName, String goneDOB) {
+        FamilyTreeNode<Person> keep = getPerson(keepName, keepDOB);
+        FamilyTreeNode<Person> gone = getPerson(goneName, goneDOB);
+        int goneId;
+        int[] touched;
+
+        if (keep == null || gone == null) {
+            return false;
+        }
+        goneId = gone.getId();
+        if ((touched = merge(keep, gone)) == null) {
+            return false;
+        }
+        publishAll(touched, touched.length);
+        changes.publish(ChangeType.PEOPLE_MERGED, keep.getId(), goneId);
+        //their flags may have changed too, which reports about their other
+        //children read.
+        for (int i = 2; i < touched.length; i++) {
+            changes.publish(ChangeType.PERSON_CHANGED, touched[i], -1);
+        }
+        return true;
+    }
+
+    /**
+     * Takes a person out of the tree, along with every link to them: they're
+     * no longer anyone's parent, child or partner, and their partnerships are
+     * gone from their partners' histories too. Returns false if the person
+     * isn't in the tree.
+     *
+     * Only the people linked to them are looked at, so it's cheap enough to
+     * do while the tree is in use. Nobody else's id changes.
+     *
+     * @param personName
+     * @param aDOB
+     * @return
+     */
+    public synchronized boolean removePerson(String personName, String aDOB) {
+        FamilyTreeNode<Person> person = getPerson(personName, aDOB);
+        int id;
+        int[] touched;
+
+        if (person == null) {
+            return false;
+        }
+        id = person.getId();
+        touched = remove(person);
+        publishAll(touched, touched.length);
+        changes.publish(ChangeType.PERSON_REMOVED, id, -1);
+        for (int i = 1; i < touched.length; i++) {
+            changes.publish(ChangeType.PERSON_CHANGED, touched[i], -1);
+        }
+        return true;
+    }
+
+    /**
+     * Takes away the link between a person and one of their parents, such as
+     * one made by mistake. Returns true if there was a link to take away.
+     *
+     * @param aPerson String holding individual's name.
+     * @param aDOB String holding individual's date of birth.
+     * @param pName String holding parent's name.
+     * @param pDOB String holding parent's date of birth.
+     * @return
+     */
+    public synchronized boolean removeLinkToParent(String aPerson, String aDOB,
+            String pName, String pDOB) {
+        FamilyTreeNode<Person> child = getPerson(aPerson, aDOB);
+        FamilyTreeNode<Person> parent = getPerson(pName, pDOB);
+
+        if (child == null || parent == null || !child.containsParentLink(parent)) {
+            return false;
+        }
+        boolean father = child.getFather() == parent;
+        boolean mother = child.getMother() == parent;
+        unlinkParent(child, parent);
+        resetParentFlags(parent);
+        publish(child, parent);
+        if (father) {
+            changes.publish(ChangeType.FATHER_UNLINKED, child.getId(), parent.getId());
+        } else if (mother) {
+            changes.publish(ChangeType.MOTHER_UNLINKED, child.getId(), parent.getId());
+        } else {
+            changes.publish(ChangeType.PERSON_CHANGED, child.getId(), -1);
+            changes.publish(ChangeType.PERSON_CHANGED, parent.getId(), -1);
+        }
+        return true;
+    }
+
+    /**
+     * Returns a new, empty batch of changes for this tree. See MutationBatch.
+     * 
+     * @return 
+     */
+    public MutationBatch newBatch() {
+        return new MutationBatch(this);
+    }
+
+    /*
+     * The methods below make the actual changes to the nodes. They don't look
+     * anyone up, and they don't publish the change to snapshots or the change
+     * feed; the public methods (and MutationBatch) do that once they're done.
+     * They must be called with the tree's lock held.
+     */
+
+    /**
+     * Makes a node for the person and adds it to the tree. Returns the new node,
+     * or null if the person is already in the tree.
+     * 
+     * @param aPerson
+     * @return 
+     */
+    FamilyTreeNode<Person> insertPerson(Person aPerson) {
+        if ((personInTree(aPerson.getName(), aPerson.getDateOfBirth())) != -1) {
+            return null;
+        }
+        FamilyTreeNode<Person> newPerson = new FamilyTreeNode<Person>(aPerson);
+        newPerson.setId(people.size());
+        people.add(newPerson);
+        partnerships.add(null);
+        index.put(personKey(aPerson.getName(), aPerson.getDateOfBirth()), newPerson);
+        generations.add(newPerson);
+        paternalLines.add(newPerson);
+        maternalLines.add(newPerson);
+        ancestorCounts.add(newPerson);
+        descendantCounts.add(newPerson);
+        return newPerson;
+    }
+
+    /**
+     * Takes back the last insertPerson(), given the id the person was given
+     * (the tree's size() before it). If insertPerson() threw part way through,
+     * only what it got as far as doing is taken back. Only used for rolling
+     * back, so the person is always the last one in 'people', and has no links.
+     * 
+     * @param id 
+     */
+    void uninsertPerson(int id) {
+        if (people.size() <= id) {
+            //it never got as far as adding them.
+            return;
+        }
+        FamilyTreeNode<Person> node = people.get(id);
+        PersonKey key = personKey(node.getItem().getName(), node.getItem().getDateOfBirth());
+
+        if (generations.contains(node)) {
+            generations.remove(node);
+        }
+        paternalLines.removeFrom(id);
+        maternalLines.removeFrom(id);
+        ancestorCounts.remove(node);
+        descendantCounts.remove(node);
+        people.remove(id);
+        if (partnerships.size() > id) {
+            partnerships.remove(id);
+        }
+        if (index.get(key) == node) {
+            index.remove(key);
+        }
+    }
+
+    /**
+     * Adds an empty place to the end of the tree, where someone who has been
+     * taken out used to be, so that the people after it keep their ids. For
+     * loading an export of a tree that had people taken out.
+     */
+    void insertGap() {
+        people.add(null);
+        partnerships.add(null);
+    }
+
+    /**
+     * Takes back insertGap(), when rolling back a load.
+     */
+    void uninsertGap() {
+        people.remove(people.size() - 1);
+        partnerships.remove(partnerships.size() - 1);
+    }
+
+    /**
+     * Takes a person out of the tree for good. They mustn't have any links
+     * left. Their place in 'people' is left empty rather than closed up, so
+     * nobody else's id changes, and their id isn't handed out again.
+     *
+     * @param node
+     */
+    void dropPerson(FamilyTreeNode<Person> node) {
+        int id = node.getId();
+
+        generations.remove(node);
+        ancestorCounts.remove(node);
+        descendantCounts.remove(node);
+        people.set(id, null);
+        partnerships.set(id, null);
+        index.remove(personKey(node.getItem().getName(), node.getItem().getDateOfBirth()));
+        node.setId(-1);
+    }
+
+    /**
+     * Takes every link to the person away, and drops them. Returns the ids of
+     * the person and everyone who was linked to them, for publishAll().
+     *
+     * @param node
+     * @return
+     */
+    int[] remove(FamilyTreeNode<Person> node) {
+        List<Partnership> history = partnershipsOf(node);
+        int[] touched = new int[1 + node.parentLinkCount() + node.childLinkCount() + history.size()];
+        int count = 0;
+        touched[count++] = node.getId();
+        ancestorCounts.invalidate(node, scratch().buffer(0));
+        descendantCounts.invalidate(node, scratch().buffer(0));
+
+        for (int i = 0; i < node.parentLinkCount(); i++) {
+            FamilyTreeNode<Person> parent = node.getParentLink(i);
+            touched[count++] = parent.getId();
+            parent.removeOneWayChildLink(node);
+            resetParentFlags(parent);
+        }
+        //only once every parent has lost them, so they aren't left as anyone's
+        //step-child.
+        for (int i = 0; i < node.parentLinkCount(); i++) {
+            restep(node, node.getParentLink(i));
+        }
+        for (int i = 0; i < node.childLinkCount(); i++) {
+            FamilyTreeNode<Person> child = node.getChildLink(i);
+            boolean father = child.getFather() == node;
+            boolean mother = child.getMother() == node;
+            touched[count++] = child.getId();
+            child.removeOneWayParentLink(node);
+            generations.unlinked(child, scratch().buffer(0));
+            if (father) {
+                paternalLines.relinked(child, scratch().buffer(0));
+            }
+            if (mother) {
+                maternalLines.relinked(child, scratch().buffer(0));
+            }
+        }
+        //the partners lose the partnerships, and are only still married or
+        //divorced if they are to or from someone else.
+        for (Partnership partnership : history) {
+            FamilyTreeNode<Person> partner = partnership.otherPartner(node);
+            List<Partnership> theirs = partnerships.get(partner.getId());
+            touched[count++] = partner.getId();
+            theirs.remove(partnership);
+            if (theirs.isEmpty()) {
+                partnerships.set(partner.getId(), null);
+            }
+            partner.removeOneWaySideLink(node);
+            boolean divorced = false;
+            for (Partnership other : partnershipsOf(partner)) {
+                divorced |= !other.isCurrent();
+            }
+            partner.getItem().setIsMarried(!partner.sideLinksIsEmpty());
+            partner.getItem().setIsDivorced(divorced);
+        }
+
+        node.setParentLinks(Collections.<FamilyTreeNode<Person>>emptyList());
+        node.setChildLinks(Collections.<FamilyTreeNode<Person>>emptyList());
+        node.setSideLinks(Collections.<FamilyTreeNode<Person>>emptyList());
+        dropPerson(node);
+        return touched;
+    }
+
+    /**
+     * Moves all of gone's links onto keep, and drops gone. See mergePeople()
+     * for when it refuses. Returns the ids of everyone whose links changed,
+     * gone's included, for publishAll(), or null if nothing was done.
+     *
+     * @param keep
+     * @param gone
+     * @return
+     */
+    int[] merge(FamilyTreeNode<Person> keep, FamilyTreeNode<Person> gone) {
+        if (keep == gone || (!keep.sideLinksIsEmpty() && !gone.sideLinksIsEmpty())
+                || differ(keep.getFather(), gone.getFather()) || differ(keep.getMother(), gone.getMother())
+                || wouldBeOwnAncestor(keep, gone) || wouldBeOwnAncestor(gone, keep)) {
+            return null;
+        }
+        List<Partnership> history = partnershipsOf(gone);
+        for (Partnership partnership : history) {
+            if (partnership.isBetween(keep, gone)) {
+                return null;
+            }
+        }
+        int[] touched = new int[2 + gone.parentLinkCount() + gone.childLinkCount() + gone.sideLinkCount()];
+        int count = 0;
+        FamilyTreeNode<Person> keepFather = keep.getFather();
+        FamilyTreeNode<Person> keepMother = keep.getMother();
+        touched[count++] = keep.getId();
+        touched[count++] = gone.getId();
+        //anyone counting either of them is about to count them differently.
+        ancestorCounts.invalidate(keep, scratch().buffer(0));
+        ancestorCounts.invalidate(gone, scratch().buffer(0));
+        descendantCounts.invalidate(keep, scratch().buffer(0));
+        descendantCounts.invalidate(gone, scratch().buffer(0));
+
+        //gone's parents become keep's, unless they're keep's already. keep
+        //takes their father or mother if it hasn't got one (if it has, it's
+        //the same person, or the merge was refused).
+        for (int i = 0; i < gone.parentLinkCount(); i++) {
+            FamilyTreeNode<Person> parent = gone.getParentLink(i);
+            touched[count++] = parent.getId();
+            if (keep.containsParentLink(parent)) {
+                parent.removeOneWayChildLink(gone);
+            } else {
+                parent.replaceOneWayChildLink(gone, keep);
+                keep.addOneWayParentLink(parent);
+            }
+            if (gone.getFather() == parent && keep.getFather() == null && keep.getMother() != parent) {
+                keep.setFather(parent);
+            } else if (gone.getMother() == parent && keep.getMother() == null && keep.getFather() != parent) {
+                keep.setMother(parent);
+            }
+        }
+
+        //gone's children become keep's. Those who already had keep as a
+        //parent just lose gone, and keep takes gone's place as their father
+        //or mother if it's free.
+        List<FamilyTreeNode<Person>> children = new ArrayList<FamilyTreeNode<Person>>(
+                keep.childLinkCount() + gone.childLinkCount());
+        List<FamilyTreeNode<Person>> fathered = new ArrayList<FamilyTreeNode<Person>>();
+        List<FamilyTreeNode<Person>> mothered = new ArrayList<FamilyTreeNode<Person>>();
+        children.addAll(keep.getChildLinks());
+        for (int i = 0; i < gone.childLinkCount(); i++) {
+            FamilyTreeNode<Person> child = gone.getChildLink(i);
+            boolean father = child.getFather() == gone;
+            boolean mother = child.getMother() == gone;
+            touched[count++] = child.getId();
+            if (father) {
+                fathered.add(child);
+            }
+            if (mother) {
+                mothered.add(child);
+            }
+            if (child.containsParentLink(keep)) {
+                child.removeOneWayParentLink(gone);
+                if (father && child.getMother() != keep) {
+                    child.setFather(keep);
+                } else if (mother && child.getFather() != keep) {
+                    child.setMother(keep);
+                }
+            } else {
+                child.replaceOneWayParentLink(gone, keep);
+                children.add(child);
+            }
+        }
+        keep.setChildLinks(children);
+
+        //gone's partnerships become keep's, before keep's current one so
+        //that the current one is still last.
+        if (!history.isEmpty()) {
+            for (Partnership partnership : history) {
+                partnership.replace(gone, keep);
+            }
+            if (!gone.sideLinksIsEmpty()) {
+                FamilyTreeNode<Person> partner = gone.getSideLink(0);
+                touched[count++] = partner.getId();
+                partner.replaceOneWaySideLink(gone, keep);
+                keep.addOneWaySideLink(partner);
+            }
+            List<Partnership> kept = partnerships.get(keep.getId());
+            if (kept == null) {
+                partnerships.set(keep.getId(), history);
+            } else if (currentPartnership(keep) != null) {
+                kept.addAll(kept.size() - 1, history);
+            } else {
+                kept.addAll(history);
+            }
+        }
+
+        Person person = keep.getItem();
+        person.setIsMarried(!keep.sideLinksIsEmpty());
+        person.setIsDivorced(person.isDivorced() || gone.getItem().isDivorced());
+        person.setIsAdopted(person.isAdopted() || gone.getItem().isAdopted());
+        resetParentFlags(keep);
+        for (int i = 0; i < gone.parentLinkCount(); i++) {
+            resetParentFlags(gone.getParentLink(i));
+        }
+
+        //bring the indexes up to date for keep and gone's children, whose
+        //parents have changed. If keep's own father (or mother) changed,
+        //everyone below keep on that line is looked at anyway.
+        boolean paternal = keep.getFather() != keepFather;
+        boolean maternal = keep.getMother() != keepMother;
+        List<FamilyTreeNode<Person>> goneChildren = new ArrayList<FamilyTreeNode<Person>>(gone.getChildLinks());
+        gone.setParentLinks(Collections.<FamilyTreeNode<Person>>emptyList());
+        gone.setChildLinks(Collections.<FamilyTreeNode<Person>>emptyList());
+        gone.setSideLinks(Collections.<FamilyTreeNode<Person>>emptyList());
+        dropPerson(gone);
+
+        //keep's children (and maybe partner) and keep's parents' children have
+        //changed, so their current partnerships' step-children may have too.
+        Partnership current = currentPartnership(keep);
+        if (current != null) {
+            current.findStepChildren();
+        }
+        for (int i = 0; i < keep.parentLinkCount(); i++) {
+            current = currentPartnership(keep.getParentLink(i));
+            if (current != null) {
+                current.findStepChildren();
+            }
+        }
+
+        generations.unlinked(keep, scratch().buffer(0));
+        for (FamilyTreeNode<Person> child : goneChildren) {
+            generations.unlinked(child, scratch().buffer(0));
+        }
+        if (paternal) {
+            paternalLines.relinked(keep, scratch().buffer(0));
+        }
+        for (FamilyTreeNode<Person> child : fathered) {
+            if (!paternal || child.getFather() != keep) {
+                paternalLines.relinked(child, scratch().buffer(0));
+            }
+        }
+        if (maternal) {
+            maternalLines.relinked(keep, scratch().buffer(0));
+        }
+        for (FamilyTreeNode<Person> child : mothered) {
+            if (!maternal || child.getMother() != keep) {
+                maternalLines.relinked(child, scratch().buffer(0));
+            }
+        }
+        return touched;
+    }
+
+    /**
+     * Returns true if both parents are known and they're different people.
+     * 
+     * @param parent1
+     * @param parent2
+     * @return 
+     */
+    private static boolean differ(FamilyTreeNode<Person> parent1, FamilyTreeNode<Person> parent2) {
+        return parent1 != null && parent2 != null && parent1 != parent2;
+    }
+
+    /**
+     * Links the child to the mother, unless the child already has a mother,
+     * the link already exists, or the mother is the child or one of their
+     * descendants. Returns true if the link was made.
+     * 
+     * @param child
+     * @param mother
+     * @return 
+     */
+    boolean linkToMother(FamilyTreeNode<Person> child, FamilyTreeNode<Person> mother) {
+        //make sure that child doesn't already have a mother, and that there
+        //isn't already a link.
+        if (hasMother(child) || mother.containsChildLink(child) || wouldBeOwnAncestor(child, mother)) {
+            return false;
+        }
+        mother.getItem().setIsMother(true);
+        //create two way link between mother and child.
+        child.addParentLink(mother);
+        child.setMother(mother);
+        restep(child, mother);
+        generations.linked(child, mother, scratch().buffer(0));
+        if (!batching) {
+            maternalLines.relinked(child, scratch().buffer(0));
+            ancestorCounts.linked(child, mother, scratch().buffer(0));
+            descendantCounts.linked(child, mother, scratch().buffer(0));
+        }
+        return true;
+    }
+
+    /**
+     * Links the child to the father, unless the child already has a father,
+     * the link already exists, or the father is the child or one of their
+     * descendants. Returns true if the link was made.
+     * 
+     * @param child
+     * @param father
+     * @return 
+     */
+    boolean linkToFather(FamilyTreeNode<Person> child, FamilyTreeNode<Person> father) {
+        //make sure that child doesn't already have a father, and that there
+        //isn't already a link.
+        if (hasFather(child) || father.containsChildLink(child) || wouldBeOwnAncestor(child, father)) {
+            return false;
+        }
+        father.getItem().setIsFather(true);
+        //create two way link between father and child.
+        child.addParentLink(father);
+        child.setFather(father);
+        restep(child, father);
+        generations.linked(child, father, scratch().buffer(0));
+        if (!batching) {
+            paternalLines.relinked(child, scratch().buffer(0));
+            ancestorCounts.linked(child, father, scratch().buffer(0));
+            descendantCounts.linked(child, father, scratch().buffer(0));
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if linking the child to the parent would make the child
+     * their own ancestor, which would leave them without a generation.
+     * 
+     * @param child
+     * @param parent
+     * @return 
+     */
+    private boolean wouldBeOwnAncestor(FamilyTreeNode<Person> child, FamilyTreeNode<Person> parent) {
+        TraversalScratch scratch = scratch();
+        return generations.wouldBeOwnAncestor(child, parent, scratch.marks, scratch.buffer(0), people.size());
+    }
+
+    /**
+     * Keeps the step-children of the parent's current partnership up to date,
+     * after a link between the child and the parent has been made or taken
+     * away.
+     * 
+     * @param child
+     * @param parent 
+     */
+    private void restep(FamilyTreeNode<Person> child, FamilyTreeNode<Person> parent) {
+        Partnership partnership = currentPartnership(parent);
+
+        if (partnership != null) {
+            partnership.restep(child);
+        }
+    }
+
+    /**
+     * Takes back linkToMother() or linkToFather(), for rolling back a batch or
+     * reloading links that have gone. The caller sorts out the flags.
+     * 
+     * @param child
+     * @param parent 
+     */
+    void unlinkParent(FamilyTreeNode<Person> child, FamilyTreeNode<Person> parent) {
+        boolean father = child.getFather() == parent;
+        boolean mother = child.getMother() == parent;
+
+        child.removeParentLink(parent);
+        restep(child, parent);
+        generations.unlinked(child, scratch().buffer(0));
+        if (batching) {
+            return;
+        }
+        ancestorCounts.unlinked(child, parent, scratch().buffer(0));
+        descendantCounts.unlinked(child, parent, scratch().buffer(0));
+        if (father) {
+            paternalLines.relinked(child, scratch().buffer(0));
+        }
+        if (mother) {
+            maternalLines.relinked(child, scratch().buffer(0));
+        }
+    }
+
+    /**
+     * Starts applying a batch. Until finishBatch(), linking and unlinking
+     * parents only keeps the generations up to date, since the ancestor check
+     * needs them; the line indexes and the ancestor and descendant counts are
+     * left alone, so a batch that's rolled back never touches them.
+     */
+    void startBatch() {
+        batching = true;
+    }
+
+    /**
+     * Finishes applying a batch, bringing the line indexes and the counts up
+     * to date for the parent links it made, once each: every child's lines
+     * are walked once however many of their links the batch made, and the
+     * counts that the links change are thrown away, to be worked out again
+     * when they're next asked for. The lists are empty if the batch was
+     * rolled back.
+     * 
+     * @param children the child of each link the batch made
+     * @param parents the parent of each link, in the same order
+     */
+    void finishBatch(List<FamilyTreeNode<Person>> children, List<FamilyTreeNode<Person>> parents) {
+        batching = false;
+        TraversalScratch scratch = scratch();
+        for (int line = 0; line < 2; line++) {
+            LineageIndex lines = line == 0 ? paternalLines : maternalLines;
+            scratch.marks.begin(people.size());
+            for (int i = 0; i < children.size(); i++) {
+                FamilyTreeNode<Person> child = children.get(i);
+                FamilyTreeNode<Person> parent = line == 0 ? child.getFather() : child.getMother();
+                if (parent == parents.get(i) && scratch.marks.mark(child.getId())) {
+                    lines.relinked(child, scratch.buffer(0));
+                }
+            }
+        }
+        //invalidate() stops at anyone already thrown away, so links that
+        //share descendants (or ancestors) don't walk them again.
+        for (int i = 0; i < children.size(); i++) {
+            ancestorCounts.invalidate(children.get(i), scratch.buffer(0));
+            descendantCounts.invalidate(parents.get(i), scratch.buffer(0));
+        }
+    }
+
+    /**
+     * Works out everyone's generation, the paternal and maternal line indexes,
+     * and the step-children of every current partnership, again from scratch,
+     * and forgets the ancestor and descendant counts until they're next asked
+     * for. Only for the bulk loaders, which make their links without going
+     * through linkToMother() and linkToFather().
+     */
+    void rebuildIndexes() {
+        generations.rebuild(people);
+        paternalLines.rebuild(people);
+        maternalLines.rebuild(people);
+        ancestorCounts.clear(people.size());
+        descendantCounts.clear(people.size());
+        for (int id = 0; id < people.size(); id++) {
+            FamilyTreeNode<Person> node = people.get(id);
+            Partnership partnership = node == null ? null : currentPartnership(node);
+            //once for each partnership, from the partner with the lower id.
+            if (partnership != null && partnership.otherPartner(node).getId() > id) {
+                partnership.findStepChildren();
+            }
+        }
+    }
+
+    /**
+     * Marries the two partners, unless either of them is already married, and
+     * starts a partnership for them. Returns true if they were married.
+     * 
+     * @param partner1
+     * @param partner2
+     * @param date date of the wedding, or null.
+     * @return 
+     */
+    boolean wed(FamilyTreeNode<Person> partner1, FamilyTreeNode<Person> partner2, String date) {
+        //Make sure that neither person is already married.
+        if (!partner1.sideLinksIsEmpty() || !partner2.sideLinksIsEmpty()) {
+            return false;
+        }
+        partner1.getItem().setIsMarried(true);
+        partner2.getItem().setIsMarried(true);
+        //adds two way link between the partners.
+        partner1.addSideLink(partner2);
+        Partnership partnership = new Partnership(partner1, partner2, date);
+        addPartnership(partner1, partnership);
+        addPartnership(partner2, partnership);
+        partnership.findStepChildren();
+        return true;
+    }
+
+    /**
+     * Takes back wed(), or as much of it as was done if it threw part way
+     * through. Only used to roll back a batch; the flags are put back by the
+     * batch.
+     * 
+     * @param partner1
+     * @param partner2 
+     * @param history1 how many partnerships partner1 had before the wedding
+     * @param history2 how many partnerships partner2 had before the wedding
+     */
+    void unwed(FamilyTreeNode<Person> partner1, FamilyTreeNode<Person> partner2, int history1, int history2) {
+        partner1.removeSideLink(partner2);
+        trimPartnerships(partner1, history1);
+        trimPartnerships(partner2, history2);
+    }
+
+    /**
+     * Takes partnerships off the end of a person's history until it's 'count'
+     * long, and forgets the history altogether if that leaves it empty, as
+     * remove() does.
+     * 
+     * @param node 
+     * @param count
+     */
+    private void trimPartnerships(FamilyTreeNode<Person> node, int count) {
+        List<Partnership> list = partnerships.get(node.getId());
+        if (list == null) {
+            return;
+        }
+        while (list.size() > count) {
+            list.remove(list.size() - 1);
+        }
+        if (list.isEmpty()) {
+            partnerships.set(node.getId(), null);
+        }
+    }
+
+    /**
+     * Divorces the two partners, if they're married to each other. Returns
+     * true if they were divorced.
+     * 
+     * @param partner1
+     * @param partner2
+     * @return 
+     */
+    boolean divorce(FamilyTreeNode<Person> partner1, FamilyTreeNode<Person> partner2, String date) {
+        //Make sure that the couple actually is married.
+        if (!partner1.containsSideLink(partner2) || !partner2.containsSideLink(partner1)) {
+            return false;
+        }
+        partner1.getItem().setIsMarried(false);
+        partner1.getItem().setIsDivorced(true);
+        partner2.getItem().setIsMarried(false);
+        partner2.getItem().setIsDivorced(true);
+        //removes link between partners.
+        partner1.removeSideLink(partner2);
+        currentPartnership(partner1).end(date);
+        return true;
+    }
+
+    /**
+     * Takes back divorce(), or as much of it as was done if it threw part way
+     * through. Only used to roll back a batch; the flags are put back by the
+     * batch.
+     * 
+     * @param partner1
+     * @param partner2 
+     * @param partnership the partnership the divorce ended, or null
+     */
+    void undivorce(FamilyTreeNode<Person> partner1, FamilyTreeNode<Person> partner2, Partnership partnership) {
+        //addSideLink() leaves a link that's already there alone.
+        partner1.addSideLink(partner2);
+        if (partnership != null) {
+            partnership.reopen();
+        }
+    }
+
+    /**
+     * Adds a partnership to the end of a person's partnership history.
+     * 
+     * @param node
+     * @param partnership 
+     */
+    private void addPartnership(FamilyTreeNode<Person> node, Partnership partnership) {
+        List<Partnership> list = partnerships.get(node.getId());
+
+        if (list == null) {
+            //most people only ever marry once.
+            list = new ArrayList<Partnership>(1);
+            partnerships.set(node.getId(), list);
+        }
+        list.add(partnership);
+    }
+
+    /**
+     * Returns the person's partnership history, oldest first. Empty if they've
+     * never been married.
+     * 
+     * @param node
+     * @return 
+     */
+    List<Partnership> partnershipsOf(FamilyTreeNode<Person> node) {
+        List<Partnership> list = partnerships.get(node.getId());
+
+        if (list == null) {
+            return Collections.emptyList();
+        }
+        return list;
+    }
+
+    /**
+     * Returns the person's current partnership, or null if they're not
+     * married. A person can only be in one partnership at a time, and it's
+     * always the newest one, so this is a single lookup.
+     * 
+     * @param node
+     * @return 
+     */
+    Partnership currentPartnership(FamilyTreeNode<Person> node) {
+        List<Partnership> list = partnerships.get(node.getId());
+
+        if (list != null && !list.isEmpty() && list.get(list.size() - 1).isCurrent()) {
+            return list.get(list.size() - 1);
+        }
+        return null;
+    }
+
+    /**
+     * Returns the node of the person's current partner, or null if they're not
+     * married.
+     * 
+     * @param node
+     * @return 
+     */
+    FamilyTreeNode<Person> currentPartner(FamilyTreeNode<Person> node) {
+        Partnership partnership = currentPartnership(node);
+
+        if (partnership != null) {
+            return partnership.otherPartner(node);
+        }
+        return null;
+    }
+
+    /**
+     * This lists the person's name, date of birth and hometown. if present, 
+     * it also prints their parents, siblings, partner, and children.
+     * 
+     * @param personName
+     * @param aDOB
+     */
+    public String listPersonDetails(String personName, String aDOB) {
+        String details = "";
+        FamilyTreeNode<Person> person;
+
+        if ((person = getPerson(personName, aDOB)) != null) {
+            details += person.getItem().toString() + "\n";
+            if (person.getItem().isAdopted()) {
+                details += personName + " is adopted.\n";
+            }
+            if (person.getItem().isMarried()) {
+                details += personName +  " is currently married to "
+                        + currentPartner(person).getItem().toString() + "\n";
+            }
+            if (person.getItem().isDivorced()) {
+                details += "personName has had a divorce in the past.\n";
+            }
+            details += this.listParentDetails(personName, aDOB);
+            details += this.listSiblings(personName, aDOB);
+            FamilyTreeNode<Person> partner = currentPartner(person);
+            if (partner != null && person.getItem().isMarried()) {
+                details += personName + "'s partner:\n";
+                details += "Partner: " + partner.getItem().toString() + "\n";
+            }
+            details += this.listChildren(personName, aDOB);
+        } else {
+            details = personName + " isn't in the tree.\n";
+        }
+        return details;
+    }
+
+    /**
+     * Lists every partnership the person has had, oldest first, with when it
+     * started and ended.
+     * 
+     * @param personName
+     * @param aDOB
+     */
+    public String listPartnerships(String personName, String aDOB) {
+        String details = "";
+        FamilyTreeNode<Person> person;
+
+        if ((person = getPerson(personName, aDOB)) != null) {
+            for (Partnership partnership : partnershipsOf(person)) {
+                if (details.isEmpty()) {
+                    details += personName + "'s partnerships:\n";
+                }
+                details += "Partner: " + partnership.otherPartner(person).getItem().toString()
+                        + ", " + partnership.toString() + "\n";
+            }
+            if (details.isEmpty()) {
+                details += personName + " has no partnerships on record.\n";
+            }
+        } else {
+            details = personName + " isn't in the tree.\n";
+        }
+        return details;
+    }
+
+    /**
+     * List the details of the parents of the person whose name is given. Also
+     * lists stepparents.
+     * @param personName
+     * @param aDOB
+     */
+    public String listParentDetails(String personName, String aDOB) {
+        String details = "";
+        FamilyTreeNode<Person> person;
+
+        if ((person = getPerson(personName, aDOB)) != null) {
+            if (!person.parentLinksIsEmpty()) {
+                if (person.getItem().isAdopted()) {
+                    details += personName + "'s adoptive parents:\n";
+                } else {
+                    details += personName + "'s parents:\n";
+                }
+                //find blood parents.
+                for (FamilyTreeNode<Person> parent : person.getParentLinks()) {
+                    if (parent.getItem().isMother()) {
+                        details += "Mother: ";
+                        details += parent.getItem().toString() + "\n";
+                    } else {
+                        details += "Father: ";
+                        details += parent.getItem().toString() + "\n";
+                    }
+                    //if the parent is married, and their partner is not also the 
+                    //person's parent, then the partner is a stepparent.
+                    //
+                    FamilyTreeNode<Person> partner = currentPartner(parent);
+                    if (partner != null && !person.containsParentLink(partner)) {
+                        details += "Stepparent: ";
+                        details += partner.getItem().toString() + "\n";
+                    }
+                }
+            } else {
+                details += personName + " doesn't have any parents listed.\n";
+            }
+        } else {
+            details = personName + " isn't in the tree.\n";
+        }
+        return details;
+    }
+
+    /**
+     * Lists the details of the children of the person whose name is given, along
+     * with their stepchildren, if any.
+     * 
+     * @param personName
+     * @param aDOB
+     */
+    public String listChildren(String personName, String aDOB) {
+        String details = "";
+        FamilyTreeNode<Person> person;
+
+        if ((person = getPerson(personName, aDOB)) != null) {
+
+            if (!person.childLinksIsEmpty()) {
+                details += personName + "'s children:\n";
+                //find and list each child that the person has.
+                for (FamilyTreeNode<Person> child : person.getChildLinks()) {
+                    if (child.getItem().isAdopted()) {
+                        details += "Adopted Child: ";
+                    } else {
+                        details += "Child: ";
+                    }
+                    details += child.getItem().toString() + "\n";
+                }
+            }
+            //the person's current partnership keeps their step-children.
+            Partnership partnership = currentPartnership(person);
+            if (partnership != null) {
+                for (FamilyTreeNode<Person> child : partnership.stepChildrenOf(person)) {
+                    details += "Stepchild: ";
+                    details += child.getItem().toString() + "\n";
+                }
+            }
+            if (details.isEmpty()) {
+                details += personName + " has no children on record.\n";
+            }
+        } else {
+            details = personName + " isn't in the tree.\n";
+        }
+        return details;
+    }
+
+    /**
+     * List the details of the siblings of the person whose name is given. Note
+     * you need to do something about the possibility of duplicate names
+     * appearing.
+     * @param personName
+     * @param aDOB
+     */
+    public String listSiblings(String personName, String aDOB) {
+        FamilyTreeNode<Person> person;
+        TraversalScratch scratch = scratch();
+        StringBuilder details = scratch.text();
+        VisitMarks seen = scratch.marks;
+        //Lists to hold various classes of siblings.
+        List<FamilyTreeNode<Person>> fullSiblings = scratch.buffer(0);
+        List<FamilyTreeNode<Person>> halfSiblings = scratch.buffer(1);
+        List<FamilyTreeNode<Person>> stepSiblings = scratch.buffer(2);
+
+        //make sure person exists first.
+        if ((person = getPerson(personName, aDOB)) != null) {
+            //each sibling is sorted into a list the first time we meet them, and
+            //marked, so that we don't have to search the lists for duplicates.
+            //The person is marked too, so they don't count as their own sibling.
+            seen.begin(people.size());
+            seen.mark(person.getId());
+            for (int i = 0; i < person.parentLinkCount(); i++) {
+                FamilyTreeNode<Person> parent = person.getParentLink(i);
+                for (int j = 0; j < parent.childLinkCount(); j++) {
+                    FamilyTreeNode<Person> sibling = parent.getChildLink(j);
+                    if (seen.mark(sibling.getId())) {
+                        //if the siblings don't share exactly the same parents,
+                        //then they are half siblings.
+                        if (sameParents(person, sibling)) {
+                            fullSiblings.add(sibling);
+                        } else {
+                            halfSiblings.add(sibling);
+                        }
+                    }
+                }
+            }
+            //We've found full and half siblings. Step-siblings are the
+            //parents' step-children, which their partnerships keep.
+            for (int i = 0; i < person.parentLinkCount(); i++) {
+                FamilyTreeNode<Person> parent = person.getParentLink(i);
+                Partnership partnership = currentPartnership(parent);
+                if (partnership != null) {
+                    List<FamilyTreeNode<Person>> stepChildren = partnership.stepChildrenOf(parent);
+                    for (int j = 0; j < stepChildren.size(); j++) {
+                        FamilyTreeNode<Person> sibling = stepChildren.get(j);
+                        if (seen.mark(sibling.getId())) {
+                            stepSiblings.add(sibling);
+                        }
+                    }
+                }
+            }
+            //list sibling details.
+            if (!fullSiblings.isEmpty() || !halfSiblings.isEmpty() || !stepSiblings.isEmpty()) {
+                if (person.getItem().isAdopted()) {
+                    details.append(personName).append("'s adoptive siblings:\n");
+                } else {
+                    details.append(personName).append("'s siblings:\n");
+                }
+                appendSiblings(details, fullSiblings, "Adopted sibling: ", "Sibling: ");
+                appendSiblings(details, halfSiblings, "Adopted half sibling: ", "Half sibling: ");
+                appendSiblings(details, stepSiblings, "Adopted step sibling: ", "Step sibling: ");
+            } else {
+                details.append(personName).append(" has no siblings listed.\n");
+            }
+        } else {
+            details.append(personName).append(" isn't in the tree.\n");
+        }
+
+        return details.toString();
+    }
+
+    /**
+     * Returns true if the two people have exactly the same parents.
+     * 
+     * @param person
+     * @param sibling
+     * @return 
+     */
+    private static boolean sameParents(FamilyTreeNode<Person> person, FamilyTreeNode<Person> sibling) {
+        if (person.parentLinkCount() != sibling.parentLinkCount()) {
+            return false;
+        }
+        for (int i = 0; i < sibling.parentLinkCount(); i++) {
+            if (!person.containsParentLink(sibling.getParentLink(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Appends a line for each sibling in the list, starting with 'adopted' or
+     * 'label' depending on whether the sibling is adopted.
+     */
+    private static void appendSiblings(StringBuilder details, List<FamilyTreeNode<Person>> siblings,
+            String adopted, String label) {
+        for (int i = 0; i < siblings.size(); i++) {
+            Person sibling = siblings.get(i).getItem();
+            if (sibling.isAdopted()) {
+                details.append(adopted);
+            } else {
+                details.append(label);
+            }
+            sibling.appendTo(details).append('\n');
+        }
+    }
+
+    /**
+     * List the details of the ancestors along the paternal line of the person
+     * whose name is given. Lists father, grandfather, great grandfather, etc,
+     * until it reaches the oldest known man in the paternal side of the tree.
+     * 
+     * @param personName
+     * @param aDOB
+     */
+    public String listPaternalLineage(String personName, String aDOB) {
+        String details = "";
+        int numGens = 0;
+        FamilyTreeNode<Person> person;
+
+
+        if ((person = getPerson(personName, aDOB)) != null) {
+            //continue until we can't find any more men.
+            FamilyTreeNode<Person> next;
+            while ((next = person.getFather()) != null) {
+                if (details.isEmpty()) {
+                    if (person.getItem().isAdopted()) {
+                        details += personName + "'s adoptive paternal lineage:\n";
+                    } else {
+                        details += personName + "'s paternal lineage:\n";
+                    }
+                }
+                numGens += 1;
+                person = next;
+                details += fixGenerations(numGens) + "father: " + person.getItem().toString() + "\n";
+            }
+            if (details.isEmpty()) {
+                details += personName + " does not have a father listed. Therefore, we could not find a paternal lineage.\n";
+            }
+        } else {
+            details += personName + " is not in the tree.\n";
+        }
+        return details;
+    }
+
+    /**
+     * List the details of the ancestors along the maternal line of the person
+     * whose name is given. Lists mother, grandmother, great grandmother, etc,
+     * until it reaches the oldest known woman in the maternal side of the tree.
+     * 
+     * @param personName
+     * @param aDOB
+     */
+    public String listMaternalLineage(String personName, String aDOB) {
+        String details = "";
+        int numGens = 0;
+        FamilyTreeNode<Person> person;
+
+        if ((person = getPerson(personName, aDOB)) != null) {
+            //continue until we find ther oldest known woman in the tree.
+            FamilyTreeNode<Person> next;
+            while ((next = person.getMother()) != null) {
+                if (details.isEmpty()) {
+                    if (person.getItem().isAdopted()) {
+                        details += personName + "'s adoptive maternal lineage:\n";
+                    } else {
+                        details += personName + "'s maternal lineage:\n";
+                    }
+                }
+                numGens += 1;
+                person = next;
+                details += fixGenerations(numGens) + "mother: " + person.getItem().toString() + "\n";
+            }
+            if (details.isEmpty()) {
+                details += personName + " does not have a mother listed. Therefore, we could not find a maternal lineage.\n";
+            }
+        } else {
+            details += personName + " is not in the tree.\n";
+        }
+        return details;
+    }
+
+    /**
+     * Gives the details of the person's ancestor N generations up their
+     * paternal line: 1 is their father, 2 their father's father, and so on.
+     * Jumps up the line with the skip pointers in LineageIndex, so it takes
+     * O(log N) steps rather than N.
+     * 
+     * @param personName
+     * @param aDOB
+     * @param numberOfGenerations
+     * @return 
+     */
+    public String listNthPaternalAncestor(String personName, String aDOB, int numberOfGenerations) {
+        return listNthLineAncestor(personName, aDOB, numberOfGenerations, paternalLines, "father", "paternal");
+    }
+
+    /**
+     * Gives the details of the person's ancestor N generations up their
+     * maternal line: 1 is their mother, 2 their mother's mother, and so on.
+     * See listNthPaternalAncestor().
+     * 
+     * @param personName
+     * @param aDOB
+     * @param numberOfGenerations
+     * @return 
+     */
+    public String listNthMaternalAncestor(String personName, String aDOB, int numberOfGenerations) {
+        return listNthLineAncestor(personName, aDOB, numberOfGenerations, maternalLines, "mother", "maternal");
+    }
+
+    private String listNthLineAncestor(String personName, String aDOB, int numberOfGenerations,
+            LineageIndex lines, String parent, String line) {
+        FamilyTreeNode<Person> person;
+
+        if (numberOfGenerations <= 0) {
+            return "Please enter a positive, non-zero integer for generation.\n";
+        }
+        if ((person = getPerson(personName, aDOB)) == null) {
+            return personName + " is not in the tree.\n";
+        }
+        int ancestor = lines.ancestor(person.getId(), numberOfGenerations);
+        if (ancestor == -1) {
+            int depth = lines.depth(person.getId());
+            return personName + "'s " + line + " line only goes back " + depth
+                    + (depth == 1 ? " generation.\n" : " generations.\n");
+        }
+        return fixGenerations(numberOfGenerations) + parent + ": " + people.get(ancestor).getItem().toString() + "\n";
+    }
+
+    /**
+     * List the details of the grandparents of the person
+     * whose name is given. 
+     * 
+     * Finds the person's parents, and then finds their parents, as those
+     * are the person's grandparents.
+     * @param personName
+     * @param aDOB
+     */
+    public String listGrandParents(String personName, String aDOB) {
+        String details = "";
+        FamilyTreeNode<Person> person;
+
+        if ((person = getPerson(personName, aDOB)) != null) {
+            if (!person.parentLinksIsEmpty()) {
+                for (FamilyTreeNode<Person> parent : person.getParentLinks()) {
+                    for (FamilyTreeNode<Person> grandparent : parent.getParentLinks()) {
+                        if (details.isEmpty()) {
+                            if (person.getItem().isAdopted()) {
+                                details += personName + "'s Adoptive grandparents:\n";
+                            } else {
+                                details += personName + "'s Grandparents:\n";
+                            }
+                        }
+                        if (grandparent.getItem().isMother()) {
+                            details += "Grandmother: ";
+                        } else {
+                            details += "Grandfather: ";
+                        }
+                        details += grandparent.getItem().toString() + "\n";
+                    }
+                }
+            }
+            if (details.isEmpty()) {
+                details += personName + " doesn't have any Grandparents listed.";
+            }
+        } else {
+            details = personName + " isn't in the tree.\n";
+        }
+        return details;
+    }
+
+    /**
+     * List the details of the grandchildren of the person whose name is given.
+     * Finds the person's children's children, as those are the person's 
+     * grandchildren.
+     * 
+     * @param personName
+     * @param aDOB
+     */
+    public String listGrandChildren(String personName, String aDOB) {
+        FamilyTreeNode<Person> person;
+        TraversalScratch scratch = scratch();
+        StringBuilder details = scratch.text();
+        VisitMarks seen = scratch.marks;
+
+        if ((person = getPerson(personName, aDOB)) != null) {
+            seen.begin(people.size());
+            for (int i = 0; i < person.childLinkCount(); i++) {
+                FamilyTreeNode<Person> child = person.getChildLink(i);
+                for (int j = 0; j < child.childLinkCount(); j++) {
+                    FamilyTreeNode<Person> grandchild = child.getChildLink(j);
+                    //a grandchild whose parents are both the person's
+                    //children would otherwise be listed twice.
+                    if (!seen.mark(grandchild.getId())) {
+                        continue;
+                    }
+                    if (details.length() == 0) {
+                        details.append(personName).append("'s Grandchildren:\n");
+                    }
+                    if (grandchild.getItem().isAdopted()) {
+                        details.append("Adopted Grandchild: ");
+                    } else {
+                        details.append("Grandchild: ");
+                    }
+                    grandchild.getItem().appendTo(details).append('\n');
+                }
+            }
+            if (details.length() == 0) {
+                details.append(personName).append(" doesn't have any Grandchildren.\n");
+            }
+        } else {
+            details.append(personName).append(" isn't in the tree.\n");
+        }
+        return details.toString();
+    }
+
+    /**
+     * List the details of the cousins of the person whose name is given.
+     * This looks pretty complex, but it's fairly simple once explained: We find
+     * the desired person's grandparents, and then find the grandparent's children.
+     * If the child in question isn't one of our person's parents, then it
+     * stands to reason that their children are our person's cousins.
+     *
+     * @param personName
+     * @param aDOB
+     */
+    public String listCousins(String personName, String aDOB) {
+        FamilyTreeNode<Person> person;
+        TraversalScratch scratch = scratch();
+        StringBuilder details = scratch.text();
+        VisitMarks seen = scratch.marks;
+
+        if ((person = getPerson(personName, aDOB)) != null) {
+            if (!person.parentLinksIsEmpty()) {
+                seen.begin(people.size());
+                //find parents.
+                for (int i = 0; i < person.parentLinkCount(); i++) {
+                    FamilyTreeNode<Person> parent = person.getParentLink(i);
+                    //find grandparents.
+                    for (int j = 0; j < parent.parentLinkCount(); j++) {
+                        FamilyTreeNode<Person> grandparent = parent.getParentLink(j);
+                        //find aunts and uncles.
+                        for (int k = 0; k < grandparent.childLinkCount(); k++) {
+                            FamilyTreeNode<Person> parentSibling = grandparent.getChildLink(k);
+                            //find cousins, list them.
+                            if (parentSibling != parent) {
+                                for (int l = 0; l < parentSibling.childLinkCount(); l++) {
+                                    FamilyTreeNode<Person> cousin = parentSibling.getChildLink(l);
+                                    if (details.length() == 0) {
+                                        if (person.getItem().isAdopted()) {
+                                            details.append(personName).append("'s adoptive cousins:\n");
+                                        } else {
+                                            details.append(personName).append("'s cousins:\n");
+                                        }
+                                    }
+                                    //a cousin can be reached through more than
+                                    //one grandparent, but is only listed once.
+                                    if (seen.mark(cousin.getId())) {
+                                        if (cousin.getItem().isAdopted()) {
+                                            details.append("Adopted cousin: ");
+                                        } else {
+                                            details.append("Cousin: ");
+                                        }
+                                        cousin.getItem().appendTo(details).append('\n');
+                                    }
+                                }
+                            }
+                        }
+                    }
+                }
+                if (details.length() == 0) {
+                    details.append(personName).append(" has no cousins listed.\n");
+                }
+            } else {
+                details.append(personName).append(" has no parents listed. Thus, we cannnot find any cousins.\n");
+            }
+        } else {
+            details.append(personName).append(" is not in the tree.\n");
+        }
+        return details.toString();
+
+    }
+
+    /**
+     * List the details of the N generations of ancestors of the person whose
+     * name is given. 
+     * 
+     * In families where cousins married (royal lines, small villages), the
+     * same ancestor can be reached down more than one line, and the number of
+     * lines doubles every generation. So each generation is deduplicated as it's
+     * built: every ancestor is listed once, with the number of lines of descent
+     * that lead to them (the pedigree collapse, or implex) if it's more than one.
+     * The work done is bounded by the number of distinct ancestors, not 2^N.
+     * 
+     * @param personName
+     * @param aDOB
+     * @param numberOfGenerations 1=parents,2=grandparents,
+     *                            3=great-grandparents etc.
+     */
+    public String listGreatNGrandParents(String personName, String aDOB, int numberOfGenerations) {
+        FamilyTreeNode<Person> person;
+        TraversalScratch scratch = scratch();
+        StringBuilder details = scratch.text();
+        List<FamilyTreeNode<Person>> currentAncestors = scratch.buffer(0);
+        List<FamilyTreeNode<Person>> nextAncestors = scratch.buffer(1);
+        //currentLines[i] is the number of lines of descent from the person to
+        //currentAncestors[i].
+        long[] currentLines = scratch.counts(1);
+        VisitMarks marks = scratch.marks;
+
+        if (numberOfGenerations > 0) {
+            if ((person = getPerson(personName, aDOB)) != null) {
+                //nobody has ancestors further back than their own generation
+                //number, so don't bother looking for them.
+                if (generations.generationOf(person.getId()) >= numberOfGenerations) {
+                    currentAncestors.add(person);
+                    currentLines[0] = 1;
+                }
+                //loop through the generations until they reach zero.
+                for (int i = numberOfGenerations; i > 0 && !currentAncestors.isEmpty(); i--) {
+                    marks.begin(people.size());
+                    for (int j = 0; j < currentAncestors.size(); j++) {
+                        FamilyTreeNode<Person> currentAncestor = currentAncestors.get(j);
+                        //fill up nextAncestors with the parents of the people in
+                        //currentAncestors, once each, adding up the lines that
+                        //lead to each of them.
+                        for (int k = 0; k < currentAncestor.parentLinkCount(); k++) {
+                            FamilyTreeNode<Person> nextAncestor = currentAncestor.getParentLink(k);
+                            if (marks.mark(nextAncestor.getId())) {
+                                nextAncestors.add(nextAncestor);
+                            }
+                            marks.add(nextAncestor.getId(), currentLines[j]);
+                        }
+                    }
+                    //copy nextAncestors to currentAncestors and clear nextAncestors
+                    //for the next loop.
+                    currentAncestors.clear();
+                    currentAncestors.addAll(nextAncestors);
+                    nextAncestors.clear();
+                    currentLines = scratch.counts(currentAncestors.size());
+                    for (int j = 0; j < currentAncestors.size(); j++) {
+                        currentLines[j] = marks.count(currentAncestors.get(j).getId());
+                    }
+                }
+                //list ancestors.
+                String greats = fixGenerations(numberOfGenerations);
+                if (currentAncestors.isEmpty()) {
+                    details.append(personName).append(" doesn't have any ").append(greats.toLowerCase()).append("parents.\n");
+                } else {
+                    if (person.getItem().isAdopted()) {
+                        details.append(personName).append("'s adopted ").append(greats.toLowerCase()).append("parents:\n");
+                    } else {
+                        details.append(personName).append("'s ").append(greats.toLowerCase()).append("parents:\n");
+                    }
+                }
+                for (int j = 0; j < currentAncestors.size(); j++) {
+                    FamilyTreeNode<Person> currentAncestor = currentAncestors.get(j);
+                    if (currentAncestor.getItem().isMother()) {
+                        details.append(greats).append("mother: ");
+                    } else {
+                        details.append(greats).append("father: ");
+                    }
+                    currentAncestor.getItem().appendTo(details);
+                    if (currentLines[j] > 1) {
+                        details.append(" (through ").append(currentLines[j]).append(" lines of descent)");
+                    }
+                    details.append('\n');
+                }
+            } else {
+                details.append(personName).append(" is not in tree.\n");
+            }
+        } else {
+            details.append("Please enter a positive, non-zero integer for generation.\n");
+        }
+        return details.toString();
+    }
+
+    /**
+     * Returns the number of distinct known ancestors of the person, over all
+     * generations, or -1 if the person isn't in the tree. An ancestor reached
+     * down more than one line is only counted once.
+     * 
+     * @param personName
+     * @param aDOB
+     * @return 
+     */
+    public int countAncestors(String personName, String aDOB) {
+        FamilyTreeNode<Person> person;
+        TraversalScratch scratch = scratch();
+        List<FamilyTreeNode<Person>> toVisit = scratch.buffer(0);
+        VisitMarks marks = scratch.marks;
+        int count = 0;
+
+        if ((person = getPerson(personName, aDOB)) == null) {
+            return -1;
+        }
+        marks.begin(people.size());
+        marks.mark(person.getId());
+        toVisit.add(person);
+        while (!toVisit.isEmpty()) {
+            FamilyTreeNode<Person> next = toVisit.remove(toVisit.size() - 1);
+            for (int i = 0; i < next.parentLinkCount(); i++) {
+                FamilyTreeNode<Person> parent = next.getParentLink(i);
+                if (marks.mark(parent.getId())) {
+                    count++;
+                    toVisit.add(parent);
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns how many different people are the person's ancestors, or -1 if
+     * they aren't in the tree. Unlike countAncestors(), which walks them all
+     * every time, this is kept (see KinCountIndex), so asking again is O(1)
+     * however big the family, and so is asking about their children. Up to
+     * KinCountIndex.EXACT_LIMIT it's exact; above that it's an estimate,
+     * usually within 6.5%.
+     *
+     * @param personName
+     * @param aDOB
+     * @return
+     */
+    public synchronized long ancestorCount(String personName, String aDOB) {
+        FamilyTreeNode<Person> person = getPerson(personName, aDOB);
+
+        if (person == null) {
+            return -1;
+        }
+        return ancestorCounts.count(person, scratch().buffer(0));
+    }
+
+    /**
+     * Returns how many different people are the person's descendants, or -1
+     * if they aren't in the tree. Exact or estimated as for ancestorCount().
+     *
+     * @param personName
+     * @param aDOB
+     * @return
+     */
+    public synchronized long descendantCount(String personName, String aDOB) {
+        FamilyTreeNode<Person> person = getPerson(personName, aDOB);
+
+        if (person == null) {
+            return -1;
+        }
+        return descendantCounts.count(person, scratch().buffer(0));
+    }
+
+    /**
+     * ancestorCount() and descendantCount() together, as a report. Estimated
+     * counts are marked as being about that many.
+     *
+     * @param personName
+     * @param aDOB
+     * @return
+     */
+    public synchronized String listKinCounts(String personName, String aDOB) {
+        FamilyTreeNode<Person> person = getPerson(personName, aDOB);
+
+        if (person == null) {
+            return personName + " isn't in the tree.\n";
+        }
+        List<FamilyTreeNode<Person>> work = scratch().buffer(0);
+        StringBuilder details = scratch().text();
+        details.append(personName).append(" has ");
+        if (!ancestorCounts.isExact(person, work)) {
+            details.append("about ");
+        }
+        details.append(ancestorCounts.count(person, work)).append(" known ancestors and ");
+        if (!descendantCounts.isExact(person, work)) {
+            details.append("about ");
+        }
+        details.append(descendantCounts.count(person, work)).append(" descendants.\n");
+        return details.toString();
+    }
+
+    /**
+     * The most links the console and the server look through for a
+     * relationship path, unless told otherwise.
+     */
+    public static final int DEFAULT_PATH_LINKS = 64;
+
+    /**
+     * Returns the shortest chain of parent, child and partner links from the
+     * first person to the second, or null if either isn't in the tree or
+     * there's no chain of 'maxLinks' links or fewer. Only current partners
+     * (the side links) count.
+     *
+     * It searches from both ends at once, a generation of links at a time,
+     * always widening whichever end has fewer people waiting, and stops where
+     * the two searches meet. For two people far apart in a big tree, that
+     * visits about the square root of the people a search from one end would.
+     * Everyone reached is marked in the thread's VisitMarks with which end
+     * reached them, from whom and over which kind of link, so nothing is
+     * allocated per person and the path is read back from the marks.
+     *
+     * @param name1
+     * @param dob1
+     * @param name2
+     * @param dob2
+     * @param maxLinks
+     * @return
+     */
+    public RelationshipPath findRelationshipPath(String name1, String dob1, String name2, String dob2, int maxLinks) {
+        FamilyTreeNode<Person> first = getPerson(name1, dob1);
+        FamilyTreeNode<Person> last = getPerson(name2, dob2);
+
+        if (first == null || last == null || maxLinks < 0) {
+            return null;
+        }
+        if (first == last) {
+            return new RelationshipPath(Collections.singletonList(first.getItem()),
+                    Collections.<RelationshipPath.Step>emptyList());
+        }
+        TraversalScratch scratch = scratch();
+        VisitMarks marks = scratch.marks;
+        List<FamilyTreeNode<Person>> fromFirst = scratch.buffer(0);
+        List<FamilyTreeNode<Person>> fromLast = scratch.buffer(1);
+        List<FamilyTreeNode<Person>> next = scratch.buffer(2);
+
+        marks.begin(people.size());
+        marks.mark(first.getId());
+        marks.mark(last.getId());
+        marks.add(last.getId(), FROM_LAST);
+        fromFirst.add(first);
+        fromLast.add(last);
+        for (int links = 0; links < maxLinks && !fromFirst.isEmpty() && !fromLast.isEmpty(); links++) {
+            boolean forward = fromFirst.size() <= fromLast.size();
+            List<FamilyTreeNode<Person>> frontier = forward ? fromFirst : fromLast;
+            long end = forward ? FROM_FIRST : FROM_LAST;
+            for (int i = 0; i < frontier.size(); i++) {
+                FamilyTreeNode<Person> person = frontier.get(i);
+                FamilyTreeNode<Person> met = null;
+                RelationshipPath.Step step = null;
+                for (int j = 0; met == null && j < person.parentLinkCount(); j++) {
+                    met = reach(person, person.getParentLink(j), RelationshipPath.Step.PARENT, end, next, marks);
+                    step = RelationshipPath.Step.PARENT;
+                }
+                for (int j = 0; met == null && j < person.childLinkCount(); j++) {
+                    met = reach(person, person.getChildLink(j), RelationshipPath.Step.CHILD, end, next, marks);
+                    step = RelationshipPath.Step.CHILD;
+                }
+                for (int j = 0; met == null && j < person.sideLinkCount(); j++) {
+                    met = reach(person, person.getSideLink(j), RelationshipPath.Step.PARTNER, end, next, marks);
+                    step = RelationshipPath.Step.PARTNER;
+                }
+                if (met != null) {
+                    if (forward) {
+                        return readPath(person, met, step, marks);
+                    }
+                    return readPath(met, person, step.reverse(), marks);
+                }
+            }
+            frontier.clear();
+            if (forward) {
+                fromFirst = next;
+            } else {
+                fromLast = next;
+            }
+            next = frontier;
+        }
+        return null;
+    }
+
+    /**
+     * findRelationshipPath(), as a report.
+     *
+     * @param name1
+     * @param dob1
+     * @param name2
+     * @param dob2
+     * @param maxLinks
+     * @return
+     */
+    public String listRelationshipPath(String name1, String dob1, String name2, String dob2, int maxLinks) {
+        if (getPerson(name1, dob1) == null) {
+            return name1 + " isn't in the tree.\n";
+        }
+        if (getPerson(name2, dob2) == null) {
+            return name2 + " isn't in the tree.\n";
+        }
+        RelationshipPath path = findRelationshipPath(name1, dob1, name2, dob2, maxLinks);
+        if (path == null) {
+            return name1 + " and " + name2 + " aren't linked by " + maxLinks + " links or fewer.\n";
+        }
+        return name1 + " is linked to " + name2 + " by " + path.length() + " links:\n" + path;
+    }
+
+    //findRelationshipPath()'s marks. Bit 0 says which end reached the person,
+    //bits 1-2 are the kind of link they were reached over, and the rest is
+    //one more than the id of the person they were reached from (0 for the
+    //people at the two ends).
+    private static final long FROM_FIRST = 0;
+    private static final long FROM_LAST = 1;
+    private static final RelationshipPath.Step[] STEPS = RelationshipPath.Step.values();
+
+    //marks 'other' as reached from 'person' and queues it, unless it's been
+    //reached already. Returns 'other' if it was reached from the other end,
+    //which is where the two searches meet.
+    private static FamilyTreeNode<Person> reach(FamilyTreeNode<Person> person, FamilyTreeNode<Person> other,
+            RelationshipPath.Step step, long end, List<FamilyTreeNode<Person>> next, VisitMarks marks) {
+        int id = other.getId();
+
+        if (marks.mark(id)) {
+            marks.add(id, ((long) (person.getId() + 1) << 3) | (step.ordinal() << 1) | end);
+            next.add(other);
+            return null;
+        }
+        if ((marks.count(id) & 1) != end) {
+            return other;
+        }
+        return null;
+    }
+
+    //builds the path through the link from 'near' (reached from the first
+    //person) to 'far' (reached from the last).
+    private RelationshipPath readPath(FamilyTreeNode<Person> near, FamilyTreeNode<Person> far,
+            RelationshipPath.Step step, VisitMarks marks) {
+        List<Person> path = new ArrayList<Person>();
+        List<RelationshipPath.Step> steps = new ArrayList<RelationshipPath.Step>();
+
+        //back from 'near' to the first person, then turned round.
+        for (FamilyTreeNode<Person> person = near; person != null; person = reachedFrom(person, marks)) {
+            path.add(person.getItem());
+            if (reachedFrom(person, marks) != null) {
+                steps.add(STEPS[(int) (marks.count(person.getId()) >>> 1) & 3]);
+            }
+        }
+        Collections.reverse(path);
+        Collections.reverse(steps);
+        steps.add(step);
+        //and on from 'far' to the last person, each link the other way round.
+        for (FamilyTreeNode<Person> person = far; person != null; person = reachedFrom(person, marks)) {
+            path.add(person.getItem());
+            if (reachedFrom(person, marks) != null) {
+                steps.add(STEPS[(int) (marks.count(person.getId()) >>> 1) & 3].reverse());
+            }
+        }
+        return new RelationshipPath(path, steps);
+    }
+
+    private FamilyTreeNode<Person> reachedFrom(FamilyTreeNode<Person> person, VisitMarks marks) {
+        int id = (int) (marks.count(person.getId()) >>> 3) - 1;
+
+        if (id < 0) {
+            return null;
+        }
+        return people.get(id);
+    }
+
+    /**
+     * Returns the kinship coefficient of the two people (see KinshipEngine),
+     * or -1 if either isn't in the tree.
+     * 
+     * @param name1
+     * @param dob1
+     * @param name2
+     * @param dob2
+     * @return 
+     */
+    public double kinshipCoefficient(String name1, String dob1, String name2, String dob2) {
+        FamilyTreeSnapshot current = snapshot();
+        int person1 = current.find(name1, dob1);
+        int person2 = current.find(name2, dob2);
+
+        if (person1 == -1 || person2 == -1) {
+            return -1;
+        }
+        return new KinshipEngine(current).kinship(person1, person2);
+    }
+
+    /**
+     * Returns the person's inbreeding coefficient (see KinshipEngine), or -1
+     * if they aren't in the tree.
+     * 
+     * @param personName
+     * @param aDOB
+     * @return 
+     */
+    public double inbreedingCoefficient(String personName, String aDOB) {
+        FamilyTreeSnapshot current = snapshot();
+        int person = current.find(personName, aDOB);
+
+        if (person == -1) {
+            return -1;
+        }
+        return new KinshipEngine(current).inbreeding(person);
+    }
+
+    /**
+     * Returns the person's generation number, or -1 if they aren't in the
+     * tree. Generation 0 is everyone with no known parents; anyone else is one
+     * generation after the latest of their parents.
+     * 
+     * @param personName
+     * @param aDOB
+     * @return 
+     */
+    public int getGeneration(String personName, String aDOB) {
+        FamilyTreeNode<Person> person = getPerson(personName, aDOB);
+
+        if (person == null) {
+            return -1;
+        }
+        return generations.generationOf(person.getId());
+    }
+
+    /**
+     * Returns the number of generations in the tree, counting generation 0.
+     * 
+     * @return 
+     */
+    public int generationCount() {
+        return generations.count();
+    }
+
+    /**
+     * List the details of everyone in the given generation (see
+     * getGeneration()). Only that generation is looked at, however big the
+     * tree is.
+     * 
+     * @param generation
+     * @return 
+     */
+    public String listGeneration(int generation) {
+        StringBuilder details = scratch().text();
+        List<FamilyTreeNode<Person>> level = generations.level(generation);
+
+        if (level.isEmpty()) {
+            details.append("There is nobody in generation ").append(generation).append(".\n");
+        } else {
+            details.append("Generation ").append(generation).append(":\n");
+            for (int i = 0; i < level.size(); i++) {
+                level.get(i).getItem().appendTo(details).append('\n');
+            }
+        }
+        return details.toString();
+    }
+
+    /**
+     * List the details of the N generations of children of the person whose
+     * name is given. Note you need to do something about the possibility of
+     * duplicate names appearing.
+     * @param personName
+     * @param aDOB
+     * @param numberOfGenerations 1=children,2=grandchildren,
+     *                            3=great-grandchildren etc.
+     */
+    public String listGreatNGrandChildren(String personName, String aDOB, int numberOfGenerations) {
+        FamilyTreeNode<Person> person;
+        TraversalScratch scratch = scratch();
+        StringBuilder details = scratch.text();
+        List<FamilyTreeNode<Person>> currentChildren = scratch.buffer(0);
+        List<FamilyTreeNode<Person>> nextChildren = scratch.buffer(1);
+
+        if (numberOfGenerations > 0) {
+            if ((person = getPerson(personName, aDOB)) != null) {
+                currentChildren.add(person);
+                for (int i = numberOfGenerations; i > 0; i--) {
+                    for (int j = 0; j < currentChildren.size(); j++) {
+                        FamilyTreeNode<Person> currentChild = currentChildren.get(j);
+                        for (int k = 0; k < currentChild.childLinkCount(); k++) {
+                            nextChildren.add(currentChild.getChildLink(k));
+                        }
+                    }
+                    List<FamilyTreeNode<Person>> swap = currentChildren;
+                    currentChildren = nextChildren;
+                    nextChildren = swap;
+                    nextChildren.clear();
+                }
+                String generations = fixGenerations(numberOfGenerations);
+                String lowerGenerations = generations.toLowerCase();
+                if (currentChildren.isEmpty()) {
+                    details.append(personName).append(" doesn't have any ").append(lowerGenerations).append("children.\n");
+                } else {
+                    details.append(personName).append("'s ").append(lowerGenerations).append("children:\n");
+                }
+                for (int j = 0; j < currentChildren.size(); j++) {
+                    FamilyTreeNode<Person> currentChild = currentChildren.get(j);
+                    if (currentChild.getItem().isAdopted()) {
+                        details.append("Adopted").append(lowerGenerations).append(" child");
+                    } else {
+                        details.append(generations).append("child: ");
+                    }
+                    currentChild.getItem().appendTo(details).append('\n');
+                }
+            } else {
+                details.append(personName).append(" is not in tree.\n");
+            }
+        } else {
+            details.append("Please enter a positive, non-zero integer for generation.\n");
+        }
+        return details.toString();
+    }
+
+    /**
+     * Records an adoption. This method assumes that the child already has a link 
+     * to their (adoptive) parents, and modifies the child so that they are marked
+     * as adopted.
+     * 
+     * @param personName
+     * @param aDOB
+     */
+    public synchronized boolean recordAdoption(String personName, String aDOB) {
+        FamilyTreeNode<Person> person;
+
+        if ((person = getPerson(personName, aDOB)) != null) {
+            person.getItem().setIsAdopted(true);
+            publish(person);
+            changes.publish(ChangeType.ADOPTION, person.getId(), -1);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns this thread's traversal scratch space.
+     * 
+     * @return 
+     */
+    private TraversalScratch scratch() {
+        return scratch.get();
+    }
+
+    /**
+     * Returns a frozen, read-only view of the tree as it is right now. This is
+     * O(1); see FamilyTreeSnapshot.
+     * 
+     * @return 
+     */
+    public FamilyTreeSnapshot snapshot() {
+        PersistentVector<FamilyTreeSnapshot.Record> records = version;
+        return new FamilyTreeSnapshot(records, names);
+    }
+
+    /**
+     * Returns the feed of changes made to this tree. Subscribe to it to hear
+     * about every person added and every link made or broken.
+     * 
+     * @return 
+     */
+    public ChangeFeed getChangeFeed() {
+        return changes;
+    }
+
+    /**
+     * Brings the immutable copy of the given node up to date, so that the
+     * next snapshot sees the change. Called by every method that changes a
+     * node, after it's done.
+     * 
+     * @param node 
+     */
+    void publish(FamilyTreeNode<Person> node) {
+        version = version.set(node.getId(), FamilyTreeSnapshot.record(node));
+    }
+
+    /**
+     * publish() for the two nodes at either end of a link.
+     * 
+     * @param node1
+     * @param node2 
+     */
+    void publish(FamilyTreeNode<Person> node1, FamilyTreeNode<Person> node2) {
+        version = version.set(node1.getId(), FamilyTreeSnapshot.record(node1))
+                .set(node2.getId(), FamilyTreeSnapshot.record(node2));
+    }
+
+    /**
+     * Like publish(), but for lots of nodes at once, such as after a bulk
+     * load or a batch. Also publishes anyone added since the last publish. Uses
+     * a transient vector so each part of the trie is only copied once.
+     * 
+     * @param ids
+     * @param count number of ids to use from the start of 'ids'.
+     */
+    void publishAll(int[] ids, int count) {
+        PersistentVector.Transient<FamilyTreeSnapshot.Record> next = version.asTransient();
+        int published = next.size();
+
+        names = names.addAll(people, published);
+        //people added since the last publish go on the end.
+        while (next.size() < people.size()) {
+            next.append(FamilyTreeSnapshot.record(people.get(next.size())));
+        }
+        for (int i = 0; i < count; i++) {
+            if (ids[i] < published) {
+                next.set(ids[i], FamilyTreeSnapshot.record(people.get(ids[i])));
+            }
+        }
+        version = next.persistent();
+    }
+
+    /**
+     * Returns true if the person specified has a mother.
+     * 
+     * @param aName
+     * @param aDOB
+     * @return 
+     */
+    public boolean hasMother(String aName, String aDOB) {
+        FamilyTreeNode<Person> person;
+
+        if ((person = getPerson(aName, aDOB)) != null) {
+            return hasMother(person);
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the node has been linked to a mother.
+     * 
+     * @param person
+     * @return 
+     */
+    static boolean hasMother(FamilyTreeNode<Person> person) {
+        return person.getMother() != null;
+    }
+
+    /**
+     * Returns true if the person specified has a father.
+     * 
+     * @param aName
+     * @param aDOB
+     * @return 
+     */
+    public boolean hasFather(String aName, String aDOB) {
+        FamilyTreeNode<Person> person;
+
+        if ((person = getPerson(aName, aDOB)) != null) {
+            return hasFather(person);
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the node has been linked to a father.
+     * 
+     * @param person
+     * @return 
+     */
+    static boolean hasFather(FamilyTreeNode<Person> person) {
+        return person.getFather() != null;
+    }
+
+    /**
+     * Works out the parent's isFather and isMother flags again, from whether
+     * they're still anyone's father or mother. For after links to them have
+     * been taken away or moved.
+     * 
+     * @param parent 
+     */
+    static void resetParentFlags(FamilyTreeNode<Person> parent) {
+        boolean father = false;
+        boolean mother = false;
+
+        for (int i = 0; i < parent.childLinkCount(); i++) {
+            FamilyTreeNode<Person> child = parent.getChildLink(i);
+            father |= child.getFather() == parent;
+            mother |= child.getMother() == parent;
+        }
+        parent.getItem().setIsFather(father);
+        parent.getItem().setIsMother(mother);
+    }
+
+    /**
+     * Returns true if the person specified has a partner.
+     * 
+     * @param aName
+     * @param aDOB
+     * @return 
+     */
+    public boolean hasPartner(String aName, String aDOB) {
+        FamilyTreeNode<Person> person;
+
+        if ((person = getPerson(aName, aDOB)) != null) {
+
+            if (person.getItem().isMarried()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * If the specified person is in the tree, returns their index. If not,
+     * returns -1. Used in the 'addPerson' method to check for duplicates.
+     * 
+     * @param aName
+     * @param aDOB
+     * @return 
+     */
+    private int personInTree(String aName, String aDOB) {
+
+        FamilyTreeNode<Person> node = getPerson(aName, aDOB);
+
+        if (node != null) {
+            return node.getId();
+        }
+        return -1;
+    }
+
+    /**
+     * If the specified person exists, returns the Node containing the person.
+     * otherwise returns null. Looks them up with this thread's probe key, so
+     * nothing is allocated.
+     * @param aName
+     * @param aDOB
+     * @return 
+     */
+    FamilyTreeNode<Person> getPerson(String aName, String aDOB) {
+        return index.get(scratch().key(aName, aDOB));
+    }
+
+    /**
+     * Returns the node with the given id, or null if there isn't one. Ids are
+     * handed out by addPerson(), and are the node's position in 'people'.
+     * 
+     * @param id
+     * @return 
+     */
+    FamilyTreeNode<Person> getPerson(int id) {
+        if (id < 0 || id >= people.size()) {
+            return null;
+        }
+        return people.get(id);
+    }
+
+    /**
+     * Returns the number of ids handed out so far: the number of people in
+     * the tree, counting the empty places left by anyone taken out.
+     * 
+     * @return 
+     */
+    public int size() {
+        return people.size();
+    }
+
+    /**
+     * Builds the key used by the person index. Two people are the same person
+     * if their name and date of birth are the same (see Person.equals()), so
+     * the key is made of those two fields. See PersonKey.
+     * 
+     * @param aName
+     * @param aDOB
+     * @return 
+     */
+    static PersonKey personKey(String aName, String aDOB) {
+        return new PersonKey(aName, aDOB);
+    }
+
+    /**
+     * Given an int, fixGenerations() will return the appropriate generation
+     * modifier, like Grand, Great grand, etc.
+     * 
+     * @param numGens
+     * @return 
+     */
+    private String fixGenerations(int numGens) {
+        String generations = "";
+        if (numGens > 1) {
+            if (numGens == 2) {
+                generations = "Grand";
+            } else {
+                for (int grandGens = numGens - 2; grandGens > 0; grandGens--) {
+                    if (generations.isEmpty()) {
+                        generations += "Great ";
+                    } else {
+                        generations += "great ";
+                    }
+                }
+                generations += "grand";
+            }
+        }
+        return generations;
+    }
+}
\ No newline at end of file
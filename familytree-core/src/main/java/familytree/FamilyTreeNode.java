@@ -0,0 +1,879 @@
+package familytree;
+
+import java.util.AbstractList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ *
+ * @author Andrew Brown
+ *
+ * The node for my family tree implementation. Since each node in the  family tree 
+ * should have three 'link points' which can have multiple links, the node can
+ * hold any number of linked Nodes at each point. Note that sideLinks is 
+ * also a list; although the family tree only needs one side link (for life partners), 
+ * it makes sense for a generic implementation of this tree/node pair to have 
+ * the array; in the future, we might need to make a application that requires 
+ * multiple sideLinks.
+ * 
+ * The links used to be kept in three ArrayLists, but nearly every node in a 
+ * family tree has at most two parents and at most one partner, and lots of 
+ * nodes have no children at all. Three default sized ArrayLists per node wasted
+ * most of their space, so the storage is now shaped around the common case:
+ * the first two parents and the first partner are held in plain fields, and 
+ * children share an empty array until the first one arrives. Anything past that
+ * spills into an array that grows as needed. getParentLinks() and friends still
+ * return Lists, but they're read-only views over this storage; use the add and
+ * remove methods (or the setters) to change the links.
+ */
+public class FamilyTreeNode<LI> {
+
+    private LI item; //The actual item contained in the node.
+    private int id = -1; //The node's position in its tree, or -1 if it isn't in one.
+    //Link storage for each type of link. Allows for multiple parent links, which
+    //the trees in the Java Collection API don't. The first two parents and the
+    //first partner live in fields; the rest go in the 'extra' arrays.
+    private FamilyTreeNode<LI> parent0, parent1;
+    private Object[] extraParents = NO_LINKS;
+    private int parentCount;
+    private Object[] children = NO_LINKS;
+    private int childCount;
+    private FamilyTreeNode<LI> side0;
+    private Object[] extraSides = NO_LINKS;
+    //the parents linked as this node's father and mother, if any. They're in
+    //the parent links too; these just save searching them.
+    private FamilyTreeNode<LI> father, mother;
+    private int sideCount;
+
+    //shared by every node that hasn't needed an array yet.
+    private static final Object[] NO_LINKS = new Object[0];
+    //link types, used by the view returned from the getters.
+    private static final int PARENT = 0;
+    private static final int CHILD = 1;
+    private static final int SIDE = 2;
+
+    /**
+     * create an empty TreeNode.
+     */
+    public FamilyTreeNode() {
+    }
+
+    /**
+     * create a node that contains the item specified by the parameter.
+     * 
+     * @param item 
+     */
+    public FamilyTreeNode(LI item) {
+
+        this.item = item;
+    }
+
+    /**
+     * Adds a two-way link between a child and a parent, with the child node
+     * being the node that this method is called on. Note that both
+     * addParentLink and addChildLink both have the same result (a link between
+     * parent and child), so the method you chose to use is really a matter of
+     * situational convenience.
+     * @param parent
+     * @return
+     */
+    public int addParentLink(FamilyTreeNode<LI> parent) {
+
+        int status = 0;
+
+        status += this.addOneWayParentLink(parent);
+        status += parent.addOneWayChildLink(this);
+
+        return status;
+    }
+
+    /**
+     * Adds a one way link between a child and a parent, where the child is
+     * the node that the link is made on. For example: child->parent. This method
+     * is called by addChildLink in order to create a two-way connection.
+     * You can use it too, if you want, but I don't see many uses for having a one way
+     * link between child and parent.
+     * 
+     * @param child
+     * @return 
+     */
+    public int addOneWayParentLink(FamilyTreeNode<LI> parent) {
+
+        int status = 0;
+
+        if (!this.containsParentLink(parent)) {
+            this.appendParent(parent);
+        } else {
+            status = 1;
+        }
+
+        return status;
+    }
+
+    /**
+     * removes a two way parent/childLink between two linked nodes.
+     * takes the node to be removed from this node as a parameter.
+     * Uses the methods removeOneWayParentLink() and removeOneWayChildLink().
+     * 
+     * @param side
+     * @return 
+     */
+    public int removeParentLink(FamilyTreeNode<LI> parent) {
+
+        int status = 0;
+
+        status += this.removeOneWayParentLink(parent);
+        status += parent.removeOneWayChildLink(this);
+
+        return status;
+    }
+    /**
+     * removes a one way parentLink between two nodes.
+     * removes the parent node specified in the parameters from
+     * this node.
+     * 
+     * @param side
+     * @return 
+     */
+    
+    public int removeOneWayParentLink(FamilyTreeNode<LI> parent) {
+
+        int status = 0;
+
+        if (this.containsParentLink(parent)) {
+            this.removeLink(PARENT, indexOfLink(PARENT, parent));
+            if (father == parent) {
+                father = null;
+            }
+            if (mother == parent) {
+                mother = null;
+            }
+        } else {
+            status = 1;
+        }
+        return status;
+    }
+
+    /**
+     * Adds a two-way link between a parent and a child, with the parent node
+     * being the node that this method is called on. Note that both
+     * addParentLink and addChildLink both have the same result (a link between
+     * parent and child), so the method you chose to use is really a matter of
+     * situational convenience.
+     * @param child
+     * @return
+     */
+    public int addChildLink(FamilyTreeNode<LI> child) {
+
+        int status = 0;
+
+        status += this.addOneWayChildLink(child);
+        status += child.addOneWayParentLink(this);
+
+        return status;
+    }
+
+    /**
+     * Adds a one way link between a parent and a child, where the parent is
+     * the node that the link is made on. For example: parent->child. This method
+     * is called by addChildLink in order to create a two-way connection.
+     * You can use it too, if you want.
+     * 
+     * @param child
+     * @return 
+     */
+    public int addOneWayChildLink(FamilyTreeNode<LI> child) {
+
+        int status = 0;
+
+        if (!this.containsChildLink(child)) {
+            this.appendChild(child);
+        } else {
+            status = 1;
+        }
+
+        return status;
+    }
+
+    /**
+     * removes a two way child/parentLink between two linked nodes.
+     * takes the node to be removed from this node as a parameter.
+     * Uses the methods removeOneWayChildLink() and removeOneWayParentLink().
+     * 
+     * @param side
+     * @return 
+     */
+    public int removeChildLink(FamilyTreeNode<LI> child) {
+
+        int status = 0;
+
+        status += this.removeOneWayChildLink(child);
+        status += child.removeOneWayParentLink(this);
+
+        return status;
+    }
+
+    /**
+     * removes a one way childLink between two nodes.
+     * removes the child node specified in the parameters from
+     * this node.
+     * 
+     * @param side
+     * @return 
+     */
+    public int removeOneWayChildLink(FamilyTreeNode<LI> child) {
+
+        int status = 0;
+
+        if (this.containsChildLink(child)) {
+            this.removeLink(CHILD, indexOfLink(CHILD, child));
+        } else {
+            status = 1;
+        }
+
+        return status;
+    }
+
+    /**
+     * Adds a two-way side link between two nodes. You might want to use this to
+     * connect two nodes you consider to be equal in precedence.
+     * @param side
+     * @return
+     */
+    public int addSideLink(FamilyTreeNode<LI> side) {
+        int status = 0;
+
+        this.addOneWaySideLink(side);
+        side.addOneWaySideLink(this);
+
+        return status;
+    }
+
+    /**
+     * Adds a one way link between two side nodes, where the node the method is
+     * called on is the node in which the link is made on. For example: 
+     * side1->side2. This method is called by addSideLink in order to create a 
+     * two-way connection. You can use it too, if you want.
+     * @param child
+     * @return 
+     */
+    public int addOneWaySideLink(FamilyTreeNode<LI> side) {
+        int status = 0;
+
+        if (!this.containsSideLink(side)) {
+            this.appendSide(side);
+        } else {
+            status = 1;
+        }
+
+        return status;
+    }
+
+    /**
+     * removes a two way sideLink between two linked nodes.
+     * takes the node to be removed from this node as a parameter.
+     * Uses the method removeOneWaySideLink().
+     * 
+     * @param side
+     * @return 
+     */
+    public int removeSideLink(FamilyTreeNode<LI> side) {
+
+        int status = 0;
+
+        status += this.removeOneWaySideLink(side);
+        status += side.removeOneWaySideLink(this);
+
+        return status;
+    }
+
+    /**
+     * removes a one way sideLink between two nodes.
+     * removes the node specified in the parameters from
+     * this node.
+     * 
+     * @param side
+     * @return 
+     */
+    public int removeOneWaySideLink(FamilyTreeNode<LI> side) {
+
+        int status = 0;
+
+        if (this.containsSideLink(side)) {
+            this.removeLink(SIDE, indexOfLink(SIDE, side));
+        } else {
+            status = 1;
+        }
+        return status;
+    }
+
+    /**
+     * Puts 'newParent' in this node's parent links in place of 'oldParent',
+     * in the same position, and makes them the father or mother if
+     * 'oldParent' was. Like the other one way methods, it leaves the parents'
+     * child links alone. Doesn't check whether 'newParent' is linked already.
+     * Returns 1 if 'oldParent' wasn't linked.
+     *
+     * @param oldParent
+     * @param newParent
+     * @return
+     */
+    public int replaceOneWayParentLink(FamilyTreeNode<LI> oldParent, FamilyTreeNode<LI> newParent) {
+
+        int i = indexOfLink(PARENT, oldParent);
+
+        if (i == -1) {
+            return 1;
+        }
+        setLink(PARENT, i, newParent);
+        if (father == oldParent) {
+            father = newParent;
+        }
+        if (mother == oldParent) {
+            mother = newParent;
+        }
+        return 0;
+    }
+
+    /**
+     * Puts 'newChild' in this node's child links in place of 'oldChild', in
+     * the same position. See replaceOneWayParentLink().
+     *
+     * @param oldChild
+     * @param newChild
+     * @return
+     */
+    public int replaceOneWayChildLink(FamilyTreeNode<LI> oldChild, FamilyTreeNode<LI> newChild) {
+
+        int i = indexOfLink(CHILD, oldChild);
+
+        if (i == -1) {
+            return 1;
+        }
+        setLink(CHILD, i, newChild);
+        return 0;
+    }
+
+    /**
+     * Puts 'newSide' in this node's side links in place of 'oldSide', in the
+     * same position. See replaceOneWayParentLink().
+     *
+     * @param oldSide
+     * @param newSide
+     * @return
+     */
+    public int replaceOneWaySideLink(FamilyTreeNode<LI> oldSide, FamilyTreeNode<LI> newSide) {
+
+        int i = indexOfLink(SIDE, oldSide);
+
+        if (i == -1) {
+            return 1;
+        }
+        setLink(SIDE, i, newSide);
+        return 0;
+    }
+
+    /**
+     * Returns true if the node already has 'parent' in parentLinks. False otherwise.
+     * @param parent
+     * @return 
+     */
+    public boolean containsParentLink(FamilyTreeNode<LI> parent) {
+        boolean contains = false;
+
+        if (indexOfLink(PARENT, parent) != -1) {
+            contains = true;
+        }
+
+        return contains;
+    }
+
+    /**
+     * Returns true if the node already has 'child' in childLinks. False otherwise.
+     * @param child
+     * @return 
+     */
+    public boolean containsChildLink(FamilyTreeNode<LI> child) {
+        boolean contains = false;
+
+        if (indexOfLink(CHILD, child) != -1) {
+            contains = true;
+        }
+
+        return contains;
+    }
+
+    /**
+     * Returns true if the node already has 'side' in sideLinks. False otherwise.
+     * @param side
+     * @return 
+     */
+    public boolean containsSideLink(FamilyTreeNode<LI> side) {
+        boolean contains = false;
+
+        if (indexOfLink(SIDE, side) != -1) {
+            contains = true;
+        }
+
+        return contains;
+    }
+
+    /**
+     * Returns true if sideLinks is empty.
+     * 
+     * @return 
+     */
+    public boolean sideLinksIsEmpty() {
+        if (sideCount == 0) {
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Returns true if childLinks is empty.
+     * 
+     * @return 
+     */
+    public boolean childLinksIsEmpty() {
+        if (childCount == 0) {
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Returns true if parentLinks is empty.
+     * 
+     * @return 
+     */
+    public boolean parentLinksIsEmpty() {
+        if (parentCount == 0) {
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * doesn't compare the nodes themselves; compares the actual items.
+     * Returns true if the items are equal, and false if not.
+     * @param item
+     * @return 
+     */
+    public boolean equals(FamilyTreeNode comparedNode) {
+        return this.item.equals(comparedNode.item);
+    }
+
+    /**
+     * Gets the item in the node. Pretty standard!
+     * @return 
+     */
+    public LI getItem() {
+        return item;
+    }
+
+    /**
+     * Set the item in the node.
+     * @param item 
+     */
+    public void setItem(LI item) {
+        this.item = item;
+    }
+
+    /**
+     * Gets the id the owning tree gave this node. -1 means it hasn't been
+     * given one yet.
+     * @return 
+     */
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Set the id of the node. This should only really be called by the tree
+     * that owns the node.
+     * @param id 
+     */
+    public void setId(int id) {
+        this.id = id;
+    }
+
+    /**
+     * Returns the parent linked as this node's father, or null.
+     * @return 
+     */
+    public FamilyTreeNode<LI> getFather() {
+        return father;
+    }
+
+    /**
+     * Marks one of the node's parents as its father. The parent link has to
+     * be made first; removing it clears this too.
+     * @param father 
+     */
+    public void setFather(FamilyTreeNode<LI> father) {
+        this.father = father;
+    }
+
+    /**
+     * Returns the parent linked as this node's mother, or null.
+     * @return 
+     */
+    public FamilyTreeNode<LI> getMother() {
+        return mother;
+    }
+
+    /**
+     * Marks one of the node's parents as its mother. The parent link has to
+     * be made first; removing it clears this too.
+     * @param mother 
+     */
+    public void setMother(FamilyTreeNode<LI> mother) {
+        this.mother = mother;
+    }
+
+    /**
+     * Returns the childLinks list. The list is a read-only view of the node's
+     * children.
+     * @return 
+     */
+    public List<FamilyTreeNode<LI>> getChildLinks() {
+        return linkView(CHILD);
+    }
+
+    /**
+     * Set the childLinks List. Takes another List as a parameter, and copies
+     * it into an array of exactly the right size.
+     * @param childLinks 
+     */
+    public void setChildLinks(List<FamilyTreeNode<LI>> childLinks) {
+        Object[] copy = NO_LINKS;
+
+        if (!childLinks.isEmpty()) {
+            copy = childLinks.toArray();
+        }
+        this.children = copy;
+        this.childCount = copy.length;
+    }
+
+    /**
+     * Return the parentLinks list. The list is a read-only view of the node's
+     * parents.
+     * @return 
+     */
+    public List<FamilyTreeNode<LI>> getParentLinks() {
+        return linkView(PARENT);
+    }
+
+    /**
+     * Set the parentLinks list. Takes another List as a parameter.
+     * @param parentLinks 
+     */
+    @SuppressWarnings("unchecked")
+    public void setParentLinks(List<FamilyTreeNode<LI>> parentLinks) {
+        //copy first, in case we've been handed our own view.
+        Object[] copy = parentLinks.toArray();
+
+        parent0 = parent1 = null;
+        extraParents = NO_LINKS;
+        parentCount = 0;
+        if (copy.length > 2) {
+            extraParents = new Object[copy.length - 2];
+        }
+        for (Object parent : copy) {
+            appendParent((FamilyTreeNode<LI>) parent);
+        }
+        if (father != null && !containsParentLink(father)) {
+            father = null;
+        }
+        if (mother != null && !containsParentLink(mother)) {
+            mother = null;
+        }
+    }
+
+    /**
+     * Return the sideLinks list. The list is a read-only view of the node's
+     * side links.
+     * @return 
+     */
+    public List<FamilyTreeNode<LI>> getSideLinks() {
+        return linkView(SIDE);
+    }
+
+    /**
+     * Set the sideLinks list. Takes another list as a parameter.
+     * @param sideLinks 
+     */
+    @SuppressWarnings("unchecked")
+    public void setSideLinks(List<FamilyTreeNode<LI>> sideLinks) {
+        //copy first, in case we've been handed our own view.
+        Object[] copy = sideLinks.toArray();
+
+        side0 = null;
+        extraSides = NO_LINKS;
+        sideCount = 0;
+        if (copy.length > 1) {
+            extraSides = new Object[copy.length - 1];
+        }
+        for (Object side : copy) {
+            appendSide((FamilyTreeNode<LI>) side);
+        }
+    }
+
+    /**
+     * Returns the number of parent links. Together with getParentLink(), this
+     * lets a traversal walk the links without making a view or an iterator.
+     * @return 
+     */
+    public int parentLinkCount() {
+        return parentCount;
+    }
+
+    /**
+     * Returns the i'th parent link.
+     * @param i
+     * @return 
+     */
+    public FamilyTreeNode<LI> getParentLink(int i) {
+        checkLinkIndex(PARENT, i);
+        return link(PARENT, i);
+    }
+
+    /**
+     * Returns the number of child links.
+     * @return 
+     */
+    public int childLinkCount() {
+        return childCount;
+    }
+
+    /**
+     * Returns the i'th child link.
+     * @param i
+     * @return 
+     */
+    public FamilyTreeNode<LI> getChildLink(int i) {
+        checkLinkIndex(CHILD, i);
+        return link(CHILD, i);
+    }
+
+    /**
+     * Returns the number of side links.
+     * @return 
+     */
+    public int sideLinkCount() {
+        return sideCount;
+    }
+
+    /**
+     * Returns the i'th side link.
+     * @param i
+     * @return 
+     */
+    public FamilyTreeNode<LI> getSideLink(int i) {
+        checkLinkIndex(SIDE, i);
+        return link(SIDE, i);
+    }
+
+    private void checkLinkIndex(int kind, int i) {
+        if (i < 0 || i >= linkCount(kind)) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + linkCount(kind));
+        }
+    }
+
+    /**
+     * Returns the number of links of the given type.
+     * @param kind
+     * @return 
+     */
+    private int linkCount(int kind) {
+        if (kind == PARENT) {
+            return parentCount;
+        } else if (kind == CHILD) {
+            return childCount;
+        }
+        return sideCount;
+    }
+
+    /**
+     * Returns the i'th link of the given type. Parents 0 and 1 and side link 0
+     * live in fields, everything else in the arrays.
+     * @param kind
+     * @param i
+     * @return 
+     */
+    @SuppressWarnings("unchecked")
+    private FamilyTreeNode<LI> link(int kind, int i) {
+        if (kind == PARENT) {
+            if (i == 0) {
+                return parent0;
+            } else if (i == 1) {
+                return parent1;
+            }
+            return (FamilyTreeNode<LI>) extraParents[i - 2];
+        } else if (kind == CHILD) {
+            return (FamilyTreeNode<LI>) children[i];
+        }
+        if (i == 0) {
+            return side0;
+        }
+        return (FamilyTreeNode<LI>) extraSides[i - 1];
+    }
+
+    /**
+     * Overwrites the i'th link of the given type. The slot has to exist
+     * already, i.e. i has to be less than the capacity for that type.
+     * @param kind
+     * @param i
+     * @param node 
+     */
+    private void setLink(int kind, int i, FamilyTreeNode<LI> node) {
+        if (kind == PARENT) {
+            if (i == 0) {
+                parent0 = node;
+            } else if (i == 1) {
+                parent1 = node;
+            } else {
+                extraParents[i - 2] = node;
+            }
+        } else if (kind == CHILD) {
+            children[i] = node;
+        } else if (i == 0) {
+            side0 = node;
+        } else {
+            extraSides[i - 1] = node;
+        }
+    }
+
+    /**
+     * Returns the position of 'node' in the links of the given type, or -1.
+     * Links are the same if they're the same node, which is what the old 
+     * ArrayList.contains() calls ended up checking too.
+     * @param kind
+     * @param node
+     * @return 
+     */
+    private int indexOfLink(int kind, FamilyTreeNode<LI> node) {
+        int count = linkCount(kind);
+
+        for (int i = 0; i < count; i++) {
+            if (link(kind, i) == node) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Removes the i'th link of the given type, shuffling the later links down
+     * so that the order is kept.
+     * @param kind
+     * @param i 
+     */
+    private void removeLink(int kind, int i) {
+        int last = linkCount(kind) - 1;
+
+        for (int j = i; j < last; j++) {
+            setLink(kind, j, link(kind, j + 1));
+        }
+        setLink(kind, last, null);
+        if (kind == PARENT) {
+            parentCount--;
+        } else if (kind == CHILD) {
+            childCount--;
+        } else {
+            sideCount--;
+        }
+    }
+
+    /**
+     * Adds a parent to the end of the parent links, without any checks.
+     * @param parent 
+     */
+    private void appendParent(FamilyTreeNode<LI> parent) {
+        if (parentCount >= 2) {
+            extraParents = ensureCapacity(extraParents, parentCount - 2 + 1);
+        }
+        parentCount++;
+        setLink(PARENT, parentCount - 1, parent);
+    }
+
+    /**
+     * Adds a child to the end of the child links, without any checks.
+     * @param child 
+     */
+    private void appendChild(FamilyTreeNode<LI> child) {
+        children = ensureCapacity(children, childCount + 1);
+        children[childCount++] = child;
+    }
+
+    /**
+     * Adds a side link to the end of the side links, without any checks.
+     * @param side 
+     */
+    private void appendSide(FamilyTreeNode<LI> side) {
+        if (sideCount >= 1) {
+            extraSides = ensureCapacity(extraSides, sideCount - 1 + 1);
+        }
+        sideCount++;
+        setLink(SIDE, sideCount - 1, side);
+    }
+
+    /**
+     * Returns 'array' if it can hold 'needed' items, or a bigger copy if not.
+     * Grows by half again, starting at 2, so a node with a couple of children
+     * doesn't pay for a default ArrayList's ten slots.
+     * @param array
+     * @param needed
+     * @return 
+     */
+    private static Object[] ensureCapacity(Object[] array, int needed) {
+        if (needed <= array.length) {
+            return array;
+        }
+        int capacity = Math.max(2, array.length + (array.length >> 1));
+        if (capacity < needed) {
+            capacity = needed;
+        }
+        Object[] bigger = new Object[capacity];
+        System.arraycopy(array, 0, bigger, 0, array.length);
+        return bigger;
+    }
+
+    /**
+     * Returns a read-only List over the links of the given type. Empty link
+     * types all share the same empty list.
+     * @param kind
+     * @return 
+     */
+    private List<FamilyTreeNode<LI>> linkView(int kind) {
+        if (linkCount(kind) == 0) {
+            return Collections.emptyList();
+        }
+        return new LinkView<LI>(this, kind);
+    }
+
+    /**
+     * A read-only List that reads straight out of a node's link storage, so
+     * the getters don't have to copy anything.
+     */
+    private static class LinkView<LI> extends AbstractList<FamilyTreeNode<LI>> {
+
+        private FamilyTreeNode<LI> node;
+        private int kind;
+
+        LinkView(FamilyTreeNode<LI> node, int kind) {
+            this.node = node;
+            this.kind = kind;
+        }
+
+        public FamilyTreeNode<LI> get(int i) {
+            node.checkLinkIndex(kind, i);
+            return node.link(kind, i);
+        }
+
+        public int size() {
+            return node.linkCount(kind);
+        }
+    }
+} //end of 'Node'
\ No newline at end of file
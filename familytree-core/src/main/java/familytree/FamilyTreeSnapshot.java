@@ -0,0 +1,352 @@
+package familytree;
+
+import java.util.List;
+
+/**
+ * A frozen, read-only view of a FamilyTree at one point in time. Taking one
+ * (FamilyTree.snapshot()) is O(1): the tree keeps an immutable record of each
+ * person and their links in a PersistentVector, and a snapshot just holds on
+ * to whichever version of that vector was current. Later changes to the tree
+ * make new versions that share everything they didn't change, so the snapshot
+ * never sees them, and nobody has to copy the tree or take a lock.
+ *
+ * This means long running reports can walk a snapshot while people are added
+ * and linked on the live tree, without ConcurrentModificationExceptions or
+ * half-made changes.
+ *
+ * People are referred to by id (see FamilyTree), and links are handed back as
+ * arrays of ids. find() looks them up by name as they were, in a table of
+ * names that's versioned along with the records (see Names).
+ *
+ * @author Andrew Brown
+ */
+public class FamilyTreeSnapshot {
+
+    private static final int[] NO_IDS = new int[0];
+
+    private PersistentVector<Record> records;
+    private Names names;
+
+    FamilyTreeSnapshot(PersistentVector<Record> records, Names names) {
+        this.records = records;
+        this.names = names;
+    }
+
+    /**
+     * Returns the number of ids in the snapshot. Anyone taken out of the tree
+     * leaves a gap; contains() says which ids are people.
+     *
+     * @return
+     */
+    public int size() {
+        return records.size();
+    }
+
+    /**
+     * Returns the id of the person with the given name and date of birth, or
+     * -1 if they weren't in the tree when the snapshot was taken. Taking them
+     * out of the tree (or merging them into someone else) later doesn't
+     * change the answer.
+     *
+     * @param aName
+     * @param aDOB
+     * @return
+     */
+    public int find(String aName, String aDOB) {
+        return names.find(records, aName, aDOB);
+    }
+
+    /**
+     * Returns true if there was a person with the given id when the snapshot
+     * was taken.
+     *
+     * @param id
+     * @return
+     */
+    public boolean contains(int id) {
+        return id >= 0 && id < records.size() && records.get(id) != null;
+    }
+
+    /**
+     * Returns the person with the given id, as they were when the snapshot was
+     * taken. The Person belongs to the snapshot; don't change it.
+     *
+     * @param id
+     * @return
+     */
+    public Person getPerson(int id) {
+        return records.get(id).person;
+    }
+
+    /**
+     * Returns the ids of the person's parents.
+     *
+     * @param id
+     * @return
+     */
+    public int[] getParents(int id) {
+        return records.get(id).parents.clone();
+    }
+
+    /**
+     * Returns the snapshot's own array of parent ids, without copying it. For
+     * code in this package that's careful not to change it.
+     *
+     * @param id
+     * @return
+     */
+    int[] parentIds(int id) {
+        return records.get(id).parents;
+    }
+
+    /**
+     * Returns the id of the parent the person was linked to as their father,
+     * or -1 if they haven't got one.
+     *
+     * @param id
+     * @return
+     */
+    public int getFather(int id) {
+        return records.get(id).father;
+    }
+
+    /**
+     * Returns the id of the parent the person was linked to as their mother,
+     * or -1 if they haven't got one.
+     *
+     * @param id
+     * @return
+     */
+    public int getMother(int id) {
+        return records.get(id).mother;
+    }
+
+    /**
+     * Returns the ids of the person's children.
+     *
+     * @param id
+     * @return
+     */
+    public int[] getChildren(int id) {
+        return records.get(id).children.clone();
+    }
+
+    /**
+     * Returns the snapshot's own array of child ids, without copying it. See
+     * parentIds().
+     *
+     * @param id
+     * @return
+     */
+    int[] childIds(int id) {
+        return records.get(id).children;
+    }
+
+    /**
+     * Returns the ids of the person's partners.
+     *
+     * @param id
+     * @return
+     */
+    public int[] getPartners(int id) {
+        return records.get(id).partners.clone();
+    }
+
+    /**
+     * Returns the snapshot's own array of partner ids, without copying it. See
+     * parentIds().
+     *
+     * @param id
+     * @return
+     */
+    int[] partnerIds(int id) {
+        return records.get(id).partners;
+    }
+
+    /**
+     * Makes the immutable record for a node: a copy of its Person, and the ids
+     * of everyone it's linked to. null for the empty place left by someone
+     * taken out of the tree.
+     *
+     * @param node
+     * @return
+     */
+    static Record record(FamilyTreeNode<Person> node) {
+        if (node == null) {
+            return null;
+        }
+        return new Record(new Person(node.getItem()), ids(node.getParentLinks()),
+                ids(node.getChildLinks()), ids(node.getSideLinks()), id(node.getFather()), id(node.getMother()));
+    }
+
+    private static int id(FamilyTreeNode<Person> node) {
+        return node == null ? -1 : node.getId();
+    }
+
+    private static int[] ids(List<FamilyTreeNode<Person>> links) {
+        if (links.isEmpty()) {
+            return NO_IDS;
+        }
+        int[] ids = new int[links.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = links.get(i).getId();
+        }
+        return ids;
+    }
+
+    /**
+     * Which ids have which name and date of birth, versioned along with the
+     * records so that each snapshot can look people up as they were. It's an
+     * immutable hash table: a PersistentVector of buckets, each holding the
+     * (hash, id) pairs of the people whose key falls into it, so adding
+     * someone copies one small bucket and the path down to it, and every
+     * older version stays as it was. The table doubles once there are more
+     * people than buckets.
+     *
+     * Ids are never reused and nobody's name or date of birth changes, so
+     * buckets only ever grow. Anyone taken out of the tree stays in their
+     * bucket, and find() passes over them in any snapshot that has no record
+     * for them.
+     */
+    static final class Names {
+
+        private static final Names EMPTY = new Names(emptyTable(16), 0);
+
+        private final PersistentVector<int[]> buckets;
+        private final int count;
+
+        private Names(PersistentVector<int[]> buckets, int count) {
+            this.buckets = buckets;
+            this.count = count;
+        }
+
+        static Names empty() {
+            return EMPTY;
+        }
+
+        /**
+         * Returns a table with everyone in people[from, people.size()) added,
+         * leaving out the empty places.
+         *
+         * @param people
+         * @param from
+         * @return
+         */
+        Names addAll(List<FamilyTreeNode<Person>> people, int from) {
+            int added = 0;
+            for (int id = from; id < people.size(); id++) {
+                if (people.get(id) != null) {
+                    added++;
+                }
+            }
+            if (added == 0) {
+                return this;
+            }
+            PersistentVector<int[]> table = buckets;
+            if (count + added > table.size()) {
+                int capacity = table.size();
+                while (capacity < count + added) {
+                    capacity *= 2;
+                }
+                table = rehash(table, capacity);
+            }
+            PersistentVector.Transient<int[]> next = table.asTransient();
+            for (int id = from; id < people.size(); id++) {
+                if (people.get(id) != null) {
+                    Person person = people.get(id).getItem();
+                    put(next, PersonKey.hash(person.getName(), person.getDateOfBirth()), id);
+                }
+            }
+            return new Names(next.persistent(), count + added);
+        }
+
+        /**
+         * Returns the id of the person with the given name and date of birth
+         * in 'records', or -1 if there's nobody of that name in them.
+         *
+         * @param records
+         * @param aName
+         * @param aDOB
+         * @return
+         */
+        int find(PersistentVector<Record> records, String aName, String aDOB) {
+            int hash = PersonKey.hash(aName, aDOB);
+            int[] bucket = buckets.get(slot(hash, buckets.size()));
+
+            for (int i = 0; bucket != null && i < bucket.length; i += 2) {
+                int id = bucket[i + 1];
+                if (bucket[i] == hash && id < records.size() && records.get(id) != null) {
+                    Person person = records.get(id).person;
+                    if (same(person.getName(), aName) && same(person.getDateOfBirth(), aDOB)) {
+                        return id;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        private static PersistentVector<int[]> emptyTable(int capacity) {
+            PersistentVector.Transient<int[]> table = PersistentVector.<int[]>empty().asTransient();
+            for (int i = 0; i < capacity; i++) {
+                table.append(null);
+            }
+            return table.persistent();
+        }
+
+        private static PersistentVector<int[]> rehash(PersistentVector<int[]> old, int capacity) {
+            PersistentVector.Transient<int[]> table = emptyTable(capacity).asTransient();
+            for (int b = 0; b < old.size(); b++) {
+                int[] bucket = old.get(b);
+                for (int i = 0; bucket != null && i < bucket.length; i += 2) {
+                    put(table, bucket[i], bucket[i + 1]);
+                }
+            }
+            return table.persistent();
+        }
+
+        private static void put(PersistentVector.Transient<int[]> table, int hash, int id) {
+            int b = slot(hash, table.size());
+            int[] bucket = table.get(b);
+            int length = bucket == null ? 0 : bucket.length;
+            int[] grown = new int[length + 2];
+            if (bucket != null) {
+                System.arraycopy(bucket, 0, grown, 0, length);
+            }
+            grown[length] = hash;
+            grown[length + 1] = id;
+            table.set(b, grown);
+        }
+
+        //spreads the high bits of the hash down, as the table is a power of
+        //two in size.
+        private static int slot(int hash, int capacity) {
+            return (hash ^ (hash >>> 16)) & (capacity - 1);
+        }
+
+        private static boolean same(String a, String b) {
+            return a == null ? b == null : a.equals(b);
+        }
+    }
+
+    /**
+     * One person, and their links, frozen.
+     */
+    static final class Record {
+
+        final Person person;
+        final int[] parents;
+        final int[] children;
+        final int[] partners;
+        final int father;
+        final int mother;
+
+        Record(Person person, int[] parents, int[] children, int[] partners, int father, int mother) {
+            this.person = person;
+            this.parents = parents;
+            this.children = children;
+            this.partners = partners;
+            this.father = father;
+            this.mother = mother;
+        }
+    }
+}
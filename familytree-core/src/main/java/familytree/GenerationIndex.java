@@ -0,0 +1,279 @@
+package familytree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Keeps every person's generation number, and a list of the people in each
+ * generation, up to date as links are made and taken back.
+ *
+ * A person's generation is the length of the longest line of known ancestors
+ * above them: 0 for someone with no known parents, and otherwise one more than
+ * their latest-generation parent. That makes it a topological level; parents
+ * are always in an earlier generation than their children, so anyone N
+ * generations above a person in any line has to be in a generation at least N
+ * lower.
+ *
+ * Linking a child to a parent can only push the child (and so the child's
+ * descendants) into later generations, and only if the parent was in the same
+ * generation or a later one, so linked() walks down from the child only as far
+ * as people actually move. unlinked() does the same in the other direction.
+ *
+ * Like the rest of the tree's bookkeeping, it's changed with the tree's lock
+ * held.
+ *
+ * @author Andrew Brown
+ */
+final class GenerationIndex {
+
+    //each person's generation and their position in its list, by id.
+    private int[] generationOf = new int[16];
+    private int[] slotOf = new int[16];
+    private List<List<FamilyTreeNode<Person>>> levels = new ArrayList<List<FamilyTreeNode<Person>>>();
+
+    /**
+     * Adds a new person, with no links, to generation 0.
+     *
+     * @param node
+     */
+    void add(FamilyTreeNode<Person> node) {
+        int id = node.getId();
+        if (id >= generationOf.length) {
+            int capacity = Math.max(id + 1, generationOf.length * 2);
+            int[] grown = new int[capacity];
+            System.arraycopy(generationOf, 0, grown, 0, generationOf.length);
+            generationOf = grown;
+            grown = new int[capacity];
+            System.arraycopy(slotOf, 0, grown, 0, slotOf.length);
+            slotOf = grown;
+        }
+        put(node, 0);
+    }
+
+    /**
+     * Takes a person out of the index.
+     *
+     * @param node
+     */
+    void remove(FamilyTreeNode<Person> node) {
+        take(node);
+    }
+
+    /**
+     * Returns true if the person is in the index: false if they were never
+     * added, or have been taken out.
+     *
+     * @param node
+     * @return
+     */
+    boolean contains(FamilyTreeNode<Person> node) {
+        int id = node.getId();
+        if (id < 0 || id >= generationOf.length || generationOf[id] >= levels.size()) {
+            return false;
+        }
+        List<FamilyTreeNode<Person>> level = levels.get(generationOf[id]);
+        return slotOf[id] < level.size() && level.get(slotOf[id]) == node;
+    }
+
+    /**
+     * Returns the person's generation.
+     *
+     * @param id
+     * @return
+     */
+    int generationOf(int id) {
+        return generationOf[id];
+    }
+
+    /**
+     * Returns the number of generations, counting generation 0. 0 if the tree
+     * is empty.
+     *
+     * @return
+     */
+    int count() {
+        return levels.size();
+    }
+
+    /**
+     * Returns a read-only list of the people in the generation, in no
+     * particular order.
+     *
+     * @param generation
+     * @return
+     */
+    List<FamilyTreeNode<Person>> level(int generation) {
+        if (generation < 0 || generation >= levels.size()) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(levels.get(generation));
+    }
+
+    /**
+     * Returns true if linking the child to the parent would make the child
+     * their own ancestor. Only the child's descendants in generations up to
+     * the parent's can lead back to the parent, so the search stops there.
+     *
+     * @param child
+     * @param parent
+     * @param marks
+     * @param toVisit an empty buffer.
+     * @param size the number of nodes in the tree.
+     * @return
+     */
+    boolean wouldBeOwnAncestor(FamilyTreeNode<Person> child, FamilyTreeNode<Person> parent,
+            VisitMarks marks, List<FamilyTreeNode<Person>> toVisit, int size) {
+        int limit = generationOf[parent.getId()];
+
+        if (generationOf[child.getId()] > limit) {
+            return false;
+        }
+        marks.begin(size);
+        marks.mark(child.getId());
+        toVisit.add(child);
+        while (!toVisit.isEmpty()) {
+            FamilyTreeNode<Person> next = toVisit.remove(toVisit.size() - 1);
+            if (next == parent) {
+                return true;
+            }
+            for (int i = 0; i < next.childLinkCount(); i++) {
+                FamilyTreeNode<Person> grandChild = next.getChildLink(i);
+                if (generationOf[grandChild.getId()] <= limit && marks.mark(grandChild.getId())) {
+                    toVisit.add(grandChild);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Call after the child has been linked to a parent. Moves the child, and
+     * their descendants, to later generations if they need to be.
+     *
+     * @param child
+     * @param parent
+     * @param toVisit an empty buffer.
+     */
+    void linked(FamilyTreeNode<Person> child, FamilyTreeNode<Person> parent,
+            List<FamilyTreeNode<Person>> toVisit) {
+        if (generationOf[parent.getId()] + 1 <= generationOf[child.getId()]) {
+            return;
+        }
+        move(child, generationOf[parent.getId()] + 1);
+        toVisit.add(child);
+        while (!toVisit.isEmpty()) {
+            FamilyTreeNode<Person> next = toVisit.remove(toVisit.size() - 1);
+            int below = generationOf[next.getId()] + 1;
+            for (int i = 0; i < next.childLinkCount(); i++) {
+                FamilyTreeNode<Person> grandChild = next.getChildLink(i);
+                if (generationOf[grandChild.getId()] < below) {
+                    move(grandChild, below);
+                    toVisit.add(grandChild);
+                }
+            }
+        }
+    }
+
+    /**
+     * Call after one of the child's parent links has been taken away. Moves
+     * the child, and their descendants, to earlier generations if they can.
+     *
+     * @param child
+     * @param toVisit an empty buffer.
+     */
+    void unlinked(FamilyTreeNode<Person> child, List<FamilyTreeNode<Person>> toVisit) {
+        toVisit.add(child);
+        while (!toVisit.isEmpty()) {
+            FamilyTreeNode<Person> next = toVisit.remove(toVisit.size() - 1);
+            int generation = 0;
+            for (int i = 0; i < next.parentLinkCount(); i++) {
+                generation = Math.max(generation, generationOf[next.getParentLink(i).getId()] + 1);
+            }
+            if (generation != generationOf[next.getId()]) {
+                move(next, generation);
+                for (int i = 0; i < next.childLinkCount(); i++) {
+                    toVisit.add(next.getChildLink(i));
+                }
+            }
+        }
+    }
+
+    /**
+     * Works out everyone's generation from scratch, in topological order. For
+     * the bulk loader, which makes lots of links at once without going through
+     * linked(), but which, like linkToFather()/linkToMother(), never makes
+     * anyone their own ancestor, so everyone gets placed. The empty places
+     * left by people taken out of the tree are skipped.
+     *
+     * @param people
+     */
+    void rebuild(List<FamilyTreeNode<Person>> people) {
+        int size = people.size();
+        int[] waitingFor = new int[size];
+        int[] generation = new int[size];
+        int[] queue = new int[size];
+        int head = 0;
+        int tail = 0;
+
+        for (int id = 0; id < size; id++) {
+            if (people.get(id) == null) {
+                continue;
+            }
+            waitingFor[id] = people.get(id).parentLinkCount();
+            if (waitingFor[id] == 0) {
+                queue[tail++] = id;
+            }
+        }
+        while (head < tail) {
+            FamilyTreeNode<Person> next = people.get(queue[head++]);
+            int below = generation[next.getId()] + 1;
+            for (int i = 0; i < next.childLinkCount(); i++) {
+                int child = next.getChildLink(i).getId();
+                generation[child] = Math.max(generation[child], below);
+                if (--waitingFor[child] == 0) {
+                    queue[tail++] = child;
+                }
+            }
+        }
+        for (int id = 0; id < size; id++) {
+            FamilyTreeNode<Person> node = people.get(id);
+            if (node != null && generation[id] != generationOf[id]) {
+                move(node, generation[id]);
+            }
+        }
+    }
+
+    private void move(FamilyTreeNode<Person> node, int generation) {
+        take(node);
+        put(node, generation);
+    }
+
+    private void put(FamilyTreeNode<Person> node, int generation) {
+        while (levels.size() <= generation) {
+            levels.add(new ArrayList<FamilyTreeNode<Person>>());
+        }
+        List<FamilyTreeNode<Person>> level = levels.get(generation);
+        generationOf[node.getId()] = generation;
+        slotOf[node.getId()] = level.size();
+        level.add(node);
+    }
+
+    /**
+     * Takes the node out of its generation's list, by moving the last person
+     * in the list into its place.
+     */
+    private void take(FamilyTreeNode<Person> node) {
+        List<FamilyTreeNode<Person>> level = levels.get(generationOf[node.getId()]);
+        int slot = slotOf[node.getId()];
+        FamilyTreeNode<Person> last = level.remove(level.size() - 1);
+        if (last != node) {
+            level.set(slot, last);
+            slotOf[last.getId()] = slot;
+        }
+        //don't keep empty generations on the end.
+        while (!levels.isEmpty() && levels.get(levels.size() - 1).isEmpty()) {
+            levels.remove(levels.size() - 1);
+        }
+    }
+}
@@ -0,0 +1,389 @@
+package familytree;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * How many ancestors (or descendants) each person has, for answering "how
+ * many" in O(1) instead of walking everyone. People are only counted once
+ * however many ways they're related, so pedigree collapse doesn't inflate
+ * the numbers.
+ *
+ * Each person's count is backed by a tally of who they're counting. While
+ * there are only a few people in it, the tally is the exact set of their
+ * ids. Once it grows past EXACT_LIMIT it turns into a HyperLogLog sketch:
+ * REGISTERS one-byte registers, each holding the longest run of leading
+ * zeros seen among the hashed ids that fall into it. That's the same few
+ * hundred bytes whether it's counting a thousand people or millions, and the
+ * count is within about 6.5% (1.04 / sqrt(REGISTERS)). Both kinds can be
+ * merged, which is all that's needed: a person's ancestors are their
+ * parents and their parents' ancestors.
+ *
+ * Tallies are only worked out when somebody asks, and then kept. Anyone
+ * whose tally is kept has their parents' tallies kept too (their children's,
+ * for descendants), so the people with tallies are always a whole part of
+ * the tree from the top (or the bottom) down to them. That's what lets
+ * changes stop early:
+ * <ul>
+ * <li>Linking a child to a parent adds the parent and their ancestors to the
+ * tallies of the child and everyone below them that has one. Going down
+ * stops at anyone without a tally, since nobody below them has one either,
+ * and at anyone whose tally didn't change, since everyone below them already
+ * counts those people.</li>
+ * <li>Nobody can be taken back out of a sketch, so unlinking throws away
+ * the tallies of everyone below the child, to be worked out again when
+ * they're next asked for.</li>
+ * </ul>
+ *
+ * Like the rest of the tree's bookkeeping, it's changed (and filled in) with
+ * the tree's lock held.
+ *
+ * @author Andrew Brown
+ */
+final class KinCountIndex {
+
+    //tallies of up to this many people are exact.
+    static final int EXACT_LIMIT = 64;
+    //the number of registers in a sketch, 2^PRECISION.
+    private static final int PRECISION = 8;
+    private static final int REGISTERS = 1 << PRECISION;
+
+    //stands in for the tally of someone whose tally is still being worked
+    //out. See tally().
+    private static final Tally COUNTING = new Tally();
+
+    private final boolean ancestors;
+    private Tally[] tallies = new Tally[16];
+
+    /**
+     * Creates an index of everyone's ancestor counts, or their descendant
+     * counts.
+     *
+     * @param ancestors
+     */
+    KinCountIndex(boolean ancestors) {
+        this.ancestors = ancestors;
+    }
+
+    /**
+     * Makes room for a new person.
+     *
+     * @param node
+     */
+    void add(FamilyTreeNode<Person> node) {
+        int id = node.getId();
+        if (id >= tallies.length) {
+            Tally[] grown = new Tally[Math.max(id + 1, tallies.length * 2)];
+            System.arraycopy(tallies, 0, grown, 0, tallies.length);
+            tallies = grown;
+        }
+        tallies[id] = null;
+    }
+
+    /**
+     * Forgets a person who has been taken out, or whose insertion has been
+     * rolled back. They mustn't have any links left.
+     *
+     * @param node
+     */
+    void remove(FamilyTreeNode<Person> node) {
+        if (node.getId() < tallies.length) {
+            tallies[node.getId()] = null;
+        }
+    }
+
+    /**
+     * Throws every tally away, for when the links have been made some other
+     * way (see FamilyTree.rebuildIndexes()).
+     *
+     * @param size the number of ids in the tree
+     */
+    void clear(int size) {
+        tallies = new Tally[Math.max(size, 16)];
+    }
+
+    /**
+     * Returns the number of the person's ancestors (or descendants), exactly
+     * if there are no more than EXACT_LIMIT of them, and estimated if there
+     * are more.
+     *
+     * @param node
+     * @param work an empty buffer to use while working tallies out
+     * @return
+     */
+    long count(FamilyTreeNode<Person> node, List<FamilyTreeNode<Person>> work) {
+        return tally(node, work).count;
+    }
+
+    /**
+     * Returns true if count() for the person is exact.
+     *
+     * @param node
+     * @param work
+     * @return
+     */
+    boolean isExact(FamilyTreeNode<Person> node, List<FamilyTreeNode<Person>> work) {
+        return tally(node, work).registers == null;
+    }
+
+    /**
+     * Brings the tallies up to date after the child has been linked to the
+     * parent.
+     *
+     * @param child
+     * @param parent
+     * @param work an empty buffer
+     */
+    void linked(FamilyTreeNode<Person> child, FamilyTreeNode<Person> parent, List<FamilyTreeNode<Person>> work) {
+        //for descendants, everything is the other way round.
+        FamilyTreeNode<Person> lower = ancestors ? child : parent;
+        FamilyTreeNode<Person> upper = ancestors ? parent : child;
+
+        if (tallies[lower.getId()] == null) {
+            return;
+        }
+        Tally gained = tally(upper, work).copy();
+        gained.add(upper.getId());
+        work.add(lower);
+        while (!work.isEmpty()) {
+            FamilyTreeNode<Person> next = work.remove(work.size() - 1);
+            Tally tally = tallies[next.getId()];
+            if (tally == null || !tally.addAll(gained)) {
+                continue;
+            }
+            for (int i = 0; i < below(next); i++) {
+                work.add(below(next, i));
+            }
+        }
+    }
+
+    /**
+     * Brings the tallies up to date after the child has been unlinked from
+     * the parent, by throwing away the ones that counted the parent's side.
+     *
+     * @param child
+     * @param parent
+     * @param work an empty buffer
+     */
+    void unlinked(FamilyTreeNode<Person> child, FamilyTreeNode<Person> parent, List<FamilyTreeNode<Person>> work) {
+        invalidate(ancestors ? child : parent, work);
+    }
+
+    /**
+     * Throws away the tallies of the person and everyone below them (above
+     * them, for descendants): everyone whose count includes anyone the
+     * person's count does. For when the person's links are about to change
+     * in ways that linked() and unlinked() don't cover.
+     *
+     * @param node
+     * @param work an empty buffer
+     */
+    void invalidate(FamilyTreeNode<Person> node, List<FamilyTreeNode<Person>> work) {
+        work.add(node);
+        while (!work.isEmpty()) {
+            FamilyTreeNode<Person> next = work.remove(work.size() - 1);
+            if (tallies[next.getId()] == null) {
+                continue;
+            }
+            tallies[next.getId()] = null;
+            for (int i = 0; i < below(next); i++) {
+                work.add(below(next, i));
+            }
+        }
+    }
+
+    //returns the person's tally, working out theirs and any missing ones
+    //above them first, parents before children. Someone whose tally is being
+    //worked out holds COUNTING until it's done, so if their parents ever
+    //looped back round to them (the tree doesn't let them), the walk would
+    //take that as already counted instead of going round for ever.
+    private Tally tally(FamilyTreeNode<Person> node, List<FamilyTreeNode<Person>> work) {
+        if (tallies[node.getId()] != null) {
+            return tallies[node.getId()];
+        }
+        work.add(node);
+        while (!work.isEmpty()) {
+            FamilyTreeNode<Person> next = work.get(work.size() - 1);
+            if (tallies[next.getId()] == null) {
+                //first time round: work out the missing ones above them.
+                tallies[next.getId()] = COUNTING;
+                for (int i = 0; i < above(next); i++) {
+                    if (tallies[above(next, i).getId()] == null) {
+                        work.add(above(next, i));
+                    }
+                }
+                continue;
+            }
+            if (tallies[next.getId()] == COUNTING) {
+                //second time round, everyone above them is done.
+                Tally tally = new Tally();
+                for (int i = 0; i < above(next); i++) {
+                    FamilyTreeNode<Person> relative = above(next, i);
+                    if (tallies[relative.getId()] != COUNTING) {
+                        tally.addAll(tallies[relative.getId()]);
+                    }
+                    tally.add(relative.getId());
+                }
+                tallies[next.getId()] = tally;
+            }
+            work.remove(work.size() - 1);
+        }
+        return tallies[node.getId()];
+    }
+
+    //the people whose tallies feed this person's: parents for ancestors,
+    //children for descendants.
+    private int above(FamilyTreeNode<Person> node) {
+        return ancestors ? node.parentLinkCount() : node.childLinkCount();
+    }
+
+    private FamilyTreeNode<Person> above(FamilyTreeNode<Person> node, int i) {
+        return ancestors ? node.getParentLink(i) : node.getChildLink(i);
+    }
+
+    //the people whose tallies this person's feeds.
+    private int below(FamilyTreeNode<Person> node) {
+        return ancestors ? node.childLinkCount() : node.parentLinkCount();
+    }
+
+    private FamilyTreeNode<Person> below(FamilyTreeNode<Person> node, int i) {
+        return ancestors ? node.getChildLink(i) : node.getParentLink(i);
+    }
+
+    /**
+     * A set of ids that can be counted and merged: exact (a sorted array of
+     * ids) while it's small, a HyperLogLog sketch once it isn't.
+     */
+    private static final class Tally {
+
+        //the exact ids, sorted, while registers is null.
+        int[] ids = new int[4];
+        byte[] registers;
+        long count;
+
+        Tally copy() {
+            Tally copy = new Tally();
+            copy.ids = ids == null ? null : ids.clone();
+            copy.registers = registers == null ? null : registers.clone();
+            copy.count = count;
+            return copy;
+        }
+
+        /**
+         * Adds the id, and returns true if the tally changed.
+         */
+        boolean add(int id) {
+            if (registers != null) {
+                if (offer(id)) {
+                    recount();
+                    return true;
+                }
+                return false;
+            }
+            int at = Arrays.binarySearch(ids, 0, (int) count, id);
+            if (at >= 0) {
+                return false;
+            }
+            if (count == EXACT_LIMIT) {
+                toSketch();
+                offer(id);
+                recount();
+                return true;
+            }
+            at = -at - 1;
+            if (count == ids.length) {
+                int[] grown = new int[ids.length * 2];
+                System.arraycopy(ids, 0, grown, 0, ids.length);
+                ids = grown;
+            }
+            System.arraycopy(ids, at, ids, at + 1, (int) count - at);
+            ids[at] = id;
+            count++;
+            return true;
+        }
+
+        /**
+         * Adds everyone in the other tally, and returns true if this one
+         * changed.
+         */
+        boolean addAll(Tally other) {
+            boolean changed = false;
+            if (other.registers == null && registers == null) {
+                for (int i = 0; i < other.count; i++) {
+                    changed |= add(other.ids[i]);
+                }
+                return changed;
+            }
+            if (registers == null) {
+                toSketch();
+                changed = true;
+            }
+            if (other.registers == null) {
+                for (int i = 0; i < other.count; i++) {
+                    changed |= offer(other.ids[i]);
+                }
+            } else {
+                for (int i = 0; i < REGISTERS; i++) {
+                    if (other.registers[i] > registers[i]) {
+                        registers[i] = other.registers[i];
+                        changed = true;
+                    }
+                }
+            }
+            if (changed) {
+                recount();
+            }
+            return changed;
+        }
+
+        private void toSketch() {
+            registers = new byte[REGISTERS];
+            for (int i = 0; i < count; i++) {
+                offer(ids[i]);
+            }
+            ids = null;
+        }
+
+        //puts the id's hash in the sketch, and returns true if a register
+        //went up.
+        private boolean offer(int id) {
+            long hash = mix(id);
+            int register = (int) (hash >>> (64 - PRECISION));
+            byte rank = (byte) (Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1);
+            if (rank > registers[register]) {
+                registers[register] = rank;
+                return true;
+            }
+            return false;
+        }
+
+        //works the estimate out again from the registers.
+        private void recount() {
+            double sum = 0;
+            int zeros = 0;
+            for (int i = 0; i < REGISTERS; i++) {
+                sum += 1.0 / (1L << registers[i]);
+                if (registers[i] == 0) {
+                    zeros++;
+                }
+            }
+            double alpha = 0.7213 / (1 + 1.079 / REGISTERS);
+            double estimate = alpha * REGISTERS * REGISTERS / sum;
+            if (estimate <= 2.5 * REGISTERS && zeros > 0) {
+                //few enough that counting the empty registers is better.
+                estimate = REGISTERS * Math.log((double) REGISTERS / zeros);
+            }
+            //a sketch only exists once there are more than EXACT_LIMIT.
+            count = Math.max(EXACT_LIMIT + 1, Math.round(estimate));
+        }
+
+        //spreads the bits of an id over a long (the finisher from
+        //SplitMix64), since ids are small and consecutive.
+        private static long mix(int id) {
+            long z = (id + 1L) * 0x9E3779B97F4A7C15L;
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            return z ^ (z >>> 31);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package familytree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Works out kinship and inbreeding coefficients over the parent links of a
+ * FamilyTreeSnapshot.
+ *
+ * The kinship coefficient of two people is the chance that a gene picked at
+ * random from one of them and the same gene picked from the other are copies
+ * of the same ancestral gene. A person's inbreeding coefficient is the kinship
+ * coefficient of their two parents.
+ *
+ * Counting every path through the common ancestors takes exponential time
+ * once a pedigree has collapsed, so this uses the usual recursive method
+ * instead. People are put in topological order (parents before children, by
+ * generation depth and then id), and:
+ * <ul>
+ * <li>kinship(a, a) = (1 + inbreeding(a)) / 2</li>
+ * <li>otherwise, if a comes later in the order than b (so a can't be b's
+ * ancestor), kinship(a, b) = (kinship(father(a), b) + kinship(mother(a), b)) / 2,
+ * where an unknown parent contributes 0.</li>
+ * </ul>
+ * Every coefficient worked out is remembered in a Session, so shared
+ * ancestors are only worked out once, however many paths lead to them.
+ *
+ * An engine only reads its snapshot, which never changes, so any number of
+ * sessions can run on different threads at once. kinshipMatrices() uses that
+ * to do many families in parallel.
+ *
+ * @author Andrew Brown
+ */
+public class KinshipEngine {
+
+    private FamilyTreeSnapshot snapshot;
+
+    public KinshipEngine(FamilyTreeSnapshot snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Returns the kinship coefficient of the two people.
+     *
+     * @param a
+     * @param b
+     * @return
+     */
+    public double kinship(int a, int b) {
+        return new Session().kinship(a, b);
+    }
+
+    /**
+     * Returns the person's inbreeding coefficient.
+     *
+     * @param id
+     * @return
+     */
+    public double inbreeding(int id) {
+        return new Session().inbreeding(id);
+    }
+
+    /**
+     * Returns the kinship coefficient of every pair of people in 'members':
+     * matrix[i][j] is the kinship of members[i] and members[j]. The diagonal
+     * holds each member's kinship with themselves, (1 + inbreeding) / 2. All of
+     * the pairs share one session, so ancestors the family has in common are
+     * only worked out once.
+     *
+     * @param members
+     * @return
+     */
+    public double[][] kinshipMatrix(int[] members) {
+        Session session = new Session();
+        double[][] matrix = new double[members.length][members.length];
+
+        for (int i = 0; i < members.length; i++) {
+            for (int j = i; j < members.length; j++) {
+                matrix[i][j] = session.kinship(members[i], members[j]);
+                matrix[j][i] = matrix[i][j];
+            }
+        }
+        return matrix;
+    }
+
+    /**
+     * kinshipMatrix() for each family in the list, using the given number of
+     * threads. The results are in the same order as the families.
+     *
+     * @param families
+     * @param threads
+     * @return
+     */
+    public List<double[][]> kinshipMatrices(List<int[]> families, int threads) {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+        List<Future<double[][]>> futures = new ArrayList<Future<double[][]>>();
+        List<double[][]> matrices = new ArrayList<double[][]>();
+
+        try {
+            for (final int[] family : families) {
+                futures.add(pool.submit(new Callable<double[][]>() {
+
+                    public double[][] call() {
+                        return kinshipMatrix(family);
+                    }
+                }));
+            }
+            for (Future<double[][]> future : futures) {
+                matrices.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Kinship calculation was interrupted.", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Kinship calculation failed.", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        return matrices;
+    }
+
+    /**
+     * The memory of one run of calculations: every kinship coefficient and
+     * generation depth worked out so far. Not thread safe; use one per thread.
+     * A session can be kept and reused for as many people as you like, and
+     * gets faster as it learns more of the family.
+     */
+    public class Session {
+
+        private PairTable kinships = new PairTable();
+        //depth + 1 of each person, 0 if not worked out yet.
+        private int[] depths = new int[snapshot.size()];
+
+        public double inbreeding(int id) {
+            int[] parents = snapshot.parentIds(id);
+
+            if (parents.length < 2) {
+                return 0;
+            }
+            return kinship(parents[0], parents[1]);
+        }
+
+        public double kinship(int a, int b) {
+            if (a == -1 || b == -1) {
+                return 0;
+            }
+            //make 'a' the one that's later in the order.
+            if (before(a, b)) {
+                int swap = a;
+                a = b;
+                b = swap;
+            }
+            long key = ((long) a << 32) | (b & 0xffffffffL);
+            double kinship = kinships.get(key);
+            if (kinship >= 0) {
+                return kinship;
+            }
+
+            if (a == b) {
+                kinship = (1 + inbreeding(a)) / 2;
+            } else {
+                int[] parents = snapshot.parentIds(a);
+                kinship = 0;
+                //only the first two parents are blood parents.
+                for (int i = 0; i < parents.length && i < 2; i++) {
+                    kinship += kinship(parents[i], b) / 2;
+                }
+            }
+            kinships.put(key, kinship);
+            return kinship;
+        }
+
+        /**
+         * Returns true if a comes before b in topological order.
+         */
+        private boolean before(int a, int b) {
+            int depthA = depth(a);
+            int depthB = depth(b);
+            if (depthA != depthB) {
+                return depthA < depthB;
+            }
+            return a < b;
+        }
+
+        /**
+         * Returns the number of generations between the person and their
+         * furthest known ancestor. Founders are 0.
+         */
+        private int depth(int id) {
+            if (depths[id] != 0) {
+                return depths[id] - 1;
+            }
+            int depth = 0;
+            for (int parent : snapshot.parentIds(id)) {
+                depth = Math.max(depth, depth(parent) + 1);
+            }
+            depths[id] = depth + 1;
+            return depth;
+        }
+    }
+
+    /**
+     * An open addressing hash table from a pair of ids (packed into a long) to
+     * a coefficient, so that millions of pairs don't each cost a Long, a
+     * Double and a map entry. Coefficients are never negative, so get()
+     * returns -1 for a pair that isn't there.
+     */
+    private static final class PairTable {
+
+        private static final long EMPTY = -1L;
+
+        private long[] keys = newKeys(1024);
+        private double[] values = new double[1024];
+        private int size;
+
+        double get(long key) {
+            int mask = keys.length - 1;
+            for (int slot = hash(key) & mask; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) {
+                    return values[slot];
+                }
+            }
+            return -1;
+        }
+
+        void put(long key, double value) {
+            if ((size + 1) * 2 > keys.length) {
+                grow();
+            }
+            int mask = keys.length - 1;
+            int slot = hash(key) & mask;
+            while (keys[slot] != EMPTY && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            if (keys[slot] == EMPTY) {
+                size++;
+            }
+            keys[slot] = key;
+            values[slot] = value;
+        }
+
+        private void grow() {
+            long[] oldKeys = keys;
+            double[] oldValues = values;
+            keys = newKeys(oldKeys.length * 2);
+            values = new double[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    put(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static long[] newKeys(int capacity) {
+            long[] keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            return keys;
+        }
+
+        private static int hash(long key) {
+            key *= 0x9E3779B97F4A7C15L;
+            return (int) (key ^ (key >>> 32));
+        }
+    }
+}
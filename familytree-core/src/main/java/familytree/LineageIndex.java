@@ -0,0 +1,239 @@
+package familytree;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Skip pointers up one line of descent, paternal or maternal, so that
+ * anyone's k-th father (or mother) can be found in O(log k) steps instead of k.
+ *
+ * This is binary lifting: up[j][id] is the id of the person 2^j steps up the
+ * line from 'id', or -1 if the line doesn't go that far. So up[0] is just the
+ * father (or mother), and up[j][id] is up[j - 1] of up[j - 1][id]. To go k
+ * steps, take the jump for each bit set in k. depth[id] is how long the line
+ * above the person is, which says straight away whether the k-th ancestor
+ * exists at all.
+ *
+ * There are only as many levels as the longest line needs, so for real family
+ * trees (tens of generations) it's a handful of ints per person.
+ *
+ * Linking a person to a father moves everyone below them on the line further
+ * from its top, so relinked() rebuilds their entries, parents before children.
+ * The people below anyone on the line are found through the father (or mother)
+ * pointers of their children, so nobody else is looked at.
+ *
+ * Like the rest of the tree's bookkeeping, it's changed with the tree's lock
+ * held.
+ *
+ * @author Andrew Brown
+ */
+final class LineageIndex {
+
+    private final boolean paternal;
+    private int size;
+    private int[] depth = new int[16];
+    private int[][] up = new int[0][];
+
+    /**
+     * Creates an index of the paternal lines, or the maternal ones.
+     *
+     * @param paternal
+     */
+    LineageIndex(boolean paternal) {
+        this.paternal = paternal;
+    }
+
+    /**
+     * Adds a new person, with no links.
+     *
+     * @param node
+     */
+    void add(FamilyTreeNode<Person> node) {
+        int id = node.getId();
+        if (id >= depth.length) {
+            int capacity = Math.max(id + 1, depth.length * 2);
+            depth = grow(depth, capacity);
+            for (int j = 0; j < up.length; j++) {
+                up[j] = grow(up[j], capacity);
+            }
+        }
+        size = Math.max(size, id + 1);
+        depth[id] = 0;
+        for (int[] level : up) {
+            level[id] = -1;
+        }
+    }
+
+    /**
+     * Takes the people added from 'id' on back out, if they got as far as
+     * being added. They mustn't have any links.
+     *
+     * @param id
+     */
+    void removeFrom(int id) {
+        size = Math.min(size, id);
+    }
+
+    /**
+     * Returns the number of steps up the line above the person.
+     *
+     * @param id
+     * @return
+     */
+    int depth(int id) {
+        return depth[id];
+    }
+
+    /**
+     * Returns the id of the person 'steps' steps up the line from 'id', or -1
+     * if the line doesn't go back that far.
+     *
+     * @param id
+     * @param steps
+     * @return
+     */
+    int ancestor(int id, int steps) {
+        if (steps < 0 || steps > depth[id]) {
+            return -1;
+        }
+        for (int j = 0; steps != 0; j++, steps >>>= 1) {
+            if ((steps & 1) != 0) {
+                id = up[j][id];
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Brings the index up to date after the person's father (or mother) was
+     * linked or unlinked.
+     *
+     * @param node
+     * @param toVisit an empty buffer.
+     */
+    void relinked(FamilyTreeNode<Person> node, List<FamilyTreeNode<Person>> toVisit) {
+        toVisit.add(node);
+        //a breadth first walk down the line, so everyone's ancestors are up to
+        //date before they are.
+        for (int i = 0; i < toVisit.size(); i++) {
+            FamilyTreeNode<Person> next = toVisit.get(i);
+            update(next);
+            for (int c = 0; c < next.childLinkCount(); c++) {
+                FamilyTreeNode<Person> child = next.getChildLink(c);
+                if (lineParent(child) == next) {
+                    toVisit.add(child);
+                }
+            }
+        }
+        toVisit.clear();
+    }
+
+    /**
+     * Works out every entry again from scratch, from the father (or mother)
+     * pointers. For the bulk loader. The empty places left by people taken
+     * out of the tree get a line of their own, of no length.
+     *
+     * @param people
+     */
+    void rebuild(List<FamilyTreeNode<Person>> people) {
+        up = new int[0][];
+        depth = new int[Math.max(16, people.size())];
+        int[] parent = new int[people.size()];
+        for (int id = 0; id < people.size(); id++) {
+            FamilyTreeNode<Person> above = people.get(id) == null ? null : lineParent(people.get(id));
+            parent[id] = above == null ? -1 : above.getId();
+            depth[id] = -1;
+        }
+        size = people.size();
+        //depths, walking up each line only as far as the first person whose
+        //depth is already known, and then back down it.
+        int deepest = 0;
+        int[] path = new int[16];
+        for (int id = 0; id < size; id++) {
+            int length = 0;
+            int at = id;
+            while (at != -1 && depth[at] == -1) {
+                if (length == path.length) {
+                    path = grow(path, length * 2);
+                }
+                path[length++] = at;
+                at = parent[at];
+            }
+            int known = at == -1 ? -1 : depth[at];
+            while (length > 0) {
+                depth[path[--length]] = ++known;
+            }
+            deepest = Math.max(deepest, depth[id]);
+        }
+        ensureLevels(deepest);
+        if (up.length > 0) {
+            System.arraycopy(parent, 0, up[0], 0, size);
+            for (int j = 1; j < up.length; j++) {
+                fillLevel(j);
+            }
+        }
+    }
+
+    private void update(FamilyTreeNode<Person> node) {
+        int id = node.getId();
+        FamilyTreeNode<Person> above = lineParent(node);
+        if (above == null) {
+            depth[id] = 0;
+            for (int[] level : up) {
+                level[id] = -1;
+            }
+            return;
+        }
+        depth[id] = depth[above.getId()] + 1;
+        ensureLevels(depth[id]);
+        int jump = above.getId();
+        for (int j = 0; j < up.length; j++) {
+            up[j][id] = jump;
+            if (jump != -1) {
+                jump = up[j][jump];
+            }
+        }
+    }
+
+    //makes sure there are enough levels to jump 'steps' steps.
+    private void ensureLevels(int steps) {
+        int needed = 32 - Integer.numberOfLeadingZeros(steps);
+        if (needed <= up.length) {
+            return;
+        }
+        int[][] grown = new int[needed][];
+        System.arraycopy(up, 0, grown, 0, up.length);
+        for (int j = up.length; j < needed; j++) {
+            grown[j] = new int[depth.length];
+        }
+        int first = up.length;
+        up = grown;
+        for (int j = first; j < needed; j++) {
+            if (j == 0) {
+                //nobody has been linked yet.
+                Arrays.fill(up[0], -1);
+            } else {
+                fillLevel(j);
+            }
+        }
+    }
+
+    private void fillLevel(int j) {
+        int[] below = up[j - 1];
+        int[] level = up[j];
+        for (int id = 0; id < size; id++) {
+            int half = below[id];
+            level[id] = half == -1 ? -1 : below[half];
+        }
+    }
+
+    private FamilyTreeNode<Person> lineParent(FamilyTreeNode<Person> node) {
+        return paternal ? node.getFather() : node.getMother();
+    }
+
+    private static int[] grow(int[] array, int capacity) {
+        int[] grown = new int[capacity];
+        System.arraycopy(array, 0, grown, 0, array.length);
+        return grown;
+    }
+}
@@ -0,0 +1,350 @@
+package familytree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A batch of changes to a FamilyTree that is applied all at once, or not at
+ * all. Get one from FamilyTree.newBatch(), queue up the changes with the
+ * methods below (they take the same arguments as the FamilyTree methods of the
+ * same name), and then call apply().
+ *
+ * apply() runs the changes in the order they were added, under the tree's
+ * lock, using the same rules as the single-change methods; a change can rely on
+ * an earlier change in the same batch (e.g. add a person, then link them). If
+ * any change fails, everything the batch had done is rolled back and the tree
+ * is left as it was. Each change goes in the undo log before it's made rather
+ * than after, so that a change that throws part way through its own work is
+ * taken back along with the rest.
+ *
+ * The point of a batch is that the bookkeeping happens once per batch rather
+ * than once per change: the line indexes and the ancestor and descendant
+ * counts are brought up to date for all of its links together, the snapshot
+ * records of every person the batch touched are rebuilt in a single pass, and
+ * the change feed events are only published once the whole batch has gone
+ * through. That's what makes big merges fast, and it also means nobody sees
+ * half a batch. (The generations are still kept up to date change by change,
+ * since they're what stops a link making someone their own ancestor.)
+ *
+ * A batch can only be applied once.
+ *
+ * @author Andrew Brown
+ */
+public class MutationBatch {
+
+    private static final int ADD_PERSON = 0;
+    private static final int MOTHER = 1;
+    private static final int FATHER = 2;
+    private static final int WEDDING = 3;
+    private static final int DIVORCE = 4;
+    private static final int ADOPTION = 5;
+
+    private FamilyTree tree;
+    private List<Operation> operations = new ArrayList<Operation>();
+    private boolean applied;
+    private int failedAt = -1;
+
+    MutationBatch(FamilyTree tree) {
+        this.tree = tree;
+    }
+
+    public MutationBatch addPerson(Person aPerson) {
+        Operation op = add(ADD_PERSON, aPerson.getName(), aPerson.getDateOfBirth(), null, null);
+        op.person = aPerson;
+        return this;
+    }
+
+    public MutationBatch makeLinkToMother(String aPerson, String aDOB, String mName, String mDOB) {
+        add(MOTHER, aPerson, aDOB, mName, mDOB);
+        return this;
+    }
+
+    public MutationBatch makeLinkToFather(String aPerson, String aDOB, String fName, String fDOB) {
+        add(FATHER, aPerson, aDOB, fName, fDOB);
+        return this;
+    }
+
+    public MutationBatch recordWedding(String partner1Name, String aDOB1, String partner2Name, String aDOB2) {
+        return recordWedding(partner1Name, aDOB1, partner2Name, aDOB2, null);
+    }
+
+    public MutationBatch recordWedding(String partner1Name, String aDOB1, String partner2Name, String aDOB2,
+            String date) {
+        add(WEDDING, partner1Name, aDOB1, partner2Name, aDOB2).date = date;
+        return this;
+    }
+
+    public MutationBatch recordDivorce(String partner1Name, String aDOB1, String partner2Name, String aDOB2) {
+        return recordDivorce(partner1Name, aDOB1, partner2Name, aDOB2, null);
+    }
+
+    public MutationBatch recordDivorce(String partner1Name, String aDOB1, String partner2Name, String aDOB2,
+            String date) {
+        add(DIVORCE, partner1Name, aDOB1, partner2Name, aDOB2).date = date;
+        return this;
+    }
+
+    public MutationBatch recordAdoption(String personName, String aDOB) {
+        add(ADOPTION, personName, aDOB, null, null);
+        return this;
+    }
+
+    /**
+     * Returns the number of changes in the batch.
+     *
+     * @return
+     */
+    public int size() {
+        return operations.size();
+    }
+
+    /**
+     * Applies every change in the batch. Returns true if they all worked. If
+     * one didn't, nothing is changed, false is returned, and failedAt() says
+     * which change it was. If one throws, nothing is changed either, and the
+     * exception is passed on.
+     *
+     * @return
+     */
+    public boolean apply() {
+        if (applied) {
+            throw new IllegalStateException("This batch has already been applied.");
+        }
+        applied = true;
+
+        synchronized (tree) {
+            List<Undo> undoLog = new ArrayList<Undo>(operations.size());
+            List<FamilyTreeNode<Person>> children = new ArrayList<FamilyTreeNode<Person>>();
+            List<FamilyTreeNode<Person>> parents = new ArrayList<FamilyTreeNode<Person>>();
+
+            tree.startBatch();
+            int i = 0;
+            boolean worked = false;
+            try {
+                for (; i < operations.size(); i++) {
+                    Operation op = operations.get(i);
+                    Undo undo = prepare(op);
+                    if (undo == null) {
+                        break;
+                    }
+                    //log the change before making it, so that if it throws part
+                    //way through, rollBack() still takes back what it did.
+                    undoLog.add(undo);
+                    if (!make(op, undo)) {
+                        //a change that can't be made doesn't change anything.
+                        undoLog.remove(undoLog.size() - 1);
+                        break;
+                    }
+                }
+                worked = i == operations.size();
+            } finally {
+                if (!worked) {
+                    rollBack(undoLog);
+                    failedAt = i;
+                    tree.finishBatch(children, parents);
+                }
+            }
+            if (!worked) {
+                return false;
+            }
+
+            //everything worked, so bring the indexes up to date and tell
+            //snapshots and subscribers, once.
+            int[] touched = new int[undoLog.size() * 2];
+            int touchedCount = 0;
+            for (Undo undo : undoLog) {
+                touched[touchedCount++] = undo.node1.getId();
+                if (undo.node2 != null) {
+                    touched[touchedCount++] = undo.node2.getId();
+                }
+                if (undo.type == ChangeType.MOTHER_LINKED || undo.type == ChangeType.FATHER_LINKED) {
+                    children.add(undo.node1);
+                    parents.add(undo.node2);
+                }
+            }
+            tree.finishBatch(children, parents);
+            tree.publishAll(touched, touchedCount);
+            for (Undo undo : undoLog) {
+                int other = -1;
+                if (undo.node2 != null) {
+                    other = undo.node2.getId();
+                }
+                tree.getChangeFeed().publish(undo.type, undo.node1.getId(), other);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the position of the change that made apply() fail, or -1 if it
+     * didn't fail (or hasn't been called).
+     *
+     * @return
+     */
+    public int failedAt() {
+        return failedAt;
+    }
+
+    private Operation add(int type, String name1, String dob1, String name2, String dob2) {
+        if (applied) {
+            throw new IllegalStateException("This batch has already been applied.");
+        }
+        Operation op = new Operation(type, name1, dob1, name2, dob2);
+        operations.add(op);
+        return op;
+    }
+
+    /**
+     * Looks up the people a change is about, and notes down what's needed to
+     * take it back. Returns null if one of them isn't in the tree.
+     *
+     * @param op
+     * @return
+     */
+    private Undo prepare(Operation op) {
+        if (op.type == ADD_PERSON) {
+            Undo undo = new Undo(ChangeType.PERSON_ADDED, null, null);
+            undo.id = tree.size();
+            return undo;
+        }
+
+        FamilyTreeNode<Person> node1 = tree.getPerson(op.name1, op.dob1);
+        if (node1 == null) {
+            return null;
+        }
+        if (op.type == ADOPTION) {
+            return new Undo(ChangeType.ADOPTION, node1, null);
+        }
+        FamilyTreeNode<Person> node2 = tree.getPerson(op.name2, op.dob2);
+        if (node2 == null) {
+            return null;
+        }
+
+        Undo undo;
+        if (op.type == MOTHER) {
+            undo = new Undo(ChangeType.MOTHER_LINKED, node1, node2);
+        } else if (op.type == FATHER) {
+            undo = new Undo(ChangeType.FATHER_LINKED, node1, node2);
+        } else if (op.type == WEDDING) {
+            undo = new Undo(ChangeType.WEDDING, node1, node2);
+            undo.history1 = tree.partnershipsOf(node1).size();
+            undo.history2 = tree.partnershipsOf(node2).size();
+        } else {
+            undo = new Undo(ChangeType.DIVORCE, node1, node2);
+            undo.partnership = tree.currentPartnership(node1);
+        }
+        return undo;
+    }
+
+    /**
+     * Makes one change to the tree. Returns false if the change couldn't be
+     * made, in which case nothing was changed.
+     *
+     * @param op
+     * @param undo what prepare() returned for it
+     * @return
+     */
+    private boolean make(Operation op, Undo undo) {
+        if (op.type == ADD_PERSON) {
+            undo.node1 = tree.insertPerson(op.person);
+            return undo.node1 != null;
+        } else if (op.type == ADOPTION) {
+            undo.node1.getItem().setIsAdopted(true);
+            return true;
+        } else if (op.type == MOTHER) {
+            return tree.linkToMother(undo.node1, undo.node2);
+        } else if (op.type == FATHER) {
+            return tree.linkToFather(undo.node1, undo.node2);
+        } else if (op.type == WEDDING) {
+            return tree.wed(undo.node1, undo.node2, op.date);
+        }
+        return tree.divorce(undo.node1, undo.node2, op.date);
+    }
+
+    /**
+     * Takes back every change in the log, newest first. The newest one may
+     * only have been part made, if it threw; the tree's undo methods only
+     * take back what's actually there.
+     *
+     * @param undoLog
+     */
+    private void rollBack(List<Undo> undoLog) {
+        for (int i = undoLog.size() - 1; i >= 0; i--) {
+            Undo undo = undoLog.get(i);
+            if (undo.type == ChangeType.PERSON_ADDED) {
+                tree.uninsertPerson(undo.id);
+                continue;
+            } else if (undo.type == ChangeType.MOTHER_LINKED || undo.type == ChangeType.FATHER_LINKED) {
+                //the link can't have been there before, or the change would
+                //have failed without changing anything.
+                tree.unlinkParent(undo.node1, undo.node2);
+            } else if (undo.type == ChangeType.WEDDING) {
+                tree.unwed(undo.node1, undo.node2, undo.history1, undo.history2);
+            } else if (undo.type == ChangeType.DIVORCE) {
+                tree.undivorce(undo.node1, undo.node2, undo.partnership);
+            }
+            restoreFlags(undo.node1.getItem(), undo.before1);
+            if (undo.node2 != null) {
+                restoreFlags(undo.node2.getItem(), undo.before2);
+            }
+        }
+    }
+
+    private static void restoreFlags(Person person, Person before) {
+        person.setIsMother(before.isMother());
+        person.setIsFather(before.isFather());
+        person.setIsMarried(before.isMarried());
+        person.setIsDivorced(before.isDivorced());
+        person.setIsAdopted(before.isAdopted());
+    }
+
+    /**
+     * One queued change.
+     */
+    private static class Operation {
+
+        int type;
+        String name1, dob1, name2, dob2;
+        //the date of a wedding or divorce.
+        String date;
+        Person person;
+
+        Operation(int type, String name1, String dob1, String name2, String dob2) {
+            this.type = type;
+            this.name1 = name1;
+            this.dob1 = dob1;
+            this.name2 = name2;
+            this.dob2 = dob2;
+        }
+    }
+
+    /**
+     * A change that is being made: the nodes it touches, copies of their
+     * people from before the change, so the flags can be put back, and
+     * whatever else its undo method needs to know about how things were.
+     */
+    private static class Undo {
+
+        ChangeType type;
+        FamilyTreeNode<Person> node1, node2;
+        Person before1, before2;
+        //the id a person being added is given.
+        int id;
+        //how many partnerships each partner had before a wedding.
+        int history1, history2;
+        //the partnership a divorce ends.
+        Partnership partnership;
+
+        Undo(ChangeType type, FamilyTreeNode<Person> node1, FamilyTreeNode<Person> node2) {
+            this.type = type;
+            this.node1 = node1;
+            this.node2 = node2;
+            if (node1 != null) {
+                this.before1 = new Person(node1.getItem());
+            }
+            if (node2 != null) {
+                this.before2 = new Person(node2.getItem());
+            }
+        }
+    }
+}
@@ -0,0 +1,667 @@
+package familytree;
+
+/**
+ * A family tree for very large families, which keeps its people and links off
+ * the Java heap (see OffHeapStore). A FamilyTree with tens of millions of
+ * people has tens of millions of Person and node objects for the garbage
+ * collector to trace on every full collection; this has none. The only heap
+ * it uses per person is an int for each thread that runs queries, to mark
+ * who a traversal has already visited (see VisitMarks).
+ *
+ * It has the same methods as FamilyTree for adding people, linking them and
+ * the everyday queries, and they give the same answers, so code written
+ * against those can use either. It leaves out the things that need per-person
+ * objects: snapshots, the change feed, batches, partnership histories, and the
+ * deeper traversals. Every person can have one father, one mother and one
+ * partner at a time, as in FamilyTree. A person's age isn't stored.
+ *
+ * The methods that change the tree are synchronized. As with FamilyTree, the
+ * queries shouldn't run while the tree is being changed.
+ *
+ * @author Andrew Brown
+ */
+public class OffHeapFamilyTree {
+
+    private OffHeapStore store;
+    //each thread's marks for the traversals that mustn't visit anyone twice,
+    //keyed by record index. See VisitMarks.
+    private final ThreadLocal<VisitMarks> marks = new ThreadLocal<VisitMarks>() {
+
+        @Override
+        protected VisitMarks initialValue() {
+            return new VisitMarks(false);
+        }
+    };
+
+    public OffHeapFamilyTree() {
+        store = new OffHeapStore();
+    }
+
+    /**
+     * Adds a new person to the family tree. Returns true if the operation was
+     * successful, or false if the person already exists. Only the person's
+     * details are kept, not the Person itself.
+     *
+     * @param aPerson Person to be added
+     * @return
+     */
+    public synchronized boolean addPerson(Person aPerson) {
+        int id = store.add(aPerson.getName(), aPerson.getDateOfBirth(), aPerson.getBirthPlace());
+
+        if (id == -1) {
+            return false;
+        }
+        store.setFlag(id, OffHeapStore.FLAG_MOTHER, aPerson.isMother());
+        store.setFlag(id, OffHeapStore.FLAG_FATHER, aPerson.isFather());
+        store.setFlag(id, OffHeapStore.FLAG_MARRIED, aPerson.isMarried());
+        store.setFlag(id, OffHeapStore.FLAG_DIVORCED, aPerson.isDivorced());
+        store.setFlag(id, OffHeapStore.FLAG_ADOPTED, aPerson.isAdopted());
+        return true;
+    }
+
+    /**
+     * Links an individual to their mother. Both need already to be in the
+     * tree. Returns false if the individual already has a mother, the mother
+     * is already one of their parents, or the mother is the individual or one
+     * of their descendants.
+     *
+     * @param aPerson String holding individual's name.
+     * @param aDOB String holding individual's date of birth.
+     * @param mName String holding mother's name.
+     * @param mDOB String holding mother's date of birth.
+     */
+    public synchronized boolean makeLinkToMother(String aPerson, String aDOB,
+            String mName, String mDOB) {
+        int child = store.find(aPerson, aDOB);
+        int mother = store.find(mName, mDOB);
+
+        if (child == -1 || mother == -1 || store.mother(child) != -1
+                || store.father(child) == mother || wouldBeOwnAncestor(child, mother)) {
+            return false;
+        }
+        store.setFlag(mother, OffHeapStore.FLAG_MOTHER, true);
+        store.linkMother(child, mother);
+        linked(child, mother);
+        return true;
+    }
+
+    /**
+     * Links an individual to their father. Both need already to be in the
+     * tree. Returns false if the individual already has a father, the father
+     * is already one of their parents, or the father is the individual or one
+     * of their descendants.
+     *
+     * @param aPerson String holding individual's name.
+     * @param aDOB String holding individual's date of birth.
+     * @param fName String holding father's name.
+     * @param fDOB String holding father's date of birth.
+     */
+    public synchronized boolean makeLinkToFather(String aPerson, String aDOB,
+            String fName, String fDOB) {
+        int child = store.find(aPerson, aDOB);
+        int father = store.find(fName, fDOB);
+
+        if (child == -1 || father == -1 || store.father(child) != -1
+                || store.mother(child) == father || wouldBeOwnAncestor(child, father)) {
+            return false;
+        }
+        store.setFlag(father, OffHeapStore.FLAG_FATHER, true);
+        store.linkFather(child, father);
+        linked(child, father);
+        return true;
+    }
+
+    /**
+     * Links a newly married couple, unless either of them is already married.
+     *
+     * @param partner1Name String holding first partner's name.
+     * @param aDOB1 String holding first partner's date of birth.
+     * @param partner2Name String holding second partner's name.
+     * @param aDOB2 String holding second partner's date of birth.
+     */
+    public synchronized boolean recordWedding(String partner1Name, String aDOB1,
+            String partner2Name, String aDOB2) {
+        int partner1 = store.find(partner1Name, aDOB1);
+        int partner2 = store.find(partner2Name, aDOB2);
+
+        if (partner1 == -1 || partner2 == -1
+                || store.partner(partner1) != -1 || store.partner(partner2) != -1) {
+            return false;
+        }
+        store.setFlag(partner1, OffHeapStore.FLAG_MARRIED, true);
+        store.setFlag(partner2, OffHeapStore.FLAG_MARRIED, true);
+        store.setPartner(partner1, partner2);
+        store.setPartner(partner2, partner1);
+        return true;
+    }
+
+    /**
+     * Records a divorce, if the couple is married to each other.
+     *
+     * @param partner1Name String first partner's name.
+     * @param aDOB1 String holding first partner's date of birth.
+     * @param partner2Name String holding second partner's name.
+     * @param aDOB2 String holding second partner's date of birth.
+     */
+    public synchronized boolean recordDivorce(String partner1Name, String aDOB1,
+            String partner2Name, String aDOB2) {
+        int partner1 = store.find(partner1Name, aDOB1);
+        int partner2 = store.find(partner2Name, aDOB2);
+
+        if (partner1 == -1 || partner2 == -1 || store.partner(partner1) != partner2) {
+            return false;
+        }
+        store.setFlag(partner1, OffHeapStore.FLAG_MARRIED, false);
+        store.setFlag(partner1, OffHeapStore.FLAG_DIVORCED, true);
+        store.setFlag(partner2, OffHeapStore.FLAG_MARRIED, false);
+        store.setFlag(partner2, OffHeapStore.FLAG_DIVORCED, true);
+        store.setPartner(partner1, -1);
+        store.setPartner(partner2, -1);
+        return true;
+    }
+
+    /**
+     * Marks the person as adopted.
+     *
+     * @param personName
+     * @param aDOB
+     */
+    public synchronized boolean recordAdoption(String personName, String aDOB) {
+        int person = store.find(personName, aDOB);
+
+        if (person == -1) {
+            return false;
+        }
+        store.setFlag(person, OffHeapStore.FLAG_ADOPTED, true);
+        return true;
+    }
+
+    /**
+     * Returns true if linking the child to the parent would make the child
+     * their own ancestor. See GenerationIndex.wouldBeOwnAncestor(); the
+     * search only keeps the people it actually visits.
+     */
+    private boolean wouldBeOwnAncestor(int child, int parent) {
+        int limit = store.generation(parent);
+
+        if (store.generation(child) > limit) {
+            return false;
+        }
+        VisitMarks visited = marks.get();
+        IntList toVisit = new IntList();
+        visited.begin(store.size());
+        visited.mark(child);
+        toVisit.add(child);
+        while (toVisit.size() > 0) {
+            int next = toVisit.removeLast();
+            if (next == parent) {
+                return true;
+            }
+            for (int c = store.firstChild(next); c != -1; c = store.nextChild(next, c)) {
+                if (store.generation(c) <= limit && visited.mark(c)) {
+                    toVisit.add(c);
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Moves the child, and their descendants, to later generations if the new
+     * link means they have to be. See GenerationIndex.linked().
+     */
+    private void linked(int child, int parent) {
+        if (store.generation(parent) + 1 <= store.generation(child)) {
+            return;
+        }
+        IntList toVisit = new IntList();
+        store.setGeneration(child, store.generation(parent) + 1);
+        toVisit.add(child);
+        while (toVisit.size() > 0) {
+            int next = toVisit.removeLast();
+            int below = store.generation(next) + 1;
+            for (int c = store.firstChild(next); c != -1; c = store.nextChild(next, c)) {
+                if (store.generation(c) < below) {
+                    store.setGeneration(c, below);
+                    toVisit.add(c);
+                }
+            }
+        }
+    }
+
+    /**
+     * This lists the person's name, date of birth and hometown. if present,
+     * it also prints their parents, siblings, partner, and children.
+     *
+     * @param personName
+     * @param aDOB
+     */
+    public String listPersonDetails(String personName, String aDOB) {
+        StringBuilder details = new StringBuilder();
+        int person = store.find(personName, aDOB);
+
+        if (person == -1) {
+            return personName + " isn't in the tree.\n";
+        }
+        store.appendTo(person, details).append('\n');
+        if (store.hasFlag(person, OffHeapStore.FLAG_ADOPTED)) {
+            details.append(personName).append(" is adopted.\n");
+        }
+        int partner = store.partner(person);
+        if (store.hasFlag(person, OffHeapStore.FLAG_MARRIED)) {
+            details.append(personName).append(" is currently married to ");
+            store.appendTo(partner, details).append('\n');
+        }
+        if (store.hasFlag(person, OffHeapStore.FLAG_DIVORCED)) {
+            details.append("personName has had a divorce in the past.\n");
+        }
+        details.append(listParentDetails(personName, aDOB));
+        details.append(listSiblings(personName, aDOB));
+        if (partner != -1 && store.hasFlag(person, OffHeapStore.FLAG_MARRIED)) {
+            details.append(personName).append("'s partner:\n");
+            details.append("Partner: ");
+            store.appendTo(partner, details).append('\n');
+        }
+        details.append(listChildren(personName, aDOB));
+        return details.toString();
+    }
+
+    /**
+     * List the details of the parents of the person whose name is given. Also
+     * lists stepparents.
+     *
+     * @param personName
+     * @param aDOB
+     */
+    public String listParentDetails(String personName, String aDOB) {
+        StringBuilder details = new StringBuilder();
+        int person = store.find(personName, aDOB);
+
+        if (person == -1) {
+            return personName + " isn't in the tree.\n";
+        }
+        if (parentCount(person) == 0) {
+            return personName + " doesn't have any parents listed.\n";
+        }
+        if (store.hasFlag(person, OffHeapStore.FLAG_ADOPTED)) {
+            details.append(personName).append("'s adoptive parents:\n");
+        } else {
+            details.append(personName).append("'s parents:\n");
+        }
+        for (int i = 0; i < parentCount(person); i++) {
+            int parent = parent(person, i);
+            if (store.hasFlag(parent, OffHeapStore.FLAG_MOTHER)) {
+                details.append("Mother: ");
+            } else {
+                details.append("Father: ");
+            }
+            store.appendTo(parent, details).append('\n');
+            //if the parent is married, and their partner is not also the
+            //person's parent, then the partner is a stepparent.
+            int partner = store.partner(parent);
+            if (partner != -1 && !isParentOf(partner, person)) {
+                details.append("Stepparent: ");
+                store.appendTo(partner, details).append('\n');
+            }
+        }
+        return details.toString();
+    }
+
+    /**
+     * Lists the details of the children of the person whose name is given,
+     * along with their stepchildren, if any.
+     *
+     * @param personName
+     * @param aDOB
+     */
+    public String listChildren(String personName, String aDOB) {
+        StringBuilder details = new StringBuilder();
+        int person = store.find(personName, aDOB);
+
+        if (person == -1) {
+            return personName + " isn't in the tree.\n";
+        }
+        if (store.firstChild(person) != -1) {
+            details.append(personName).append("'s children:\n");
+            for (int child = store.firstChild(person); child != -1; child = store.nextChild(person, child)) {
+                if (store.hasFlag(child, OffHeapStore.FLAG_ADOPTED)) {
+                    details.append("Adopted Child: ");
+                } else {
+                    details.append("Child: ");
+                }
+                store.appendTo(child, details).append('\n');
+            }
+        }
+        //check to see if the person has any step-children.
+        int partner = store.partner(person);
+        if (partner != -1) {
+            for (int child = store.firstChild(partner); child != -1; child = store.nextChild(partner, child)) {
+                if (!isParentOf(person, child)) {
+                    details.append("Stepchild: ");
+                    store.appendTo(child, details).append('\n');
+                }
+            }
+        }
+        if (details.length() == 0) {
+            details.append(personName).append(" has no children on record.\n");
+        }
+        return details.toString();
+    }
+
+    /**
+     * List the details of the siblings of the person whose name is given:
+     * full, half and step siblings.
+     *
+     * @param personName
+     * @param aDOB
+     */
+    public String listSiblings(String personName, String aDOB) {
+        StringBuilder details = new StringBuilder();
+        int person = store.find(personName, aDOB);
+        VisitMarks seen = marks.get();
+        IntList fullSiblings = new IntList();
+        IntList halfSiblings = new IntList();
+        IntList stepSiblings = new IntList();
+
+        if (person == -1) {
+            return personName + " isn't in the tree.\n";
+        }
+        //the person is marked too, so they don't count as their own sibling.
+        seen.begin(store.size());
+        seen.mark(person);
+        for (int i = 0; i < parentCount(person); i++) {
+            int parent = parent(person, i);
+            for (int sibling = store.firstChild(parent); sibling != -1; sibling = store.nextChild(parent, sibling)) {
+                if (seen.mark(sibling)) {
+                    //if the siblings don't share exactly the same parents,
+                    //then they are half siblings.
+                    if (sameParents(person, sibling)) {
+                        fullSiblings.add(sibling);
+                    } else {
+                        halfSiblings.add(sibling);
+                    }
+                }
+            }
+        }
+        for (int i = 0; i < parentCount(person); i++) {
+            int partner = store.partner(parent(person, i));
+            if (partner != -1) {
+                for (int sibling = store.firstChild(partner); sibling != -1; sibling = store.nextChild(partner, sibling)) {
+                    if (seen.mark(sibling)) {
+                        stepSiblings.add(sibling);
+                    }
+                }
+            }
+        }
+        if (fullSiblings.size() + halfSiblings.size() + stepSiblings.size() == 0) {
+            return personName + " has no siblings listed.\n";
+        }
+        if (store.hasFlag(person, OffHeapStore.FLAG_ADOPTED)) {
+            details.append(personName).append("'s adoptive siblings:\n");
+        } else {
+            details.append(personName).append("'s siblings:\n");
+        }
+        appendSiblings(details, fullSiblings, "Adopted sibling: ", "Sibling: ");
+        appendSiblings(details, halfSiblings, "Adopted half sibling: ", "Half sibling: ");
+        appendSiblings(details, stepSiblings, "Adopted step sibling: ", "Step sibling: ");
+        return details.toString();
+    }
+
+    /**
+     * Returns true if the two people have exactly the same parents, whichever
+     * of them is whose father or mother, as FamilyTree.sameParents() does.
+     */
+    private boolean sameParents(int person, int sibling) {
+        if (parentCount(person) != parentCount(sibling)) {
+            return false;
+        }
+        for (int i = 0; i < parentCount(sibling); i++) {
+            if (!isParentOf(parent(sibling, i), person)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void appendSiblings(StringBuilder details, IntList siblings, String adopted, String label) {
+        for (int i = 0; i < siblings.size(); i++) {
+            if (store.hasFlag(siblings.get(i), OffHeapStore.FLAG_ADOPTED)) {
+                details.append(adopted);
+            } else {
+                details.append(label);
+            }
+            store.appendTo(siblings.get(i), details).append('\n');
+        }
+    }
+
+    /**
+     * List the details of the grandparents of the person whose name is given.
+     *
+     * @param personName
+     * @param aDOB
+     */
+    public String listGrandParents(String personName, String aDOB) {
+        StringBuilder details = new StringBuilder();
+        int person = store.find(personName, aDOB);
+
+        if (person == -1) {
+            return personName + " isn't in the tree.\n";
+        }
+        for (int i = 0; i < parentCount(person); i++) {
+            int parent = parent(person, i);
+            for (int j = 0; j < parentCount(parent); j++) {
+                int grandparent = parent(parent, j);
+                if (details.length() == 0) {
+                    if (store.hasFlag(person, OffHeapStore.FLAG_ADOPTED)) {
+                        details.append(personName).append("'s Adoptive grandparents:\n");
+                    } else {
+                        details.append(personName).append("'s Grandparents:\n");
+                    }
+                }
+                if (store.hasFlag(grandparent, OffHeapStore.FLAG_MOTHER)) {
+                    details.append("Grandmother: ");
+                } else {
+                    details.append("Grandfather: ");
+                }
+                store.appendTo(grandparent, details).append('\n');
+            }
+        }
+        if (details.length() == 0) {
+            details.append(personName).append(" doesn't have any Grandparents listed.");
+        }
+        return details.toString();
+    }
+
+    /**
+     * List the details of the grandchildren of the person whose name is given.
+     *
+     * @param personName
+     * @param aDOB
+     */
+    public String listGrandChildren(String personName, String aDOB) {
+        StringBuilder details = new StringBuilder();
+        int person = store.find(personName, aDOB);
+        VisitMarks seen = marks.get();
+
+        if (person == -1) {
+            return personName + " isn't in the tree.\n";
+        }
+        seen.begin(store.size());
+        for (int child = store.firstChild(person); child != -1; child = store.nextChild(person, child)) {
+            for (int grandchild = store.firstChild(child); grandchild != -1;
+                    grandchild = store.nextChild(child, grandchild)) {
+                //a grandchild whose parents are both the person's children
+                //would otherwise be listed twice.
+                if (!seen.mark(grandchild)) {
+                    continue;
+                }
+                if (details.length() == 0) {
+                    details.append(personName).append("'s Grandchildren:\n");
+                }
+                if (store.hasFlag(grandchild, OffHeapStore.FLAG_ADOPTED)) {
+                    details.append("Adopted Grandchild: ");
+                } else {
+                    details.append("Grandchild: ");
+                }
+                store.appendTo(grandchild, details).append('\n');
+            }
+        }
+        if (details.length() == 0) {
+            details.append(personName).append(" doesn't have any Grandchildren.\n");
+        }
+        return details.toString();
+    }
+
+    /**
+     * Returns the person's generation number, or -1 if they aren't in the
+     * tree. See FamilyTree.getGeneration().
+     *
+     * @param personName
+     * @param aDOB
+     * @return
+     */
+    public int getGeneration(String personName, String aDOB) {
+        int person = store.find(personName, aDOB);
+
+        if (person == -1) {
+            return -1;
+        }
+        return store.generation(person);
+    }
+
+    /**
+     * Returns true if the person specified has a mother.
+     *
+     * @param aName
+     * @param aDOB
+     * @return
+     */
+    public boolean hasMother(String aName, String aDOB) {
+        int person = store.find(aName, aDOB);
+        return person != -1 && store.mother(person) != -1;
+    }
+
+    /**
+     * Returns true if the person specified has a father.
+     *
+     * @param aName
+     * @param aDOB
+     * @return
+     */
+    public boolean hasFather(String aName, String aDOB) {
+        int person = store.find(aName, aDOB);
+        return person != -1 && store.father(person) != -1;
+    }
+
+    /**
+     * Returns true if the person specified has a partner.
+     *
+     * @param aName
+     * @param aDOB
+     * @return
+     */
+    public boolean hasPartner(String aName, String aDOB) {
+        int person = store.find(aName, aDOB);
+        return person != -1 && store.hasFlag(person, OffHeapStore.FLAG_MARRIED);
+    }
+
+    /**
+     * Returns a copy of the person's details, or null if they aren't in the
+     * tree. Changing the copy doesn't change the tree.
+     *
+     * @param aName
+     * @param aDOB
+     * @return
+     */
+    public Person getPersonDetails(String aName, String aDOB) {
+        int person = store.find(aName, aDOB);
+
+        if (person == -1) {
+            return null;
+        }
+        return store.toPerson(person);
+    }
+
+    /**
+     * Returns the number of people in the tree.
+     *
+     * @return
+     */
+    public int size() {
+        return store.size();
+    }
+
+    /**
+     * Returns the number of bytes of memory outside the heap the tree is
+     * using.
+     *
+     * @return
+     */
+    public long offHeapBytes() {
+        return store.allocatedBytes();
+    }
+
+    /**
+     * Returns the number of parents the person has: 0, 1 or 2.
+     */
+    private int parentCount(int person) {
+        int count = 0;
+        if (store.father(person) != -1) {
+            count++;
+        }
+        if (store.mother(person) != -1) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the person's i'th parent, in the order they were linked, like
+     * FamilyTreeNode.getParentLink().
+     */
+    private int parent(int person, int i) {
+        boolean motherFirst = store.hasFlag(person, OffHeapStore.FLAG_MOTHER_FIRST);
+        int first = motherFirst ? store.mother(person) : store.father(person);
+        int second = motherFirst ? store.father(person) : store.mother(person);
+        if (first == -1) {
+            return second;
+        }
+        return i == 0 ? first : second;
+    }
+
+    private boolean isParentOf(int parent, int child) {
+        return store.father(child) == parent || store.mother(child) == parent;
+    }
+
+    /**
+     * A growable list of ids, for the lists the queries build. Whether someone
+     * has been seen already is kept in the thread's VisitMarks, not looked
+     * for in these.
+     */
+    private static final class IntList {
+
+        private int[] ids = new int[8];
+        private int size;
+
+        void add(int id) {
+            if (size == ids.length) {
+                int[] grown = new int[size * 2];
+                System.arraycopy(ids, 0, grown, 0, size);
+                ids = grown;
+            }
+            ids[size++] = id;
+        }
+
+        int get(int i) {
+            return ids[i];
+        }
+
+        int removeLast() {
+            return ids[--size];
+        }
+
+        int size() {
+            return size;
+        }
+    }
+}
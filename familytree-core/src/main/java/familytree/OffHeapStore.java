@@ -0,0 +1,464 @@
+package familytree;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+
+/**
+ * Keeps people and their links outside the Java heap, in direct ByteBuffers,
+ * so the garbage collector never has to look at them. See OffHeapFamilyTree,
+ * which is built on it.
+ *
+ * Each person is a fixed width record, found by id:
+ * <pre>
+ *  0  name          long, reference into the string arena
+ *  8  date of birth long, reference into the string arena
+ * 16  birth place   long, reference into the string arena
+ * 24  key hash      int, so the index can grow without reading the strings
+ * 28  flags         int, see the FLAG constants
+ * 32  father        int id, or -1
+ * 36  mother        int id, or -1
+ * 40  partner       int id, or -1
+ * 44  first child   int id, or -1
+ * 48  last child    int id, or -1
+ * 52  next child of the same father  int id, or -1
+ * 56  next child of the same mother  int id, or -1
+ * 60  generation    int, see GenerationIndex
+ * </pre>
+ * A person's children are a list threaded through the children's own
+ * records: a child is in its father's list through its "next child of the
+ * same father" field, and in its mother's list through the other one. That
+ * way adding a child never moves anything, and every record stays the same
+ * size.
+ *
+ * Strings go in an arena: a char count followed by the chars. Records and the
+ * arena are both split into fixed size chunks, so neither has to be copied
+ * to grow, and neither is limited to the 2GB a single buffer can hold. The
+ * name and date of birth index is an open addressing table of ids, in a
+ * direct buffer too.
+ *
+ * The only things left on the heap are the arrays of chunks, which stay
+ * small however many people there are. The index is a single buffer, which
+ * limits a store to about 130 million people.
+ *
+ * Not thread safe; OffHeapFamilyTree takes care of that.
+ *
+ * @author Andrew Brown
+ */
+final class OffHeapStore {
+
+    static final int FLAG_MOTHER = 1;
+    static final int FLAG_FATHER = 2;
+    static final int FLAG_MARRIED = 4;
+    static final int FLAG_DIVORCED = 8;
+    static final int FLAG_ADOPTED = 16;
+    //the child was linked to their mother before their father, so she's
+    //listed first.
+    static final int FLAG_MOTHER_FIRST = 32;
+
+    private static final int RECORD_SIZE = 64;
+    private static final int NAME = 0;
+    private static final int DOB = 8;
+    private static final int PLACE = 16;
+    private static final int HASH = 24;
+    private static final int FLAGS = 28;
+    private static final int FATHER = 32;
+    private static final int MOTHER = 36;
+    private static final int PARTNER = 40;
+    private static final int FIRST_CHILD = 44;
+    private static final int LAST_CHILD = 48;
+    private static final int NEXT_BY_FATHER = 52;
+    private static final int NEXT_BY_MOTHER = 56;
+    private static final int GENERATION = 60;
+
+    //16384 records (1MB) per chunk.
+    private static final int RECORD_SHIFT = 14;
+    private static final int RECORD_MASK = (1 << RECORD_SHIFT) - 1;
+    //4MB per arena chunk. No string can be longer than a chunk.
+    private static final int ARENA_SHIFT = 22;
+    private static final int ARENA_CHUNK = 1 << ARENA_SHIFT;
+    private static final long NULL_STRING = -1L;
+
+    private ByteBuffer[] records = new ByteBuffer[16];
+    private int size;
+    private ByteBuffer[] arena = new ByteBuffer[16];
+    private int arenaChunks;
+    //where the next string goes in the last arena chunk.
+    private int arenaFill = ARENA_CHUNK;
+    //id + 1 of the person in each slot, 0 if empty.
+    private IntBuffer index = newIndex(1024);
+    private long allocated = 1024 * 4;
+
+    /**
+     * Adds a person with no links, and returns their id, or -1 if someone
+     * with that name and date of birth is already in the store.
+     *
+     * @param name
+     * @param dob
+     * @param place
+     * @return
+     */
+    int add(String name, String dob, String place) {
+        int hash = hash(name, dob);
+        int slot = findSlot(hash, name, dob);
+        if (index.get(slot) != 0) {
+            return -1;
+        }
+        int id = size;
+        if ((id >> RECORD_SHIFT) == recordChunks()) {
+            addRecordChunk();
+        }
+        size++;
+        ByteBuffer chunk = chunkOf(id);
+        int at = offsetOf(id);
+        chunk.putLong(at + NAME, putString(name));
+        chunk.putLong(at + DOB, putString(dob));
+        chunk.putLong(at + PLACE, putString(place));
+        chunk.putInt(at + HASH, hash);
+        chunk.putInt(at + FLAGS, 0);
+        for (int field = FATHER; field <= NEXT_BY_MOTHER; field += 4) {
+            chunk.putInt(at + field, -1);
+        }
+        chunk.putInt(at + GENERATION, 0);
+
+        index.put(slot, id + 1);
+        if (size * 2 > index.capacity()) {
+            growIndex();
+        }
+        return id;
+    }
+
+    /**
+     * Returns the id of the person with the given name and date of birth, or
+     * -1 if they aren't in the store.
+     *
+     * @param name
+     * @param dob
+     * @return
+     */
+    int find(String name, String dob) {
+        return index.get(findSlot(hash(name, dob), name, dob)) - 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of bytes of direct memory the store has allocated.
+     *
+     * @return
+     */
+    long allocatedBytes() {
+        return allocated;
+    }
+
+    boolean hasFlag(int id, int flag) {
+        return (getInt(id, FLAGS) & flag) != 0;
+    }
+
+    void setFlag(int id, int flag, boolean on) {
+        int flags = getInt(id, FLAGS);
+        putInt(id, FLAGS, on ? flags | flag : flags & ~flag);
+    }
+
+    int father(int id) {
+        return getInt(id, FATHER);
+    }
+
+    int mother(int id) {
+        return getInt(id, MOTHER);
+    }
+
+    int partner(int id) {
+        return getInt(id, PARTNER);
+    }
+
+    void setPartner(int id, int partner) {
+        putInt(id, PARTNER, partner);
+    }
+
+    int generation(int id) {
+        return getInt(id, GENERATION);
+    }
+
+    void setGeneration(int id, int generation) {
+        putInt(id, GENERATION, generation);
+    }
+
+    /**
+     * Returns the id of the person's first child, or -1.
+     *
+     * @param id
+     * @return
+     */
+    int firstChild(int id) {
+        return getInt(id, FIRST_CHILD);
+    }
+
+    /**
+     * Returns the child after 'child' in the parent's list of children, or -1.
+     *
+     * @param parent
+     * @param child
+     * @return
+     */
+    int nextChild(int parent, int child) {
+        if (getInt(child, FATHER) == parent) {
+            return getInt(child, NEXT_BY_FATHER);
+        }
+        return getInt(child, NEXT_BY_MOTHER);
+    }
+
+    /**
+     * Makes 'father' the child's father, and adds the child to the end of his
+     * children. The child mustn't already have a father.
+     *
+     * @param child
+     * @param father
+     */
+    void linkFather(int child, int father) {
+        putInt(child, FATHER, father);
+        appendChild(father, child);
+    }
+
+    /**
+     * Makes 'mother' the child's mother, and adds the child to the end of her
+     * children. The child mustn't already have a mother.
+     *
+     * @param child
+     * @param mother
+     */
+    void linkMother(int child, int mother) {
+        putInt(child, MOTHER, mother);
+        if (getInt(child, FATHER) == -1) {
+            setFlag(child, FLAG_MOTHER_FIRST, true);
+        }
+        appendChild(mother, child);
+    }
+
+    private void appendChild(int parent, int child) {
+        int last = getInt(parent, LAST_CHILD);
+        if (last == -1) {
+            putInt(parent, FIRST_CHILD, child);
+        } else if (getInt(last, FATHER) == parent) {
+            putInt(last, NEXT_BY_FATHER, child);
+        } else {
+            putInt(last, NEXT_BY_MOTHER, child);
+        }
+        putInt(parent, LAST_CHILD, child);
+    }
+
+    String name(int id) {
+        return getString(getLong(id, NAME));
+    }
+
+    String dateOfBirth(int id) {
+        return getString(getLong(id, DOB));
+    }
+
+    String birthPlace(int id) {
+        return getString(getLong(id, PLACE));
+    }
+
+    /**
+     * Appends the same text as the person's Person.toString() to 'desc',
+     * straight from the arena. Returns 'desc'.
+     *
+     * @param id
+     * @param desc
+     * @return
+     */
+    StringBuilder appendTo(int id, StringBuilder desc) {
+        desc.append("Name: ");
+        appendString(getLong(id, NAME), desc).append(", Date of Birth: ");
+        appendString(getLong(id, DOB), desc).append(", Birth Place: ");
+        return appendString(getLong(id, PLACE), desc);
+    }
+
+    /**
+     * Returns a new Person with the same details and flags as the record.
+     *
+     * @param id
+     * @return
+     */
+    Person toPerson(int id) {
+        Person person = new Person(name(id), dateOfBirth(id), birthPlace(id));
+        person.setIsMother(hasFlag(id, FLAG_MOTHER));
+        person.setIsFather(hasFlag(id, FLAG_FATHER));
+        person.setIsMarried(hasFlag(id, FLAG_MARRIED));
+        person.setIsDivorced(hasFlag(id, FLAG_DIVORCED));
+        person.setIsAdopted(hasFlag(id, FLAG_ADOPTED));
+        return person;
+    }
+
+    /*
+     * Records.
+     */
+
+    private int recordChunks() {
+        return (size + RECORD_MASK) >> RECORD_SHIFT;
+    }
+
+    private void addRecordChunk() {
+        int chunk = size >> RECORD_SHIFT;
+        if (chunk == records.length) {
+            ByteBuffer[] grown = new ByteBuffer[records.length * 2];
+            System.arraycopy(records, 0, grown, 0, records.length);
+            records = grown;
+        }
+        records[chunk] = allocate(RECORD_SIZE << RECORD_SHIFT);
+    }
+
+    private ByteBuffer chunkOf(int id) {
+        return records[id >> RECORD_SHIFT];
+    }
+
+    private static int offsetOf(int id) {
+        return (id & RECORD_MASK) * RECORD_SIZE;
+    }
+
+    private int getInt(int id, int field) {
+        return chunkOf(id).getInt(offsetOf(id) + field);
+    }
+
+    private void putInt(int id, int field, int value) {
+        chunkOf(id).putInt(offsetOf(id) + field, value);
+    }
+
+    private long getLong(int id, int field) {
+        return chunkOf(id).getLong(offsetOf(id) + field);
+    }
+
+    /*
+     * The string arena. A reference is the chunk number in the high bits and
+     * the offset in the low ARENA_SHIFT bits.
+     */
+
+    private long putString(String text) {
+        if (text == null) {
+            return NULL_STRING;
+        }
+        int bytes = 2 + text.length() * 2;
+        if (text.length() > Character.MAX_VALUE || bytes > ARENA_CHUNK) {
+            throw new IllegalArgumentException("String is too long to store: " + text.length() + " chars.");
+        }
+        if (arenaFill + bytes > ARENA_CHUNK) {
+            if (arenaChunks == arena.length) {
+                ByteBuffer[] grown = new ByteBuffer[arena.length * 2];
+                System.arraycopy(arena, 0, grown, 0, arena.length);
+                arena = grown;
+            }
+            arena[arenaChunks++] = allocate(ARENA_CHUNK);
+            arenaFill = 0;
+        }
+        ByteBuffer chunk = arena[arenaChunks - 1];
+        long reference = ((long) (arenaChunks - 1) << ARENA_SHIFT) | arenaFill;
+        chunk.putChar(arenaFill, (char) text.length());
+        for (int i = 0; i < text.length(); i++) {
+            chunk.putChar(arenaFill + 2 + i * 2, text.charAt(i));
+        }
+        arenaFill += bytes;
+        return reference;
+    }
+
+    private String getString(long reference) {
+        if (reference == NULL_STRING) {
+            return null;
+        }
+        return appendString(reference, new StringBuilder()).toString();
+    }
+
+    private StringBuilder appendString(long reference, StringBuilder text) {
+        if (reference == NULL_STRING) {
+            return text.append((String) null);
+        }
+        ByteBuffer chunk = arena[(int) (reference >>> ARENA_SHIFT)];
+        int at = (int) (reference & (ARENA_CHUNK - 1));
+        int length = chunk.getChar(at);
+        for (int i = 0; i < length; i++) {
+            text.append(chunk.getChar(at + 2 + i * 2));
+        }
+        return text;
+    }
+
+    private boolean stringEquals(long reference, String text) {
+        if (reference == NULL_STRING || text == null) {
+            return reference == NULL_STRING && text == null;
+        }
+        ByteBuffer chunk = arena[(int) (reference >>> ARENA_SHIFT)];
+        int at = (int) (reference & (ARENA_CHUNK - 1));
+        if (chunk.getChar(at) != text.length()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (chunk.getChar(at + 2 + i * 2) != text.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * The index.
+     */
+
+    /**
+     * Returns the slot holding the person with this name and date of birth,
+     * or the empty slot where they would go.
+     */
+    private int findSlot(int hash, String name, String dob) {
+        int mask = index.capacity() - 1;
+        for (int slot = hash & mask;; slot = (slot + 1) & mask) {
+            int id = index.get(slot) - 1;
+            if (id == -1) {
+                return slot;
+            }
+            if (getInt(id, HASH) == hash && stringEquals(getLong(id, NAME), name)
+                    && stringEquals(getLong(id, DOB), dob)) {
+                return slot;
+            }
+        }
+    }
+
+    private void growIndex() {
+        IntBuffer grown = newIndex(index.capacity() * 2);
+        int mask = grown.capacity() - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = getInt(id, HASH) & mask;
+            while (grown.get(slot) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            grown.put(slot, id + 1);
+        }
+        allocated += grown.capacity() * 4L - index.capacity() * 4L;
+        index = grown;
+    }
+
+    private static IntBuffer newIndex(int capacity) {
+        //direct buffers start out zeroed, which is 'empty'.
+        return ByteBuffer.allocateDirect(capacity * 4).order(ByteOrder.nativeOrder()).asIntBuffer();
+    }
+
+    /**
+     * The same hash as PersonKey's, spread out, without
+     * building the key. A null name counts as an empty one.
+     */
+    private static int hash(String name, String dob) {
+        int hash = 0;
+        if (name != null) {
+            hash = name.hashCode();
+        }
+        hash = hash * 31;
+        for (int i = 0; dob != null && i < dob.length(); i++) {
+            hash = hash * 31 + dob.charAt(i);
+        }
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    private ByteBuffer allocate(int bytes) {
+        allocated += bytes;
+        return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+    }
+}
@@ -0,0 +1,236 @@
+package familytree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A marriage between two people, with when it started and (if it has) when it
+ * ended. The side links in FamilyTreeNode only hold a person's current
+ * partner, so without these a remarriage would wipe out any record of the
+ * earlier marriage. FamilyTree keeps every person's partnerships, oldest
+ * first, in its partnership index.
+ *
+ * Dates are kept as the strings they were given in, like dates of birth are.
+ * Either date can be null if it isn't known.
+ *
+ * While a partnership is current it also keeps each partner's step-children:
+ * the other partner's children who aren't theirs. FamilyTree tells it
+ * whenever a link to either partner's children changes, so listing someone's
+ * step-children, or a person's step-siblings through their parents, is a
+ * lookup rather than a scan of the partner's children.
+ *
+ * @author Andrew Brown
+ */
+public class Partnership {
+
+    private FamilyTreeNode<Person> partner1;
+    private FamilyTreeNode<Person> partner2;
+    private String start;
+    private String end;
+    private boolean ended;
+    //partner1's step-children and partner2's, or null if they haven't any,
+    //which is most of the time.
+    private List<FamilyTreeNode<Person>> stepChildren1;
+    private List<FamilyTreeNode<Person>> stepChildren2;
+
+    Partnership(FamilyTreeNode<Person> partner1, FamilyTreeNode<Person> partner2, String start) {
+        this.partner1 = partner1;
+        this.partner2 = partner2;
+        this.start = start;
+    }
+
+    public Person getPartner1() {
+        return partner1.getItem();
+    }
+
+    public Person getPartner2() {
+        return partner2.getItem();
+    }
+
+    /**
+     * Returns the node of whichever partner isn't 'node'.
+     *
+     * @param node
+     * @return
+     */
+    FamilyTreeNode<Person> otherPartner(FamilyTreeNode<Person> node) {
+        if (partner1 == node) {
+            return partner2;
+        }
+        return partner1;
+    }
+
+    /**
+     * Returns true if this partnership is between the two nodes, in either
+     * order.
+     */
+    boolean isBetween(FamilyTreeNode<Person> node1, FamilyTreeNode<Person> node2) {
+        return (partner1 == node1 && partner2 == node2) || (partner1 == node2 && partner2 == node1);
+    }
+
+    public String getStart() {
+        return start;
+    }
+
+    public String getEnd() {
+        return end;
+    }
+
+    /**
+     * Returns true if the partnership hasn't ended.
+     *
+     * @return
+     */
+    public boolean isCurrent() {
+        return !ended;
+    }
+
+    /**
+     * Marks the partnership as ended on the given date (which can be null if
+     * it isn't known).
+     *
+     * @param end
+     */
+    void end(String end) {
+        this.end = end;
+        this.ended = true;
+        //step-children only count while the partnership lasts.
+        stepChildren1 = null;
+        stepChildren2 = null;
+    }
+
+    /**
+     * Takes back end(). Only used when rolling back a batch.
+     */
+    void reopen() {
+        this.end = null;
+        this.ended = false;
+        findStepChildren();
+    }
+
+    /**
+     * Returns the node's step-children through this partnership: their
+     * partner's children who aren't theirs. Empty once the partnership has
+     * ended.
+     *
+     * @param node one of the partners
+     * @return
+     */
+    List<FamilyTreeNode<Person>> stepChildrenOf(FamilyTreeNode<Person> node) {
+        List<FamilyTreeNode<Person>> list = partner1 == node ? stepChildren1 : stepChildren2;
+
+        if (list == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * Works out again whether the child is a step-child of either partner,
+     * after a link between the child and one of the partners has been made or
+     * taken away.
+     *
+     * @param child
+     */
+    void restep(FamilyTreeNode<Person> child) {
+        if (ended) {
+            return;
+        }
+        boolean ofPartner1 = partner1.containsChildLink(child);
+        boolean ofPartner2 = partner2.containsChildLink(child);
+        stepChildren1 = update(stepChildren1, child, ofPartner2 && !ofPartner1);
+        stepChildren2 = update(stepChildren2, child, ofPartner1 && !ofPartner2);
+    }
+
+    /**
+     * Works out both partners' step-children from scratch, for a new
+     * partnership, or after links have been changed some other way than
+     * through restep().
+     */
+    void findStepChildren() {
+        stepChildren1 = null;
+        stepChildren2 = null;
+        if (ended) {
+            return;
+        }
+        stepChildren1 = childrenNotOf(partner2, partner1);
+        stepChildren2 = childrenNotOf(partner1, partner2);
+    }
+
+    /**
+     * Returns the parent's children who aren't the other's, or null if there
+     * aren't any.
+     */
+    private static List<FamilyTreeNode<Person>> childrenNotOf(FamilyTreeNode<Person> parent,
+            FamilyTreeNode<Person> other) {
+        List<FamilyTreeNode<Person>> list = null;
+
+        for (int i = 0; i < parent.childLinkCount(); i++) {
+            FamilyTreeNode<Person> child = parent.getChildLink(i);
+            if (!other.containsChildLink(child)) {
+                if (list == null) {
+                    list = new ArrayList<FamilyTreeNode<Person>>(2);
+                }
+                list.add(child);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Adds the child to the list if they aren't in it, or takes them out of
+     * it, and returns the list, which is made when it's first needed and
+     * dropped when it's empty. The lists are a partner's children, so short.
+     */
+    private static List<FamilyTreeNode<Person>> update(List<FamilyTreeNode<Person>> list,
+            FamilyTreeNode<Person> child, boolean stepChild) {
+        if (stepChild) {
+            if (list == null) {
+                list = new ArrayList<FamilyTreeNode<Person>>(2);
+            }
+            if (!list.contains(child)) {
+                list.add(child);
+            }
+        } else if (list != null) {
+            list.remove(child);
+            if (list.isEmpty()) {
+                list = null;
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Puts 'newPartner' in the partnership in place of 'oldPartner'. Used
+     * when two people are merged.
+     *
+     * @param oldPartner
+     * @param newPartner
+     */
+    void replace(FamilyTreeNode<Person> oldPartner, FamilyTreeNode<Person> newPartner) {
+        if (partner1 == oldPartner) {
+            partner1 = newPartner;
+        } else if (partner2 == oldPartner) {
+            partner2 = newPartner;
+        }
+    }
+
+    @Override
+    public String toString() {
+        String desc = "from " + describe(start);
+        if (ended) {
+            desc += " until " + describe(end);
+        } else {
+            desc += ", current";
+        }
+        return desc;
+    }
+
+    private static String describe(String date) {
+        if (date == null) {
+            return "unknown";
+        }
+        return date;
+    }
+}
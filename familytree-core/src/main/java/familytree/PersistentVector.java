@@ -0,0 +1,229 @@
+package familytree;
+
+/**
+ * An immutable, array-like list that shares structure between versions. It's
+ * a 32-way trie: changing one item copies only the path from the root down to
+ * that item (a handful of 32 slot arrays, even for millions of items), and
+ * every other part of the trie is shared with the old version. The old version
+ * stays exactly as it was, so anyone still holding it gets a frozen view for
+ * free.
+ *
+ * For changing lots of items at once, asTransient() hands out a Transient
+ * that's allowed to change the arrays it has already copied, instead of
+ * copying them again for each item. Call persistent() on it once you're done.
+ *
+ * @author Andrew Brown
+ */
+public final class PersistentVector<T> {
+
+    private static final int BITS = 5;
+    private static final int WIDTH = 1 << BITS;
+    private static final int MASK = WIDTH - 1;
+    private static final PersistentVector<Object> EMPTY =
+            new PersistentVector<Object>(0, BITS, new Node(null, new Object[WIDTH]));
+
+    private final int size;
+    //how far to shift an index to get the slot in the root.
+    private final int shift;
+    private final Node root;
+
+    private PersistentVector(int size, int shift, Node root) {
+        this.size = size;
+        this.shift = shift;
+        this.root = root;
+    }
+
+    /**
+     * Returns the empty vector.
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> PersistentVector<T> empty() {
+        return (PersistentVector<T>) EMPTY;
+    }
+
+    /**
+     * Returns the number of items.
+     * @return
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the item at index i.
+     * @param i
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public T get(int i) {
+        checkIndex(i, size);
+        Node node = root;
+        for (int level = shift; level > 0; level -= BITS) {
+            node = (Node) node.slots[(i >>> level) & MASK];
+        }
+        return (T) node.slots[i & MASK];
+    }
+
+    /**
+     * Returns a new vector with the item at index i replaced by 'item'. This
+     * vector isn't changed.
+     * @param i
+     * @param item
+     * @return
+     */
+    public PersistentVector<T> set(int i, T item) {
+        checkIndex(i, size);
+        return new PersistentVector<T>(size, shift, setIn(null, root, shift, i, item));
+    }
+
+    /**
+     * Returns a new vector with 'item' added to the end. This vector isn't
+     * changed.
+     * @param item
+     * @return
+     */
+    public PersistentVector<T> append(T item) {
+        Node newRoot = root;
+        int newShift = shift;
+
+        //the trie is full, so put a new root on top of it.
+        if (size == (1 << (shift + BITS))) {
+            Object[] slots = new Object[WIDTH];
+            slots[0] = root;
+            newRoot = new Node(null, slots);
+            newShift += BITS;
+        }
+        return new PersistentVector<T>(size + 1, newShift, setIn(null, newRoot, newShift, size, item));
+    }
+
+    /**
+     * Returns a Transient that starts out with the same items as this vector.
+     * @return
+     */
+    public Transient<T> asTransient() {
+        return new Transient<T>(size, shift, root);
+    }
+
+    /**
+     * Sets slot i under 'node' to 'item', copying every node on the way down
+     * unless it already belongs to 'edit'. Missing nodes (past the old end of
+     * the vector) are created. Returns the new version of 'node'.
+     */
+    private static Node setIn(Object edit, Node node, int level, int i, Object item) {
+        Node copy = editable(edit, node);
+        if (level == 0) {
+            copy.slots[i & MASK] = item;
+        } else {
+            int slot = (i >>> level) & MASK;
+            Node child = (Node) copy.slots[slot];
+            if (child == null) {
+                child = new Node(edit, new Object[WIDTH]);
+            }
+            copy.slots[slot] = setIn(edit, child, level - BITS, i, item);
+        }
+        return copy;
+    }
+
+    /**
+     * Returns 'node' if the current edit owns it, or a copy owned by the
+     * current edit if not. A null edit owns nothing, so the plain persistent
+     * operations always copy.
+     */
+    private static Node editable(Object edit, Node node) {
+        if (edit != null && node.edit == edit) {
+            return node;
+        }
+        return new Node(edit, node.slots.clone());
+    }
+
+    private static void checkIndex(int i, int size) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", Size: " + size);
+        }
+    }
+
+    /**
+     * One array in the trie. 'edit' marks which Transient (if any) is allowed
+     * to change it in place.
+     */
+    private static final class Node {
+
+        final Object edit;
+        final Object[] slots;
+
+        Node(Object edit, Object[] slots) {
+            this.edit = edit;
+            this.slots = slots;
+        }
+    }
+
+    /**
+     * A short-lived, single-threaded, changeable version of a vector. Each
+     * array is copied the first time the Transient touches it, and changed in
+     * place after that, so a batch of n changes costs about n small writes
+     * rather than n path copies. The vector it came from isn't changed.
+     */
+    public static final class Transient<T> {
+
+        private Object edit = new Object();
+        private int size;
+        private int shift;
+        private Node root;
+
+        private Transient(int size, int shift, Node root) {
+            this.size = size;
+            this.shift = shift;
+            this.root = root;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        @SuppressWarnings("unchecked")
+        public T get(int i) {
+            checkIndex(i, size);
+            Node node = root;
+            for (int level = shift; level > 0; level -= BITS) {
+                node = (Node) node.slots[(i >>> level) & MASK];
+            }
+            return (T) node.slots[i & MASK];
+        }
+
+        public void set(int i, T item) {
+            checkEdit();
+            checkIndex(i, size);
+            root = setIn(edit, root, shift, i, item);
+        }
+
+        public void append(T item) {
+            checkEdit();
+            if (size == (1 << (shift + BITS))) {
+                Object[] slots = new Object[WIDTH];
+                slots[0] = root;
+                root = new Node(edit, slots);
+                shift += BITS;
+            }
+            root = setIn(edit, root, shift, size, item);
+            size++;
+        }
+
+        /**
+         * Finishes the batch and returns the result as a normal vector. The
+         * Transient can't be used after this.
+         * @return
+         */
+        public PersistentVector<T> persistent() {
+            checkEdit();
+            edit = null;
+            return new PersistentVector<T>(size, shift, root);
+        }
+
+        private void checkEdit() {
+            if (edit == null) {
+                throw new IllegalStateException("Transient used after persistent() was called.");
+            }
+        }
+    }
+}
@@ -23,6 +23,19 @@ public class Person {
         
         this.isMother = this.isFather = this.isMarried = this.isDivorced = this.isAdopted = false;
     }
+
+    /** Creates a copy of another Person. */
+    public Person(Person other) {
+        this.name = other.name;
+        this.dateOfBirth = other.dateOfBirth;
+        this.birthPlace = other.birthPlace;
+        this.age = other.age;
+        this.isMother = other.isMother;
+        this.isFather = other.isFather;
+        this.isMarried = other.isMarried;
+        this.isDivorced = other.isDivorced;
+        this.isAdopted = other.isAdopted;
+    }
     
     //If two people's names are the same, and their date of birth's0 are the same, then
     //they are the same person.
@@ -110,8 +123,16 @@ public class Person {
 
     @Override
     public String toString() {
-        String desc = "Name: " + this.getName() + ", Date of Birth: " + this.getDateOfBirth()
-                + ", Birth Place: " + this.getBirthPlace();
+        return appendTo(new StringBuilder()).toString();
+    }
+
+    /**
+     * Appends the same text as toString() to 'desc', without making the
+     * String first. Returns 'desc'.
+     */
+    public StringBuilder appendTo(StringBuilder desc) {
+        desc.append("Name: ").append(this.getName()).append(", Date of Birth: ")
+                .append(this.getDateOfBirth()).append(", Birth Place: ").append(this.getBirthPlace());
         return desc;
     }
 }
@@ -0,0 +1,82 @@
+package familytree;
+
+/**
+ * The key of FamilyTree's person index: a name and a date of birth, which
+ * together say who a person is (see Person.equals()).
+ *
+ * The index used to be keyed by the two joined into one String, which meant
+ * building a new String for every lookup. A lookup can use a probe instead:
+ * a key kept in the thread's TraversalScratch and set to the name and date of
+ * birth being looked for, so a lookup allocates nothing. A probe must never be
+ * put in the index, since it changes.
+ *
+ * The hash is the one the joined String had, so OffHeapStore, which hashes
+ * names and dates of birth without building anything, still matches it.
+ *
+ * @author Andrew Brown
+ */
+final class PersonKey {
+
+    private String name;
+    private String dob;
+    private int hash;
+
+    PersonKey(String name, String dob) {
+        set(name, dob);
+    }
+
+    /**
+     * Makes this key the key for the given name and date of birth. Only used
+     * on probes.
+     *
+     * @param name
+     * @param dob
+     * @return this key
+     */
+    PersonKey set(String name, String dob) {
+        this.name = name;
+        this.dob = dob;
+        this.hash = hash(name, dob);
+        return this;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof PersonKey)) {
+            return false;
+        }
+        PersonKey other = (PersonKey) obj;
+        return hash == other.hash && same(name, other.name) && same(dob, other.dob);
+    }
+
+    @Override
+    public String toString() {
+        return name + " " + dob;
+    }
+
+    private static boolean same(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    //the hash of name + '\u0000' + dob, worked out from name's own (cached)
+    //hash code.
+    static int hash(String name, String dob) {
+        int hash = 0;
+        if (name != null) {
+            hash = name.hashCode();
+        }
+        hash = hash * 31;
+        for (int i = 0; dob != null && i < dob.length(); i++) {
+            hash = hash * 31 + dob.charAt(i);
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,101 @@
+package familytree;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A chain of links from one person to another, as found by
+ * FamilyTree.findRelationshipPath(): the people along the way, first to last,
+ * and the kind of link between each one and the next. With n links there are
+ * n + 1 people; getStep(i) is the link from getPerson(i) to getPerson(i + 1).
+ *
+ * @author Andrew Brown
+ */
+public class RelationshipPath {
+
+    /**
+     * A link from one person on the path to the next: the next person is
+     * this one's parent, child or (current) partner.
+     */
+    public enum Step {
+
+        PARENT,
+        CHILD,
+        PARTNER;
+
+        /**
+         * Returns the same link seen from the other end.
+         *
+         * @return
+         */
+        public Step reverse() {
+            if (this == PARENT) {
+                return CHILD;
+            } else if (this == CHILD) {
+                return PARENT;
+            }
+            return PARTNER;
+        }
+    }
+
+    private List<Person> people;
+    private List<Step> steps;
+
+    RelationshipPath(List<Person> people, List<Step> steps) {
+        this.people = Collections.unmodifiableList(new ArrayList<Person>(people));
+        this.steps = Collections.unmodifiableList(new ArrayList<Step>(steps));
+    }
+
+    /**
+     * Returns the number of links in the path, which is 0 if it's from a
+     * person to themselves.
+     *
+     * @return
+     */
+    public int length() {
+        return steps.size();
+    }
+
+    public Person getPerson(int i) {
+        return people.get(i);
+    }
+
+    public Step getStep(int i) {
+        return steps.get(i);
+    }
+
+    public List<Person> getPeople() {
+        return people;
+    }
+
+    public List<Step> getSteps() {
+        return steps;
+    }
+
+    /**
+     * One line per person, each after the first saying how they're linked to
+     * the one before: "Parent: ", "Child: " or "Partner: ".
+     *
+     * @return
+     */
+    @Override
+    public String toString() {
+        StringBuilder desc = new StringBuilder();
+        people.get(0).appendTo(desc).append('\n');
+        for (int i = 0; i < steps.size(); i++) {
+            switch (steps.get(i)) {
+                case PARENT:
+                    desc.append("Parent: ");
+                    break;
+                case CHILD:
+                    desc.append("Child: ");
+                    break;
+                default:
+                    desc.append("Partner: ");
+            }
+            people.get(i + 1).appendTo(desc).append('\n');
+        }
+        return desc.toString();
+    }
+}
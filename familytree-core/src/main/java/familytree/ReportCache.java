@@ -0,0 +1,405 @@
+package familytree;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps the text of recently asked for reports, so that the same report for a
+ * popular person isn't built again every time. Covers listPersonDetails(),
+ * listParentDetails(), listPaternalLineage(), listMaternalLineage() and
+ * listGreatNGrandParents(), and returns exactly what those methods would.
+ *
+ * Reports are kept by (person id, kind of report, number of generations), in
+ * least recently used order, and the oldest go once the cached text adds up
+ * to more than 'maxChars' characters. Reports for people who aren't in the
+ * tree aren't kept.
+ *
+ * Each report also remembers which people it was built from: the person, and
+ * whichever parents, partners, children and ancestors its text depends on.
+ * The cache follows the tree's ChangeFeed, and every event throws away the
+ * reports built from either of the people in it. So a wedding only costs the
+ * reports about the couple's own neighbourhood, not the whole cache. If the
+ * cache falls so far behind that it misses events, it throws everything
+ * away.
+ *
+ * Safe to use from many threads, as long as the tree isn't being changed
+ * while the reports are built, as for the list* methods themselves.
+ *
+ * @author Andrew Brown
+ */
+public class ReportCache {
+
+    private static final int PERSON_DETAILS = 0;
+    private static final int PARENT_DETAILS = 1;
+    private static final int PATERNAL_LINEAGE = 2;
+    private static final int MATERNAL_LINEAGE = 3;
+    private static final int ANCESTORS = 4;
+    //how many events to take from the feed at a time.
+    private static final int EVENT_BATCH = 1024;
+
+    private final FamilyTree tree;
+    private final ChangeFeed.Subscription changes;
+    private final int maxChars;
+    //in least recently used order.
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<Long, Entry>(256, 0.75f, true);
+    //the keys of the reports built from each person.
+    private final Map<Integer, Set<Long>> dependents = new HashMap<Integer, Set<Long>>();
+    private final ChangeFeed.Handler invalidator = new ChangeFeed.Handler() {
+
+        public void onChange(long sequence, ChangeType type, int personId, int otherId) {
+            invalidate(personId);
+            if (otherId >= 0) {
+                invalidate(otherId);
+            }
+        }
+    };
+    private long chars;
+    private long missedEvents;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    /**
+     * Creates a cache for the tree that holds up to 'maxChars' characters of
+     * reports.
+     *
+     * @param tree
+     * @param maxChars
+     */
+    public ReportCache(FamilyTree tree, long maxChars) {
+        this.tree = tree;
+        this.changes = tree.getChangeFeed().subscribe();
+        this.maxChars = (int) Math.min(Integer.MAX_VALUE, maxChars);
+    }
+
+    /**
+     * listPersonDetails(), from the cache if possible.
+     *
+     * @param personName
+     * @param aDOB
+     * @return
+     */
+    public String listPersonDetails(String personName, String aDOB) {
+        return report(PERSON_DETAILS, personName, aDOB, 0);
+    }
+
+    /**
+     * listParentDetails(), from the cache if possible.
+     *
+     * @param personName
+     * @param aDOB
+     * @return
+     */
+    public String listParentDetails(String personName, String aDOB) {
+        return report(PARENT_DETAILS, personName, aDOB, 0);
+    }
+
+    /**
+     * listPaternalLineage(), from the cache if possible.
+     *
+     * @param personName
+     * @param aDOB
+     * @return
+     */
+    public String listPaternalLineage(String personName, String aDOB) {
+        return report(PATERNAL_LINEAGE, personName, aDOB, 0);
+    }
+
+    /**
+     * listMaternalLineage(), from the cache if possible.
+     *
+     * @param personName
+     * @param aDOB
+     * @return
+     */
+    public String listMaternalLineage(String personName, String aDOB) {
+        return report(MATERNAL_LINEAGE, personName, aDOB, 0);
+    }
+
+    /**
+     * listGreatNGrandParents(), from the cache if possible.
+     *
+     * @param personName
+     * @param aDOB
+     * @param numberOfGenerations
+     * @return
+     */
+    public String listGreatNGrandParents(String personName, String aDOB, int numberOfGenerations) {
+        return report(ANCESTORS, personName, aDOB, numberOfGenerations);
+    }
+
+    private String report(int kind, String personName, String aDOB, int generations) {
+        FamilyTreeNode<Person> person = tree.getPerson(personName, aDOB);
+        if (person == null || generations < 0) {
+            return build(kind, personName, aDOB, generations);
+        }
+        Long key = ((long) person.getId() << 32) | ((long) kind << 24) | (generations & 0xffffff);
+        long before;
+        synchronized (this) {
+            before = tree.getChangeFeed().lastSequence();
+            catchUp();
+            Entry entry = entries.get(key);
+            if (entry != null) {
+                hits++;
+                return entry.text;
+            }
+            misses++;
+        }
+        String text = build(kind, personName, aDOB, generations);
+        int[] dependsOn = dependencies(kind, person, generations);
+        synchronized (this) {
+            catchUp();
+            //if the tree changed while the report was being built, it may be
+            //out of date already.
+            if (tree.getChangeFeed().lastSequence() == before && text.length() <= maxChars
+                    && !entries.containsKey(key)) {
+                entries.put(key, new Entry(text, dependsOn));
+                chars += text.length();
+                for (int id : dependsOn) {
+                    Set<Long> keys = dependents.get(id);
+                    if (keys == null) {
+                        keys = new HashSet<Long>();
+                        dependents.put(id, keys);
+                    }
+                    keys.add(key);
+                }
+                evict();
+            }
+        }
+        return text;
+    }
+
+    private String build(int kind, String personName, String aDOB, int generations) {
+        switch (kind) {
+            case PERSON_DETAILS:
+                return tree.listPersonDetails(personName, aDOB);
+            case PARENT_DETAILS:
+                return tree.listParentDetails(personName, aDOB);
+            case PATERNAL_LINEAGE:
+                return tree.listPaternalLineage(personName, aDOB);
+            case MATERNAL_LINEAGE:
+                return tree.listMaternalLineage(personName, aDOB);
+            default:
+                return tree.listGreatNGrandParents(personName, aDOB, generations);
+        }
+    }
+
+    /**
+     * Returns the ids of everyone whose details, links or partner the report
+     * depends on. Any change to the tree that alters the report involves at
+     * least one of them.
+     */
+    private int[] dependencies(int kind, FamilyTreeNode<Person> person, int generations) {
+        Set<Integer> ids = new HashSet<Integer>();
+        ids.add(person.getId());
+        switch (kind) {
+            case PERSON_DETAILS: {
+                //parents and stepparents, siblings, partner, children and
+                //stepchildren.
+                FamilyTreeNode<Person> partner = tree.currentPartner(person);
+                addWithChildren(ids, person);
+                addWithChildren(ids, partner);
+                for (FamilyTreeNode<Person> parent : person.getParentLinks()) {
+                    addWithChildren(ids, parent);
+                    addWithChildren(ids, tree.currentPartner(parent));
+                }
+                break;
+            }
+            case PARENT_DETAILS:
+                for (FamilyTreeNode<Person> parent : person.getParentLinks()) {
+                    ids.add(parent.getId());
+                    FamilyTreeNode<Person> partner = tree.currentPartner(parent);
+                    if (partner != null) {
+                        ids.add(partner.getId());
+                    }
+                }
+                break;
+            case PATERNAL_LINEAGE:
+            case MATERNAL_LINEAGE:
+                //everyone up the line, including the last one, who would
+                //lengthen it by getting a parent.
+                for (FamilyTreeNode<Person> next = person; next != null;
+                        next = kind == PATERNAL_LINEAGE ? next.getFather() : next.getMother()) {
+                    ids.add(next.getId());
+                }
+                break;
+            default: {
+                //every ancestor short of the generation asked for, as any of
+                //them getting a parent could change it, and those in it.
+                List<FamilyTreeNode<Person>> current = new ArrayList<FamilyTreeNode<Person>>();
+                current.add(person);
+                for (int i = 0; i < generations && !current.isEmpty(); i++) {
+                    List<FamilyTreeNode<Person>> parents = new ArrayList<FamilyTreeNode<Person>>();
+                    for (FamilyTreeNode<Person> node : current) {
+                        for (FamilyTreeNode<Person> parent : node.getParentLinks()) {
+                            if (ids.add(parent.getId())) {
+                                parents.add(parent);
+                            }
+                        }
+                    }
+                    current = parents;
+                }
+            }
+        }
+        int[] result = new int[ids.size()];
+        int i = 0;
+        for (int id : ids) {
+            result[i++] = id;
+        }
+        return result;
+    }
+
+    private static void addWithChildren(Set<Integer> ids, FamilyTreeNode<Person> node) {
+        if (node != null) {
+            ids.add(node.getId());
+            for (int i = 0; i < node.childLinkCount(); i++) {
+                ids.add(node.getChildLink(i).getId());
+            }
+        }
+    }
+
+    //applies every change the cache hasn't seen yet. Called with the lock held.
+    private void catchUp() {
+        while (changes.poll(invalidator, EVENT_BATCH) > 0) {
+        }
+        if (changes.missed() != missedEvents) {
+            missedEvents = changes.missed();
+            invalidations += entries.size();
+            clear();
+        }
+    }
+
+    //throws away every report built from the person.
+    private void invalidate(int id) {
+        Set<Long> keys = dependents.get(id);
+        if (keys != null) {
+            for (Long key : keys.toArray(new Long[keys.size()])) {
+                remove(key);
+                invalidations++;
+            }
+        }
+    }
+
+    //throws away the least recently used reports until there's room.
+    private void evict() {
+        Iterator<Map.Entry<Long, Entry>> oldest = entries.entrySet().iterator();
+        while (chars > maxChars && oldest.hasNext()) {
+            Map.Entry<Long, Entry> eldest = oldest.next();
+            oldest.remove();
+            forget(eldest.getKey(), eldest.getValue());
+            evictions++;
+        }
+    }
+
+    private void remove(Long key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            forget(key, entry);
+        }
+    }
+
+    private void forget(Long key, Entry entry) {
+        chars -= entry.text.length();
+        for (int id : entry.dependsOn) {
+            Set<Long> keys = dependents.get(id);
+            if (keys != null) {
+                keys.remove(key);
+                if (keys.isEmpty()) {
+                    dependents.remove(id);
+                }
+            }
+        }
+    }
+
+    /**
+     * Throws away every report.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        dependents.clear();
+        chars = 0;
+    }
+
+    /**
+     * Returns how many reports were answered from the cache.
+     *
+     * @return
+     */
+    public synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * Returns how many reports had to be built.
+     *
+     * @return
+     */
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * Returns the fraction of reports answered from the cache, or 0 if none
+     * have been asked for.
+     *
+     * @return
+     */
+    public synchronized double hitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0 : hits / (double) total;
+    }
+
+    /**
+     * Returns how many reports were thrown away to make room.
+     *
+     * @return
+     */
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    /**
+     * Returns how many reports were thrown away because the tree changed.
+     *
+     * @return
+     */
+    public synchronized long invalidations() {
+        return invalidations;
+    }
+
+    /**
+     * Returns the number of reports in the cache.
+     *
+     * @return
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Returns the number of characters of report text in the cache.
+     *
+     * @return
+     */
+    public synchronized long chars() {
+        return chars;
+    }
+
+    private static final class Entry {
+
+        final String text;
+        final int[] dependsOn;
+
+        Entry(String text, int[] dependsOn) {
+            this.text = text;
+            this.dependsOn = dependsOn;
+        }
+    }
+}
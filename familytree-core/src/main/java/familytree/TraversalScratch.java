@@ -0,0 +1,89 @@
+package familytree;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Everything a FamilyTree query needs while it runs, kept per thread and
+ * reused from one query to the next: a probe key for finding people in the
+ * index (see PersonKey), visit marks (see VisitMarks), a few node buffers, a
+ * buffer of counts, and a StringBuilder for the report. Once the buffers have
+ * grown to the size a query needs, running it again allocates nothing except
+ * the String it returns.
+ *
+ * Like VisitMarks, a scratch belongs to one running query at a time. Queries
+ * that call other queries (listPersonDetails, for instance) don't use it
+ * themselves.
+ *
+ * @author Andrew Brown
+ */
+final class TraversalScratch {
+
+    //buffers bigger than this are dropped instead of kept, so one huge query
+    //doesn't pin its memory to the thread forever.
+    private static final int MAX_KEPT = 1 << 16;
+
+    final VisitMarks marks = new VisitMarks();
+    private final PersonKey probe = new PersonKey(null, null);
+    private final List<List<FamilyTreeNode<Person>>> buffers = new ArrayList<List<FamilyTreeNode<Person>>>();
+    private long[] counts = new long[16];
+    private StringBuilder text = new StringBuilder(256);
+
+    /**
+     * Returns the probe key, set to the given name and date of birth. It's
+     * only good until the next call, so use it for one lookup and let it go.
+     *
+     * @param name
+     * @param dob
+     * @return
+     */
+    PersonKey key(String name, String dob) {
+        return probe.set(name, dob);
+    }
+
+    /**
+     * Returns node buffer number i, emptied.
+     *
+     * @param i
+     * @return
+     */
+    List<FamilyTreeNode<Person>> buffer(int i) {
+        while (buffers.size() <= i) {
+            buffers.add(new ArrayList<FamilyTreeNode<Person>>());
+        }
+        List<FamilyTreeNode<Person>> buffer = buffers.get(i);
+        if (buffer.size() > MAX_KEPT) {
+            buffer = new ArrayList<FamilyTreeNode<Person>>();
+            buffers.set(i, buffer);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer of at least 'size' counts. The contents are left over
+     * from the last query.
+     *
+     * @param size
+     * @return
+     */
+    long[] counts(int size) {
+        if (counts.length < size) {
+            counts = new long[Math.max(size, counts.length * 2)];
+        }
+        return counts;
+    }
+
+    /**
+     * Returns the StringBuilder, emptied.
+     *
+     * @return
+     */
+    StringBuilder text() {
+        if (text.capacity() > MAX_KEPT) {
+            text = new StringBuilder(256);
+        }
+        text.setLength(0);
+        return text;
+    }
+}
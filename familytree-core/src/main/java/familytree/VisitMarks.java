@@ -0,0 +1,111 @@
+package familytree;
+
+import java.util.Arrays;
+
+/**
+ * Scratch space for one traversal of a FamilyTree: a "visited" mark and a
+ * counter for every node id. Clearing a boolean[] the size of the tree before
+ * every query would cost as much as the query, so instead each slot holds the
+ * number (epoch) of the traversal that last marked it, and begin() just moves
+ * on to the next epoch. A slot counts as marked only if its stamp is the
+ * current epoch.
+ *
+ * The tree keeps one of these per thread and reuses it, so a query doesn't
+ * allocate any per-node arrays. That means only one traversal per thread can
+ * use it at a time; queries that call other queries must finish with the marks
+ * before making the call.
+ *
+ * @author Andrew Brown
+ */
+final class VisitMarks {
+
+    private int[] stamps = new int[16];
+    //null if the traversals using these marks don't count.
+    private long[] counts;
+    private int epoch;
+
+    VisitMarks() {
+        this(true);
+    }
+
+    /**
+     * @param counting false if add() and count() won't be used, so that no
+     * counters need to be kept.
+     */
+    VisitMarks(boolean counting) {
+        if (counting) {
+            counts = new long[16];
+        }
+    }
+
+    /**
+     * Starts a new traversal over a tree with 'size' nodes. Everything marked
+     * by the last traversal counts as unmarked again.
+     *
+     * @param size
+     */
+    void begin(int size) {
+        if (size > stamps.length) {
+            int capacity = Math.max(size, stamps.length + (stamps.length >> 1));
+            stamps = new int[capacity];
+            if (counts != null) {
+                counts = new long[capacity];
+            }
+            epoch = 0;
+        }
+        epoch++;
+        if (epoch == 0) {
+            //the epoch wrapped around, so old stamps could look current.
+            Arrays.fill(stamps, 0);
+            epoch = 1;
+        }
+    }
+
+    /**
+     * Marks the node, and returns true if it wasn't already marked in this
+     * traversal. A newly marked node's count starts at 0.
+     *
+     * @param id
+     * @return
+     */
+    boolean mark(int id) {
+        if (stamps[id] == epoch) {
+            return false;
+        }
+        stamps[id] = epoch;
+        if (counts != null) {
+            counts[id] = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if the node has been marked in this traversal.
+     *
+     * @param id
+     * @return
+     */
+    boolean isMarked(int id) {
+        return stamps[id] == epoch;
+    }
+
+    /**
+     * Adds to the node's count. The node must be marked.
+     *
+     * @param id
+     * @param amount
+     */
+    void add(int id, long amount) {
+        counts[id] += amount;
+    }
+
+    /**
+     * Returns the node's count. Only meaningful if the node is marked.
+     *
+     * @param id
+     * @return
+     */
+    long count(int id) {
+        return counts[id];
+    }
+}
@@ -0,0 +1,345 @@
+package familytree;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.Deflater;
+
+/**
+ * Writes the whole tree out in a compact, column by column form, for
+ * analytics jobs that want everyone at once rather than one report at a time.
+ * ColumnarImporter reads it back.
+ *
+ * The people are cut into blocks of 'blockSize' consecutive ids. Within a
+ * block, each field is stored as its own column (see Columns for the
+ * encodings):
+ * <ol>
+ * <li>the first id in the block and the number of people in it;</li>
+ * <li>names, dates of birth and birth places, each dictionary encoded, so a
+ * surname or town that turns up a thousand times is only stored once;</li>
+ * <li>ages;</li>
+ * <li>the flags, 6 bits a person;</li>
+ * <li>parent links: how many each person has, each parent's id as a
+ * difference from the person's own (parents are nearly always added not long
+ * before their children, so the differences are small), and 2 bits a link
+ * saying whether it's the father, the mother or neither;</li>
+ * <li>child links and partner links, as counts and differences in the same
+ * way.</li>
+ * </ol>
+ * and then the block is deflated.
+ *
+ * The file is a header (MAGIC, VERSION, the number of people and the block
+ * size, as ints) followed by the blocks, each as its length before and after
+ * deflating (ints) and the deflated bytes, and then a 0.
+ *
+ * The export works from a snapshot, so it sees the tree as it was when it
+ * started, without locking it, however long it takes. Blocks are encoded and
+ * deflated on a pool of threads while the calling thread writes out the ones
+ * that are done, in order. Only a couple of blocks per thread are ever in
+ * flight, so the memory used doesn't depend on the size of the tree, and the
+ * disk is kept busy as long as the threads can keep up with it.
+ *
+ * The empty places left by people taken out of the tree are kept, so that
+ * everyone keeps their id: they have the REMOVED flag, no details and no
+ * links.
+ *
+ * Only people's current partners are exported, not the partnerships that
+ * have ended (their flags still say if they're divorced), and wedding and
+ * divorce dates are left out.
+ *
+ * @author Andrew Brown
+ */
+public class ColumnarExporter {
+
+    public static final int DEFAULT_BLOCK_SIZE = 65536;
+    //a guess at how big a person's columns come to, to size the buffer.
+    private static final int BYTES_PER_PERSON = 24;
+    private static final int[] NO_IDS = new int[0];
+    //kinds of link, for linkIds().
+    private static final int PARENTS = 0;
+    private static final int CHILDREN = 1;
+    private static final int PARTNERS = 2;
+
+    private FamilyTree tree;
+    private int threads;
+    private int blockSize;
+
+    /**
+     * Create an exporter for the given tree that uses one thread per core.
+     *
+     * @param tree
+     */
+    public ColumnarExporter(FamilyTree tree) {
+        this(tree, Runtime.getRuntime().availableProcessors(), DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Create an exporter for the given tree that encodes on the given number
+     * of threads, with the given number of people in each block.
+     *
+     * @param tree
+     * @param threads
+     * @param blockSize
+     */
+    public ColumnarExporter(FamilyTree tree, int threads, int blockSize) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("The block size must be at least 1.");
+        }
+        this.tree = tree;
+        this.threads = Math.max(1, threads);
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * Exports the tree to a file. Returns the number of bytes written.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public long export(File file) throws IOException {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 1 << 20);
+
+        try {
+            long written = export(out);
+            out.flush();
+            return written;
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Exports the tree to a stream, and flushes it. The stream is left open.
+     * Returns the number of bytes written.
+     *
+     * @param stream
+     * @return
+     * @throws IOException
+     */
+    public long export(OutputStream stream) throws IOException {
+        final FamilyTreeSnapshot snapshot = tree.snapshot();
+        int size = snapshot.size();
+        DataOutputStream out = new DataOutputStream(stream);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Deque<Future<Block>> inFlight = new ArrayDeque<Future<Block>>();
+        long written = 16;
+
+        try {
+            out.writeInt(Columns.MAGIC);
+            out.writeInt(Columns.VERSION);
+            out.writeInt(size);
+            out.writeInt(blockSize);
+            for (int start = 0; start < size; start += blockSize) {
+                final int first = start;
+                final int count = Math.min(blockSize, size - start);
+                if (inFlight.size() == 2 * threads) {
+                    written += write(out, inFlight.removeFirst().get());
+                }
+                inFlight.addLast(pool.submit(new Callable<Block>() {
+
+                    public Block call() {
+                        return deflate(encode(snapshot, first, count));
+                    }
+                }));
+            }
+            while (!inFlight.isEmpty()) {
+                written += write(out, inFlight.removeFirst().get());
+            }
+            out.writeInt(0);
+            out.flush();
+            return written + 4;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("The export was interrupted.");
+        } catch (ExecutionException e) {
+            throw new RuntimeException("An encoding task failed.", e.getCause());
+        } finally {
+            for (Future<Block> block : inFlight) {
+                block.cancel(true);
+            }
+            pool.shutdown();
+        }
+    }
+
+    private static long write(DataOutputStream out, Block block) throws IOException {
+        out.writeInt(block.rawLength);
+        out.writeInt(block.length);
+        out.write(block.bytes, 0, block.length);
+        return 8 + block.length;
+    }
+
+    /**
+     * Encodes people [first, first + count) of the snapshot as a block of
+     * columns.
+     *
+     * @param snapshot
+     * @param first
+     * @param count
+     * @return
+     */
+    static Columns.Out encode(FamilyTreeSnapshot snapshot, int first, int count) {
+        Columns.Out out = new Columns.Out(count * BYTES_PER_PERSON);
+        String[] strings = new String[count];
+        int[] values = new int[count];
+
+        //everyone's details, with nulls for the empty places.
+        Person[] people = new Person[count];
+        for (int i = 0; i < count; i++) {
+            if (snapshot.contains(first + i)) {
+                people[i] = snapshot.getPerson(first + i);
+            }
+        }
+
+        out.varint(first);
+        out.varint(count);
+        for (int i = 0; i < count; i++) {
+            strings[i] = people[i] == null ? null : people[i].getName();
+        }
+        out.dictionary(strings, count);
+        for (int i = 0; i < count; i++) {
+            strings[i] = people[i] == null ? null : people[i].getDateOfBirth();
+        }
+        out.dictionary(strings, count);
+        for (int i = 0; i < count; i++) {
+            strings[i] = people[i] == null ? null : people[i].getBirthPlace();
+        }
+        out.dictionary(strings, count);
+        for (int i = 0; i < count; i++) {
+            out.signed(people[i] == null ? 0 : people[i].getAge());
+        }
+        for (int i = 0; i < count; i++) {
+            values[i] = people[i] == null ? Columns.REMOVED : flags(people[i]);
+        }
+        out.packed(values, count, Columns.FLAG_BITS);
+
+        //parents, and which of them is the father and the mother.
+        int links = 0;
+        for (int i = 0; i < count; i++) {
+            values[i] = linkIds(snapshot, PARENTS, first + i).length;
+            links += values[i];
+        }
+        out.packed(values, count);
+        int[] roles = new int[links];
+        links = 0;
+        for (int i = 0; i < count; i++) {
+            int id = first + i;
+            for (int parent : linkIds(snapshot, PARENTS, id)) {
+                out.signed(parent - id);
+                if (parent == snapshot.getFather(id)) {
+                    roles[links] = Columns.FATHER_LINK;
+                } else if (parent == snapshot.getMother(id)) {
+                    roles[links] = Columns.MOTHER_LINK;
+                }
+                links++;
+            }
+        }
+        out.packed(roles, links, Columns.ROLE_BITS);
+
+        for (int i = 0; i < count; i++) {
+            values[i] = linkIds(snapshot, CHILDREN, first + i).length;
+        }
+        out.packed(values, count);
+        for (int i = 0; i < count; i++) {
+            for (int child : linkIds(snapshot, CHILDREN, first + i)) {
+                out.signed(child - (first + i));
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            values[i] = linkIds(snapshot, PARTNERS, first + i).length;
+        }
+        out.packed(values, count);
+        for (int i = 0; i < count; i++) {
+            for (int partner : linkIds(snapshot, PARTNERS, first + i)) {
+                out.signed(partner - (first + i));
+            }
+        }
+        return out;
+    }
+
+    //the snapshot's own array of the person's links of the given kind, or
+    //none for an empty place.
+    private static int[] linkIds(FamilyTreeSnapshot snapshot, int kind, int id) {
+        if (!snapshot.contains(id)) {
+            return NO_IDS;
+        } else if (kind == PARENTS) {
+            return snapshot.parentIds(id);
+        } else if (kind == CHILDREN) {
+            return snapshot.childIds(id);
+        }
+        return snapshot.partnerIds(id);
+    }
+
+    private static int flags(Person person) {
+        int flags = 0;
+
+        if (person.isMother()) {
+            flags |= Columns.MOTHER;
+        }
+        if (person.isFather()) {
+            flags |= Columns.FATHER;
+        }
+        if (person.isMarried()) {
+            flags |= Columns.MARRIED;
+        }
+        if (person.isDivorced()) {
+            flags |= Columns.DIVORCED;
+        }
+        if (person.isAdopted()) {
+            flags |= Columns.ADOPTED;
+        }
+        return flags;
+    }
+
+    private static Block deflate(Columns.Out columns) {
+        //the fastest level: the columns are already compact, and the point is
+        //to keep up with the disk.
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+        try {
+            deflater.setInput(columns.array(), 0, columns.size());
+            deflater.finish();
+            byte[] bytes = new byte[columns.size() / 2 + 64];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == bytes.length) {
+                    byte[] grown = new byte[bytes.length * 2];
+                    System.arraycopy(bytes, 0, grown, 0, length);
+                    bytes = grown;
+                }
+                length += deflater.deflate(bytes, length, bytes.length - length);
+            }
+            return new Block(columns.size(), bytes, length);
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * A deflated block, ready to write.
+     */
+    private static class Block {
+
+        int rawLength;
+        byte[] bytes;
+        int length;
+
+        Block(int rawLength, byte[] bytes, int length) {
+            this.rawLength = rawLength;
+            this.bytes = bytes;
+            this.length = length;
+        }
+    }
+}
@@ -0,0 +1,546 @@
+package familytree;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Loads a file written by ColumnarExporter back into a FamilyTree, which must
+ * be empty. Everyone gets the id they had in the exported tree, and their
+ * links come back in the same order, so the tree's reports read exactly as
+ * they did, apart from the partnership history the export leaves out.
+ *
+ * The blocks are inflated and decoded on a pool of threads as they're read.
+ * Nothing is added to the tree until the whole file has been read and
+ * checked, and then the people are added, their link lists are built at
+ * exactly the right size, as the bulk loader does, and the generation and
+ * lineage indexes are worked out in one go. Subscribers to the change feed
+ * hear about every person, parent link and wedding. The empty places left by
+ * people taken out of the exported tree are left empty here too.
+ *
+ * @author Andrew Brown
+ */
+public class ColumnarImporter {
+
+    private FamilyTree tree;
+    private int threads;
+
+    /**
+     * Create an importer for the given tree that uses one thread per core.
+     *
+     * @param tree
+     */
+    public ColumnarImporter(FamilyTree tree) {
+        this(tree, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create an importer for the given tree that decodes on the given number
+     * of threads.
+     *
+     * @param tree
+     * @param threads
+     */
+    public ColumnarImporter(FamilyTree tree, int threads) {
+        this.tree = tree;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Loads an export from a file. Returns the size of the loaded tree (see
+     * FamilyTree.size()).
+     *
+     * @param file
+     * @return
+     * @throws IOException if the file can't be read or isn't a valid export,
+     * in which case the tree is left empty.
+     */
+    public int load(File file) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 20);
+
+        try {
+            return load(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Loads an export from a stream, which is left open. Returns the size of
+     * the loaded tree.
+     *
+     * @param stream
+     * @return
+     * @throws IOException if the stream can't be read or isn't a valid export,
+     * in which case the tree is left empty.
+     */
+    public int load(InputStream stream) throws IOException {
+        DataInputStream in = new DataInputStream(stream);
+
+        if (in.readInt() != Columns.MAGIC) {
+            throw new IOException("Not a family tree export.");
+        }
+        int version = in.readInt();
+        if (version < 1 || version > Columns.VERSION) {
+            throw new IOException("Can't read version " + version + " exports.");
+        }
+        int size = in.readInt();
+        int blockSize = in.readInt();
+        if (size < 0 || blockSize < 1) {
+            throw new IOException("Malformed header.");
+        }
+
+        synchronized (tree) {
+            if (tree.size() != 0) {
+                throw new IllegalArgumentException("Can only load an export into an empty tree.");
+            }
+            List<Block> blocks = read(in, size, blockSize);
+            addPeople(blocks, size);
+            addLinks(blocks, size);
+        }
+        return size;
+    }
+
+    /**
+     * Reads every block, inflating and decoding them on the pool, and checks
+     * that they fit together.
+     */
+    private List<Block> read(DataInputStream in, int size, final int blockSize) throws IOException {
+        List<Block> blocks = new ArrayList<Block>();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Deque<Future<Block>> inFlight = new ArrayDeque<Future<Block>>();
+        int next = 0;
+
+        try {
+            while (true) {
+                final int rawLength = in.readInt();
+                if (rawLength == 0) {
+                    break;
+                }
+                int length = in.readInt();
+                if (rawLength < 0 || length < 0) {
+                    throw new IOException("Malformed block header.");
+                }
+                final byte[] deflated = new byte[length];
+                in.readFully(deflated);
+                if (inFlight.size() == 2 * threads) {
+                    next = check(inFlight.removeFirst().get(), next, size, blocks);
+                }
+                inFlight.addLast(pool.submit(new Callable<Block>() {
+
+                    public Block call() throws IOException {
+                        return decode(inflate(deflated, rawLength), blockSize);
+                    }
+                }));
+            }
+            while (!inFlight.isEmpty()) {
+                next = check(inFlight.removeFirst().get(), next, size, blocks);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Loading was interrupted.");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new RuntimeException("A decoding task failed.", e.getCause());
+        } finally {
+            for (Future<Block> block : inFlight) {
+                block.cancel(true);
+            }
+            pool.shutdown();
+        }
+        if (next != size) {
+            throw new IOException("The export should have " + size + " people, but has " + next + ".");
+        }
+        BitSet removed = new BitSet(size);
+        for (Block block : blocks) {
+            for (int i = 0; i < block.count; i++) {
+                if ((block.flags[i] & Columns.REMOVED) != 0) {
+                    if (block.parentCounts[i] + block.childCounts[i] + block.partnerCounts[i] != 0) {
+                        throw new IOException("Empty place " + (block.first + i) + " has links.");
+                    }
+                    removed.set(block.first + i);
+                }
+            }
+        }
+        for (Block block : blocks) {
+            checkIds(block.parents, size, removed);
+            checkIds(block.children, size, removed);
+            checkIds(block.partners, size, removed);
+        }
+        int[][] grouped = groupByParent(blocks, size);
+        checkParents(blocks, size, grouped[0], grouped[1]);
+        checkNoLoops(size, grouped[0], grouped[1]);
+        return blocks;
+    }
+
+    //makes sure the block carries on where the last one left off.
+    private static int check(Block block, int next, int size, List<Block> blocks) throws IOException {
+        if (block.first != next || block.count > size - next) {
+            throw new IOException("Block for ids " + block.first + " onwards is out of place.");
+        }
+        blocks.add(block);
+        return next + block.count;
+    }
+
+    private static void checkIds(int[] ids, int size, BitSet removed) throws IOException {
+        for (int id : ids) {
+            if (id < 0 || id >= size || removed.get(id)) {
+                throw new IOException("Link to unknown id " + id + ".");
+            }
+        }
+    }
+
+    //groups the parents column by parent. Returns {byParent, children}: the
+    //children of parent p, in id order, are children[byParent[p]] up to
+    //children[byParent[p + 1]].
+    private static int[][] groupByParent(List<Block> blocks, int size) {
+        int[] byParent = new int[size + 1];
+
+        for (Block block : blocks) {
+            for (int id : block.parents) {
+                byParent[id + 1]++;
+            }
+        }
+        for (int id = 0; id < size; id++) {
+            byParent[id + 1] += byParent[id];
+        }
+        int[] children = new int[byParent[size]];
+        int[] fill = new int[size];
+        for (Block block : blocks) {
+            int parent = 0;
+            for (int i = 0; i < block.count; i++) {
+                for (int j = 0; j < block.parentCounts[i]; j++, parent++) {
+                    int id = block.parents[parent];
+                    children[byParent[id] + fill[id]++] = block.first + i;
+                }
+            }
+        }
+        return new int[][] {byParent, children};
+    }
+
+    //makes sure the parents and children columns agree, since the tree's
+    //links are two-way: each person's children are exactly the people who
+    //list them as a parent, once each. Also that nobody has more than one
+    //father or mother.
+    private static void checkParents(List<Block> blocks, int size, int[] byParent, int[] children)
+            throws IOException {
+        for (Block block : blocks) {
+            int parent = 0;
+            for (int i = 0; i < block.count; i++) {
+                int fathers = 0;
+                int mothers = 0;
+                for (int j = 0; j < block.parentCounts[i]; j++, parent++) {
+                    int role = block.roles[parent];
+                    if (role == Columns.FATHER_LINK) {
+                        fathers++;
+                    } else if (role == Columns.MOTHER_LINK) {
+                        mothers++;
+                    } else if (role != Columns.OTHER_PARENT) {
+                        throw new IOException("Malformed parent roles column.");
+                    }
+                }
+                if (fathers > 1 || mothers > 1) {
+                    throw new IOException((block.first + i) + " has more than one father or mother.");
+                }
+            }
+        }
+
+        //who last listed each person as their child: parent + 1 while the
+        //parent's children column is being read, and -(parent + 1) once the
+        //person has been matched to the parents column.
+        int[] listedBy = new int[size];
+        for (Block block : blocks) {
+            int child = 0;
+            for (int i = 0; i < block.count; i++) {
+                int parent = block.first + i;
+                boolean agree = block.childCounts[i] == byParent[parent + 1] - byParent[parent];
+                for (int j = 0; j < block.childCounts[i]; j++, child++) {
+                    int id = block.children[child];
+                    agree &= listedBy[id] != parent + 1;
+                    listedBy[id] = parent + 1;
+                }
+                for (int j = byParent[parent]; agree && j < byParent[parent + 1]; j++) {
+                    agree = listedBy[children[j]] == parent + 1;
+                    listedBy[children[j]] = -(parent + 1);
+                }
+                if (!agree) {
+                    throw new IOException("The children of " + parent + " don't match their parents column.");
+                }
+            }
+        }
+    }
+
+    //makes sure nobody is their own ancestor, which the tree never allows
+    //and its indexes rely on: everyone must be reachable in topological
+    //order, working down from the people without parents.
+    private static void checkNoLoops(int size, int[] byParent, int[] children) throws IOException {
+        int[] waitingFor = new int[size];
+
+        for (int id : children) {
+            waitingFor[id]++;
+        }
+        int[] queue = new int[size];
+        int head = 0;
+        int tail = 0;
+        for (int id = 0; id < size; id++) {
+            if (waitingFor[id] == 0) {
+                queue[tail++] = id;
+            }
+        }
+        while (head < tail) {
+            int id = queue[head++];
+            for (int i = byParent[id]; i < byParent[id + 1]; i++) {
+                if (--waitingFor[children[i]] == 0) {
+                    queue[tail++] = children[i];
+                }
+            }
+        }
+        if (tail != size) {
+            throw new IOException("Someone is their own ancestor.");
+        }
+    }
+
+    private static byte[] inflate(byte[] deflated, int rawLength) throws IOException {
+        Inflater inflater = new Inflater();
+
+        try {
+            inflater.setInput(deflated);
+            byte[] raw = new byte[rawLength];
+            int length = 0;
+            while (length < rawLength && !inflater.finished() && !inflater.needsInput()) {
+                length += inflater.inflate(raw, length, rawLength - length);
+            }
+            if (length != rawLength || !inflater.finished()) {
+                throw new IOException("Block is corrupt.");
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IOException("Block is corrupt: " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Decodes a block's columns, in the order ColumnarExporter.encode() wrote
+     * them.
+     *
+     * @param bytes
+     * @param blockSize
+     * @return
+     * @throws IOException
+     */
+    static Block decode(byte[] bytes, int blockSize) throws IOException {
+        Columns.In in = new Columns.In(bytes, bytes.length);
+        Block block = new Block();
+
+        block.first = in.varint();
+        block.count = in.varint();
+        if (block.first < 0 || block.count < 1 || block.count > blockSize) {
+            throw new IOException("Malformed block.");
+        }
+        int count = block.count;
+        block.names = in.dictionary(count);
+        block.datesOfBirth = in.dictionary(count);
+        block.birthPlaces = in.dictionary(count);
+        block.ages = new int[count];
+        for (int i = 0; i < count; i++) {
+            block.ages[i] = in.signed();
+        }
+        block.flags = in.packed(count);
+        block.parentCounts = in.packed(count);
+        block.parents = links(in, block.first, block.parentCounts);
+        block.roles = in.packed(block.parents.length);
+        block.childCounts = in.packed(count);
+        block.children = links(in, block.first, block.childCounts);
+        block.partnerCounts = in.packed(count);
+        block.partners = links(in, block.first, block.partnerCounts);
+        if (in.remaining() != 0) {
+            throw new IOException("Malformed block: " + in.remaining() + " bytes left over.");
+        }
+        return block;
+    }
+
+    //reads a column of id differences, and turns them back into ids.
+    private static int[] links(Columns.In in, int first, int[] counts) throws IOException {
+        long total = 0;
+
+        for (int count : counts) {
+            if (count < 0) {
+                throw new IOException("Malformed link column.");
+            }
+            total += count;
+        }
+        //every difference takes at least a byte.
+        if (total > in.remaining()) {
+            throw new IOException("Malformed link column.");
+        }
+        int[] ids = new int[(int) total];
+        int link = 0;
+        for (int i = 0; i < counts.length; i++) {
+            for (int j = 0; j < counts[i]; j++) {
+                ids[link++] = first + i + in.signed();
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * Adds everyone to the tree, in id order, leaving the empty places empty.
+     * If anyone turns up twice, takes them all out again.
+     */
+    private void addPeople(List<Block> blocks, int size) throws IOException {
+        List<FamilyTreeNode<Person>> added = new ArrayList<FamilyTreeNode<Person>>(size);
+
+        for (Block block : blocks) {
+            for (int i = 0; i < block.count; i++) {
+                if ((block.flags[i] & Columns.REMOVED) != 0) {
+                    tree.insertGap();
+                    added.add(null);
+                    continue;
+                }
+                Person person = new Person(block.names[i], block.datesOfBirth[i], block.birthPlaces[i]);
+                person.setAge(block.ages[i]);
+                FamilyTreeNode<Person> node = tree.insertPerson(person);
+                if (node == null) {
+                    for (int j = added.size() - 1; j >= 0; j--) {
+                        if (added.get(j) == null) {
+                            tree.uninsertGap();
+                        } else {
+                            tree.uninsertPerson(added.get(j).getId());
+                        }
+                    }
+                    throw new IOException(person.getName() + " " + person.getDateOfBirth()
+                            + " is in the export twice.");
+                }
+                added.add(node);
+            }
+        }
+    }
+
+    /**
+     * Builds everyone's links, sets their flags, and tells the indexes,
+     * snapshots and change feed.
+     */
+    private void addLinks(List<Block> blocks, int size) {
+        for (Block block : blocks) {
+            int parent = 0;
+            int child = 0;
+            for (int i = 0; i < block.count; i++) {
+                FamilyTreeNode<Person> node = tree.getPerson(block.first + i);
+                if (block.parentCounts[i] > 0) {
+                    List<FamilyTreeNode<Person>> links = new ArrayList<FamilyTreeNode<Person>>(block.parentCounts[i]);
+                    for (int j = 0; j < block.parentCounts[i]; j++) {
+                        links.add(tree.getPerson(block.parents[parent + j]));
+                    }
+                    node.setParentLinks(links);
+                    for (int j = 0; j < block.parentCounts[i]; j++, parent++) {
+                        if (block.roles[parent] == Columns.FATHER_LINK) {
+                            node.setFather(links.get(j));
+                        } else if (block.roles[parent] == Columns.MOTHER_LINK) {
+                            node.setMother(links.get(j));
+                        }
+                    }
+                }
+                if (block.childCounts[i] > 0) {
+                    List<FamilyTreeNode<Person>> links = new ArrayList<FamilyTreeNode<Person>>(block.childCounts[i]);
+                    for (int j = 0; j < block.childCounts[i]; j++, child++) {
+                        links.add(tree.getPerson(block.children[child]));
+                    }
+                    node.setChildLinks(links);
+                }
+            }
+        }
+        //weddings go through wed(), so the partnerships are there for the
+        //reports; each couple once.
+        for (Block block : blocks) {
+            int partner = 0;
+            for (int i = 0; i < block.count; i++) {
+                for (int j = 0; j < block.partnerCounts[i]; j++, partner++) {
+                    if (block.partners[partner] > block.first + i) {
+                        tree.wed(tree.getPerson(block.first + i), tree.getPerson(block.partners[partner]), null);
+                    }
+                }
+            }
+        }
+        //and now the flags, which wed() will have changed.
+        for (Block block : blocks) {
+            for (int i = 0; i < block.count; i++) {
+                if (tree.getPerson(block.first + i) == null) {
+                    continue;
+                }
+                Person person = tree.getPerson(block.first + i).getItem();
+                int flags = block.flags[i];
+                person.setIsMother((flags & Columns.MOTHER) != 0);
+                person.setIsFather((flags & Columns.FATHER) != 0);
+                person.setIsMarried((flags & Columns.MARRIED) != 0);
+                person.setIsDivorced((flags & Columns.DIVORCED) != 0);
+                person.setIsAdopted((flags & Columns.ADOPTED) != 0);
+            }
+        }
+        tree.rebuildIndexes();
+        tree.publishAll(new int[0], 0);
+
+        ChangeFeed changes = tree.getChangeFeed();
+        for (int id = 0; id < size; id++) {
+            if (tree.getPerson(id) != null) {
+                changes.publish(ChangeType.PERSON_ADDED, id, -1);
+            }
+        }
+        for (int id = 0; id < size; id++) {
+            FamilyTreeNode<Person> node = tree.getPerson(id);
+            if (node == null) {
+                continue;
+            }
+            if (node.getFather() != null) {
+                changes.publish(ChangeType.FATHER_LINKED, id, node.getFather().getId());
+            }
+            if (node.getMother() != null) {
+                changes.publish(ChangeType.MOTHER_LINKED, id, node.getMother().getId());
+            }
+            FamilyTreeNode<Person> partner = tree.currentPartner(node);
+            if (partner != null && partner.getId() > id) {
+                changes.publish(ChangeType.WEDDING, id, partner.getId());
+            }
+        }
+    }
+
+    /**
+     * One decoded block. The link columns hold ids, one run per person.
+     */
+    static class Block {
+
+        int first;
+        int count;
+        String[] names;
+        String[] datesOfBirth;
+        String[] birthPlaces;
+        int[] ages;
+        int[] flags;
+        int[] parentCounts;
+        int[] parents;
+        int[] roles;
+        int[] childCounts;
+        int[] children;
+        int[] partnerCounts;
+        int[] partners;
+    }
+}
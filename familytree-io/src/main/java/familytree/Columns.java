@@ -0,0 +1,297 @@
+package familytree;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The encodings used by the columnar export (see ColumnarExporter), shared
+ * with ColumnarImporter so the two can't drift apart.
+ *
+ * A block of the export is a run of columns, one after another. The
+ * building blocks are:
+ * <ul>
+ * <li>varints: 7 bits a byte, low bits first, high bit set on every byte but
+ * the last. Small numbers take one byte.</li>
+ * <li>zigzag varints, for signed numbers such as the difference between two
+ * ids: 0, -1, 1, -2, ... become 0, 1, 2, 3, ... so small differences either
+ * way stay small.</li>
+ * <li>bit-packed columns: a varint giving the width in bits, then every value
+ * at that width, packed end to end, low bits first.</li>
+ * <li>dictionary columns, for strings that repeat (names, dates and places):
+ * the distinct strings in the block, each as a varint length (0 for null,
+ * otherwise the number of UTF-8 bytes plus one) and the bytes, then a
+ * bit-packed column of each row's position in that list.</li>
+ * </ul>
+ *
+ * @author Andrew Brown
+ */
+final class Columns {
+
+    //"FTC1"
+    static final int MAGIC = 0x46544331;
+    //version 2 added the REMOVED flag. Version 1 exports can still be read.
+    static final int VERSION = 2;
+
+    //the flags column: one bit for each of Person's flags, and one for the
+    //empty places left by people taken out of the tree.
+    static final int MOTHER = 1;
+    static final int FATHER = 2;
+    static final int MARRIED = 4;
+    static final int DIVORCED = 8;
+    static final int ADOPTED = 16;
+    static final int REMOVED = 32;
+    static final int FLAG_BITS = 6;
+
+    //the parent roles column: what each parent link is.
+    static final int OTHER_PARENT = 0;
+    static final int FATHER_LINK = 1;
+    static final int MOTHER_LINK = 2;
+    static final int ROLE_BITS = 2;
+
+    private Columns() {
+    }
+
+    /**
+     * Returns the number of bits needed to hold every value from 0 to 'max'.
+     *
+     * @param max
+     * @return
+     */
+    static int bitsFor(int max) {
+        return 32 - Integer.numberOfLeadingZeros(max);
+    }
+
+    static int zigzag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    static int unzigzag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Somewhere to write a block's columns, growing as needed.
+     */
+    static final class Out {
+
+        private byte[] bytes;
+        private int size;
+
+        Out(int capacity) {
+            bytes = new byte[Math.max(16, capacity)];
+        }
+
+        byte[] array() {
+            return bytes;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void varint(int value) {
+            ensure(5);
+            while ((value & ~0x7f) != 0) {
+                bytes[size++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void signed(int value) {
+            varint(zigzag(value));
+        }
+
+        void string(String text) {
+            if (text == null) {
+                varint(0);
+                return;
+            }
+            byte[] utf8 = utf8(text);
+            varint(utf8.length + 1);
+            ensure(utf8.length);
+            System.arraycopy(utf8, 0, bytes, size, utf8.length);
+            size += utf8.length;
+        }
+
+        /**
+         * Writes the first 'count' values, at the width needed for the biggest
+         * one.
+         */
+        void packed(int[] values, int count) {
+            int max = 0;
+            for (int i = 0; i < count; i++) {
+                max |= values[i];
+            }
+            packed(values, count, bitsFor(max));
+        }
+
+        void packed(int[] values, int count, int bits) {
+            varint(bits);
+            ensure((int) (((long) count * bits + 7) / 8));
+            long pending = 0;
+            int pendingBits = 0;
+            for (int i = 0; i < count; i++) {
+                pending |= ((long) values[i] & 0xffffffffL) << pendingBits;
+                pendingBits += bits;
+                while (pendingBits >= 8) {
+                    bytes[size++] = (byte) pending;
+                    pending >>>= 8;
+                    pendingBits -= 8;
+                }
+            }
+            if (pendingBits > 0) {
+                bytes[size++] = (byte) pending;
+            }
+        }
+
+        /**
+         * Writes a dictionary column of the first 'count' strings.
+         */
+        void dictionary(String[] values, int count) {
+            Map<String, Integer> codes = new HashMap<String, Integer>();
+            String[] distinct = new String[count];
+            int[] rows = new int[count];
+            int nulls = -1;
+            int distinctCount = 0;
+            for (int i = 0; i < count; i++) {
+                String value = values[i];
+                Integer code;
+                if (value == null) {
+                    if (nulls == -1) {
+                        nulls = distinctCount;
+                        distinct[distinctCount++] = null;
+                    }
+                    code = nulls;
+                } else if ((code = codes.get(value)) == null) {
+                    code = distinctCount;
+                    codes.put(value, code);
+                    distinct[distinctCount++] = value;
+                }
+                rows[i] = code;
+            }
+            varint(distinctCount);
+            for (int i = 0; i < distinctCount; i++) {
+                string(distinct[i]);
+            }
+            packed(rows, count, bitsFor(Math.max(0, distinctCount - 1)));
+        }
+
+        private void ensure(int more) {
+            if (size + more > bytes.length) {
+                byte[] grown = new byte[Math.max(size + more, bytes.length * 2)];
+                System.arraycopy(bytes, 0, grown, 0, size);
+                bytes = grown;
+            }
+        }
+    }
+
+    /**
+     * Reads a block's columns back, in the order they were written.
+     */
+    static final class In {
+
+        private final byte[] bytes;
+        private final int end;
+        private int position;
+
+        In(byte[] bytes, int length) {
+            this.bytes = bytes;
+            this.end = length;
+        }
+
+        /**
+         * Returns the number of bytes left to read.
+         */
+        int remaining() {
+            return end - position;
+        }
+
+        int varint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                int b = next();
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint.");
+        }
+
+        int signed() throws IOException {
+            return unzigzag(varint());
+        }
+
+        String string() throws IOException {
+            int length = varint() - 1;
+            if (length == -1) {
+                return null;
+            }
+            if (length < 0 || length > end - position) {
+                throw new IOException("Malformed string.");
+            }
+            String text = new String(bytes, position, length, "UTF-8");
+            position += length;
+            return text;
+        }
+
+        int[] packed(int count) throws IOException {
+            int bits = varint();
+            if (bits > 32) {
+                throw new IOException("Malformed packed column.");
+            }
+            int[] values = new int[count];
+            long mask = bits == 32 ? 0xffffffffL : (1L << bits) - 1;
+            long pending = 0;
+            int pendingBits = 0;
+            for (int i = 0; i < count; i++) {
+                while (pendingBits < bits) {
+                    pending |= ((long) next() & 0xff) << pendingBits;
+                    pendingBits += 8;
+                }
+                values[i] = (int) (pending & mask);
+                pending >>>= bits;
+                pendingBits -= bits;
+            }
+            return values;
+        }
+
+        String[] dictionary(int count) throws IOException {
+            int size = varint();
+            if (size < 0 || size > count) {
+                throw new IOException("Malformed dictionary.");
+            }
+            String[] distinct = new String[size];
+            for (int i = 0; i < size; i++) {
+                distinct[i] = string();
+            }
+            int[] rows = packed(count);
+            String[] values = new String[count];
+            for (int i = 0; i < count; i++) {
+                if (rows[i] < 0 || rows[i] >= size) {
+                    throw new IOException("Malformed dictionary column.");
+                }
+                values[i] = distinct[rows[i]];
+            }
+            return values;
+        }
+
+        private int next() throws IOException {
+            if (position >= end) {
+                throw new IOException("Block ends too soon.");
+            }
+            return bytes[position++];
+        }
+    }
+
+    private static byte[] utf8(String text) {
+        try {
+            return text.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,594 @@
+package familytree;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Bulk loader for the fathers.txt/mothers.txt link files. Calling
+ * makeLinkToFather()/makeLinkToMother() once per line works, but it does
+ * everything one record at a time: two lookups, a couple of checks, and then
+ * the node's link lists grow one edge at a time.
+ *
+ * The loader splits the work into three passes instead:
+ * <ol>
+ * <li>The lines are cut into chunks, and each chunk is parsed and has its
+ * names resolved to node ids on a thread pool. Lookups only read the tree's
+ * index, so the chunks don't need to lock anything.</li>
+ * <li>The resolved links are checked in file order (fathers first, then
+ * mothers), using the same rules as makeLinkToFather()/makeLinkToMother():
+ * a child can only have one father and one mother, a link can't be made
+ * twice, and nobody can be made their own ancestor (see LoopCheck).</li>
+ * <li>The accepted links are grouped by node: we count how many links each
+ * node gains, allocate its lists at exactly the right size, and then fill
+ * them.</li>
+ * </ol>
+ *
+ * The people themselves must already be in the tree; person.txt is small next
+ * to the link files, and addPerson() is cheap now that the tree is indexed.
+ *
+ * @author Andrew Brown
+ */
+public class FamilyTreeLoader {
+
+    //lines per parsing task. Big enough that the task overhead doesn't matter,
+    //small enough that the chunks spread out over the threads.
+    private static final int CHUNK_SIZE = 4096;
+    private static final int FATHER = 0;
+    private static final int MOTHER = 1;
+
+    private FamilyTree tree;
+    private int threads;
+
+    /**
+     * Create a loader for the given tree that uses one thread per core.
+     *
+     * @param tree
+     */
+    public FamilyTreeLoader(FamilyTree tree) {
+        this(tree, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Create a loader for the given tree that uses the given number of threads
+     * for parsing.
+     *
+     * @param tree
+     * @param threads
+     */
+    public FamilyTreeLoader(FamilyTree tree, int threads) {
+        this.tree = tree;
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Loads a fathers file and a mothers file into the tree. Either file can be
+     * null, in which case it's skipped. Returns a report saying how many links
+     * were made, and which lines were rejected.
+     *
+     * @param fathers
+     * @param mothers
+     * @return
+     * @throws IOException
+     */
+    public Report loadLinks(File fathers, File mothers) throws IOException {
+        List<String> fatherLines = new ArrayList<String>();
+        List<String> motherLines = new ArrayList<String>();
+
+        if (fathers != null) {
+            fatherLines = readLines(fathers);
+        }
+        if (mothers != null) {
+            motherLines = readLines(mothers);
+        }
+        return loadLinks(fatherLines, motherLines);
+    }
+
+    /**
+     * Loads links from lines in the fathers.txt/mothers.txt format:
+     * "name dob parentName parentDOB".
+     *
+     * @param fatherLines
+     * @param motherLines
+     * @return
+     */
+    public Report loadLinks(List<String> fatherLines, List<String> motherLines) {
+        Report report = new Report();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+        try {
+            //pass one: parse and resolve in parallel.
+            List<Future<Chunk>> fatherChunks = submitChunks(pool, fatherLines);
+            List<Future<Chunk>> motherChunks = submitChunks(pool, motherLines);
+
+            //passes two and three change the tree, so they hold its lock.
+            synchronized (tree) {
+                //pass two: validate in file order.
+                int size = tree.size();
+                LinkSet accepted = new LinkSet();
+                int[] fatherOf = new int[size];
+                int[] motherOf = new int[size];
+                boolean[] seeded = new boolean[size];
+                for (int i = 0; i < size; i++) {
+                    fatherOf[i] = -1;
+                    motherOf[i] = -1;
+                }
+                LoopCheck loops = new LoopCheck(fatherChunks, motherChunks, size);
+                report.fathersAdded = validate(fatherChunks, FATHER, fatherOf, motherOf, seeded, loops, accepted,
+                        report);
+                report.mothersAdded = validate(motherChunks, MOTHER, fatherOf, motherOf, seeded, loops, accepted,
+                        report);
+
+                //pass three: group the accepted links by node and build the lists.
+                buildLinks(accepted, size);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Loading was interrupted.", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("A parsing task failed.", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        return report;
+    }
+
+    /**
+     * Cuts the lines into chunks and submits a parsing task for each one.
+     *
+     * @param pool
+     * @param lines
+     * @return
+     */
+    private List<Future<Chunk>> submitChunks(ExecutorService pool, final List<String> lines) {
+        List<Future<Chunk>> chunks = new ArrayList<Future<Chunk>>();
+
+        for (int start = 0; start < lines.size(); start += CHUNK_SIZE) {
+            final int from = start;
+            final int to = Math.min(lines.size(), start + CHUNK_SIZE);
+            chunks.add(pool.submit(new Callable<Chunk>() {
+
+                public Chunk call() {
+                    return parseChunk(lines, from, to);
+                }
+            }));
+        }
+        return chunks;
+    }
+
+    /**
+     * Parses lines[from, to) and resolves both people on each line to their
+     * node ids. Unknown people and malformed lines get an id of -1.
+     *
+     * @param lines
+     * @param from
+     * @param to
+     * @return
+     */
+    private Chunk parseChunk(List<String> lines, int from, int to) {
+        Chunk chunk = new Chunk(lines, from, to);
+
+        for (int i = from; i < to; i++) {
+            String[] tokens = lines.get(i).trim().split("\\s+");
+            int child = -1;
+            int parent = -1;
+
+            if (tokens.length >= 4) {
+                FamilyTreeNode<Person> childNode = tree.getPerson(tokens[0], tokens[1]);
+                FamilyTreeNode<Person> parentNode = tree.getPerson(tokens[2], tokens[3]);
+                if (childNode != null && parentNode != null) {
+                    child = childNode.getId();
+                    parent = parentNode.getId();
+                }
+            } else if (tokens.length == 1 && tokens[0].length() == 0) {
+                //blank line, nothing to do.
+                child = parent = -2;
+            }
+            chunk.children[i - from] = child;
+            chunk.parents[i - from] = parent;
+        }
+        return chunk;
+    }
+
+    /**
+     * Goes through the parsed chunks in order, and keeps the links that
+     * makeLinkToFather()/makeLinkToMother() would have made. Returns the
+     * number of links accepted.
+     */
+    private int validate(List<Future<Chunk>> chunks, int kind, int[] fatherOf,
+            int[] motherOf, boolean[] seeded, LoopCheck loops, LinkSet accepted, Report report)
+            throws InterruptedException, ExecutionException {
+        int added = 0;
+
+        for (Future<Chunk> future : chunks) {
+            Chunk chunk = future.get();
+            for (int i = 0; i < chunk.children.length; i++) {
+                int child = chunk.children[i];
+                int parent = chunk.parents[i];
+                if (child == -2) {
+                    continue;
+                }
+                if (child == -1) {
+                    report.rejected.add(chunk.lines.get(chunk.from + i));
+                    continue;
+                }
+                if (!seeded[child]) {
+                    //copy the links the child already has in the tree.
+                    FamilyTreeNode<Person> childNode = tree.getPerson(child);
+                    seeded[child] = true;
+                    if (childNode.getFather() != null) {
+                        fatherOf[child] = childNode.getFather().getId();
+                    }
+                    if (childNode.getMother() != null) {
+                        motherOf[child] = childNode.getMother().getId();
+                    }
+                }
+                //same rules as makeLinkTo*: one parent of each kind, no
+                //link to someone who is already the child's other parent, and
+                //nobody their own ancestor.
+                boolean ok;
+                if (kind == FATHER) {
+                    ok = fatherOf[child] == -1 && motherOf[child] != parent
+                            && !tree.getPerson(parent).containsChildLink(tree.getPerson(child));
+                } else {
+                    ok = motherOf[child] == -1 && fatherOf[child] != parent
+                            && !tree.getPerson(parent).containsChildLink(tree.getPerson(child));
+                }
+                ok = ok && !loops.wouldLoop(child, parent);
+                if (ok) {
+                    if (kind == FATHER) {
+                        fatherOf[child] = parent;
+                    } else {
+                        motherOf[child] = parent;
+                    }
+                    loops.accepted(child, parent);
+                    accepted.add(child, parent, kind);
+                    added++;
+                } else {
+                    report.rejected.add(chunk.lines.get(chunk.from + i));
+                }
+            }
+        }
+        return added;
+    }
+
+    /**
+     * Builds the parent and child link lists for every node touched by the
+     * accepted links. Each node's new links are counted first, so that its
+     * lists are allocated once, at exactly the right size, and then filled.
+     *
+     * @param accepted
+     * @param size
+     */
+    private void buildLinks(LinkSet accepted, int size) {
+        int[] parentCount = new int[size + 1];
+        int[] childCount = new int[size + 1];
+
+        //count.
+        for (int i = 0; i < accepted.size; i++) {
+            parentCount[accepted.children[i] + 1]++;
+            childCount[accepted.parents[i] + 1]++;
+        }
+        //turn the counts into offsets into one flat array per link type.
+        for (int i = 0; i < size; i++) {
+            parentCount[i + 1] += parentCount[i];
+            childCount[i + 1] += childCount[i];
+        }
+        int[] parentsByChild = new int[accepted.size];
+        int[] childrenByParent = new int[accepted.size];
+        int[] parentFill = new int[size];
+        int[] childFill = new int[size];
+        for (int i = 0; i < accepted.size; i++) {
+            int child = accepted.children[i];
+            int parent = accepted.parents[i];
+            parentsByChild[parentCount[child] + parentFill[child]++] = parent;
+            childrenByParent[childCount[parent] + childFill[parent]++] = child;
+            if (accepted.kinds[i] == FATHER) {
+                tree.getPerson(parent).getItem().setIsFather(true);
+            } else {
+                tree.getPerson(parent).getItem().setIsMother(true);
+            }
+        }
+        //allocate exactly and fill.
+        int[] touched = new int[size];
+        int touchedCount = 0;
+        for (int id = 0; id < size; id++) {
+            if (parentFill[id] > 0 || childFill[id] > 0) {
+                touched[touchedCount++] = id;
+            }
+            if (parentFill[id] > 0) {
+                FamilyTreeNode<Person> node = tree.getPerson(id);
+                List<FamilyTreeNode<Person>> links = new ArrayList<FamilyTreeNode<Person>>(
+                        node.getParentLinks().size() + parentFill[id]);
+                links.addAll(node.getParentLinks());
+                for (int i = parentCount[id]; i < parentCount[id + 1]; i++) {
+                    links.add(tree.getPerson(parentsByChild[i]));
+                }
+                node.setParentLinks(links);
+            }
+            if (childFill[id] > 0) {
+                FamilyTreeNode<Person> node = tree.getPerson(id);
+                List<FamilyTreeNode<Person>> links = new ArrayList<FamilyTreeNode<Person>>(
+                        node.getChildLinks().size() + childFill[id]);
+                links.addAll(node.getChildLinks());
+                for (int i = childCount[id]; i < childCount[id + 1]; i++) {
+                    links.add(tree.getPerson(childrenByParent[i]));
+                }
+                node.setChildLinks(links);
+            }
+        }
+        //and say which parent is the father and which the mother.
+        for (int i = 0; i < accepted.size; i++) {
+            FamilyTreeNode<Person> child = tree.getPerson(accepted.children[i]);
+            if (accepted.kinds[i] == FATHER) {
+                child.setFather(tree.getPerson(accepted.parents[i]));
+            } else {
+                child.setMother(tree.getPerson(accepted.parents[i]));
+            }
+        }
+        tree.rebuildIndexes();
+        tree.publishAll(touched, touchedCount);
+        for (int i = 0; i < accepted.size; i++) {
+            ChangeType type = ChangeType.MOTHER_LINKED;
+            if (accepted.kinds[i] == FATHER) {
+                type = ChangeType.FATHER_LINKED;
+            }
+            tree.getChangeFeed().publish(type, accepted.children[i], accepted.parents[i]);
+        }
+    }
+
+    /**
+     * Reads every line of a file.
+     *
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    static List<String> readLines(File file) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            reader.close();
+        }
+        return lines;
+    }
+
+    /**
+     * What happened during a load.
+     */
+    public static class Report {
+
+        public int fathersAdded;
+        public int mothersAdded;
+        //the lines that didn't make a link, either because one of the people
+        //isn't in the tree or because the link broke a rule.
+        public List<String> rejected = new ArrayList<String>();
+    }
+
+    /**
+     * The parsed and resolved form of lines[from, to).
+     */
+    private static class Chunk {
+
+        List<String> lines;
+        int from;
+        int[] children;
+        int[] parents;
+
+        Chunk(List<String> lines, int from, int to) {
+            this.lines = lines;
+            this.from = from;
+            this.children = new int[to - from];
+            this.parents = new int[to - from];
+        }
+    }
+
+    /**
+     * Stops the loader making anyone their own ancestor. makeLinkToFather()
+     * and makeLinkToMother() check that with the generations, but the loader
+     * only works those out once its links are in, so it goes about it the
+     * other way. Before any line is checked, every resolved line is grouped
+     * by parent, and everyone who can be put in topological order, counting
+     * the tree's links and all of the lines, is ruled out: nobody ruled out
+     * can be on a loop whichever of the lines are accepted. In a file without
+     * loops that's everyone, and there's nothing more to do. Otherwise a line
+     * between two people who weren't ruled out is only accepted if the parent
+     * can't be reached by going down from the child, through the tree's links
+     * and the lines accepted so far, which is exactly when makeLinkTo* would
+     * have made the link.
+     */
+    private class LoopCheck {
+
+        //the people who could be on a loop, or null if nobody could.
+        private boolean[] suspect;
+        //the accepted lines between suspects, as a linked list of children
+        //for each parent.
+        private int[] firstChild;
+        private int[] nextLine = new int[16];
+        private int[] lineChild = new int[16];
+        private int lines;
+        private VisitMarks marks = new VisitMarks();
+        private int[] toVisit = new int[16];
+
+        LoopCheck(List<Future<Chunk>> fatherChunks, List<Future<Chunk>> motherChunks, int size)
+                throws InterruptedException, ExecutionException {
+            int[] waitingFor = new int[size];
+            int[] byParent = new int[size + 1];
+            int[] childrenByParent = null;
+
+            //group the lines by parent: count, turn the counts into offsets,
+            //and fill.
+            for (int pass = 0; pass < 2; pass++) {
+                int[] fill = pass == 0 ? null : new int[size];
+                for (int kind = 0; kind < 2; kind++) {
+                    for (Future<Chunk> future : kind == FATHER ? fatherChunks : motherChunks) {
+                        Chunk chunk = future.get();
+                        for (int i = 0; i < chunk.children.length; i++) {
+                            int child = chunk.children[i];
+                            int parent = chunk.parents[i];
+                            if (child < 0) {
+                                continue;
+                            }
+                            if (pass == 0) {
+                                waitingFor[child]++;
+                                byParent[parent + 1]++;
+                            } else {
+                                childrenByParent[byParent[parent] + fill[parent]++] = child;
+                            }
+                        }
+                    }
+                }
+                if (pass == 0) {
+                    for (int id = 0; id < size; id++) {
+                        byParent[id + 1] += byParent[id];
+                    }
+                    childrenByParent = new int[byParent[size]];
+                }
+            }
+
+            //rule out everyone who can be put in topological order.
+            int[] queue = new int[size];
+            int head = 0;
+            int tail = 0;
+            for (int id = 0; id < size; id++) {
+                if (tree.getPerson(id) != null) {
+                    waitingFor[id] += tree.getPerson(id).parentLinkCount();
+                }
+                if (waitingFor[id] == 0) {
+                    queue[tail++] = id;
+                }
+            }
+            while (head < tail) {
+                int id = queue[head++];
+                FamilyTreeNode<Person> node = tree.getPerson(id);
+                for (int i = 0; node != null && i < node.childLinkCount(); i++) {
+                    if (--waitingFor[node.getChildLink(i).getId()] == 0) {
+                        queue[tail++] = node.getChildLink(i).getId();
+                    }
+                }
+                for (int i = byParent[id]; i < byParent[id + 1]; i++) {
+                    if (--waitingFor[childrenByParent[i]] == 0) {
+                        queue[tail++] = childrenByParent[i];
+                    }
+                }
+            }
+            if (tail == size) {
+                return;
+            }
+            suspect = new boolean[size];
+            firstChild = new int[size];
+            for (int id = 0; id < size; id++) {
+                suspect[id] = waitingFor[id] > 0;
+                firstChild[id] = -1;
+            }
+        }
+
+        /**
+         * Returns true if linking the child to the parent, on top of the
+         * lines accepted so far, would make the child their own ancestor.
+         */
+        boolean wouldLoop(int child, int parent) {
+            if (suspect == null || !suspect[child] || !suspect[parent]) {
+                return false;
+            }
+            //any loop the link closed would only go through suspects.
+            marks.begin(suspect.length);
+            marks.mark(child);
+            int count = 0;
+            toVisit[count++] = child;
+            while (count > 0) {
+                int id = toVisit[--count];
+                if (id == parent) {
+                    return true;
+                }
+                FamilyTreeNode<Person> node = tree.getPerson(id);
+                for (int i = 0; i < node.childLinkCount(); i++) {
+                    int below = node.getChildLink(i).getId();
+                    if (suspect[below] && marks.mark(below)) {
+                        count = push(count, below);
+                    }
+                }
+                for (int line = firstChild[id]; line != -1; line = nextLine[line]) {
+                    if (marks.mark(lineChild[line])) {
+                        count = push(count, lineChild[line]);
+                    }
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Remembers that the child has been linked to the parent.
+         */
+        void accepted(int child, int parent) {
+            if (suspect == null || !suspect[child] || !suspect[parent]) {
+                return;
+            }
+            if (lines == lineChild.length) {
+                nextLine = grow(nextLine);
+                lineChild = grow(lineChild);
+            }
+            lineChild[lines] = child;
+            nextLine[lines] = firstChild[parent];
+            firstChild[parent] = lines++;
+        }
+
+        private int push(int count, int id) {
+            if (count == toVisit.length) {
+                toVisit = grow(toVisit);
+            }
+            toVisit[count] = id;
+            return count + 1;
+        }
+
+        private int[] grow(int[] array) {
+            int[] grown = new int[array.length * 2];
+            System.arraycopy(array, 0, grown, 0, array.length);
+            return grown;
+        }
+    }
+
+    /**
+     * A growable list of (child, parent, kind) links, stored as parallel int
+     * arrays.
+     */
+    private static class LinkSet {
+
+        int[] children = new int[16];
+        int[] parents = new int[16];
+        int[] kinds = new int[16];
+        int size;
+
+        void add(int child, int parent, int kind) {
+            if (size == children.length) {
+                int[] c = new int[size * 2];
+                int[] p = new int[size * 2];
+                int[] k = new int[size * 2];
+                System.arraycopy(children, 0, c, 0, size);
+                System.arraycopy(parents, 0, p, 0, size);
+                System.arraycopy(kinds, 0, k, 0, size);
+                children = c;
+                parents = p;
+                kinds = k;
+            }
+            children[size] = child;
+            parents[size] = parent;
+            kinds[size] = kind;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,453 @@
+package familytree;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.regex.Pattern;
+
+/**
+ * Brings a tree up to date with new versions of person.txt, fathers.txt and
+ * mothers.txt, changing only what's different, instead of loading the new
+ * files into a brand new tree. Afterwards the tree's people and parent links
+ * are what a fresh load of the new files would give, as far as the tree can
+ * manage (see below), and partnerships and adoptions are left as they were.
+ *
+ * A reload happens in two steps. First the files are streamed a line at a
+ * time, and each line is checked against the tree through its index, so the
+ * tree itself is the "old" side of the diff and nothing has to be sorted.
+ * What's different is written down in a Diff, without changing the tree:
+ * <ol>
+ * <li>person.txt: the people who are new, and those whose birth place has
+ * changed. Anyone in the tree who isn't in the file any more is to be taken
+ * out of the tree, with all their links.</li>
+ * <li>fathers.txt and mothers.txt: the first usable line for each child says
+ * who their father (or mother) should be, by the same rules as
+ * FamilyTreeLoader. Only the children whose father or mother is different,
+ * and those who have one but aren't in the file any more, go in the Diff's
+ * map of changes.</li>
+ * </ol>
+ * Then, if all three files were read, the Diff is applied: the changed
+ * children are unlinked from their old parents and linked to their new ones,
+ * only the parents who lost a child have their flags worked out again, and
+ * everything that changed is published to snapshots and the change feed in
+ * one go. If a file can't be read, the tree isn't changed at all.
+ *
+ * Reading the files is a pass over every line, but that's cheap next to
+ * building the tree. Apart from that, the work is for the people and links
+ * the files name, and for the people missing from them, who are found with
+ * a bit per person rather than by visiting everyone; so a small change to
+ * the files is a small change to the tree. (Without person.txt, finding the
+ * children who have lost their father or mother does need a look at
+ * everyone.)
+ *
+ * Taking people out also takes away their partnerships, which aren't in the
+ * files, so that a reload leaves nobody married to someone who isn't there.
+ *
+ * @author Andrew Brown
+ */
+public class FamilyTreeReloader {
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    //in a Diff's changes: the child's father (or mother) stays as it is.
+    private static final int UNCHANGED = -2;
+    private static final int FATHER = 0;
+    private static final int MOTHER = 1;
+
+    private FamilyTree tree;
+
+    /**
+     * Create a reloader for the given tree.
+     *
+     * @param tree
+     */
+    public FamilyTreeReloader(FamilyTree tree) {
+        this.tree = tree;
+    }
+
+    /**
+     * Brings the tree up to date with the given files. Any of them can be
+     * null, in which case that part of the tree is left alone. Returns a
+     * report saying what changed.
+     *
+     * @param people
+     * @param fathers
+     * @param mothers
+     * @return
+     * @throws IOException if one of the files can't be read, in which case
+     * the tree is left as it was.
+     */
+    public Report reload(File people, File fathers, File mothers) throws IOException {
+        Report report = new Report();
+
+        synchronized (tree) {
+            Diff diff = new Diff(tree.size());
+            if (people != null) {
+                readPeople(people, diff, report);
+            } else {
+                diff.keepEveryone(tree);
+            }
+            if (fathers != null) {
+                readLinks(fathers, diff, FATHER, report);
+            }
+            if (mothers != null) {
+                readLinks(mothers, diff, MOTHER, report);
+            }
+            apply(diff, report);
+        }
+        return report;
+    }
+
+    /**
+     * Notes down the people in the file who aren't in the tree yet, and
+     * those whose details have changed. Marks everyone in the file who is in
+     * the tree in the diff's 'kept', and notes which of them have a father or
+     * mother now.
+     */
+    private void readPeople(File file, Diff diff, Report report) throws IOException {
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] tokens = WHITESPACE.split(line.trim());
+                if (tokens.length < 3) {
+                    continue;
+                }
+                FamilyTreeNode<Person> node = tree.getPerson(tokens[0], tokens[1]);
+                if (node == null) {
+                    PersonKey key = FamilyTree.personKey(tokens[0], tokens[1]);
+                    //only the first line for each person counts, as in a
+                    //fresh load.
+                    if (!diff.addedIds.containsKey(key)) {
+                        diff.addedIds.put(key, diff.before + diff.added.size());
+                        diff.added.add(new Person(tokens[0], tokens[1], tokens[2]));
+                    }
+                    continue;
+                }
+                if (diff.kept.get(node.getId())) {
+                    continue;
+                }
+                diff.kept.set(node.getId());
+                if (node.getFather() != null) {
+                    diff.hadParent[FATHER].set(node.getId());
+                }
+                if (node.getMother() != null) {
+                    diff.hadParent[MOTHER].set(node.getId());
+                }
+                if (!tokens[2].equals(node.getItem().getBirthPlace())) {
+                    diff.moved.add(node);
+                    diff.birthPlaces.add(tokens[2]);
+                }
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Works out who each child's father (or mother) should be from a links
+     * file: the first line for the child where both people are staying in
+     * the tree (or being added to it), and the parent isn't the child or,
+     * for a mother, their father. Notes down every child whose parent is different
+     * from the one they have now, and every child who has one now and isn't
+     * in the file.
+     *
+     * @param file
+     * @param diff
+     * @param side FATHER or MOTHER
+     * @param report
+     */
+    private void readLinks(File file, Diff diff, int side, Report report) throws IOException {
+        BitSet named = new BitSet();
+        BufferedReader reader = new BufferedReader(new FileReader(file));
+
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] tokens = WHITESPACE.split(line.trim());
+                if (tokens.length == 1 && tokens[0].length() == 0) {
+                    continue;
+                }
+                int child = -1;
+                int parent = -1;
+                if (tokens.length >= 4) {
+                    child = diff.idOf(tree, tokens[0], tokens[1]);
+                    parent = diff.idOf(tree, tokens[2], tokens[3]);
+                }
+                if (child == -1 || parent == -1 || child == parent || named.get(child)
+                        || (side == MOTHER && diff.parentOf(tree, child, FATHER) == parent)) {
+                    report.rejected.add(line);
+                    continue;
+                }
+                named.set(child);
+                if (diff.parentOf(tree, child, side) != parent) {
+                    diff.change(child)[side] = parent;
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        BitSet had = diff.hadParent[side];
+        for (int id = had.nextSetBit(0); id >= 0; id = had.nextSetBit(id + 1)) {
+            if (!named.get(id)) {
+                diff.change(id)[side] = -1;
+            }
+        }
+    }
+
+    /**
+     * Makes the changes the diff says to, and publishes them. If something
+     * goes wrong part way, whatever had been done is still published, so that
+     * snapshots and subscribers agree with the tree.
+     */
+    private void apply(Diff diff, Report report) {
+        int before = diff.before;
+        List<FamilyTreeNode<Person>> changed = new ArrayList<FamilyTreeNode<Person>>();
+        List<Integer> removed = new ArrayList<Integer>();
+        List<int[]> removedLinks = new ArrayList<int[]>();
+        List<FamilyTreeNode<Person>> unlinked = new ArrayList<FamilyTreeNode<Person>>();
+        List<FamilyTreeNode<Person>> formerParents = new ArrayList<FamilyTreeNode<Person>>();
+        List<ChangeType> unlinkTypes = new ArrayList<ChangeType>();
+        List<FamilyTreeNode<Person>> linked = new ArrayList<FamilyTreeNode<Person>>();
+        List<FamilyTreeNode<Person>> newParents = new ArrayList<FamilyTreeNode<Person>>();
+        List<ChangeType> linkTypes = new ArrayList<ChangeType>();
+
+        try {
+            for (Person person : diff.added) {
+                tree.insertPerson(person);
+                report.peopleAdded++;
+            }
+            for (int i = 0; i < diff.moved.size(); i++) {
+                diff.moved.get(i).getItem().setBirthPlace(diff.birthPlaces.get(i));
+                changed.add(diff.moved.get(i));
+                report.peopleChanged++;
+            }
+            //take out everyone who has gone before linking, so nobody is
+            //linked to them on the way.
+            for (int id = diff.kept.nextClearBit(0); id < before; id = diff.kept.nextClearBit(id + 1)) {
+                FamilyTreeNode<Person> gone = tree.getPerson(id);
+                if (gone != null) {
+                    report.missing.add(gone.getItem().getName() + " " + gone.getItem().getDateOfBirth());
+                    removed.add(id);
+                    removedLinks.add(tree.remove(gone));
+                }
+            }
+
+            //unlink everyone whose father or mother has changed, then link
+            //them up again, so nobody is linked to the same person twice on
+            //the way.
+            for (Map.Entry<Integer, int[]> entry : diff.changes.entrySet()) {
+                FamilyTreeNode<Person> child = tree.getPerson(entry.getKey());
+                int[] parents = entry.getValue();
+                FamilyTreeNode<Person> father = child.getFather();
+                FamilyTreeNode<Person> mother = child.getMother();
+                if (parents[FATHER] != UNCHANGED && father != null && father.getId() != parents[FATHER]) {
+                    tree.unlinkParent(child, father);
+                    unlinked.add(child);
+                    formerParents.add(father);
+                    unlinkTypes.add(ChangeType.FATHER_UNLINKED);
+                    report.fathersRemoved++;
+                }
+                if (parents[MOTHER] != UNCHANGED && mother != null && mother.getId() != parents[MOTHER]) {
+                    tree.unlinkParent(child, mother);
+                    unlinked.add(child);
+                    formerParents.add(mother);
+                    unlinkTypes.add(ChangeType.MOTHER_UNLINKED);
+                    report.mothersRemoved++;
+                }
+            }
+            for (Map.Entry<Integer, int[]> entry : diff.changes.entrySet()) {
+                FamilyTreeNode<Person> child = tree.getPerson(entry.getKey());
+                int[] parents = entry.getValue();
+                if (parents[FATHER] >= 0 && child.getFather() == null) {
+                    FamilyTreeNode<Person> father = tree.getPerson(parents[FATHER]);
+                    if (tree.linkToFather(child, father)) {
+                        linked.add(child);
+                        newParents.add(father);
+                        linkTypes.add(ChangeType.FATHER_LINKED);
+                        report.fathersAdded++;
+                    } else {
+                        report.rejected.add(line(child, father));
+                    }
+                }
+                if (parents[MOTHER] >= 0 && child.getMother() == null) {
+                    FamilyTreeNode<Person> mother = tree.getPerson(parents[MOTHER]);
+                    if (tree.linkToMother(child, mother)) {
+                        linked.add(child);
+                        newParents.add(mother);
+                        linkTypes.add(ChangeType.MOTHER_LINKED);
+                        report.mothersAdded++;
+                    } else {
+                        report.rejected.add(line(child, mother));
+                    }
+                }
+            }
+            for (FamilyTreeNode<Person> parent : formerParents) {
+                FamilyTree.resetParentFlags(parent);
+            }
+        } finally {
+            //publish everything that changed, and say what it was.
+            int removedCount = 0;
+            for (int[] ids : removedLinks) {
+                removedCount += ids.length;
+            }
+            int[] touched = new int[removedCount + changed.size() + 2 * unlinked.size() + 2 * linked.size()];
+            int count = 0;
+            for (int[] ids : removedLinks) {
+                System.arraycopy(ids, 0, touched, count, ids.length);
+                count += ids.length;
+            }
+            for (FamilyTreeNode<Person> node : changed) {
+                touched[count++] = node.getId();
+            }
+            for (int i = 0; i < unlinked.size(); i++) {
+                touched[count++] = unlinked.get(i).getId();
+                touched[count++] = formerParents.get(i).getId();
+            }
+            for (int i = 0; i < linked.size(); i++) {
+                touched[count++] = linked.get(i).getId();
+                touched[count++] = newParents.get(i).getId();
+            }
+            tree.publishAll(touched, count);
+
+            ChangeFeed changes = tree.getChangeFeed();
+            for (int id = before; id < tree.size(); id++) {
+                changes.publish(ChangeType.PERSON_ADDED, id, -1);
+            }
+            for (int i = 0; i < removed.size(); i++) {
+                int[] ids = removedLinks.get(i);
+                changes.publish(ChangeType.PERSON_REMOVED, removed.get(i), -1);
+                for (int j = 1; j < ids.length; j++) {
+                    changes.publish(ChangeType.PERSON_CHANGED, ids[j], -1);
+                }
+            }
+            for (FamilyTreeNode<Person> node : changed) {
+                changes.publish(ChangeType.PERSON_CHANGED, node.getId(), -1);
+            }
+            for (int i = 0; i < unlinked.size(); i++) {
+                changes.publish(unlinkTypes.get(i), unlinked.get(i).getId(), formerParents.get(i).getId());
+            }
+            for (int i = 0; i < linked.size(); i++) {
+                changes.publish(linkTypes.get(i), linked.get(i).getId(), newParents.get(i).getId());
+            }
+        }
+    }
+
+    private static String line(FamilyTreeNode<Person> child, FamilyTreeNode<Person> parent) {
+        return child.getItem().getName() + " " + child.getItem().getDateOfBirth() + " "
+                + parent.getItem().getName() + " " + parent.getItem().getDateOfBirth();
+    }
+
+    /**
+     * What a reload is going to change, worked out from the files before the
+     * tree is touched. People who are being added are given the ids they'll
+     * have once they're added, which carry on from the tree's size.
+     */
+    private static class Diff {
+
+        //the tree's size() before the reload.
+        int before;
+        //the people in the tree who are also in person.txt.
+        BitSet kept = new BitSet();
+        //the new people, in file order, and their ids by key.
+        List<Person> added = new ArrayList<Person>();
+        Map<PersonKey, Integer> addedIds = new HashMap<PersonKey, Integer>();
+        //the people whose birth place has changed, and what to.
+        List<FamilyTreeNode<Person>> moved = new ArrayList<FamilyTreeNode<Person>>();
+        List<String> birthPlaces = new ArrayList<String>();
+        //the kept people who have a father, and those who have a mother.
+        BitSet[] hadParent = {new BitSet(), new BitSet()};
+        //each child whose parents change: their new father and mother, by
+        //id, -1 for none, or UNCHANGED. In id order, as a fresh load links.
+        SortedMap<Integer, int[]> changes = new TreeMap<Integer, int[]>();
+
+        Diff(int before) {
+            this.before = before;
+        }
+
+        /**
+         * Without person.txt, everyone stays, so everyone with a father or
+         * mother has to be looked at.
+         */
+        void keepEveryone(FamilyTree tree) {
+            kept.set(0, before);
+            for (int id = 0; id < before; id++) {
+                FamilyTreeNode<Person> node = tree.getPerson(id);
+                if (node != null && node.getFather() != null) {
+                    hadParent[FATHER].set(id);
+                }
+                if (node != null && node.getMother() != null) {
+                    hadParent[MOTHER].set(id);
+                }
+            }
+        }
+
+        /**
+         * Returns the id of the person, if they're staying in the tree or
+         * being added to it, or -1.
+         */
+        int idOf(FamilyTree tree, String name, String dob) {
+            FamilyTreeNode<Person> node = tree.getPerson(name, dob);
+            if (node != null) {
+                return kept.get(node.getId()) ? node.getId() : -1;
+            }
+            Integer id = addedIds.get(FamilyTree.personKey(name, dob));
+            return id == null ? -1 : id;
+        }
+
+        /**
+         * Returns the id of the child's father (or mother) as things stand
+         * in the diff so far, or -1 if they haven't got one.
+         */
+        int parentOf(FamilyTree tree, int child, int side) {
+            int[] parents = changes.get(child);
+            if (parents != null && parents[side] != UNCHANGED) {
+                return parents[side];
+            }
+            if (child >= before) {
+                return -1;
+            }
+            FamilyTreeNode<Person> node = tree.getPerson(child);
+            FamilyTreeNode<Person> parent = side == FATHER ? node.getFather() : node.getMother();
+            return parent == null ? -1 : parent.getId();
+        }
+
+        /**
+         * Returns the child's entry in the changes, making it if need be.
+         */
+        int[] change(int child) {
+            int[] parents = changes.get(child);
+            if (parents == null) {
+                parents = new int[] {UNCHANGED, UNCHANGED};
+                changes.put(child, parents);
+            }
+            return parents;
+        }
+    }
+
+    /**
+     * What changed during a reload.
+     */
+    public static class Report {
+
+        public int peopleAdded;
+        public int peopleChanged;
+        public int fathersAdded;
+        public int mothersAdded;
+        public int fathersRemoved;
+        public int mothersRemoved;
+        //"name dob" of everyone who has been taken out of the tree, because
+        //they aren't in person.txt any more.
+        public List<String> missing = new ArrayList<String>();
+        //the link lines that didn't make a link.
+        public List<String> rejected = new ArrayList<String>();
+    }
+}
@@ -0,0 +1,445 @@
+package familytree;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.BitSet;
+
+/**
+ * Writes part of the tree out as a graph for drawing, in Graphviz's DOT
+ * language or as GraphML. It can write either of these:
+ * <ul>
+ * <li>a person's neighbourhood: their ancestors up to so many generations
+ * above them, their descendants down to so many generations below them, and
+ * the partners of all of those;</li>
+ * <li>a person's whole component: everyone they're connected to at all,
+ * through any number of parent, child and partner links.</li>
+ * </ul>
+ * Each person is a node, each parent link is an edge from the parent to the
+ * child (labelled father, mother or parent), and each partner link is an
+ * undirected edge.
+ *
+ * People are written as they're reached, breadth first. Each link is written
+ * as soon as the people at both ends have been, so it's only written once.
+ * Everything goes straight out to the stream through a small buffer, and
+ * nothing is kept for the document itself. The only memory used is a couple
+ * of bits per person in the tree, to say who has been reached and written,
+ * and the ids of the people exported. That makes an export of millions of
+ * links cheap. To write to a channel, wrap it with Channels.newOutputStream().
+ *
+ * Like ColumnarExporter, it works from a snapshot, so it sees the tree as it
+ * was when it started, without locking it, however long it takes. Only
+ * current partners are linked, as in the side links.
+ *
+ * @author Andrew Brown
+ */
+public class GraphExporter {
+
+    /**
+     * The languages a graph can be written in.
+     */
+    public enum Format {
+
+        DOT,
+        GRAPHML
+    }
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private FamilyTree tree;
+    private Format format;
+
+    /**
+     * Create an exporter for the given tree that writes graphs in the given
+     * format.
+     *
+     * @param tree
+     * @param format
+     */
+    public GraphExporter(FamilyTree tree, Format format) {
+        this.tree = tree;
+        this.format = format;
+    }
+
+    /**
+     * Writes the person's ancestors up to 'up' generations above them, their
+     * descendants down to 'down' generations below them, and the partners of
+     * all of them, to a file. Returns the number of people written, or 0 if
+     * the person isn't in the tree, in which case nothing is written.
+     *
+     * @param personName
+     * @param aDOB
+     * @param up
+     * @param down
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public int exportNeighbourhood(String personName, String aDOB, int up, int down, File file)
+            throws IOException {
+        OutputStream out = new FileOutputStream(file);
+
+        try {
+            return exportNeighbourhood(personName, aDOB, up, down, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * exportNeighbourhood() to a stream, which is flushed and left open.
+     *
+     * @param personName
+     * @param aDOB
+     * @param up
+     * @param down
+     * @param stream
+     * @return
+     * @throws IOException
+     */
+    public int exportNeighbourhood(String personName, String aDOB, int up, int down, OutputStream stream)
+            throws IOException {
+        if (up < 0 || down < 0) {
+            throw new IllegalArgumentException("The number of generations can't be negative.");
+        }
+        FamilyTreeSnapshot snapshot = tree.snapshot();
+        int root = snapshot.find(personName, aDOB);
+
+        if (root == -1) {
+            return 0;
+        }
+        Walk walk = new Walk(snapshot, syntax(stream));
+        walk.syntax.begin();
+        //the ancestors, a generation at a time, then the descendants.
+        walk.reach(root, 0);
+        walk.spread(0, true, false, false, up);
+        int from = walk.count;
+        if (down > 0) {
+            for (int child : snapshot.childIds(root)) {
+                walk.reach(child, 1);
+            }
+        }
+        walk.spread(from, false, true, false, down);
+        //and everyone's partners, without going any further.
+        from = walk.count;
+        for (int i = 0; i < from; i++) {
+            for (int partner : snapshot.partnerIds(walk.ids[i])) {
+                walk.reach(partner, 0);
+            }
+        }
+        walk.spread(from, false, false, false, 0);
+        walk.syntax.end();
+        return walk.count;
+    }
+
+    /**
+     * Writes everyone the person is connected to through parent, child and
+     * partner links, including the person, to a file. Returns the number of
+     * people written, or 0 if the person isn't in the tree, in which case
+     * nothing is written.
+     *
+     * @param personName
+     * @param aDOB
+     * @param file
+     * @return
+     * @throws IOException
+     */
+    public int exportComponent(String personName, String aDOB, File file) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+
+        try {
+            return exportComponent(personName, aDOB, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * exportComponent() to a stream, which is flushed and left open.
+     *
+     * @param personName
+     * @param aDOB
+     * @param stream
+     * @return
+     * @throws IOException
+     */
+    public int exportComponent(String personName, String aDOB, OutputStream stream) throws IOException {
+        FamilyTreeSnapshot snapshot = tree.snapshot();
+        int root = snapshot.find(personName, aDOB);
+
+        if (root == -1) {
+            return 0;
+        }
+        Walk walk = new Walk(snapshot, syntax(stream));
+        walk.syntax.begin();
+        walk.reach(root, 0);
+        walk.spread(0, true, true, true, Integer.MAX_VALUE);
+        walk.syntax.end();
+        return walk.count;
+    }
+
+    private Syntax syntax(OutputStream stream) throws IOException {
+        Writer out = new BufferedWriter(new OutputStreamWriter(stream, "UTF-8"), BUFFER_SIZE);
+
+        if (format == Format.DOT) {
+            return new Dot(out);
+        }
+        return new GraphMl(out);
+    }
+
+    /**
+     * One export: who has been reached, in the order they were reached, and
+     * who has been written.
+     */
+    private static class Walk {
+
+        FamilyTreeSnapshot snapshot;
+        Syntax syntax;
+        BitSet reached;
+        BitSet written;
+        int[] ids = new int[64];
+        int[] depths = new int[64];
+        int count;
+
+        Walk(FamilyTreeSnapshot snapshot, Syntax syntax) {
+            this.snapshot = snapshot;
+            this.syntax = syntax;
+            this.reached = new BitSet(snapshot.size());
+            this.written = new BitSet(snapshot.size());
+        }
+
+        //adds the person to the end of the queue, unless they've been
+        //reached already.
+        void reach(int id, int depth) {
+            if (reached.get(id)) {
+                return;
+            }
+            reached.set(id);
+            if (count == ids.length) {
+                ids = grow(ids);
+                depths = grow(depths);
+            }
+            ids[count] = id;
+            depths[count] = depth;
+            count++;
+        }
+
+        //writes everyone in the queue from 'from' on, reaching the parents,
+        //children or partners of those less than 'limit' steps away as it
+        //goes.
+        void spread(int from, boolean parents, boolean children, boolean partners, int limit)
+                throws IOException {
+            for (int i = from; i < count; i++) {
+                int id = ids[i];
+                write(id);
+                if (depths[i] >= limit) {
+                    continue;
+                }
+                if (parents) {
+                    for (int parent : snapshot.parentIds(id)) {
+                        reach(parent, depths[i] + 1);
+                    }
+                }
+                if (children) {
+                    for (int child : snapshot.childIds(id)) {
+                        reach(child, depths[i] + 1);
+                    }
+                }
+                if (partners) {
+                    for (int partner : snapshot.partnerIds(id)) {
+                        reach(partner, depths[i] + 1);
+                    }
+                }
+            }
+        }
+
+        //writes the person, and their links to everyone written before them.
+        private void write(int id) throws IOException {
+            syntax.node(id, snapshot.getPerson(id));
+            written.set(id);
+            for (int parent : snapshot.parentIds(id)) {
+                if (written.get(parent)) {
+                    syntax.edge(parent, id, role(parent, id));
+                }
+            }
+            for (int child : snapshot.childIds(id)) {
+                if (written.get(child)) {
+                    syntax.edge(id, child, role(id, child));
+                }
+            }
+            for (int partner : snapshot.partnerIds(id)) {
+                if (written.get(partner)) {
+                    syntax.partners(partner, id);
+                }
+            }
+        }
+
+        private String role(int parent, int child) {
+            if (snapshot.getFather(child) == parent) {
+                return "father";
+            } else if (snapshot.getMother(child) == parent) {
+                return "mother";
+            }
+            return "parent";
+        }
+
+        private static int[] grow(int[] array) {
+            int[] grown = new int[array.length * 2];
+            System.arraycopy(array, 0, grown, 0, array.length);
+            return grown;
+        }
+    }
+
+    /**
+     * How a graph is written down.
+     */
+    private abstract static class Syntax {
+
+        Writer out;
+
+        Syntax(Writer out) {
+            this.out = out;
+        }
+
+        abstract void begin() throws IOException;
+
+        abstract void node(int id, Person person) throws IOException;
+
+        //a parent link, from the parent to the child.
+        abstract void edge(int parent, int child, String role) throws IOException;
+
+        abstract void partners(int partner1, int partner2) throws IOException;
+
+        abstract void close() throws IOException;
+
+        //finishes the document, and flushes it out to the stream.
+        void end() throws IOException {
+            close();
+            out.flush();
+        }
+    }
+
+    /**
+     * Graphviz's DOT language. People are boxes labelled with their name and
+     * date of birth.
+     */
+    private static class Dot extends Syntax {
+
+        Dot(Writer out) {
+            super(out);
+        }
+
+        void begin() throws IOException {
+            out.write("digraph family {\n  node [shape=box];\n");
+        }
+
+        void node(int id, Person person) throws IOException {
+            out.write("  n" + id + " [label=\"");
+            quote(person.getName());
+            out.write("\\n");
+            quote(person.getDateOfBirth());
+            out.write("\"];\n");
+        }
+
+        void edge(int parent, int child, String role) throws IOException {
+            out.write("  n" + parent + " -> n" + child + " [label=\"" + role + "\"];\n");
+        }
+
+        void partners(int partner1, int partner2) throws IOException {
+            out.write("  n" + partner1 + " -> n" + partner2 + " [dir=none, style=dashed];\n");
+        }
+
+        void close() throws IOException {
+            out.write("}\n");
+        }
+
+        //writes the text as the inside of a DOT string.
+        private void quote(String text) throws IOException {
+            if (text == null) {
+                return;
+            }
+            for (int i = 0; i < text.length(); i++) {
+                char c = text.charAt(i);
+                if (c == '"' || c == '\\') {
+                    out.write('\\');
+                    out.write(c);
+                } else if (c == '\n') {
+                    out.write("\\n");
+                } else {
+                    out.write(c);
+                }
+            }
+        }
+    }
+
+    /**
+     * GraphML. People have name, dob and place data, and links have a role:
+     * father, mother, parent or partner.
+     */
+    private static class GraphMl extends Syntax {
+
+        GraphMl(Writer out) {
+            super(out);
+        }
+
+        void begin() throws IOException {
+            out.write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                    + "<graphml xmlns=\"http://graphml.graphdrawing.org/xmlns\">\n"
+                    + "  <key id=\"name\" for=\"node\" attr.name=\"name\" attr.type=\"string\"/>\n"
+                    + "  <key id=\"dob\" for=\"node\" attr.name=\"dob\" attr.type=\"string\"/>\n"
+                    + "  <key id=\"place\" for=\"node\" attr.name=\"place\" attr.type=\"string\"/>\n"
+                    + "  <key id=\"role\" for=\"edge\" attr.name=\"role\" attr.type=\"string\"/>\n"
+                    + "  <graph id=\"family\" edgedefault=\"directed\">\n");
+        }
+
+        void node(int id, Person person) throws IOException {
+            out.write("    <node id=\"n" + id + "\">");
+            data("name", person.getName());
+            data("dob", person.getDateOfBirth());
+            data("place", person.getBirthPlace());
+            out.write("</node>\n");
+        }
+
+        void edge(int parent, int child, String role) throws IOException {
+            out.write("    <edge source=\"n" + parent + "\" target=\"n" + child + "\">");
+            data("role", role);
+            out.write("</edge>\n");
+        }
+
+        void partners(int partner1, int partner2) throws IOException {
+            out.write("    <edge source=\"n" + partner1 + "\" target=\"n" + partner2 + "\" directed=\"false\">");
+            data("role", "partner");
+            out.write("</edge>\n");
+        }
+
+        void close() throws IOException {
+            out.write("  </graph>\n</graphml>\n");
+        }
+
+        private void data(String key, String value) throws IOException {
+            if (value == null) {
+                return;
+            }
+            out.write("<data key=\"" + key + "\">");
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '&') {
+                    out.write("&amp;");
+                } else if (c == '<') {
+                    out.write("&lt;");
+                } else if (c == '>') {
+                    out.write("&gt;");
+                } else if (c == '"') {
+                    out.write("&quot;");
+                } else {
+                    out.write(c);
+                }
+            }
+            out.write("</data>");
+        }
+    }
+}